@@ -170,7 +170,13 @@ public class BinaryObjectLogger {
     }
 
     public class TypedBinaryLogger<D> {
+        /**
+         * larger row buffers are not kept by the thread
+         */
+        private static final int MAX_REUSED_BUFFER = 1024 * 1024;
+
         private final Template<D, byte[], FastByteArrayOutputStream, TemplateAccumulatorBinary> renderer;
+        private final ThreadLocal<TemplateAccumulatorBinary> accumulator = ThreadLocal.withInitial( TemplateAccumulatorBinary::new );
         public final String[] headers;
         public final byte[][] types;
 
@@ -182,8 +188,14 @@ public class BinaryObjectLogger {
         }
 
         public void log( D data, String filePreffix, Map<String, String> properties, String logType ) {
-            byte[] bytes = renderer.render( data, true ).getBytes();
-            backend.log( CURRENT_PROTOCOL_VERSION, Inet.HOSTNAME, filePreffix, properties, logType, headers, types, bytes );
+            TemplateAccumulatorBinary acc = accumulator.get();
+            acc.reset();
+            renderer.renderTo( data, true, acc );
+
+            // backends copy the row, so the buffer is reused by the next row of the thread
+            backend.log( CURRENT_PROTOCOL_VERSION, Inet.HOSTNAME, filePreffix, properties, logType, headers, types, acc.array(), 0, acc.length() );
+
+            if( acc.array().length > MAX_REUSED_BUFFER ) accumulator.remove();
         }
     }
 }
@@ -24,6 +24,7 @@
 
 package oap.logstream.net.client;
 
+import com.github.luben.zstd.ZstdDictCompress;
 import io.micrometer.core.instrument.Metrics;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
@@ -36,15 +37,23 @@ import oap.logstream.LogId;
 import oap.logstream.LogStreamProtocol.ProtocolVersion;
 import oap.logstream.net.BufferConfigurationMap;
 import oap.logstream.net.Buffers;
+import oap.logstream.net.LogStreamBatch;
 import oap.message.client.MessageAvailabilityReport;
 import oap.message.client.MessageSender;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import static oap.logstream.AvailabilityReport.State.FAILED;
 import static oap.logstream.AvailabilityReport.State.OPERATIONAL;
+import static oap.logstream.LogStreamProtocol.BATCH_VERSION;
 import static oap.logstream.LogStreamProtocol.MESSAGE_TYPE;
 import static oap.util.Dates.durationToString;
 
@@ -59,6 +68,17 @@ public class SocketLoggerBackend extends AbstractLoggerBackend {
     private final Scheduled scheduled;
     private final Buffers buffers;
     public int maxBuffers = 5000;
+    /**
+     * &gt; 0 - ready buffers of the same log type are sent as one {@link LogStreamBatch} message of up to about batchSize bytes
+     */
+    public int batchSize = 0;
+    public LogStreamBatch.Compression compression = LogStreamBatch.Compression.NONE;
+    public int compressionLevel = 3;
+    /**
+     * log type -&gt; zstd dictionary, the server has to be configured with the same dictionaries
+     */
+    public Map<String, Path> dictionaries = Map.of();
+    private final ConcurrentHashMap<String, Optional<ZstdDictCompress>> zstdDictionaries = new ConcurrentHashMap<>();
     private volatile boolean closed = false;
 
     public SocketLoggerBackend( MessageSender sender, int bufferSize, long flushInterval ) {
@@ -66,10 +86,17 @@ public class SocketLoggerBackend extends AbstractLoggerBackend {
     }
 
     public SocketLoggerBackend( MessageSender sender, BufferConfigurationMap configurations, long flushInterval ) {
-        log.info( "flushInterval = {}", durationToString( flushInterval ) );
+        this( sender, configurations, flushInterval, 0 );
+    }
+
+    /**
+     * @param bufferStripes see {@link Buffers#Buffers(BufferConfigurationMap, int)}
+     */
+    public SocketLoggerBackend( MessageSender sender, BufferConfigurationMap configurations, long flushInterval, int bufferStripes ) {
+        log.info( "flushInterval = {}, bufferStripes = {}", durationToString( flushInterval ), bufferStripes );
 
         this.sender = sender;
-        this.buffers = new Buffers( configurations );
+        this.buffers = new Buffers( configurations, bufferStripes );
         this.scheduled = flushInterval > 0
             ? Scheduler.scheduleWithFixedDelay( flushInterval, TimeUnit.MILLISECONDS, this::sendAsync )
             : null;
@@ -94,7 +121,8 @@ public class SocketLoggerBackend extends AbstractLoggerBackend {
 
     private boolean sendAsync( boolean shutdown ) {
         if( shutdown || !closed ) {
-            buffers.forEachReadyData( b -> {
+            if( batchSize > 0 ) sendBatches();
+            else buffers.forEachReadyData( b -> {
                 log.trace( "Sending {}", b );
                 sender.send( MESSAGE_TYPE, ( short ) b.protocolVersion.version, b.data(), 0, b.length() );
             } );
@@ -105,6 +133,40 @@ public class SocketLoggerBackend extends AbstractLoggerBackend {
         return false;
     }
 
+    private void sendBatches() {
+        var batches = new HashMap<String, LogStreamBatch.Writer>();
+
+        buffers.forEachReadyData( b -> {
+            var batch = batches.computeIfAbsent( b.id.logType, LogStreamBatch.Writer::new );
+            batch.add( b );
+            if( batch.size() >= batchSize ) send( batch );
+        } );
+
+        batches.values().forEach( batch -> {
+            if( !batch.isEmpty() ) send( batch );
+        } );
+    }
+
+    private void send( LogStreamBatch.Writer batch ) {
+        log.trace( "Sending batch {} size {}", batch.logType, batch.size() );
+
+        var dictionary = compression == LogStreamBatch.Compression.ZSTD ? zstdDictionary( batch.logType ) : null;
+        var data = batch.encode( compression, compressionLevel, dictionary );
+        sender.send( MESSAGE_TYPE, BATCH_VERSION, data, 0, data.length );
+
+        batch.reset();
+    }
+
+    private ZstdDictCompress zstdDictionary( String logType ) {
+        return zstdDictionaries.computeIfAbsent( logType, lt -> Optional.ofNullable( dictionaries.get( lt ) ).map( path -> {
+            try {
+                return new ZstdDictCompress( Files.readAllBytes( path ), compressionLevel );
+            } catch( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        } ) ).orElse( null );
+    }
+
     @Override
     public void log( ProtocolVersion version, String hostName, String filePreffix, Map<String, String> properties, String logType,
                      String[] headers, byte[][] types, byte[] buffer, int offset, int length ) {
@@ -117,6 +179,7 @@ public class SocketLoggerBackend extends AbstractLoggerBackend {
         Scheduled.cancel( scheduled );
         Closeables.close( buffers );
         sendAsync( true );
+        zstdDictionaries.values().forEach( d -> d.ifPresent( Closeables::close ) );
     }
 
     @Override
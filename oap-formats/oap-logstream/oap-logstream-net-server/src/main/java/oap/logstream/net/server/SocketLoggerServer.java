@@ -23,12 +23,14 @@
  */
 package oap.logstream.net.server;
 
+import com.github.luben.zstd.ZstdDictDecompress;
 import lombok.extern.slf4j.Slf4j;
 import oap.io.content.ContentReader;
 import oap.logstream.AbstractLoggerBackend;
 import oap.logstream.LogStreamProtocol;
 import oap.logstream.LogStreamProtocol.ProtocolVersion;
 import oap.logstream.LoggerException;
+import oap.logstream.net.LogStreamBatch;
 import oap.message.server.MessageListener;
 import oap.template.BinaryUtils;
 import oap.tsv.Tsv;
@@ -38,16 +40,28 @@ import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
+import static oap.logstream.LogStreamProtocol.BATCH_VERSION;
 import static oap.logstream.LogStreamProtocol.MESSAGE_TYPE;
 
 @Slf4j
 public class SocketLoggerServer implements MessageListener, Closeable {
     private final AbstractLoggerBackend backend;
+    /**
+     * log type -&gt; zstd dictionary used by the clients for {@link LogStreamBatch}
+     */
+    public Map<String, Path> dictionaries = Map.of();
+    private final ConcurrentHashMap<String, Optional<ZstdDictDecompress>> zstdDictionaries = new ConcurrentHashMap<>();
 
     public SocketLoggerServer( AbstractLoggerBackend backend ) {
         this.backend = backend;
@@ -70,7 +84,14 @@ public class SocketLoggerServer implements MessageListener, Closeable {
         }
         try( var in = new DataInputStream( new ByteArrayInputStream( data ) ) ) {
             switch( protocolVersion ) {
-                case 1, 2 -> readBinaryV2( ProtocolVersion.valueOf( protocolVersion ), hostName, in );
+                case 1, 2 -> readBinaryV2( ProtocolVersion.valueOf( protocolVersion ), hostName, in ).log( backend );
+                case BATCH_VERSION -> {
+                    // all or nothing, the client resends the whole batch on error
+                    var buffers = new ArrayList<LogBuffer>();
+                    LogStreamBatch.read( data, size, this::zstdDictionary,
+                        ( version, bufferIn ) -> buffers.add( readBinaryV2( version, hostName, bufferIn ) ) );
+                    for( var buffer : buffers ) buffer.log( backend );
+                }
                 default -> {
                     return LogStreamProtocol.INVALID_VERSION;
                 }
@@ -89,7 +110,7 @@ public class SocketLoggerServer implements MessageListener, Closeable {
         return LogStreamProtocol.STATUS_OK;
     }
 
-    private void readBinaryV2( ProtocolVersion version, String hostName, DataInputStream in ) throws IOException {
+    private LogBuffer readBinaryV2( ProtocolVersion version, String hostName, DataInputStream in ) throws IOException {
         in.readLong(); // digestion control
         var length = in.readInt();
         var filePreffix = in.readUTF();
@@ -136,7 +157,24 @@ public class SocketLoggerServer implements MessageListener, Closeable {
             );
         }
 
-        backend.log( version, clientHostname, filePreffix, properties, logType, headers, types, buffer, 0, length );
+        return new LogBuffer( version, clientHostname, filePreffix, properties, logType, headers, types, buffer );
+    }
+
+    private ZstdDictDecompress zstdDictionary( String logType ) {
+        return zstdDictionaries.computeIfAbsent( logType, lt -> Optional.ofNullable( dictionaries.get( lt ) ).map( path -> {
+            try {
+                return new ZstdDictDecompress( Files.readAllBytes( path ) );
+            } catch( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        } ) ).orElse( null );
+    }
+
+    private record LogBuffer( ProtocolVersion version, String clientHostname, String filePreffix, Map<String, String> properties,
+                              String logType, String[] headers, byte[][] types, byte[] buffer ) {
+        void log( AbstractLoggerBackend backend ) {
+            backend.log( version, clientHostname, filePreffix, properties, logType, headers, types, buffer, 0, buffer.length );
+        }
     }
 
     @Override
@@ -24,6 +24,7 @@
 
 package oap.logstream.disk;
 
+import com.google.common.util.concurrent.Uninterruptibles;
 import oap.io.IoStreams;
 import oap.logstream.Logger;
 import oap.logstream.Timestamp;
@@ -37,12 +38,16 @@ import org.testng.annotations.Test;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
+import static oap.logstream.AvailabilityReport.State.OPERATIONAL;
+import static oap.logstream.AvailabilityReport.State.PARTIALLY_OPERATIONAL;
 import static oap.logstream.Timestamp.BPH_12;
 import static oap.logstream.disk.DiskLoggerBackend.DEFAULT_BUFFER;
 import static oap.logstream.formats.parquet.ParquetAssertion.assertParquet;
 import static oap.logstream.formats.parquet.ParquetAssertion.row;
 import static oap.net.Inet.HOSTNAME;
+import static oap.testng.Asserts.assertEventually;
 import static oap.testng.Asserts.assertFile;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.testng.Assert.assertFalse;
@@ -128,4 +133,100 @@ public class DiskLoggerBackendTest extends Fixtures {
                     """, IoStreams.Encoding.GZIP );
         }
     }
+
+    @Test
+    public void testPipelined() throws IOException {
+        Dates.setTimeFixed( 2015, 10, 10, 1 );
+        var headers = new String[] { "REQUEST_ID", "REQUEST_ID2" };
+        var types = new byte[][] { new byte[] { Types.STRING.id }, new byte[] { Types.STRING.id } };
+        var lines = BinaryUtils.lines( List.of( List.of( "12345678", "rrrr5678" ), List.of( "1", "2" ) ) );
+
+        try( DiskLoggerBackend backend = new DiskLoggerBackend( testDirectoryFixture.testPath( "logs" ), BPH_12, DEFAULT_BUFFER ) ) {
+            backend.writeThreads = 2;
+            backend.start();
+
+            Logger logger = new Logger( backend );
+            for( var i = 0; i < 10; i++ ) {
+                logger.log( "lfn1", Map.of(), "log1", headers, types, lines );
+                logger.log( "lfn1", Map.of(), "log2", headers, types, lines );
+            }
+
+            backend.refresh( true );
+
+            for( var logType : List.of( "log1", "log2" ) ) {
+                assertFile( testDirectoryFixture.testPath( "logs/lfn1/2015-10/10/" + logType + "_v59193f7e-1_" + HOSTNAME + "-2015-10-10-01-00.tsv.gz" ) )
+                    .hasContent( "REQUEST_ID\tREQUEST_ID2\n" + "12345678\trrrr5678\n1\t2\n".repeat( 10 ), IoStreams.Encoding.GZIP );
+            }
+        }
+    }
+
+    @Test
+    public void testPipelinedEviction() throws IOException {
+        Dates.setTimeFixed( 2015, 10, 10, 1 );
+        var headers = new String[] { "REQUEST_ID", "REQUEST_ID2" };
+        var types = new byte[][] { new byte[] { Types.STRING.id }, new byte[] { Types.STRING.id } };
+        var lines = BinaryUtils.lines( List.of( List.of( "12345678", "rrrr5678" ), List.of( "1", "2" ) ) );
+
+        try( DiskLoggerBackend backend = new DiskLoggerBackend( testDirectoryFixture.testPath( "logs" ), BPH_12, DEFAULT_BUFFER ) ) {
+            backend.writeThreads = 1;
+            backend.start();
+
+            Logger logger = new Logger( backend );
+            logger.log( "lfn1", Map.of(), "log1", headers, types, lines );
+            assertEventually( 50, 100, () -> assertThat( backend.getQueuedBytes() ).isZero() );
+
+            // the writer expires, its pipeline is closed and the next buffer goes to a new writer
+            Dates.setTimeFixed( 2015, 10, 10, 1, 16 );
+            logger.log( "lfn1", Map.of(), "log1", headers, types, lines );
+        }
+
+        assertFile( testDirectoryFixture.testPath( "logs/lfn1/2015-10/10/log1_v59193f7e-1_" + HOSTNAME + "-2015-10-10-01-00.tsv.gz" ) )
+            .hasContent( "REQUEST_ID\tREQUEST_ID2\n12345678\trrrr5678\n1\t2\n", IoStreams.Encoding.GZIP );
+        assertFile( testDirectoryFixture.testPath( "logs/lfn1/2015-10/10/log1_v59193f7e-1_" + HOSTNAME + "-2015-10-10-01-03.tsv.gz" ) )
+            .hasContent( "REQUEST_ID\tREQUEST_ID2\n12345678\trrrr5678\n1\t2\n", IoStreams.Encoding.GZIP );
+    }
+
+    @Test
+    public void testPipelinedBackpressure() throws IOException {
+        Dates.setTimeFixed( 2015, 10, 10, 1 );
+        var headers = new String[] { "REQUEST_ID", "REQUEST_ID2" };
+        var types = new byte[][] { new byte[] { Types.STRING.id }, new byte[] { Types.STRING.id } };
+        var lines = BinaryUtils.lines( List.of( List.of( "12345678", "rrrr5678" ), List.of( "1", "2" ) ) );
+
+        try( DiskLoggerBackend backend = new DiskLoggerBackend( testDirectoryFixture.testPath( "logs" ), BPH_12, DEFAULT_BUFFER ) ) {
+            backend.writeThreads = 1;
+            backend.start();
+
+            // the only write thread is busy, the buffers stay queued
+            var writeThread = new CountDownLatch( 1 );
+            backend.writePool.execute( () -> Uninterruptibles.awaitUninterruptibly( writeThread ) );
+
+            Logger logger = new Logger( backend );
+            logger.log( "lfn1", Map.of(), "log1", headers, types, lines );
+            long queued = backend.getQueuedBytes();
+            assertThat( queued ).isPositive();
+            assertThat( backend.availabilityReport().state ).isEqualTo( OPERATIONAL );
+
+            backend.maxQueuedBytes = queued * 3;
+            logger.log( "lfn1", Map.of(), "log1", headers, types, lines );
+            assertThat( backend.availabilityReport().state ).isEqualTo( OPERATIONAL );
+            logger.log( "lfn1", Map.of(), "log1", headers, types, lines );
+            assertThat( backend.getQueuedBytes() ).isEqualTo( backend.maxQueuedBytes );
+            assertThat( backend.availabilityReport().state ).isEqualTo( PARTIALLY_OPERATIONAL );
+            assertFalse( backend.isLoggingAvailable() );
+
+            writeThread.countDown();
+
+            assertEventually( 50, 100, () -> {
+                assertThat( backend.getQueuedBytes() ).isZero();
+                assertThat( backend.availabilityReport().state ).isEqualTo( OPERATIONAL );
+            } );
+            assertTrue( backend.isLoggingAvailable() );
+
+            backend.refresh( true );
+
+            assertFile( testDirectoryFixture.testPath( "logs/lfn1/2015-10/10/log1_v59193f7e-1_" + HOSTNAME + "-2015-10-10-01-00.tsv.gz" ) )
+                .hasContent( "REQUEST_ID\tREQUEST_ID2\n" + "12345678\trrrr5678\n1\t2\n".repeat( 3 ), IoStreams.Encoding.GZIP );
+        }
+    }
 }
@@ -25,6 +25,7 @@
 package oap.logstream.disk;
 
 import oap.logstream.LogId;
+import oap.logstream.LogIdTemplate;
 import oap.template.BinaryUtils;
 import oap.template.Types;
 import oap.testng.Fixtures;
@@ -42,6 +43,7 @@ import static oap.logstream.LogStreamProtocol.CURRENT_PROTOCOL_VERSION;
 import static oap.logstream.Timestamp.BPH_12;
 import static oap.logstream.formats.parquet.ParquetAssertion.assertParquet;
 import static oap.logstream.formats.parquet.ParquetAssertion.row;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.joda.time.DateTimeZone.UTC;
 
 public class ParquetWriterTest extends Fixtures {
@@ -127,6 +129,53 @@ public class ParquetWriterTest extends Fixtures {
             );
     }
 
+    @Test
+    public void testWriteTypes() throws IOException {
+        Dates.setTimeFixed( 2022, 3, 8, 21, 11 );
+
+        var content = BinaryUtils.lines( List.of(
+            List.of( true, ( byte ) -1, ( short ) 300, 12, 1.5f, -0.25d, "\u0000zero emoji \uD83D\uDE00", List.of( 1, 2 ) ),
+            List.of( false, ( byte ) 1, ( short ) -3, -12, 0f, 1e10d, "", List.of() )
+        ) );
+
+        var headers = new String[] { "BOOL", "BYTE", "SHORT", "INT", "FLOAT", "DOUBLE", "STRING", "LIST" };
+        var types = new byte[][] { new byte[] { Types.BOOLEAN.id },
+            new byte[] { Types.BYTE.id },
+            new byte[] { Types.SHORT.id },
+            new byte[] { Types.INTEGER.id },
+            new byte[] { Types.FLOAT.id },
+            new byte[] { Types.DOUBLE.id },
+            new byte[] { Types.STRING.id },
+            new byte[] { Types.LIST.id, Types.INTEGER.id }
+        };
+        LogId logId = new LogId( "", "log", "log", Map.of( "p", "1" ), headers, types );
+        Path logs = testDirectoryFixture.testPath( "logs" );
+        try( var writer = new ParquetLogWriter( logs, FILE_PATTERN, logId, new WriterConfiguration.ParquetConfiguration(), 1024, BPH_12, 20 ) ) {
+            writer.write( CURRENT_PROTOCOL_VERSION, content );
+        }
+
+        assertParquet( logs.resolve( "1-file-02-" + new LogIdTemplate( logId ).getHashWithVersion( 1 ) + ".parquet" ) )
+            .containOnlyHeaders( headers )
+            .containsExactly(
+                row( true, ( byte ) -1, ( short ) 300, 12, 1.5f, -0.25d, "\u0000zero emoji \uD83D\uDE00", List.of( 1, 2 ) ),
+                row( false, ( byte ) 1, ( short ) -3, -12, 0f, 1e10d, "", List.of() )
+            );
+    }
+
+    @Test
+    public void testWriteInvalidType() throws IOException {
+        Dates.setTimeFixed( 2022, 3, 8, 21, 11 );
+
+        var headers = new String[] { "COL1" };
+        var types = new byte[][] { new byte[] { Types.LONG.id } };
+        LogId logId = new LogId( "", "log", "log", Map.of( "p", "1" ), headers, types );
+        Path logs = testDirectoryFixture.testPath( "logs" );
+        try( var writer = new ParquetLogWriter( logs, FILE_PATTERN, logId, new WriterConfiguration.ParquetConfiguration(), 1024, BPH_12, 20 ) ) {
+            assertThatThrownBy( () -> writer.write( CURRENT_PROTOCOL_VERSION, BinaryUtils.line( "str" ) ) )
+                .hasMessageContaining( "header COL1" );
+        }
+    }
+
     private long s( int year, int monthOfYear, int dayOfMonth, int hourOfDay, int minuteOfHour, int secondOfMinute ) {
         return new DateTime( year, monthOfYear, dayOfMonth, hourOfDay, minuteOfHour, secondOfMinute, UTC ).getMillis() / 1000;
     }
@@ -0,0 +1,170 @@
+package oap.logstream.disk;
+
+import oap.io.IoStreams;
+import oap.logstream.Timestamp;
+import oap.storage.cloud.FileSystem;
+import oap.storage.cloud.FileSystemConfiguration;
+import oap.testng.Fixtures;
+import oap.testng.TestDirectoryFixture;
+import oap.util.Dates;
+import org.joda.time.DateTime;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static oap.io.IoStreams.Encoding.GZIP;
+import static oap.io.IoStreams.Encoding.ZSTD;
+import static oap.testng.Asserts.assertFile;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StreamingFinisherTest extends Fixtures {
+    private final TestDirectoryFixture testDirectoryFixture;
+
+    public StreamingFinisherTest() {
+        testDirectoryFixture = fixture( new TestDirectoryFixture() );
+    }
+
+    @Test
+    public void testUpload() throws IOException {
+        int safeInterval = 10;
+        Timestamp timestamp = Timestamp.BPH_6;
+
+        Path logs = testDirectoryFixture.testPath( "logs" );
+        Path cloud = testDirectoryFixture.testPath( "cloud" );
+
+        StreamingFinisher finisher = new StreamingFinisher( new FileSystemConfiguration( Map.of(
+            "fs.file.clouds.filesystem.basedir", cloud.toString(),
+            "fs.default.clouds.scheme", "file",
+            "fs.default.clouds.container", "test" ) ), logs, safeInterval, List.of( "*.gz", "**/*.gz" ), timestamp );
+        finisher.encoding = ZSTD;
+        finisher.destination = "upload/";
+        finisher.threads = 2;
+        finisher.priorityByType.put( "type2", 10 );
+        finisher.start();
+
+        Path file1 = log( logs.resolve( "2015-10/file1-type1.tsv.gz" ), "type1", "h1\n1\n" );
+        Path file2 = log( logs.resolve( "2015-10/file2-type2.tsv.gz" ), "type2", "h2\n2\n" );
+        Path file3 = log( logs.resolve( "file3-type1.tsv.gz" ), "type1", "h1\n3\n" );
+
+        Dates.setTimeFixed( 123456 + Dates.m( 60 / timestamp.bucketsPerHour ) + safeInterval + 1 );
+
+        finisher.run();
+
+        assertFile( cloud.resolve( "test/upload/2015-10/file1-type1.tsv.zst" ) ).hasContent( "h1\n1\n", ZSTD );
+        assertFile( cloud.resolve( "test/upload/2015-10/file2-type2.tsv.zst" ) ).hasContent( "h2\n2\n", ZSTD );
+        assertFile( cloud.resolve( "test/upload/file3-type1.tsv.zst" ) ).hasContent( "h1\n3\n", ZSTD );
+
+        for( var file : List.of( file1, file2, file3 ) ) {
+            assertThat( file ).doesNotExist();
+            assertThat( LogMetadata.pathFor( file ) ).doesNotExist();
+        }
+        assertThat( logs.resolve( "2015-10" ) ).doesNotExist();
+    }
+
+    @Test
+    public void testUploadAsIs() throws IOException {
+        int safeInterval = 10;
+        Timestamp timestamp = Timestamp.BPH_6;
+
+        Path logs = testDirectoryFixture.testPath( "logs" );
+        Path cloud = testDirectoryFixture.testPath( "cloud" );
+
+        StreamingFinisher finisher = new StreamingFinisher( new FileSystemConfiguration( Map.of(
+            "fs.file.clouds.filesystem.basedir", cloud.toString(),
+            "fs.default.clouds.scheme", "file",
+            "fs.default.clouds.container", "test" ) ), logs, safeInterval, List.of( "*.gz" ), timestamp );
+        finisher.start();
+
+        log( logs.resolve( "file1-type1.tsv.gz" ), "type1", "h1\n1\n" );
+
+        Dates.setTimeFixed( 123456 + Dates.m( 60 / timestamp.bucketsPerHour ) + safeInterval + 1 );
+
+        finisher.run();
+
+        assertFile( cloud.resolve( "test/file1-type1.tsv.gz" ) ).hasContent( "h1\n1\n", GZIP );
+    }
+
+    @Test
+    public void testProcessingOrder() throws IOException {
+        int safeInterval = 10;
+        Timestamp timestamp = Timestamp.BPH_6;
+
+        Path logs = testDirectoryFixture.testPath( "logs" );
+        Path cloud = testDirectoryFixture.testPath( "cloud" );
+
+        var processed = new CopyOnWriteArrayList<String>();
+        StreamingFinisher finisher = new StreamingFinisher( new FileSystemConfiguration( Map.of(
+            "fs.file.clouds.filesystem.basedir", cloud.toString(),
+            "fs.default.clouds.scheme", "file",
+            "fs.default.clouds.container", "test" ) ), logs, safeInterval, List.of( "*.gz" ), timestamp ) {
+            @Override
+            protected void process( FileSystem fileSystem, Path path, DateTime bucketTime ) {
+                processed.add( path.getFileName().toString() );
+                super.process( fileSystem, path, bucketTime );
+            }
+        };
+        finisher.threads = 1;
+        finisher.priorityByType.put( "type2", 10 );
+        finisher.start();
+
+        // created out of order: newest first, the high priority type last
+        Files.setLastModifiedTime( log( logs.resolve( "new-type1.tsv.gz" ), "type1", "h1\n1\n" ), FileTime.fromMillis( 123456 ) );
+        Files.setLastModifiedTime( log( logs.resolve( "old-type1.tsv.gz" ), "type1", "h1\n2\n" ), FileTime.fromMillis( 120000 ) );
+        Files.setLastModifiedTime( log( logs.resolve( "new-type2.tsv.gz" ), "type2", "h2\n3\n" ), FileTime.fromMillis( 123456 ) );
+        Files.setLastModifiedTime( log( logs.resolve( "old-type2.tsv.gz" ), "type2", "h2\n4\n" ), FileTime.fromMillis( 121000 ) );
+
+        Dates.setTimeFixed( 123456 + Dates.m( 60 / timestamp.bucketsPerHour ) + safeInterval + 1 );
+
+        finisher.run();
+
+        assertThat( processed ).containsExactly( "old-type2.tsv.gz", "new-type2.tsv.gz", "old-type1.tsv.gz", "new-type1.tsv.gz" );
+    }
+
+    @Test
+    public void testFailedUploadIsNotPublished() throws IOException {
+        int safeInterval = 10;
+        Timestamp timestamp = Timestamp.BPH_6;
+
+        Path logs = testDirectoryFixture.testPath( "logs" );
+        Path cloud = testDirectoryFixture.testPath( "cloud" );
+
+        StreamingFinisher finisher = new StreamingFinisher( new FileSystemConfiguration( Map.of(
+            "fs.file.clouds.filesystem.basedir", cloud.toString(),
+            "fs.default.clouds.scheme", "file",
+            "fs.default.clouds.container", "test" ) ), logs, safeInterval, List.of( "*.gz" ), timestamp );
+        finisher.encoding = ZSTD;
+        finisher.start();
+
+        Path file = log( logs.resolve( "file1-type1.tsv.gz" ), "type1", "h1\n1\n".repeat( 1000 ) );
+        // truncated gzip, the read fails in the middle of the upload
+        var bytes = Files.readAllBytes( file );
+        Files.write( file, java.util.Arrays.copyOf( bytes, bytes.length / 2 ) );
+        Files.setLastModifiedTime( file, FileTime.fromMillis( 123456 ) );
+
+        Dates.setTimeFixed( 123456 + Dates.m( 60 / timestamp.bucketsPerHour ) + safeInterval + 1 );
+
+        finisher.run();
+
+        assertThat( cloud.resolve( "test/file1-type1.tsv.zst" ) ).doesNotExist();
+        assertThat( cloud.resolve( "test/file1-type1.tsv.zst" + StreamingFinisher.UPLOADING ) ).doesNotExist();
+        assertThat( file ).exists();
+    }
+
+    private static Path log( Path path, String type, String content ) throws IOException {
+        try( OutputStream out = IoStreams.out( path, GZIP ) ) {
+            out.write( content.getBytes( UTF_8 ) );
+        }
+        new LogMetadata( "", type, "", Map.of(), new String[] {}, new byte[][] {} ).writeFor( path );
+        Files.setLastModifiedTime( path, FileTime.fromMillis( 123456 ) );
+
+        return path;
+    }
+}
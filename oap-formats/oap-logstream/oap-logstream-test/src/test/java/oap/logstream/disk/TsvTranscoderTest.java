@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.disk;
+
+import oap.template.BinaryInputStream;
+import oap.template.BinaryUtils;
+import oap.template.Types;
+import oap.util.Dates;
+import org.joda.time.DateTime;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.joda.time.DateTimeZone.UTC;
+
+public class TsvTranscoderTest {
+    @Test
+    public void testTypes() throws IOException {
+        byte[] bytes = BinaryUtils.lines( List.of(
+            List.of( "a\tb\nc\rd\\e\"f", true, ( byte ) -1, ( short ) 300, 12, Long.MIN_VALUE, 1.5f, -0.25d,
+                new DateTime( 2023, 1, 2, 3, 4, 5, UTC ) ),
+            List.of(),
+            List.of( List.of( "it's", "a\\b", 1, 2L ), List.of( new DateTime( 2023, 1, 2, 3, 4, 5, UTC ), List.of( "x" ) ), List.of() ),
+            List.of( "", "\u0000zero", "юникод", "emoji 😀", "lone \uD800" )
+        ) );
+
+        assertThat( transcode( bytes ) ).isEqualTo( reference( bytes ) );
+        assertThat( new String( transcode( bytes ), UTF_8 ) ).startsWith( "a\\tb\\nc\\rd\\\\e\"f\ttrue\t-1\t300\t12\t-9223372036854775808\t1.5\t-0.25\t2023-01-02 03:04:05\n\n" );
+    }
+
+    @Test
+    public void testOffsetAndPartialRow() throws IOException {
+        byte[] line = BinaryUtils.line( "a", 1 );
+        byte[] bytes = new byte[line.length + 10];
+        System.arraycopy( line, 0, bytes, 5, line.length );
+        bytes[5 + line.length - 1] = Types.LONG.id;
+        Arrays.fill( bytes, 5 + line.length, bytes.length, ( byte ) 0 );
+
+        var out = new ByteArrayOutputStream();
+        new TsvTranscoder( Dates.PATTERN_FORMAT_SIMPLE_CLEAN ).transcode( bytes, 5, line.length - 1, out );
+        assertThat( out.toString( UTF_8 ) ).isEqualTo( "a\t1" );
+
+        assertThatThrownBy( () -> new TsvTranscoder( Dates.PATTERN_FORMAT_SIMPLE_CLEAN ).transcode( bytes, 5, line.length + 4, new ByteArrayOutputStream() ) )
+            .isInstanceOf( EOFException.class );
+    }
+
+    @Test
+    public void testReuse() throws IOException {
+        var transcoder = new TsvTranscoder( Dates.PATTERN_FORMAT_SIMPLE_CLEAN );
+        byte[] big = BinaryUtils.line( "x".repeat( 20000 ) );
+        byte[] small = BinaryUtils.line( "y" );
+
+        var out = new ByteArrayOutputStream();
+        transcoder.transcode( big, 0, big.length, out );
+        transcoder.transcode( small, 0, small.length, out );
+
+        assertThat( out.toString( UTF_8 ) ).isEqualTo( "x".repeat( 20000 ) + "\ny\n" );
+    }
+
+    private static byte[] transcode( byte[] bytes ) throws IOException {
+        var out = new ByteArrayOutputStream();
+        new TsvTranscoder( Dates.PATTERN_FORMAT_SIMPLE_CLEAN ).transcode( bytes, 0, bytes.length, out );
+        return out.toByteArray();
+    }
+
+    /**
+     * the row by row conversion TsvWriter used before TsvTranscoder
+     */
+    private static byte[] reference( byte[] bytes ) throws IOException {
+        var out = new ByteArrayOutputStream();
+        var bis = new BinaryInputStream( new ByteArrayInputStream( bytes ) );
+
+        var sb = new StringBuilder();
+        var ta = new TemplateAccumulatorTsv( sb, Dates.PATTERN_FORMAT_SIMPLE_CLEAN );
+        Object obj = bis.readObject();
+        while( obj != null ) {
+            boolean first = true;
+            while( obj != null && obj != BinaryInputStream.EOL ) {
+                if( !first ) sb.append( '\t' );
+                else first = false;
+                ta.accept( obj );
+                obj = bis.readObject();
+            }
+            out.write( ta.addEol( obj == BinaryInputStream.EOL ).getBytes() );
+            sb.setLength( 0 );
+            obj = bis.readObject();
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.net;
+
+import oap.logstream.LogId;
+import oap.template.Types;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+import static oap.benchmark.Benchmark.benchmark;
+import static oap.logstream.LogStreamProtocol.ProtocolVersion.BINARY_V2;
+
+/**
+ * logging throughput of the same log id vs number of threads, default (one lock per log id) vs striped buffers
+ */
+@Test( enabled = false )
+public class BuffersPerformance {
+    private static final LogId LOG_ID = new LogId( "x/y", "type", "host", Map.of(),
+        new String[] { "h1" }, new byte[][] { new byte[] { Types.STRING.id } } );
+    private static final byte[] LINE = new byte[128];
+    private static final int SAMPLES = 10_000_000;
+
+    @Test( enabled = false )
+    public void put() {
+        for( var threads : new int[] { 1, 4, 16, 64, 256 } ) {
+            run( "default", threads, 0 );
+            run( "striped", threads, Runtime.getRuntime().availableProcessors() * 4 );
+        }
+    }
+
+    private static void run( String name, int threads, int stripes ) {
+        var buffers = new Buffers( BufferConfigurationMap.defaultMap( 64 * 1024 ), stripes );
+
+        benchmark( name, SAMPLES, () -> buffers.put( LOG_ID, BINARY_V2, LINE ) )
+            .threads( threads )
+            .experiments( 3 )
+            .afterExperiment( () -> buffers.forEachReadyData( _ -> {} ) )
+            .run();
+    }
+}
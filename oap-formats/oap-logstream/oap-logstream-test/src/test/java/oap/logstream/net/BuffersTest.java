@@ -24,6 +24,7 @@
 
 package oap.logstream.net;
 
+import com.google.common.primitives.Bytes;
 import oap.logstream.LogId;
 import oap.logstream.LogStreamProtocol;
 import oap.template.Types;
@@ -33,10 +34,12 @@ import oap.util.Pair;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import static oap.logstream.LogStreamProtocol.ProtocolVersion.BINARY_V2;
@@ -136,4 +139,50 @@ public class BuffersTest {
         assertReadyData( buffers, expected );
         assertReadyData( buffers, Lists.empty() );
     }
+
+    @Test
+    public void foreachStriped() {
+        Buffers.ReadyQueue.digestionIds = Cuid.incremental( 0 );
+        Buffers buffers = new Buffers( BufferConfigurationMap.defaultMap( header + 4 ), 4 );
+        buffers.put( new LogId( "x/y", "", "", Map.of(), HEADERS, TYPES ), BINARY_V2, new byte[] { 1, 2, 3 } );
+        buffers.put( new LogId( "x/z", "", "", Map.of(), HEADERS, TYPES ), BINARY_V2, new byte[] { 11, 12, 13 } );
+        buffers.put( new LogId( "x/y", "", "", Map.of(), HEADERS, TYPES ), BINARY_V2, new byte[] { 4, 5, 6 } );
+        buffers.put( new LogId( "x/z", "", "", Map.of(), HEADERS, TYPES ), BINARY_V2, new byte[] { 14 } );
+
+        var data = new ArrayList<List<Byte>>();
+        buffers.forEachReadyData( b -> data.add( Bytes.asList( Arrays.copyOfRange( b.data(), b.headerLength(), b.length() ) ) ) );
+
+        assertThat( data ).containsExactlyInAnyOrder(
+            Bytes.asList( new byte[] { 1, 2, 3 } ),
+            Bytes.asList( new byte[] { 4, 5, 6 } ),
+            Bytes.asList( new byte[] { 11, 12, 13, 14 } ) );
+        assertReadyData( buffers, Lists.empty() );
+    }
+
+    @Test
+    public void concurrentStriped() throws InterruptedException {
+        var threads = 8;
+        var lines = 10000;
+        Buffers buffers = new Buffers( BufferConfigurationMap.defaultMap( header + 64 ), 3 );
+        var logId = new LogId( "x/y", "", "", Map.of(), HEADERS, TYPES );
+
+        var workers = new ArrayList<Thread>();
+        for( var i = 0; i < threads; i++ ) {
+            var thread = new Thread( () -> {
+                for( var l = 0; l < lines; l++ ) buffers.put( logId, BINARY_V2, new byte[] { 1, 2, 3, 4 } );
+            } );
+            thread.start();
+            workers.add( thread );
+        }
+
+        var total = new AtomicLong();
+        while( workers.stream().anyMatch( Thread::isAlive ) ) {
+            buffers.forEachReadyData( b -> total.addAndGet( b.dataLength() ) );
+            Thread.yield();
+        }
+        for( var worker : workers ) worker.join();
+        buffers.forEachReadyData( b -> total.addAndGet( b.dataLength() ) );
+
+        assertThat( total.get() ).isEqualTo( threads * lines * 4L );
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.net;
+
+import com.github.luben.zstd.ZstdDictCompress;
+import oap.logstream.LogId;
+import oap.logstream.LogStreamProtocol;
+import oap.logstream.LoggerException;
+import oap.logstream.MemoryLoggerBackend;
+import oap.logstream.net.server.SocketLoggerServer;
+import oap.template.Types;
+import oap.testng.Fixtures;
+import oap.testng.TestDirectoryFixture;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static oap.logstream.LogStreamProtocol.BATCH_VERSION;
+import static oap.logstream.LogStreamProtocol.ProtocolVersion.TSV_V1;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LogStreamBatchTest extends Fixtures {
+    private static final String[] HEADERS = new String[] { "h1" };
+    private static final byte[][] TYPES = new byte[][] { new byte[] { Types.STRING.id } };
+    private final TestDirectoryFixture testDirectoryFixture;
+
+    public LogStreamBatchTest() {
+        testDirectoryFixture = fixture( new TestDirectoryFixture() );
+    }
+
+    @DataProvider
+    public Object[][] compression() {
+        return new Object[][] { { LogStreamBatch.Compression.NONE }, { LogStreamBatch.Compression.LZ4 }, { LogStreamBatch.Compression.ZSTD } };
+    }
+
+    @Test( dataProvider = "compression" )
+    public void batch( LogStreamBatch.Compression compression ) throws Exception {
+        var logId1 = new LogId( "x/y", "type", "host", Map.of(), HEADERS, TYPES );
+        var logId2 = new LogId( "x/z", "type", "host", Map.of(), HEADERS, TYPES );
+
+        var batch = new LogStreamBatch.Writer( "type" );
+        batch.add( buffer( logId1, "line1\nline2\n" ) );
+        batch.add( buffer( logId2, "line3\n" ) );
+        batch.add( buffer( logId1, "line4\n" ) );
+
+        var dictionaryPath = testDirectoryFixture.testPath( "type.dict" );
+        Files.writeString( dictionaryPath, "line1\nline2\nline3\nline4\n".repeat( 10 ) );
+
+        try( var dictionary = new ZstdDictCompress( Files.readAllBytes( dictionaryPath ), 3 );
+             var backend = new MemoryLoggerBackend();
+             var server = new SocketLoggerServer( backend ) ) {
+            server.dictionaries = Map.of( "type", dictionaryPath );
+
+            var data = batch.encode( compression, 3, compression == LogStreamBatch.Compression.ZSTD ? dictionary : null );
+
+            assertThat( server.run( BATCH_VERSION, "host", data.length, data, "md5" ) ).isEqualTo( LogStreamProtocol.STATUS_OK );
+
+            assertThat( backend.loggedLines( logId1 ) ).containsExactly( "line1", "line2", "line4" );
+            assertThat( backend.loggedLines( logId2 ) ).containsExactly( "line3" );
+        }
+    }
+
+    @Test
+    public void truncatedBatchIsNotLogged() {
+        var logId1 = new LogId( "x/y", "type", "host", Map.of(), HEADERS, TYPES );
+        var logId2 = new LogId( "x/z", "type", "host", Map.of(), HEADERS, TYPES );
+
+        var batch = new LogStreamBatch.Writer( "type" );
+        batch.add( buffer( logId1, "line1\nline2\n" ) );
+        batch.add( buffer( logId2, "line3\n" ) );
+
+        try( var backend = new MemoryLoggerBackend();
+             var server = new SocketLoggerServer( backend ) ) {
+            var data = batch.encode( LogStreamBatch.Compression.NONE, 0, null );
+
+            assertThatThrownBy( () -> server.run( BATCH_VERSION, "host", data.length - 2, data, "md5" ) )
+                .isInstanceOf( LoggerException.class );
+
+            assertThat( backend.loggedLines( logId1 ) ).isEmpty();
+            assertThat( backend.loggedLines( logId2 ) ).isEmpty();
+        }
+    }
+
+    @Test
+    public void compressionRatio() {
+        var logId = new LogId( "x/y", "type", "host", Map.of(), HEADERS, TYPES );
+        var batch = new LogStreamBatch.Writer( "type" );
+        for( var i = 0; i < 100; i++ ) batch.add( buffer( logId, "2015-10-10 01:00:00\t12345678\tsome repetitive value\n".repeat( 10 ) ) );
+
+        assertThat( batch.encode( LogStreamBatch.Compression.LZ4, 0, null ).length ).isLessThan( batch.size() / 5 );
+        assertThat( batch.encode( LogStreamBatch.Compression.ZSTD, 3, null ).length ).isLessThan( batch.size() / 10 );
+    }
+
+    private static Buffer buffer( LogId logId, String data ) {
+        var buffer = new Buffer( 1024, logId, TSV_V1 );
+        buffer.put( data.getBytes( UTF_8 ) );
+        buffer.close( 1 );
+        return buffer;
+    }
+}
@@ -23,6 +23,11 @@ public interface LogStreamProtocol {
         }
     }
 
+    /**
+     * message version of {@link oap.logstream.net.LogStreamBatch}, the buffers inside keep their own {@link ProtocolVersion}
+     */
+    short BATCH_VERSION = 3;
+
     byte MESSAGE_TYPE = 20;
     short STATUS_BACKEND_LOGGER_NOT_AVAILABLE = 20000;
     short INVALID_VERSION = 20001;
@@ -22,7 +22,9 @@ import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.joda.time.DateTimeZone.UTC;
 
@@ -37,6 +39,12 @@ public abstract class AbstractFinisher implements Runnable {
     private final Timestamp timestamp;
     public int threads = -1;
     public LinkedHashMap<String, Integer> priorityByType = new LinkedHashMap<>();
+    /**
+     * true: a priority group starts when the previous one is done,
+     * false: files are taken from one fifo queue in the order of priority, lower priorities use the threads the higher ones leave idle.
+     * Either way a priority group has 60 / bucketsPerHour minutes.
+     */
+    public boolean waitForPriorityGroup = true;
     protected int bufferSize = 1024 * 256 * 4 * 4;
 
 
@@ -78,7 +86,10 @@ public abstract class AbstractFinisher implements Runnable {
             log.debug( "packing is skipped" );
             return;
         }
-        ThreadPoolExecutor pool = Executors.newFixedBlockingThreadPool( threads, new ThreadFactoryBuilder().setNameFormat( "finisher-%d" ).build() );
+        ThreadPoolExecutor pool = waitForPriorityGroup
+            ? Executors.newFixedBlockingThreadPool( threads, new ThreadFactoryBuilder().setNameFormat( "finisher-%d" ).build() )
+            : new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat( "finisher-%d" ).build() );
 
 
         List<Path> logs = Files.wildcard( sourceDirectory, mask );
@@ -120,34 +131,40 @@ public abstract class AbstractFinisher implements Runnable {
         }
 
         try( FileSystem fileSystem = new FileSystem( fileSystemConfiguration ) ) {
-            for( int i = 0; i < logInfos.size(); i++ ) {
-                LogInfo logInfo = logInfos.get( i );
-                if( priority == logInfo.priority ) {
-                    DateTime lastModifiedTime = timestamp.toStartOfBucket( new DateTime( logInfo.lastModifiedTime, UTC ) );
-                    futures.add( CompletableFuture.runAsync( () -> process( fileSystem, logInfo.path, lastModifiedTime ), pool ) );
+            try {
+                long groupTimeout = 60 / timestamp.bucketsPerHour;
+                if( waitForPriorityGroup ) {
+                    for( int i = 0; i < logInfos.size(); i++ ) {
+                        LogInfo logInfo = logInfos.get( i );
+                        if( priority == logInfo.priority ) {
+                            DateTime lastModifiedTime = timestamp.toStartOfBucket( new DateTime( logInfo.lastModifiedTime, UTC ) );
+                            futures.add( CompletableFuture.runAsync( () -> process( fileSystem, logInfo.path, lastModifiedTime ), pool ) );
+                        } else {
+                            CompletableFuture<Void> allOf = CompletableFuture.allOf( futures.toArray( new CompletableFuture<?>[0] ) );
+                            allOf.get( groupTimeout, TimeUnit.MINUTES );
+                            futures.clear();
+
+                            priority = logInfo.priority;
+                            i--;
+                        }
+                    }
                 } else {
-                    CompletableFuture<Void> allOf = CompletableFuture.allOf( futures.toArray( new CompletableFuture<?>[0] ) );
-                    allOf.get( 60 / timestamp.bucketsPerHour, TimeUnit.MINUTES );
-                    futures.clear();
-
-                    priority = logInfo.priority;
-                    i--;
+                    for( LogInfo logInfo : logInfos ) {
+                        DateTime lastModifiedTime = timestamp.toStartOfBucket( new DateTime( logInfo.lastModifiedTime, UTC ) );
+                        futures.add( CompletableFuture.runAsync( () -> process( fileSystem, logInfo.path, lastModifiedTime ), pool ) );
+                    }
+                    groupTimeout *= Math.max( 1, logInfos.stream().mapToInt( logInfo -> logInfo.priority ).distinct().count() );
                 }
+                CompletableFuture<Void> allOf = CompletableFuture.allOf( futures.toArray( new CompletableFuture<?>[0] ) );
+                allOf.get( groupTimeout, TimeUnit.MINUTES );
+            } catch( TimeoutException e ) {
+                log.warn( "uploading timeout, {} files are not started", pool.shutdownNow().size() );
+                throw e;
+            } finally {
+                shutdown( pool );
             }
-            CompletableFuture<Void> allOf = CompletableFuture.allOf( futures.toArray( new CompletableFuture<?>[0] ) );
-            allOf.get( 60 / timestamp.bucketsPerHour, TimeUnit.MINUTES );
         }
 
-        pool.shutdown();
-
-        long fullTimeout = DateTime.now().getMillis() + TimeUnit.MINUTES.toMillis( 20 );
-        while( !pool.awaitTermination( 1, TimeUnit.MINUTES ) ) {
-            if( DateTime.now().getMillis() <= fullTimeout ) {
-                log.debug( "Timeout passed, but pool still is working... {} tasks left", pool.shutdownNow().size() );
-                break;
-            }
-            log.debug( "Waiting for finishing..." );
-        }
         cleanup();
         if( !logInfos.isEmpty() ) {
             log.info( "uploading... Done. (files {} duration {})",
@@ -157,6 +174,23 @@ public abstract class AbstractFinisher implements Runnable {
         }
     }
 
+    /**
+     * the tasks use the file system, it is closed only after the pool is drained
+     */
+    private static void shutdown( ThreadPoolExecutor pool ) throws InterruptedException {
+        pool.shutdown();
+
+        long fullTimeout = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis( 20 );
+        while( !pool.awaitTermination( 1, TimeUnit.MINUTES ) ) {
+            if( System.currentTimeMillis() > fullTimeout ) {
+                log.warn( "Timeout passed, but pool still is working... {} tasks left", pool.shutdownNow().size() );
+                if( !pool.awaitTermination( 1, TimeUnit.MINUTES ) ) log.error( "finisher threads do not stop" );
+                break;
+            }
+            log.debug( "Waiting for finishing..." );
+        }
+    }
+
     protected abstract void cleanup();
 
     protected abstract void process( FileSystem fileSystem, Path path, DateTime bucketTime );
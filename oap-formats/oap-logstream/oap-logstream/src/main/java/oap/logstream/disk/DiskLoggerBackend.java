@@ -31,6 +31,7 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.Tag;
 import lombok.EqualsAndHashCode;
@@ -59,15 +60,21 @@ import org.slf4j.event.Level;
 import java.io.Closeable;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static oap.logstream.AvailabilityReport.State.FAILED;
 import static oap.logstream.AvailabilityReport.State.OPERATIONAL;
+import static oap.logstream.AvailabilityReport.State.PARTIALLY_OPERATIONAL;
 
 @Slf4j
 public class DiskLoggerBackend extends AbstractLoggerBackend implements Cloneable, AutoCloseable {
@@ -80,12 +87,24 @@ public class DiskLoggerBackend extends AbstractLoggerBackend implements Cloneabl
     private final int bufferSize;
     private final LoadingCache<LogId, AbstractWriter<? extends Closeable>> writers;
     private final ScheduledExecutorService pool;
+    private final ConcurrentHashMap<AbstractWriter<? extends Closeable>, WriterPipeline> pipelines = new ConcurrentHashMap<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
     public String filePattern = "/<YEAR>-<MONTH>/<DAY>/<LOG_TYPE>_v<LOG_VERSION>_<CLIENT_HOST>-<YEAR>-<MONTH>-<DAY>-<HOUR>-<INTERVAL>.tsv.gz";
     public long requiredFreeSpace = DEFAULT_FREE_SPACE_REQUIRED;
     public int maxVersions = 20;
     public long refreshInitDelay = Dates.s( 10 );
     public long refreshPeriod = Dates.s( 10 );
+    /**
+     * &gt; 0: buffers are queued per writer, compressed and written on a pool of writeThreads threads,
+     * writers are refreshed in parallel. 0: the caller writes.
+     */
+    public int writeThreads = 0;
+    /**
+     * writeThreads &gt; 0: logging is reported as partially operational while at least this many bytes are queued
+     */
+    public long maxQueuedBytes = 1024L * 1024 * 256;
     private volatile boolean closed;
+    ExecutorService writePool;
 
     public DiskLoggerBackend( Path logDirectory, Timestamp timestamp, int bufferSize ) {
         this( logDirectory, new WriterConfiguration(), timestamp, bufferSize );
@@ -107,7 +126,18 @@ public class DiskLoggerBackend extends AbstractLoggerBackend implements Cloneabl
             .ticker( JodaTicker.JODA_TICKER )
             .expireAfterAccess( 60 / timestamp.bucketsPerHour * 3, TimeUnit.MINUTES )
             .removalListener( notification -> {
-                Closeables.close( ( Closeable ) notification.getValue() );
+                var writer = ( Closeable ) notification.getValue();
+                var pipeline = writer != null ? pipelines.get( writer ) : null;
+                if( pipeline != null && !closed ) {
+                    // after the queued buffers, log() gets a new writer once the pipeline is closed
+                    pipeline.close( () -> {
+                        Closeables.close( writer );
+                        pipelines.remove( writer, pipeline );
+                    } );
+                } else {
+                    if( pipeline != null ) pipelines.remove( writer, pipeline );
+                    Closeables.close( writer );
+                }
             } )
             .build( new CacheLoader<>() {
                 @Override
@@ -117,16 +147,21 @@ public class DiskLoggerBackend extends AbstractLoggerBackend implements Cloneabl
                     log.trace( "new writer id '{}' filePattern '{}'", id, fp );
 
                     LogFormat logFormat = LogFormat.parse( fp.path );
-                    return switch( logFormat ) {
+                    AbstractWriter<? extends Closeable> writer = switch( logFormat ) {
                         case PARQUET -> new ParquetLogWriter( logDirectory, fp.path, id,
                             writerConfiguration.parquet, bufferSize, timestamp, maxVersions );
                         case TSV_GZ, TSV_ZSTD -> new TsvWriter( logDirectory, fp.path, id,
                             writerConfiguration.tsv, bufferSize, timestamp, maxVersions );
                     };
+                    // created with the writer only, an evicted writer never gets a new pipeline
+                    if( writePool != null ) pipelines.put( writer, new WriterPipeline( writePool ) );
+                    return writer;
                 }
             } );
         Metrics.gauge( "logstream_logging_disk_writers", List.of( Tag.of( "path", logDirectory.toString() ) ),
             writers, Cache::size );
+        Metrics.gauge( "logstream_logging_disk_queued_bytes", List.of( Tag.of( "path", logDirectory.toString() ) ),
+            queuedBytes, AtomicLong::get );
 
         pool = Executors.newScheduledThreadPool( 1, "disk-logger-backend" );
     }
@@ -135,12 +170,18 @@ public class DiskLoggerBackend extends AbstractLoggerBackend implements Cloneabl
         log.info( "default file pattern {}", filePattern );
         log.info( "file patterns by type {}", filePatternByType );
         log.info( "refreshInitDelay {} refreshPeriod {}", Dates.durationToString( refreshInitDelay ), Dates.durationToString( refreshPeriod ) );
+        log.info( "writeThreads {} maxQueuedBytes {}", writeThreads, FileUtils.byteCountToDisplaySize( maxQueuedBytes ) );
 
         filePatternValidation( "*", filePattern );
         filePatternByType.forEach( ( k, v ) -> filePatternValidation( k, v.path ) );
 
         filePatternByType.keySet().forEach( key -> Preconditions.checkArgument( key.equals( key.toUpperCase() ), key + " must be uppercase" ) );
 
+        if( writeThreads > 0 ) {
+            writePool = Executors.newFixedThreadPool( writeThreads, new ThreadFactoryBuilder().setNameFormat( "disk-logger-writer-%d" ).build() );
+            for( var writer : writers.asMap().values() ) pipelines.putIfAbsent( writer, new WriterPipeline( writePool ) );
+        }
+
         pool.scheduleWithFixedDelay( () -> refresh( false ), refreshInitDelay, refreshPeriod, MILLISECONDS );
     }
 
@@ -166,30 +207,69 @@ public class DiskLoggerBackend extends AbstractLoggerBackend implements Cloneabl
 
         Metrics.counter( "logstream_logging_disk_counter", List.of( Tag.of( "from", hostName ) ) ).increment();
         Metrics.summary( "logstream_logging_disk_buffers", List.of( Tag.of( "from", hostName ) ) ).record( length );
-        AbstractWriter<? extends Closeable> writer = writers.get( new LogId( filePreffix, logType, hostName, properties, headers, types ) );
+        LogId logId = new LogId( filePreffix, logType, hostName, properties, headers, types );
+        AbstractWriter<? extends Closeable> writer = writers.get( logId );
 
         log.trace( "logging {} bytes to {}", length, writer );
+
+        if( writePool != null ) {
+            // the caller may reuse the buffer
+            byte[] data = Arrays.copyOfRange( buffer, offset, offset + length );
+            queuedBytes.addAndGet( length );
+            // the writer is evicted, the cache has a new one
+            while( !submit( writer, protocolVersion, hostName, filePreffix, properties, logType, headers, types, data, length ) )
+                writer = writers.get( logId );
+            return;
+        }
+
         try {
             writer.write( protocolVersion, buffer, offset, length );
         } catch( Exception e ) {
-            var headersWithTypes = new ArrayList<String>();
-            for( int i = 0; i < headers.length; i++ ) {
-                headersWithTypes.add( headers[i] + " [" + Lists.map( List.of( ArrayUtils.toObject( types[i] ) ), oap.template.Types::valueOf ) + "]" );
-            }
-
-            log.error( "hostName {} filePrefix {} logType {} properties {} headers {} path {}",
-                hostName, filePreffix, logType, properties, headersWithTypes, writer.currentPattern() );
+            logWriteError( hostName, filePreffix, properties, logType, headers, types, writer );
 
             throw e;
         }
     }
 
+    private boolean submit( AbstractWriter<? extends Closeable> writer, ProtocolVersion protocolVersion, String hostName, String filePreffix,
+                            Map<String, String> properties, String logType, String[] headers, byte[][] types, byte[] data, int length ) {
+        var pipeline = pipelines.get( writer );
+        if( pipeline == null ) return false;
+
+        return pipeline.submit( () -> {
+            try {
+                writer.write( protocolVersion, data, 0, length );
+            } catch( Exception e ) {
+                logWriteError( hostName, filePreffix, properties, logType, headers, types, writer );
+                log.error( e.getMessage(), e );
+                Metrics.counter( "logstream_logging_disk_write_errors", List.of( Tag.of( "type", logType ) ) ).increment();
+            } finally {
+                queuedBytes.addAndGet( -length );
+            }
+        } );
+    }
+
+    private static void logWriteError( String hostName, String filePreffix, Map<String, String> properties, String logType,
+                                       String[] headers, byte[][] types, AbstractWriter<? extends Closeable> writer ) {
+        var headersWithTypes = new ArrayList<String>();
+        for( int i = 0; i < headers.length; i++ ) {
+            headersWithTypes.add( headers[i] + " [" + Lists.map( List.of( ArrayUtils.toObject( types[i] ) ), oap.template.Types::valueOf ) + "]" );
+        }
+
+        log.error( "hostName {} filePrefix {} logType {} properties {} headers {} path {}",
+            hostName, filePreffix, logType, properties, headersWithTypes, writer.currentPattern() );
+    }
+
     @Override
     public void close() {
         if( !closed ) {
             closed = true;
             pool.shutdown( 20, SECONDS );
             Closeables.close( pool );
+            if( writePool != null ) {
+                awaitPipelines();
+                writePool.shutdown();
+            }
             writers.invalidateAll();
         }
     }
@@ -203,7 +283,20 @@ public class DiskLoggerBackend extends AbstractLoggerBackend implements Cloneabl
                 "There is no enough space on device %s, required %s, but %s available".formatted( logDirectory.toString(), Files.byteCountToDisplaySize( requiredFreeSpace ), Files.byteCountToDisplaySize( usableSpaceAtDirectory ) ),
                 null );
         }
-        return new AvailabilityReport( enoughSpace ? OPERATIONAL : FAILED );
+        if( !enoughSpace ) return new AvailabilityReport( FAILED );
+
+        if( writePool != null && queuedBytes.get() >= maxQueuedBytes ) {
+            LogConsolidated.log( log, Level.WARN, Dates.s( 30 ),
+                "%s queued, max %s".formatted( Files.byteCountToDisplaySize( queuedBytes.get() ), Files.byteCountToDisplaySize( maxQueuedBytes ) ),
+                null );
+            return new AvailabilityReport( PARTIALLY_OPERATIONAL );
+        }
+
+        return new AvailabilityReport( OPERATIONAL );
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
     }
 
     public void refresh() {
@@ -213,11 +306,26 @@ public class DiskLoggerBackend extends AbstractLoggerBackend implements Cloneabl
     public void refresh( boolean forceSync ) {
         log.trace( "refresh forceSync {}", forceSync );
 
-        for( AbstractWriter<? extends Closeable> writer : writers.asMap().values() ) {
-            try {
-                writer.refresh( forceSync );
-            } catch( Exception e ) {
-                log.error( "Cannot refresh ", e );
+        if( writePool != null ) {
+            // in order with the queued buffers of the writer
+            var futures = new ArrayList<CompletableFuture<Void>>();
+            for( AbstractWriter<? extends Closeable> writer : writers.asMap().values() ) {
+                var pipeline = pipelines.get( writer );
+                // closed, the writer is being evicted
+                var future = pipeline != null ? pipeline.call( () -> writer.refresh( forceSync ) ) : null;
+                if( future != null ) futures.add( future.exceptionally( e -> {
+                    log.error( "Cannot refresh ", e );
+                    return null;
+                } ) );
+            }
+            CompletableFuture.allOf( futures.toArray( new CompletableFuture[0] ) ).join();
+        } else {
+            for( AbstractWriter<? extends Closeable> writer : writers.asMap().values() ) {
+                try {
+                    writer.refresh( forceSync );
+                } catch( Exception e ) {
+                    log.error( "Cannot refresh ", e );
+                }
             }
         }
 
@@ -226,6 +334,18 @@ public class DiskLoggerBackend extends AbstractLoggerBackend implements Cloneabl
         log.trace( "refresh forceSync {}... Done", forceSync );
     }
 
+    /**
+     * waits until everything queued so far is written
+     */
+    private void awaitPipelines() {
+        var futures = new ArrayList<CompletableFuture<Void>>();
+        for( var pipeline : pipelines.values() ) {
+            var future = pipeline.call( () -> {} );
+            futures.add( future != null ? future : pipeline.terminated );
+        }
+        CompletableFuture.allOf( futures.toArray( new CompletableFuture[0] ) ).join();
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper( this )
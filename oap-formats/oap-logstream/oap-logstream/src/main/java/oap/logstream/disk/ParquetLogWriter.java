@@ -31,25 +31,18 @@ import oap.logstream.LogIdTemplate;
 import oap.logstream.LogStreamProtocol.ProtocolVersion;
 import oap.logstream.LoggerException;
 import oap.logstream.Timestamp;
-import oap.logstream.formats.parquet.ParquetSimpleGroup;
-import oap.logstream.formats.parquet.ParquetWriteBuilder;
-import oap.template.BinaryInputStream;
+import oap.logstream.formats.parquet.ParquetColumnBatch;
+import oap.logstream.formats.parquet.ParquetColumnBatchWriteBuilder;
 import oap.template.BinaryUtils;
-import oap.util.Lists;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.parquet.Preconditions;
-import org.apache.parquet.example.data.Group;
-import org.apache.parquet.hadoop.example.GroupWriteSupport;
 import org.apache.parquet.hadoop.util.HadoopOutputFile;
 import org.apache.parquet.schema.LogicalTypeAnnotation;
 import org.apache.parquet.schema.MessageType;
 import org.apache.parquet.schema.Type;
 import org.apache.parquet.schema.Types;
-import org.joda.time.DateTime;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -68,7 +61,7 @@ import static org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName.INT32;
 import static org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName.INT64;
 
 @Slf4j
-public class ParquetLogWriter extends AbstractWriter<org.apache.parquet.hadoop.ParquetWriter<Group>> {
+public class ParquetLogWriter extends AbstractWriter<org.apache.parquet.hadoop.ParquetWriter<ParquetColumnBatch>> {
     private static final HashMap<Byte, Function<List<Types.Builder<?, ?>>, Types.Builder<?, ?>>> types = new HashMap<>();
 
     static {
@@ -91,6 +84,7 @@ public class ParquetLogWriter extends AbstractWriter<org.apache.parquet.hadoop.P
     private final MessageType messageType;
     private final WriterConfiguration.ParquetConfiguration configuration;
     private final LinkedHashSet<String> excludeFields = new LinkedHashSet<>();
+    private final ParquetColumnBatch batch;
 
     public ParquetLogWriter( Path logDirectory, String filePattern, LogId logId, WriterConfiguration.ParquetConfiguration configuration,
                              int bufferSize, Timestamp timestamp, int maxVersions )
@@ -134,36 +128,7 @@ public class ParquetLogWriter extends AbstractWriter<org.apache.parquet.hadoop.P
         );
 
         messageType = messageTypeBuilder.named( "logger" );
-    }
-
-    private static void addValue( int col, Object obj, byte[] colType, int typeIdx, Group group ) {
-        var type = colType[typeIdx];
-        if( type == oap.template.Types.BOOLEAN.id ) {
-            group.add( col, ( boolean ) obj );
-        } else if( type == oap.template.Types.BYTE.id ) {
-            group.add( col, ( byte ) obj );
-        } else if( type == oap.template.Types.SHORT.id ) {
-            group.add( col, ( short ) obj );
-        } else if( type == oap.template.Types.INTEGER.id ) {
-            group.add( col, ( int ) obj );
-        } else if( type == oap.template.Types.LONG.id ) {
-            group.add( col, ( long ) obj );
-        } else if( type == oap.template.Types.FLOAT.id ) {
-            group.add( col, ( float ) obj );
-        } else if( type == oap.template.Types.DOUBLE.id ) {
-            group.add( col, ( double ) obj );
-        } else if( type == oap.template.Types.STRING.id ) {
-            group.add( col, ( String ) obj );
-        } else if( type == oap.template.Types.DATETIME.id ) {
-            group.add( col, ( ( DateTime ) obj ).getMillis() / 1000 );
-        } else if( type == oap.template.Types.LIST.id ) {
-            var listGroup = group.addGroup( col );
-            for( var item : ( List<?> ) obj ) {
-                addValue( 0, item, colType, typeIdx + 1, listGroup.addGroup( "list" ) );
-            }
-        } else {
-            throw new IllegalStateException( "Unknown type:" + type );
-        }
+        batch = new ParquetColumnBatch( messageType, logId.headers, logId.types, excludeFields );
     }
 
     @Override
@@ -184,9 +149,8 @@ public class ParquetLogWriter extends AbstractWriter<org.apache.parquet.hadoop.P
                     outFilename = filename;
 
                     var conf = new Configuration();
-                    GroupWriteSupport.setSchema( messageType, conf );
 
-                    out = new ParquetWriteBuilder( HadoopOutputFile.fromPath( new org.apache.hadoop.fs.Path( filename.toString() ), conf ) )
+                    out = new ParquetColumnBatchWriteBuilder( HadoopOutputFile.fromPath( new org.apache.hadoop.fs.Path( filename.toString() ), conf ), batch )
                         .withConf( conf )
                         .withCompressionCodec( configuration.compressionCodecName )
                         .build();
@@ -201,7 +165,7 @@ public class ParquetLogWriter extends AbstractWriter<org.apache.parquet.hadoop.P
                     return;
                 }
             log.trace( "writing {} bytes to {}", length, this );
-            convertToParquet( buffer, offset, length, logId.types, logId.headers );
+            convertToParquet( buffer, offset, length );
         } catch( IOException e ) {
             log.error( e.getMessage(), e );
             try {
@@ -214,39 +178,20 @@ public class ParquetLogWriter extends AbstractWriter<org.apache.parquet.hadoop.P
         }
     }
 
-    private void convertToParquet( byte[] buffer, int offset, int length, byte[][] types, String[] headers ) throws IOException {
-        var bis = new BinaryInputStream( new ByteArrayInputStream( buffer, offset, length ) );
-        int col = 0;
-        ParquetSimpleGroup group = new ParquetSimpleGroup( messageType );
-        Object obj = bis.readObject();
-        while( obj != null ) {
-            int parquetCol = 0;
-            while( obj != null && obj != BinaryInputStream.EOL ) {
-                byte[] colType = types[col];
-                String header = headers[col];
-                if( !excludeFields.contains( header ) ) {
-                    try {
-                        addValue( parquetCol, obj, colType, 0, group );
-                    } catch( Exception e ) {
-                        log.error( "header {} class {} type {} col {}", header, obj.getClass().getName(),
-                            Lists.map( List.of( ArrayUtils.toObject( types[col] ) ), oap.template.Types::valueOf ),
-                            parquetCol );
+    private void convertToParquet( byte[] buffer, int offset, int length ) throws IOException {
+        int rows;
+        try {
+            rows = batch.read( buffer, offset, length );
+        } catch( Exception e ) {
+            log.error( "{}", e.getMessage() );
 
-                        var data = BinaryUtils.read( buffer, offset, length );
-                        log.error( "object data {}", data );
+            var data = BinaryUtils.read( buffer, offset, length );
+            log.error( "object data {}", data );
 
-                        throw e;
-                    }
-                    parquetCol++;
-                }
-                obj = bis.readObject();
-                col++;
-            }
-            out.write( group );
-            col = 0;
-            group = new ParquetSimpleGroup( messageType );
-            obj = bis.readObject();
+            throw e;
         }
+
+        for( var i = 0; i < rows; i++ ) out.write( batch );
     }
 
     @Override
@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.disk;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.io.Files;
+import oap.io.IoStreams;
+import oap.io.IoStreams.Encoding;
+import oap.logstream.Timestamp;
+import oap.storage.cloud.CloudURI;
+import oap.storage.cloud.FileSystem;
+import oap.storage.cloud.FileSystemConfiguration;
+import oap.util.Dates;
+import org.apache.commons.io.FilenameUtils;
+import org.joda.time.DateTime;
+
+import javax.annotation.Nullable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uploads closed log files as a stream: the file is read, re-encoded on the fly and written to
+ * {@link FileSystem#getOutputStream(CloudURI, Map)}, without a temporary file.
+ * For s3 the output stream is a multipart upload, the parts are sent concurrently by the transfer manager
+ * while the next ones are compressed.
+ * <p>
+ * The stream is written to {@code <name>.uploading} and copied to the destination once the file is read completely,
+ * closing the stream of a failed upload would publish a truncated object otherwise.
+ * The copy is done by the cloud (s3 CopyObject), the object is not downloaded again and keeps its tags.
+ * <p>
+ * Files are scheduled by priority without waiting for the whole priority group.
+ * The file and its metadata are deleted once uploaded, a failed file is kept for the next run.
+ */
+@Slf4j
+public class StreamingFinisher extends AbstractFinisher {
+    public static final String UPLOADING = ".uploading";
+
+    /**
+     * target encoding, null uploads the file as is
+     */
+    @Nullable
+    public Encoding encoding;
+    /**
+     * prefix in the default container, the path relative to the source directory is appended
+     */
+    public String destination = "";
+    public LinkedHashMap<String, String> tags = new LinkedHashMap<>();
+
+    public StreamingFinisher( FileSystemConfiguration fileSystemConfiguration, Path sourceDirectory, long safeInterval, List<String> mask, Timestamp timestamp ) {
+        super( fileSystemConfiguration, sourceDirectory, safeInterval, mask, timestamp );
+
+        waitForPriorityGroup = false;
+    }
+
+    @Override
+    protected void cleanup() {
+        Files.deleteEmptyDirectories( sourceDirectory, false );
+    }
+
+    @Override
+    protected void process( FileSystem fileSystem, Path path, DateTime bucketTime ) {
+        Encoding from = Encoding.from( path );
+        Encoding to = encoding != null && from.streamable ? encoding : from;
+        Path target = to.resolve( path );
+        CloudURI cloudURI = destination( fileSystem, target );
+        CloudURI uploadingURI = destination( fileSystem, target.resolveSibling( target.getFileName() + UPLOADING ) );
+
+        long start = System.currentTimeMillis();
+        log.debug( "uploading {} ({}) to {} ({})", path, from, cloudURI, to );
+
+        try( InputStream in = to == from
+            ? IoStreams.in( path, Encoding.PLAIN, bufferSize )
+            : IoStreams.in( path, from, bufferSize );
+             OutputStream out = to == from
+                 ? fileSystem.getOutputStream( uploadingURI, tags )
+                 : IoStreams.out( fileSystem.getOutputStream( uploadingURI, tags ), to, bufferSize ) ) {
+            in.transferTo( out );
+        } catch( Exception e ) {
+            log.error( "cannot upload {} to {}: {}", path, cloudURI, e.getMessage(), e );
+            deleteUploading( fileSystem, uploadingURI );
+            return;
+        }
+
+        try {
+            fileSystem.copy( uploadingURI, cloudURI );
+        } catch( Exception e ) {
+            log.error( "cannot copy {} to {}: {}", uploadingURI, cloudURI, e.getMessage(), e );
+            deleteUploading( fileSystem, uploadingURI );
+            return;
+        }
+        deleteUploading( fileSystem, uploadingURI );
+
+        Files.delete( path );
+        Files.delete( LogMetadata.pathFor( path ) );
+
+        log.debug( "uploading {} to {}... Done ({})", path, cloudURI, Dates.durationToString( System.currentTimeMillis() - start ) );
+    }
+
+    private static void deleteUploading( FileSystem fileSystem, CloudURI uploadingURI ) {
+        try {
+            fileSystem.deleteBlob( uploadingURI );
+        } catch( Exception e ) {
+            log.warn( "cannot delete {}: {}", uploadingURI, e.getMessage() );
+        }
+    }
+
+    protected CloudURI destination( FileSystem fileSystem, Path path ) {
+        return fileSystem.getDefaultURL( destination + FilenameUtils.separatorsToUnix( sourceDirectory.relativize( path ).toString() ) );
+    }
+}
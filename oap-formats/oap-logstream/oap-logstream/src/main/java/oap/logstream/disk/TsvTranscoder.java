@@ -0,0 +1,349 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.disk;
+
+import oap.template.BinaryInputStream;
+import oap.template.Types;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * BINARY_V2 to TSV straight from the binary buffer into a reusable byte array,
+ * the output is the same as {@link BinaryInputStream#readObject()} rendered by {@link TemplateAccumulatorTsv}.
+ * <p>
+ * Primitives are printed without boxing, dates without {@link org.joda.time.DateTime},
+ * strings are copied byte by byte (modified UTF-8 is converted to UTF-8 where they differ) and escaped on the fly.
+ */
+@SuppressWarnings( "checkstyle:UnnecessaryParentheses" )
+public class TsvTranscoder {
+    private static final byte[] TRUE = "true".getBytes( UTF_8 );
+    private static final byte[] FALSE = "false".getBytes( UTF_8 );
+    private static final byte[] LONG_MIN = String.valueOf( Long.MIN_VALUE ).getBytes( UTF_8 );
+    private static final byte[] EOL = String.valueOf( BinaryInputStream.EOL ).getBytes( UTF_8 );
+
+    private final DateTimeFormatter dateTimeFormat;
+    private final StringBuilder dateTime = new StringBuilder( 32 );
+    private byte[] in;
+    private int position;
+    private int limit;
+    private byte[] out = new byte[8192];
+    private int length;
+
+    public TsvTranscoder( String dateTimeFormat ) {
+        this.dateTimeFormat = DateTimeFormat.forPattern( dateTimeFormat ).withZoneUTC();
+    }
+
+    public void transcode( byte[] buffer, int offset, int length, OutputStream output ) throws IOException {
+        this.in = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+        this.length = 0;
+
+        try {
+            while( position < limit ) {
+                boolean first = true;
+                while( true ) {
+                    if( position >= limit ) break;
+                    int type = in[position++] & 0xFF;
+                    if( type == Types.EOL.id ) {
+                        write( '\n' );
+                        break;
+                    }
+                    if( !first ) write( '\t' );
+                    else first = false;
+                    value( type );
+                }
+            }
+
+            output.write( out, 0, this.length );
+        } finally {
+            this.in = null;
+        }
+    }
+
+    private void value( int type ) throws IOException {
+        if( type == Types.BOOLEAN.id ) write( readBoolean() ? TRUE : FALSE );
+        else if( type == Types.BYTE.id ) writeLong( readByte() );
+        else if( type == Types.SHORT.id ) writeLong( readShort() );
+        else if( type == Types.INTEGER.id ) writeLong( readInt() );
+        else if( type == Types.LONG.id ) writeLong( readLong() );
+        else if( type == Types.FLOAT.id ) writeAscii( Float.toString( Float.intBitsToFloat( readInt() ) ) );
+        else if( type == Types.DOUBLE.id ) writeAscii( Double.toString( Double.longBitsToDouble( readLong() ) ) );
+        else if( type == Types.STRING.id ) string( false );
+        else if( type == Types.DATETIME.id ) dateTime( false );
+        else if( type == Types.LIST.id ) list();
+        else if( type == Types.RAW.id ) writeTsv( String.valueOf( readRaw() ) );
+        else throw new IllegalArgumentException( "Unknown type: " + type );
+    }
+
+    /**
+     * TemplateAccumulatorString#accept(Collection): strings and dates in single quotes, the rest as is
+     */
+    private void list() throws IOException {
+        int size = readInt();
+
+        write( '[' );
+        for( var i = 0; i < size; i++ ) {
+            if( i > 0 ) write( ',' );
+
+            if( position >= limit ) throw new EOFException();
+            int type = in[position++] & 0xFF;
+            if( type == Types.STRING.id ) string( true );
+            else if( type == Types.DATETIME.id ) dateTime( true );
+            else if( type == Types.EOL.id ) write( EOL );
+            else value( type );
+        }
+        write( ']' );
+    }
+
+    private void dateTime( boolean quoted ) throws IOException {
+        long millis = readLong();
+
+        dateTime.setLength( 0 );
+        dateTimeFormat.printTo( dateTime, millis );
+
+        if( quoted ) write( '\'' );
+        for( var i = 0; i < dateTime.length(); i++ ) {
+            char c = dateTime.charAt( i );
+            if( quoted && ( c == '\\' || c == '\'' ) ) write( '\\' );
+            writeChar( c );
+        }
+        if( quoted ) write( '\'' );
+    }
+
+    /**
+     * @param quoted in a list: 'text' with \ and ' escaped, otherwise tsv escaped
+     */
+    private void string( boolean quoted ) throws IOException {
+        int utflen = ( readByte() & 0xFF ) << 8 | ( readByte() & 0xFF );
+        int end = position + utflen;
+        if( end > limit ) throw new EOFException();
+
+        ensure( utflen * 2 + 2 );
+        if( quoted ) out[length++] = '\'';
+
+        while( position < end ) {
+            int c = in[position] & 0xFF;
+            if( c < 0x80 ) {
+                position++;
+                if( quoted ) {
+                    if( c == '\\' || c == '\'' ) out[length++] = '\\';
+                    out[length++] = ( byte ) c;
+                } else {
+                    switch( c ) {
+                        case '\n' -> {
+                            out[length++] = '\\';
+                            out[length++] = 'n';
+                        }
+                        case '\r' -> {
+                            out[length++] = '\\';
+                            out[length++] = 'r';
+                        }
+                        case '\t' -> {
+                            out[length++] = '\\';
+                            out[length++] = 't';
+                        }
+                        case '\\' -> {
+                            out[length++] = '\\';
+                            out[length++] = '\\';
+                        }
+                        default -> out[length++] = ( byte ) c;
+                    }
+                }
+            } else if( c >> 5 == 0b110 ) {
+                if( position + 2 > end ) throw new UTFDataFormatException( "malformed input: partial character at end" );
+                int c2 = in[position + 1];
+                if( ( c2 & 0xC0 ) != 0x80 ) throw new UTFDataFormatException( "malformed input around byte " + ( position + 2 ) );
+                if( c == 0xC0 && c2 == ( byte ) 0x80 ) {
+                    // modified UTF-8 zero
+                    out[length++] = 0;
+                } else {
+                    out[length++] = ( byte ) c;
+                    out[length++] = ( byte ) c2;
+                }
+                position += 2;
+            } else if( c >> 4 == 0b1110 ) {
+                char ch = readChar3( end );
+                if( Character.isHighSurrogate( ch ) && position + 3 <= end && ( in[position] & 0xF0 ) == 0xE0 ) {
+                    int mark = position;
+                    char low = readChar3( end );
+                    if( Character.isLowSurrogate( low ) ) {
+                        writeCodePoint( Character.toCodePoint( ch, low ) );
+                        continue;
+                    }
+                    position = mark;
+                }
+                if( Character.isSurrogate( ch ) ) out[length++] = '?';
+                else writeCodePoint( ch );
+            } else {
+                throw new UTFDataFormatException( "malformed input around byte " + position );
+            }
+        }
+
+        if( quoted ) out[length++] = '\'';
+    }
+
+    private char readChar3( int end ) throws UTFDataFormatException {
+        if( position + 3 > end ) throw new UTFDataFormatException( "malformed input: partial character at end" );
+        int c = in[position];
+        int c2 = in[position + 1];
+        int c3 = in[position + 2];
+        if( ( c2 & 0xC0 ) != 0x80 || ( c3 & 0xC0 ) != 0x80 )
+            throw new UTFDataFormatException( "malformed input around byte " + ( position + 2 ) );
+        position += 3;
+
+        return ( char ) ( ( ( c & 0x0F ) << 12 ) | ( ( c2 & 0x3F ) << 6 ) | ( c3 & 0x3F ) );
+    }
+
+    private void writeCodePoint( int cp ) {
+        if( cp < 0x80 ) {
+            out[length++] = ( byte ) cp;
+        } else if( cp < 0x800 ) {
+            out[length++] = ( byte ) ( 0xC0 | ( cp >> 6 ) );
+            out[length++] = ( byte ) ( 0x80 | ( cp & 0x3F ) );
+        } else if( cp < 0x10000 ) {
+            out[length++] = ( byte ) ( 0xE0 | ( cp >> 12 ) );
+            out[length++] = ( byte ) ( 0x80 | ( ( cp >> 6 ) & 0x3F ) );
+            out[length++] = ( byte ) ( 0x80 | ( cp & 0x3F ) );
+        } else {
+            out[length++] = ( byte ) ( 0xF0 | ( cp >> 18 ) );
+            out[length++] = ( byte ) ( 0x80 | ( ( cp >> 12 ) & 0x3F ) );
+            out[length++] = ( byte ) ( 0x80 | ( ( cp >> 6 ) & 0x3F ) );
+            out[length++] = ( byte ) ( 0x80 | ( cp & 0x3F ) );
+        }
+    }
+
+    private void writeChar( char c ) {
+        ensure( 3 );
+        if( Character.isSurrogate( c ) ) out[length++] = '?';
+        else writeCodePoint( c );
+    }
+
+    private void writeTsv( String text ) {
+        for( var i = 0; i < text.length(); i++ ) {
+            char c = text.charAt( i );
+            switch( c ) {
+                case '\n' -> writeAscii( "\\n" );
+                case '\r' -> writeAscii( "\\r" );
+                case '\t' -> writeAscii( "\\t" );
+                case '\\' -> writeAscii( "\\\\" );
+                default -> writeChar( c );
+            }
+        }
+    }
+
+    private void writeLong( long value ) {
+        if( value == Long.MIN_VALUE ) {
+            write( LONG_MIN );
+            return;
+        }
+
+        ensure( 20 );
+        if( value < 0 ) {
+            out[length++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for( long v = value; v >= 10; v /= 10 ) digits++;
+
+        int end = length + digits;
+        for( var i = end - 1; i >= length; i-- ) {
+            out[i] = ( byte ) ( '0' + value % 10 );
+            value /= 10;
+        }
+        length = end;
+    }
+
+    private void writeAscii( String value ) {
+        ensure( value.length() );
+        for( var i = 0; i < value.length(); i++ ) out[length++] = ( byte ) value.charAt( i );
+    }
+
+    private void write( byte[] bytes ) {
+        ensure( bytes.length );
+        System.arraycopy( bytes, 0, out, length, bytes.length );
+        length += bytes.length;
+    }
+
+    private void write( char c ) {
+        ensure( 1 );
+        out[length++] = ( byte ) c;
+    }
+
+    private void ensure( int size ) {
+        if( length + size > out.length ) out = Arrays.copyOf( out, Math.max( out.length * 2, length + size ) );
+    }
+
+    private boolean readBoolean() throws EOFException {
+        return readByte() != 0;
+    }
+
+    private byte readByte() throws EOFException {
+        if( position >= limit ) throw new EOFException();
+        return in[position++];
+    }
+
+    private short readShort() throws EOFException {
+        if( position + 2 > limit ) throw new EOFException();
+        short v = ( short ) ( ( ( in[position] & 0xFF ) << 8 ) | ( in[position + 1] & 0xFF ) );
+        position += 2;
+        return v;
+    }
+
+    private int readInt() throws EOFException {
+        if( position + 4 > limit ) throw new EOFException();
+        int v = ( in[position] << 24 )
+            | ( ( in[position + 1] & 0xFF ) << 16 )
+            | ( ( in[position + 2] & 0xFF ) << 8 )
+            | ( in[position + 3] & 0xFF );
+        position += 4;
+        return v;
+    }
+
+    private long readLong() throws EOFException {
+        if( position + 8 > limit ) throw new EOFException();
+        long v = 0;
+        for( var i = 0; i < 8; i++ ) v = ( v << 8 ) | ( in[position + i] & 0xFF );
+        position += 8;
+        return v;
+    }
+
+    private byte[] readRaw() throws EOFException {
+        int size = readInt();
+        if( position + size > limit ) throw new EOFException();
+        var bytes = Arrays.copyOfRange( in, position, position + size );
+        position += size;
+        return bytes;
+    }
+}
@@ -33,9 +33,7 @@ import oap.logstream.LogIdTemplate;
 import oap.logstream.LogStreamProtocol.ProtocolVersion;
 import oap.logstream.LoggerException;
 import oap.logstream.Timestamp;
-import oap.template.BinaryInputStream;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 
@@ -44,6 +42,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 @Slf4j
 public class TsvWriter extends AbstractWriter<CountingOutputStream> {
     private final WriterConfiguration.TsvConfiguration configuration;
+    private final TsvTranscoder transcoder;
 
     public TsvWriter( Path logDirectory, String filePattern, LogId logId,
                       WriterConfiguration.TsvConfiguration configuration,
@@ -52,6 +51,7 @@ public class TsvWriter extends AbstractWriter<CountingOutputStream> {
         super( LogFormat.TSV_GZ, logDirectory, filePattern, logId, bufferSize, timestamp, maxVersions );
 
         this.configuration = configuration;
+        this.transcoder = new TsvTranscoder( configuration.dateTime32Format );
     }
 
     public synchronized void write( ProtocolVersion protocolVersion, byte[] buffer ) throws LoggerException {
@@ -134,7 +134,7 @@ public class TsvWriter extends AbstractWriter<CountingOutputStream> {
                 }
             log.trace( "writing {} bytes to {}", length, this );
 
-            convertToTsv( buffer, offset, length, line -> out.write( line ) );
+            transcoder.transcode( buffer, offset, length, out );
 
         } catch( IOException e ) {
             log.error( e.getMessage(), e );
@@ -148,29 +148,6 @@ public class TsvWriter extends AbstractWriter<CountingOutputStream> {
         }
     }
 
-    private void convertToTsv( byte[] buffer, int offset, int length, IOExceptionConsumer<byte[]> cons ) throws IOException {
-        BinaryInputStream bis = new BinaryInputStream( new ByteArrayInputStream( buffer, offset, length ) );
-
-        StringBuilder sb = new StringBuilder();
-        TemplateAccumulatorTsv ta = new TemplateAccumulatorTsv( sb, configuration.dateTime32Format );
-        Object obj = bis.readObject();
-        while( obj != null ) {
-            boolean first = true;
-            while( obj != null && obj != BinaryInputStream.EOL ) {
-                if( !first ) {
-                    sb.append( '\t' );
-                } else {
-                    first = false;
-                }
-                ta.accept( obj );
-                obj = bis.readObject();
-            }
-            cons.accept( ta.addEol( obj == BinaryInputStream.EOL ).getBytes() );
-            sb.setLength( 0 );
-            obj = bis.readObject();
-        }
-    }
-
     @FunctionalInterface
     public interface IOExceptionConsumer<T> {
         void accept( T t ) throws IOException;
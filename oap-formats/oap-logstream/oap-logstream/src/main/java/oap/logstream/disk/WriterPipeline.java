@@ -0,0 +1,124 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.disk;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tasks of one writer, executed one at a time and in order on the shared write pool.
+ * A busy writer gives the thread back after {@link #MAX_TASKS_PER_RUN} tasks, so it does not starve the others.
+ * <p>
+ * The pipeline of an evicted writer is closed: the task closing the writer is the last one, later tasks are rejected.
+ */
+class WriterPipeline {
+    static final int MAX_TASKS_PER_RUN = 16;
+
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    final CompletableFuture<Void> terminated = new CompletableFuture<>();
+    private boolean closed;
+
+    WriterPipeline( Executor executor ) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param task must not throw
+     * @return false if the pipeline is closed, the task is not executed
+     */
+    boolean submit( Runnable task ) {
+        synchronized( this ) {
+            if( closed ) return false;
+            tasks.add( task );
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * @return null if the pipeline is closed
+     */
+    @Nullable
+    CompletableFuture<Void> call( Runnable task ) {
+        var future = new CompletableFuture<Void>();
+        boolean submitted = submit( () -> {
+            try {
+                task.run();
+                future.complete( null );
+            } catch( Throwable e ) {
+                future.completeExceptionally( e );
+            }
+        } );
+        return submitted ? future : null;
+    }
+
+    /**
+     * @param task the last task, executed after the queued ones, must not throw
+     */
+    void close( Runnable task ) {
+        synchronized( this ) {
+            if( closed ) return;
+            closed = true;
+            tasks.add( () -> {
+                try {
+                    task.run();
+                } finally {
+                    terminated.complete( null );
+                }
+            } );
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if( !tasks.isEmpty() && scheduled.compareAndSet( false, true ) ) {
+            try {
+                executor.execute( this::drain );
+            } catch( RejectedExecutionException e ) {
+                scheduled.set( false );
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            for( var i = 0; i < MAX_TASKS_PER_RUN; i++ ) {
+                Runnable task = tasks.poll();
+                if( task == null ) break;
+                task.run();
+            }
+        } finally {
+            scheduled.set( false );
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.formats.parquet;
+
+import oap.template.Types;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.MessageType;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * BINARY_V2 buffer decoded into primitive column vectors and written straight to the parquet record consumer,
+ * no {@link org.apache.parquet.example.data.Group} per row and no boxing.
+ * <p>
+ * {@link #read(byte[], int, int)} decodes the whole buffer, then every {@link org.apache.parquet.hadoop.ParquetWriter#write(Object)}
+ * of the batch writes its next row. Strings point into the buffer, so the buffer must not change until all rows are written.
+ * Not thread safe.
+ */
+public class ParquetColumnBatch {
+    private final MessageType messageType;
+    private final String[] headers;
+    private final Vector[] columns;
+    private final String[] fields;
+    private final int[] fieldIndexes;
+    private byte[] in;
+    private int position;
+    private int limit;
+    private int rows;
+    private int next;
+
+    /**
+     * @param headers       all columns of the binary rows
+     * @param types         binary types of the columns, LIST is followed by the element type
+     * @param excludeFields columns that are skipped, they are not in the messageType
+     */
+    public ParquetColumnBatch( MessageType messageType, String[] headers, byte[][] types, Set<String> excludeFields ) {
+        this.messageType = messageType;
+        this.headers = headers;
+        this.columns = new Vector[headers.length];
+        this.fields = new String[headers.length];
+        this.fieldIndexes = new int[headers.length];
+
+        var field = 0;
+        for( var i = 0; i < headers.length; i++ ) {
+            if( excludeFields.contains( headers[i] ) ) continue;
+
+            columns[i] = vector( types[i], 0 );
+            fields[i] = headers[i];
+            fieldIndexes[i] = field++;
+        }
+    }
+
+    private static Vector vector( byte[] type, int idx ) {
+        byte t = type[idx];
+        if( t == Types.BOOLEAN.id || t == Types.BYTE.id || t == Types.SHORT.id || t == Types.INTEGER.id )
+            return new IntVector( t );
+        else if( t == Types.LONG.id || t == Types.DATETIME.id ) return new LongVector( t );
+        else if( t == Types.FLOAT.id ) return new FloatVector();
+        else if( t == Types.DOUBLE.id ) return new DoubleVector();
+        else if( t == Types.STRING.id ) return new BinaryVector();
+        else if( t == Types.LIST.id ) return new ListVector( vector( type, idx + 1 ) );
+        else return new UnsupportedVector( t );
+    }
+
+    /**
+     * @return number of rows, each of them is written by one {@link org.apache.parquet.hadoop.ParquetWriter#write(Object)} of the batch
+     */
+    public int read( byte[] buffer, int offset, int length ) throws IOException {
+        for( var column : columns ) if( column != null ) column.clear();
+        this.in = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+        this.rows = 0;
+        this.next = 0;
+
+        while( position < limit ) {
+            int col = 0;
+            while( position < limit ) {
+                byte type = in[position++];
+                if( type == Types.EOL.id ) break;
+
+                if( col >= columns.length )
+                    throw new IllegalStateException( "row " + rows + ": more than " + columns.length + " columns" );
+                try {
+                    if( columns[col] != null ) columns[col].read( this, type );
+                    else skip( type );
+                } catch( IllegalStateException e ) {
+                    throw new IllegalStateException( "row " + rows + " header " + headers[col] + ": " + e.getMessage(), e );
+                }
+                col++;
+            }
+            if( col != columns.length )
+                throw new IllegalStateException( "row " + rows + ": " + col + " columns, expected " + columns.length );
+            rows++;
+        }
+
+        return rows;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public WriteSupport<ParquetColumnBatch> writeSupport() {
+        return new WriteSupport<>() {
+            private RecordConsumer consumer;
+
+            @Override
+            public WriteContext init( Configuration configuration ) {
+                return new WriteContext( messageType, new HashMap<>() );
+            }
+
+            @Override
+            public void prepareForWrite( RecordConsumer recordConsumer ) {
+                this.consumer = recordConsumer;
+            }
+
+            @Override
+            public void write( ParquetColumnBatch batch ) {
+                batch.writeRow( consumer );
+            }
+        };
+    }
+
+    private void writeRow( RecordConsumer consumer ) {
+        if( next >= rows ) throw new IllegalStateException( "no more rows, " + rows + " read" );
+        int row = next++;
+
+        consumer.startMessage();
+        for( var i = 0; i < columns.length; i++ ) {
+            if( columns[i] == null ) continue;
+
+            consumer.startField( fields[i], fieldIndexes[i] );
+            columns[i].write( this, row, consumer );
+            consumer.endField( fields[i], fieldIndexes[i] );
+        }
+        consumer.endMessage();
+    }
+
+    private void skip( byte type ) throws IOException {
+        if( type == Types.BOOLEAN.id || type == Types.BYTE.id ) skipBytes( 1 );
+        else if( type == Types.SHORT.id ) skipBytes( 2 );
+        else if( type == Types.INTEGER.id || type == Types.FLOAT.id ) skipBytes( 4 );
+        else if( type == Types.LONG.id || type == Types.DOUBLE.id || type == Types.DATETIME.id ) skipBytes( 8 );
+        else if( type == Types.STRING.id ) skipBytes( readUnsignedShort() );
+        else if( type == Types.RAW.id ) skipBytes( readInt() );
+        else if( type == Types.LIST.id ) {
+            int size = readInt();
+            for( var i = 0; i < size; i++ ) skip( readByte() );
+        } else throw new IllegalStateException( "Unknown type:" + type );
+    }
+
+    private void skipBytes( int size ) throws EOFException {
+        if( position + size > limit ) throw new EOFException();
+        position += size;
+    }
+
+    private byte readByte() throws EOFException {
+        if( position >= limit ) throw new EOFException();
+        return in[position++];
+    }
+
+    private int readUnsignedShort() throws EOFException {
+        if( position + 2 > limit ) throw new EOFException();
+        int v = ( ( in[position] & 0xFF ) << 8 ) | ( in[position + 1] & 0xFF );
+        position += 2;
+        return v;
+    }
+
+    private int readInt() throws EOFException {
+        if( position + 4 > limit ) throw new EOFException();
+        int v = ( in[position] << 24 )
+            | ( ( in[position + 1] & 0xFF ) << 16 )
+            | ( ( in[position + 2] & 0xFF ) << 8 )
+            | ( in[position + 3] & 0xFF );
+        position += 4;
+        return v;
+    }
+
+    private long readLong() throws EOFException {
+        if( position + 8 > limit ) throw new EOFException();
+        long v = 0;
+        for( var i = 0; i < 8; i++ ) v = ( v << 8 ) | ( in[position + i] & 0xFF );
+        position += 8;
+        return v;
+    }
+
+    private abstract static class Vector {
+        final byte type;
+        int size;
+
+        Vector( byte type ) {
+            this.type = type;
+        }
+
+        /**
+         * reads the value after its type byte
+         */
+        void read( ParquetColumnBatch batch, byte actual ) throws IOException {
+            if( actual != type ) throw new IllegalStateException( "type " + actual + ", expected " + type );
+            read( batch );
+        }
+
+        abstract void read( ParquetColumnBatch batch ) throws IOException;
+
+        abstract void write( ParquetColumnBatch batch, int index, RecordConsumer consumer );
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    /**
+     * BOOLEAN, BYTE, SHORT and INTEGER
+     */
+    private static final class IntVector extends Vector {
+        private int[] values = new int[64];
+
+        IntVector( byte type ) {
+            super( type );
+        }
+
+        @Override
+        void read( ParquetColumnBatch batch ) throws IOException {
+            int value;
+            if( type == Types.BOOLEAN.id ) value = batch.readByte() != 0 ? 1 : 0;
+            else if( type == Types.BYTE.id ) value = batch.readByte();
+            else if( type == Types.SHORT.id ) value = ( short ) batch.readUnsignedShort();
+            else value = batch.readInt();
+
+            if( size == values.length ) values = Arrays.copyOf( values, size * 2 );
+            values[size++] = value;
+        }
+
+        @Override
+        void write( ParquetColumnBatch batch, int index, RecordConsumer consumer ) {
+            if( type == Types.BOOLEAN.id ) consumer.addBoolean( values[index] != 0 );
+            else consumer.addInteger( values[index] );
+        }
+    }
+
+    /**
+     * LONG and DATETIME, the date is stored in seconds
+     */
+    private static final class LongVector extends Vector {
+        private long[] values = new long[64];
+
+        LongVector( byte type ) {
+            super( type );
+        }
+
+        @Override
+        void read( ParquetColumnBatch batch ) throws IOException {
+            long value = batch.readLong();
+            if( type == Types.DATETIME.id ) value /= 1000;
+
+            if( size == values.length ) values = Arrays.copyOf( values, size * 2 );
+            values[size++] = value;
+        }
+
+        @Override
+        void write( ParquetColumnBatch batch, int index, RecordConsumer consumer ) {
+            consumer.addLong( values[index] );
+        }
+    }
+
+    private static final class FloatVector extends Vector {
+        private float[] values = new float[64];
+
+        FloatVector() {
+            super( Types.FLOAT.id );
+        }
+
+        @Override
+        void read( ParquetColumnBatch batch ) throws IOException {
+            if( size == values.length ) values = Arrays.copyOf( values, size * 2 );
+            values[size++] = Float.intBitsToFloat( batch.readInt() );
+        }
+
+        @Override
+        void write( ParquetColumnBatch batch, int index, RecordConsumer consumer ) {
+            consumer.addFloat( values[index] );
+        }
+    }
+
+    private static final class DoubleVector extends Vector {
+        private double[] values = new double[64];
+
+        DoubleVector() {
+            super( Types.DOUBLE.id );
+        }
+
+        @Override
+        void read( ParquetColumnBatch batch ) throws IOException {
+            if( size == values.length ) values = Arrays.copyOf( values, size * 2 );
+            values[size++] = Double.longBitsToDouble( batch.readLong() );
+        }
+
+        @Override
+        void write( ParquetColumnBatch batch, int index, RecordConsumer consumer ) {
+            consumer.addDouble( values[index] );
+        }
+    }
+
+    /**
+     * STRING as offset and length in the buffer.
+     * Modified UTF-8 is the same as UTF-8 unless the string has \0 (C0 80) or supplementary characters (ED ..),
+     * only those strings are decoded.
+     */
+    private static final class BinaryVector extends Vector {
+        private int[] offsets = new int[64];
+        private int[] lengths = new int[64];
+        private String[] decoded;
+
+        BinaryVector() {
+            super( Types.STRING.id );
+        }
+
+        @Override
+        void read( ParquetColumnBatch batch ) throws IOException {
+            int length = batch.readUnsignedShort();
+            int offset = batch.position;
+            batch.skipBytes( length );
+
+            if( size == offsets.length ) {
+                offsets = Arrays.copyOf( offsets, size * 2 );
+                lengths = Arrays.copyOf( lengths, size * 2 );
+                if( decoded != null ) decoded = Arrays.copyOf( decoded, size * 2 );
+            }
+
+            for( var i = offset; i < offset + length; i++ ) {
+                byte b = batch.in[i];
+                if( b == ( byte ) 0xC0 || b == ( byte ) 0xED ) {
+                    if( decoded == null ) decoded = new String[offsets.length];
+                    decoded[size] = new DataInputStream( new ByteArrayInputStream( batch.in, offset - 2, length + 2 ) ).readUTF();
+                    break;
+                }
+            }
+
+            offsets[size] = offset;
+            lengths[size] = length;
+            size++;
+        }
+
+        @Override
+        void write( ParquetColumnBatch batch, int index, RecordConsumer consumer ) {
+            String value = decoded != null ? decoded[index] : null;
+
+            consumer.addBinary( value != null
+                ? Binary.fromString( value )
+                : Binary.fromReusedByteArray( batch.in, offsets[index], lengths[index] ) );
+        }
+
+        @Override
+        void clear() {
+            if( decoded != null ) Arrays.fill( decoded, 0, size, null );
+            super.clear();
+        }
+    }
+
+    /**
+     * LIST as start and size in the element vector, written as the standard 3-level list
+     */
+    private static final class ListVector extends Vector {
+        private final Vector element;
+        private int[] starts = new int[64];
+        private int[] sizes = new int[64];
+
+        ListVector( Vector element ) {
+            super( Types.LIST.id );
+            this.element = element;
+        }
+
+        @Override
+        void read( ParquetColumnBatch batch ) throws IOException {
+            int length = batch.readInt();
+
+            if( size == starts.length ) {
+                starts = Arrays.copyOf( starts, size * 2 );
+                sizes = Arrays.copyOf( sizes, size * 2 );
+            }
+            starts[size] = element.size;
+            sizes[size] = length;
+            size++;
+
+            for( var i = 0; i < length; i++ ) element.read( batch, batch.readByte() );
+        }
+
+        @Override
+        void write( ParquetColumnBatch batch, int index, RecordConsumer consumer ) {
+            consumer.startGroup();
+            if( sizes[index] > 0 ) {
+                consumer.startField( "list", 0 );
+                for( int i = starts[index], end = i + sizes[index]; i < end; i++ ) {
+                    consumer.startGroup();
+                    consumer.startField( "element", 0 );
+                    element.write( batch, i, consumer );
+                    consumer.endField( "element", 0 );
+                    consumer.endGroup();
+                }
+                consumer.endField( "list", 0 );
+            }
+            consumer.endGroup();
+        }
+
+        @Override
+        void clear() {
+            element.clear();
+            super.clear();
+        }
+    }
+
+    /**
+     * types with a parquet schema but without a writer (RAW, DATE)
+     */
+    private static final class UnsupportedVector extends Vector {
+        UnsupportedVector( byte type ) {
+            super( type );
+        }
+
+        @Override
+        void read( ParquetColumnBatch batch ) {
+            throw new IllegalStateException( "Unknown type:" + type );
+        }
+
+        @Override
+        void write( ParquetColumnBatch batch, int index, RecordConsumer consumer ) {
+            throw new IllegalStateException( "Unknown type:" + type );
+        }
+    }
+}
@@ -29,8 +29,8 @@ import oap.logstream.LogStreamProtocol.ProtocolVersion;
 import java.io.Serializable;
 
 public class Buffer implements Serializable {
-    public final LogId id;
-    public final ProtocolVersion protocolVersion;
+    public LogId id;
+    public ProtocolVersion protocolVersion;
     private final byte[] data;
     private int position = 0;
     private volatile boolean closed = false;
@@ -169,6 +169,12 @@ public class Buffer implements Serializable {
     }
 
     public final void reset( LogId id ) {
+        reset( id, protocolVersion );
+    }
+
+    public final void reset( LogId id, ProtocolVersion protocolVersion ) {
+        this.id = id;
+        this.protocolVersion = protocolVersion;
         this.closed = false;
         this.position = 0;
         initMetadata( id );
@@ -182,6 +188,10 @@ public class Buffer implements Serializable {
         return position;
     }
 
+    public final int capacity() {
+        return data.length;
+    }
+
     public final void close( long digestionId ) {
         this.closed = true;
         byte[] digestion = encodeLong( digestionId );
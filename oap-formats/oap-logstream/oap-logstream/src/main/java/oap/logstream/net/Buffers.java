@@ -39,8 +39,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -57,11 +55,31 @@ public class Buffers implements Closeable {
     private final BufferConfigurationMap configurations;
     public BufferCache cache;
     ReadyQueue readyBuffers = new ReadyQueue();
+    /**
+     * null - one buffer per log id guarded by the interned {@link LogId#lock()}
+     */
+    private final ConcurrentHashMap<LogId, Slot>[] stripes;
     private volatile boolean closed;
 
     public Buffers( BufferConfigurationMap configurations ) {
+        this( configurations, 0 );
+    }
+
+    /**
+     * @param stripes &gt; 0 - every thread appends to the buffer of its stripe (thread id % stripes),
+     *                threads of different stripes logging the same log id do not contend
+     */
+    @SuppressWarnings( "unchecked" )
+    public Buffers( BufferConfigurationMap configurations, int stripes ) {
         this.configurations = configurations;
         this.cache = new BufferCache();
+
+        if( stripes > 0 ) {
+            this.stripes = new ConcurrentHashMap[stripes];
+            for( var i = 0; i < stripes; i++ ) this.stripes[i] = new ConcurrentHashMap<>();
+        } else {
+            this.stripes = null;
+        }
     }
 
     public final void put( LogId key, ProtocolVersion protocolVersion, byte[] buffer ) {
@@ -71,6 +89,11 @@ public class Buffers implements Closeable {
     public final void put( LogId id, ProtocolVersion protocolVersion, byte[] buffer, int offset, int length ) {
         if( closed ) throw new IllegalStateException( "current buffer is already closed" );
 
+        if( stripes != null ) {
+            putStriped( id, protocolVersion, buffer, offset, length );
+            return;
+        }
+
         var conf = configurationForSelector.computeIfAbsent( id, this::findConfiguration );
 
         var bufferSize = conf.bufferSize;
@@ -88,6 +111,29 @@ public class Buffers implements Closeable {
         }
     }
 
+    private void putStriped( LogId id, ProtocolVersion protocolVersion, byte[] buffer, int offset, int length ) {
+        var conf = configurationForSelector.get( id );
+        if( conf == null ) conf = configurationForSelector.computeIfAbsent( id, this::findConfiguration );
+        var bufferSize = conf.bufferSize;
+
+        var stripe = stripes[( int ) ( Thread.currentThread().threadId() % stripes.length )];
+        var slot = stripe.get( id );
+        if( slot == null ) slot = stripe.computeIfAbsent( id, k -> new Slot() );
+
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized( slot ) {
+            var b = slot.buffer;
+            if( b == null ) slot.buffer = b = cache.get( id, protocolVersion, bufferSize );
+            if( bufferSize - b.headerLength() < length )
+                throw new IllegalArgumentException( "buffer size is too big: " + length + " for buffer of " + bufferSize + "; headers = " + b.headerLength() );
+            if( !b.available( length ) ) {
+                readyBuffers.ready( b );
+                slot.buffer = b = cache.get( id, protocolVersion, bufferSize );
+            }
+            b.put( buffer, offset, length );
+        }
+    }
+
     private BufferConfiguration findConfiguration( LogId id ) {
         for( var conf : configurations.entrySet() ) {
             if( conf.getValue().pattern.matcher( id.logType ).find() ) return conf.getValue();
@@ -96,6 +142,22 @@ public class Buffers implements Closeable {
     }
 
     public void flush() {
+        if( stripes != null ) {
+            for( var stripe : stripes ) {
+                for( var slot : stripe.values() ) {
+                    //noinspection SynchronizationOnLocalVariableOrMethodParameter
+                    synchronized( slot ) {
+                        var buffer = slot.buffer;
+                        if( buffer != null && !buffer.isEmpty() ) {
+                            readyBuffers.ready( buffer );
+                            slot.buffer = null;
+                        }
+                    }
+                }
+            }
+            return;
+        }
+
         for( var internSelector : currentBuffers.keySet() ) {
             //noinspection SynchronizationOnLocalVariableOrMethodParameter
             synchronized( internSelector ) {
@@ -132,7 +194,18 @@ public class Buffers implements Closeable {
 
     public void report() {
         report( readyBuffers.buffers, "true" );
-        report( currentBuffers.values(), "false" );
+        if( stripes != null ) {
+            var current = new ArrayList<Buffer>();
+            for( var stripe : stripes ) {
+                for( var slot : stripe.values() ) {
+                    var buffer = slot.buffer;
+                    if( buffer != null ) current.add( buffer );
+                }
+            }
+            report( current, "false" );
+        } else {
+            report( currentBuffers.values(), "false" );
+        }
     }
 
     private void report( Collection<Buffer> in, String ready ) {
@@ -152,21 +225,21 @@ public class Buffers implements Closeable {
     }
 
     public static class BufferCache {
-        private final Map<Integer, Queue<Buffer>> cache = new HashMap<>();
+        private final ConcurrentHashMap<Integer, Queue<Buffer>> cache = new ConcurrentHashMap<>();
 
-        private synchronized Buffer get( LogId id, ProtocolVersion protocolVersion, int bufferSize ) {
-            var list = cache.computeIfAbsent( bufferSize, bs -> new LinkedList<>() );
+        private Buffer get( LogId id, ProtocolVersion protocolVersion, int bufferSize ) {
+            var list = cache.get( bufferSize );
+            if( list == null ) list = cache.computeIfAbsent( bufferSize, bs -> new ConcurrentLinkedQueue<>() );
 
-            if( list.isEmpty() ) return new Buffer( bufferSize, id, protocolVersion );
-            else {
-                var buffer = list.poll();
-                buffer.reset( id );
-                return buffer;
-            }
+            var buffer = list.poll();
+            if( buffer == null ) return new Buffer( bufferSize, id, protocolVersion );
+
+            buffer.reset( id, protocolVersion );
+            return buffer;
         }
 
-        private synchronized void release( Buffer buffer ) {
-            var list = cache.get( buffer.length() );
+        private void release( Buffer buffer ) {
+            var list = cache.get( buffer.capacity() );
             if( list != null ) list.offer( buffer );
         }
 
@@ -176,11 +249,15 @@ public class Buffers implements Closeable {
         }
     }
 
+    private static final class Slot {
+        private Buffer buffer;
+    }
+
     static class ReadyQueue implements Serializable {
         static Cuid digestionIds = Cuid.UNIQUE;
         private final ConcurrentLinkedQueue<Buffer> buffers = new ConcurrentLinkedQueue<>();
 
-        public final synchronized void ready( Buffer buffer ) {
+        public final void ready( Buffer buffer ) {
             buffer.close( digestionIds.nextLong() );
             buffers.offer( buffer );
         }
@@ -0,0 +1,174 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.logstream.net;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import io.airlift.compress.lz4.Lz4Compressor;
+import io.airlift.compress.lz4.Lz4Decompressor;
+import oap.logstream.LogStreamProtocol.ProtocolVersion;
+import oap.util.FastByteArrayOutputStream;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Several ready {@link Buffer}s of one log type packed into a single message,
+ * {@link oap.logstream.LogStreamProtocol#BATCH_VERSION}.
+ * <p>
+ * Message: byte compression, UTF log type, int payload length, compressed payload.
+ * Payload: int count, then count times byte protocol version and the buffer as it is sent without batching.
+ * Zstd uses the dictionary of the log type if there is one, the same dictionary has to be configured on the server.
+ */
+public final class LogStreamBatch {
+    private LogStreamBatch() {
+    }
+
+    public enum Compression {
+        NONE, LZ4, ZSTD;
+
+        public static Compression valueOf( byte id ) {
+            if( id < 0 || id >= values().length ) throw new IllegalArgumentException( "compression " + id );
+            return values()[id];
+        }
+    }
+
+    public static final class Writer {
+        public final String logType;
+        private final FastByteArrayOutputStream payload = new FastByteArrayOutputStream();
+        private int count;
+
+        public Writer( String logType ) {
+            this.logType = logType;
+            reset();
+        }
+
+        public void add( Buffer buffer ) {
+            try {
+                payload.write( buffer.protocolVersion.version );
+                payload.write( buffer.data(), 0, buffer.length() );
+                count++;
+            } catch( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        }
+
+        public int size() {
+            return ( int ) payload.length;
+        }
+
+        public boolean isEmpty() {
+            return count == 0;
+        }
+
+        public void reset() {
+            payload.reset();
+            // count placeholder
+            payload.write( 0 );
+            payload.write( 0 );
+            payload.write( 0 );
+            payload.write( 0 );
+            count = 0;
+        }
+
+        public byte[] encode( Compression compression, int level, @Nullable ZstdDictCompress dictionary ) {
+            byte[] src = payload.array;
+            int length = ( int ) payload.length;
+            src[0] = ( byte ) ( count >>> 24 );
+            src[1] = ( byte ) ( count >>> 16 );
+            src[2] = ( byte ) ( count >>> 8 );
+            src[3] = ( byte ) count;
+
+            byte[] compressed = switch( compression ) {
+                case NONE -> Arrays.copyOf( src, length );
+                case LZ4 -> {
+                    var compressor = new Lz4Compressor();
+                    var out = new byte[compressor.maxCompressedLength( length )];
+                    int size = compressor.compress( src, 0, length, out, 0, out.length );
+                    yield Arrays.copyOf( out, size );
+                }
+                case ZSTD -> dictionary != null
+                    ? Zstd.compress( Arrays.copyOf( src, length ), dictionary )
+                    : Zstd.compress( Arrays.copyOf( src, length ), level );
+            };
+
+            try( var out = new FastByteArrayOutputStream( compressed.length + logType.length() + 16 );
+                 var dos = new DataOutputStream( out ) ) {
+                dos.writeByte( compression.ordinal() );
+                dos.writeUTF( logType );
+                dos.writeInt( length );
+                dos.write( compressed );
+                dos.flush();
+
+                return out.toByteArray();
+            } catch( IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        }
+    }
+
+    public interface Dictionaries {
+        @Nullable
+        ZstdDictDecompress get( String logType );
+    }
+
+    public interface BufferReader {
+        void read( ProtocolVersion protocolVersion, DataInputStream in ) throws IOException;
+    }
+
+    public static void read( byte[] data, int size, Dictionaries dictionaries, BufferReader reader ) throws IOException {
+        var in = new DataInputStream( new ByteArrayInputStream( data, 0, size ) );
+        var compression = Compression.valueOf( in.readByte() );
+        var logType = in.readUTF();
+        var length = in.readInt();
+        int offset = size - in.available();
+
+        byte[] payload = switch( compression ) {
+            case NONE -> Arrays.copyOfRange( data, offset, size );
+            case LZ4 -> {
+                var out = new byte[length];
+                new Lz4Decompressor().decompress( data, offset, size - offset, out, 0, length );
+                yield out;
+            }
+            case ZSTD -> {
+                var src = Arrays.copyOfRange( data, offset, size );
+                var dictionary = dictionaries.get( logType );
+                yield dictionary != null ? Zstd.decompress( src, dictionary, length ) : Zstd.decompress( src, length );
+            }
+        };
+
+        var payloadIn = new DataInputStream( new ByteArrayInputStream( payload ) );
+        var count = payloadIn.readInt();
+        for( var i = 0; i < count; i++ ) {
+            reader.read( ProtocolVersion.valueOf( payloadIn.readUnsignedByte() ), payloadIn );
+        }
+    }
+}
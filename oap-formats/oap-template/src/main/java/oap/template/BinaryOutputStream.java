@@ -33,8 +33,6 @@ import java.io.OutputStream;
 import java.util.Collection;
 import java.util.Date;
 
-import static org.joda.time.DateTimeZone.UTC;
-
 public class BinaryOutputStream extends OutputStream {
     protected final byte[] writeBuffer = new byte[9];
     protected final OutputStream out;
@@ -104,7 +102,7 @@ public class BinaryOutputStream extends OutputStream {
         else if( v instanceof Dictionary d ) writeDictionary( d );
         else if( v instanceof Double d ) writeDouble( d );
         else if( v instanceof DateTime dt ) writeDateTime( dt );
-        else if( v instanceof Date d ) writeDateTime( new DateTime( d, UTC ) );
+        else if( v instanceof Date d ) writeDateTime( d.getTime() );
         else if( v instanceof byte[] b ) writeRaw( b );
         else if( v instanceof Collection<?> c ) writeList( c );
         else
@@ -158,9 +156,13 @@ public class BinaryOutputStream extends OutputStream {
     }
 
     public void writeDateTime( DateTime jodaDateTime ) throws IOException {
+        writeDateTime( jodaDateTime.getMillis() );
+    }
+
+    public void writeDateTime( long millis ) throws IOException {
         writeBuffer[0] = Types.DATETIME.id;
 
-        _writeLong( jodaDateTime.getMillis() );
+        _writeLong( millis );
     }
 
     public void writeEnum( Enum<?> e ) throws IOException {
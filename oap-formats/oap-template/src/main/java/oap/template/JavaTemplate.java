@@ -27,6 +27,7 @@ package oap.template;
 import lombok.extern.slf4j.Slf4j;
 import oap.reflect.TypeRef;
 import oap.template.render.AstRenderRoot;
+import oap.template.render.BytecodeRender;
 import oap.template.render.Render;
 import oap.template.render.TemplateType;
 import oap.tools.MemoryClassLoaderJava;
@@ -37,17 +38,30 @@ import java.io.StringReader;
 import java.nio.file.Path;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Supplier;
 
 import static java.util.stream.Collectors.joining;
 
 @Slf4j
 public class JavaTemplate<TIn, TOut, TOutMutable, TA extends TemplateAccumulator<TOut, TOutMutable, TA>> implements Template<TIn, TOut, TOutMutable, TA> {
-    private final TriConsumer<TIn, Map<String, Supplier<String>>, TemplateAccumulator<?, ?, ?>> cons;
+    private volatile TriConsumer<TIn, Map<String, Supplier<String>>, TemplateAccumulator<?, ?, ?>> cons;
     private final TA acc;
+    /**
+     * stored bytecode until it has rendered once, see {@link #firstRender}
+     */
+    private volatile Supplier<? extends JavaTemplate<TIn, TOut, TOutMutable, TA>> recompile;
 
-    @SuppressWarnings( "unchecked" )
     public JavaTemplate( String name, String template, TypeRef<TIn> type, Path diskCache, TA acc, AstRenderRoot ast ) {
+        this( name, template, type, diskCache, acc, ast, null );
+    }
+
+    /**
+     * @param compiled receives the class name and the bytecode of the compiled template
+     */
+    @SuppressWarnings( "unchecked" )
+    public JavaTemplate( String name, String template, TypeRef<TIn> type, Path diskCache, TA acc, AstRenderRoot ast,
+                         BiConsumer<String, byte[]> compiled ) {
         this.acc = acc;
         try {
             var render = Render.init( name, template, new TemplateType( type.type() ), acc );
@@ -62,6 +76,10 @@ public class JavaTemplate<TIn, TOut, TOutMutable, TA extends TemplateAccumulator
 
             var fullTemplateName = getClass().getPackage().getName() + "." + render.nameEscaped();
             try( MemoryClassLoaderJava mcl = new MemoryClassLoaderJava( fullTemplateName, render.out(), diskCache ) ) {
+                if( compiled != null ) {
+                    var bytecode = mcl.bytecode( fullTemplateName );
+                    if( bytecode != null ) compiled.accept( fullTemplateName, bytecode );
+                }
                 cons = ( TriConsumer<TIn, Map<String, Supplier<String>>, TemplateAccumulator<?, ?, ?>> ) mcl
                         .loadClass( fullTemplateName )
                         .getDeclaredConstructor()
@@ -72,9 +90,51 @@ public class JavaTemplate<TIn, TOut, TOutMutable, TA extends TemplateAccumulator
         }
     }
 
+    /**
+     * template compiled before, see {@link TemplateBytecodeStore}
+     */
+    public JavaTemplate( String className, byte[] bytecode, TA acc ) {
+        this( className, bytecode, acc, null );
+    }
+
+    /**
+     * @param recompile replaces the template if the stored bytecode does not link against the current classes
+     */
+    @SuppressWarnings( "unchecked" )
+    public JavaTemplate( String className, byte[] bytecode, TA acc, Supplier<? extends JavaTemplate<TIn, TOut, TOutMutable, TA>> recompile ) {
+        this.acc = acc;
+        this.recompile = recompile;
+        try {
+            cons = ( TriConsumer<TIn, Map<String, Supplier<String>>, TemplateAccumulator<?, ?, ?>> ) new BytecodeClassLoader()
+                .define( className, bytecode )
+                .getDeclaredConstructor()
+                .newInstance();
+        } catch( Exception | LinkageError e ) {
+            throw new TemplateException( e );
+        }
+    }
+
+    /**
+     * Generates the template class directly, without the java source and javac.
+     *
+     * @return null if the template uses something the bytecode generator does not support
+     */
+    public static TemplateBytecodeStore.Entry generate( String name, String template, TypeRef<?> type, TemplateAccumulator<?, ?, ?> acc, AstRenderRoot ast ) {
+        try {
+            var render = BytecodeRender.init( name, template, new TemplateType( type.type() ), acc );
+            ast.render( render );
+
+            return new TemplateBytecodeStore.Entry( render.className, render.toByteArray() );
+        } catch( RuntimeException e ) {
+            log.debug( "{}: bytecode generation is not supported, fallback to javac: {}", name, e.getMessage() );
+            log.trace( e.getMessage(), e );
+            return null;
+        }
+    }
+
     public TA render( TIn obj, boolean eol ) {
         var newAcc = acc.newInstance();
-        cons.accept( obj, Map.of(), newAcc );
+        accept( obj, newAcc );
 
         return newAcc.addEol( eol );
     }
@@ -82,8 +142,53 @@ public class JavaTemplate<TIn, TOut, TOutMutable, TA extends TemplateAccumulator
     @Override
     public TA render( TIn obj, boolean eol, TOutMutable tOut ) {
         var newAcc = acc.newInstance( tOut );
-        cons.accept( obj, Map.of(), newAcc );
+        accept( obj, newAcc );
 
         return newAcc.addEol( eol );
     }
+
+    @Override
+    public TA renderTo( TIn obj, boolean eol, TA acc ) {
+        accept( obj, acc );
+
+        return acc.addEol( eol );
+    }
+
+    private void accept( TIn obj, TA acc ) {
+        if( recompile != null ) firstRender( obj, acc );
+        else cons.accept( obj, Map.of(), acc );
+    }
+
+    /**
+     * the stored bytecode is linked lazily, a class changed since it was compiled fails here with a LinkageError.
+     * Such an entry is a cache miss: the template is recompiled and rendered again, the output is not touched before.
+     */
+    private synchronized void firstRender( TIn obj, TA acc ) {
+        if( recompile == null ) {
+            cons.accept( obj, Map.of(), acc );
+            return;
+        }
+
+        TA out = acc.newInstance();
+        try {
+            cons.accept( obj, Map.of(), out );
+        } catch( LinkageError e ) {
+            log.warn( "stored template does not link, recompiling: {}", e.toString() );
+            cons = recompile.get().cons;
+            out = acc.newInstance();
+            cons.accept( obj, Map.of(), out );
+        }
+        recompile = null;
+        acc.accept( out );
+    }
+
+    private static class BytecodeClassLoader extends ClassLoader {
+        BytecodeClassLoader() {
+            super( JavaTemplate.class.getClassLoader() );
+        }
+
+        Class<?> define( String className, byte[] bytecode ) {
+            return defineClass( className, bytecode, 0, bytecode.length );
+        }
+    }
 }
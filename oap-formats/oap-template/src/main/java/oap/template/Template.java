@@ -36,4 +36,9 @@ public interface Template<TIn, TOut, TOutMutable, TA extends TemplateAccumulator
     default TA render( TIn obj, TOutMutable out ) {
         return render( obj, false, out );
     }
+
+    /**
+     * appends the row to the caller's accumulator, nothing is allocated per row if the accumulator is reused
+     */
+    TA renderTo( TIn obj, boolean eol, TA acc );
 }
@@ -36,8 +36,6 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 
-import static org.joda.time.DateTimeZone.UTC;
-
 public class TemplateAccumulatorBinary implements TemplateAccumulator<byte[], FastByteArrayOutputStream, TemplateAccumulatorBinary> {
     protected final FastByteArrayOutputStream baos;
     private final BinaryOutputStream bos;
@@ -114,7 +112,7 @@ public class TemplateAccumulatorBinary implements TemplateAccumulator<byte[], Fa
     @SneakyThrows
     @Override
     public void accept( Date javaDate ) {
-        bos.writeDateTime( new DateTime( javaDate, UTC ) );
+        bos.writeDateTime( javaDate.getTime() );
     }
 
     @SneakyThrows
@@ -239,6 +237,29 @@ public class TemplateAccumulatorBinary implements TemplateAccumulator<byte[], Fa
         baos.reset();
     }
 
+    /**
+     * Appends the next rows to the caller's region, e.g. a pooled array, starting at offset.
+     * The array is replaced by a larger copy only if the rows do not fit, see {@link #array()}.
+     */
+    public TemplateAccumulatorBinary wrap( byte[] array, int offset ) {
+        baos.array = array;
+        baos.length = offset;
+        baos.position( offset );
+
+        return this;
+    }
+
+    /**
+     * the rendered rows are array()[0..length()), no copy as opposed to {@link #get()}
+     */
+    public byte[] array() {
+        return baos.array;
+    }
+
+    public int length() {
+        return baos.length;
+    }
+
     @SneakyThrows
     @Override
     public byte[] get() {
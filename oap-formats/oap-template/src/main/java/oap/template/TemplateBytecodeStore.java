@@ -0,0 +1,312 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.template;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import oap.template.render.AstRenderRoot;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Persistent content-addressed store of compiled templates.
+ * <p>
+ * An entry is addressed by the template id plus everything else the generated code depends on
+ * (input type, error strategy, engine version, java version), so a hit skips parsing, code generation and javac.
+ * The input type, the accumulator and the post process are fingerprinted by their class bytes, so a rebuilt class does not hit an entry compiled against the old one.
+ * The other classes the template reads (field and method types, functions) are known only once the template is parsed,
+ * the entry keeps their fingerprints and is a miss if one of them changed.
+ * Entries are written atomically and can be shared between processes or produced at build time.
+ */
+@Slf4j
+public class TemplateBytecodeStore {
+    public static final String EXTENSION = ".tclass";
+    private static final int MAGIC = 0x0A9B7C02;
+    private static final String VERSION = engineVersion() + "-" + Runtime.version().feature();
+    private static final ClassValue<Optional<String>> FINGERPRINTS = new ClassValue<>() {
+        @Override
+        protected Optional<String> computeValue( Class<?> clazz ) {
+            return fingerprint( clazz );
+        }
+    };
+
+    private static final Counter METRICS_HIT = Metrics.counter( "oap_template_store", "type", "hit" );
+    private static final Counter METRICS_MISS = Metrics.counter( "oap_template_store", "type", "miss" );
+    private static final Counter METRICS_STALE = Metrics.counter( "oap_template_store", "type", "stale" );
+    private static final Counter METRICS_WRITE = Metrics.counter( "oap_template_store", "type", "write" );
+    private static final Counter METRICS_ERROR = Metrics.counter( "oap_template_store", "type", "error" );
+
+    public final Path directory;
+
+    public TemplateBytecodeStore( Path directory ) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param postProcess null if the template is not post processed
+     * @return null if the class bytes of the input type, the accumulator or the post process cannot be read, such templates are not stored
+     */
+    @Nullable
+    public static String key( String id, Type type, Class<?> accumulator, @Nullable Class<?> postProcess, ErrorStrategy errorStrategy ) {
+        Hasher hasher = Hashing.murmur3_128().newHasher()
+            .putString( id, UTF_8 )
+            .putString( type.getTypeName(), UTF_8 )
+            .putString( errorStrategy.name(), UTF_8 )
+            .putString( VERSION, UTF_8 );
+
+        var classes = new LinkedHashSet<Class<?>>();
+        classes( type, classes );
+        classes( accumulator, classes );
+        if( postProcess != null ) classes( postProcess, classes );
+        for( var clazz : classes ) {
+            Optional<String> fingerprint = FINGERPRINTS.get( clazz );
+            if( fingerprint.isEmpty() ) return null;
+            hasher.putString( fingerprint.get(), UTF_8 );
+        }
+
+        return hasher.hash().toString();
+    }
+
+    /**
+     * the classes of the type, its type arguments and their superclasses, jdk classes are covered by the java version
+     */
+    private static void classes( Type type, Set<Class<?>> classes ) {
+        if( type instanceof Class<?> clazz ) {
+            if( clazz.isArray() ) {
+                classes( clazz.getComponentType(), classes );
+                return;
+            }
+            for( Class<?> c = clazz; c != null && c.getClassLoader() != null; c = c.getSuperclass() )
+                if( !classes.add( c ) ) break;
+        } else if( type instanceof ParameterizedType parameterizedType ) {
+            classes( parameterizedType.getRawType(), classes );
+            for( var argument : parameterizedType.getActualTypeArguments() ) classes( argument, classes );
+        } else if( type instanceof GenericArrayType genericArrayType ) {
+            classes( genericArrayType.getGenericComponentType(), classes );
+        } else if( type instanceof WildcardType wildcardType ) {
+            for( var bound : wildcardType.getUpperBounds() ) classes( bound, classes );
+        }
+    }
+
+    private static Optional<String> fingerprint( Class<?> clazz ) {
+        if( clazz.isHidden() ) return Optional.empty();
+
+        try( InputStream in = clazz.getResourceAsStream( '/' + clazz.getName().replace( '.', '/' ) + ".class" ) ) {
+            if( in == null ) return Optional.empty();
+
+            return Optional.of( Hashing.murmur3_128().hashBytes( in.readAllBytes() ).toString() );
+        } catch( IOException e ) {
+            log.warn( "{}: {}", clazz, e.getMessage() );
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * the implementation version is not set if the engine is not packaged (e.g. target/classes),
+     * the code source is fingerprinted by the size and modification time of its files then
+     */
+    private static String engineVersion() {
+        String implementationVersion = TemplateBytecodeStore.class.getPackage().getImplementationVersion();
+        if( implementationVersion != null ) return implementationVersion;
+
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        try {
+            Path location = Path.of( TemplateBytecodeStore.class.getProtectionDomain().getCodeSource().getLocation().toURI() );
+            try( Stream<Path> files = Files.walk( location ) ) {
+                for( var file : files.filter( Files::isRegularFile ).sorted().toList() ) {
+                    hasher
+                        .putString( location.relativize( file ).toString(), UTF_8 )
+                        .putLong( Files.size( file ) )
+                        .putLong( Files.getLastModifiedTime( file ).toMillis() );
+                }
+            }
+        } catch( Exception e ) {
+            log.warn( "engine version is unknown, the store is used by this process only: {}", e.getMessage() );
+            hasher.putLong( ProcessHandle.current().pid() ).putLong( System.nanoTime() );
+        }
+
+        return "dev-" + hasher.hash();
+    }
+
+    public Path path( String key ) {
+        return directory.resolve( key.substring( 0, 2 ), key + EXTENSION );
+    }
+
+    /**
+     * @return null if there is no entry or a class the template reads has changed since the entry was saved
+     */
+    @Nullable
+    public Entry load( String key ) {
+        Path path = path( key );
+        Entry entry;
+        try( InputStream is = Files.newInputStream( path );
+             DataInputStream in = new DataInputStream( is ) ) {
+            if( in.readInt() != MAGIC ) throw new IOException( "invalid header" );
+            String className = in.readUTF();
+            int dependencies = in.readInt();
+            for( int i = 0; i < dependencies; i++ ) {
+                String dependency = in.readUTF();
+                String fingerprint = in.readUTF();
+                if( !fingerprint.equals( fingerprint( dependency ) ) ) {
+                    log.debug( "{}: {} has changed", path, dependency );
+                    METRICS_STALE.increment();
+                    return null;
+                }
+            }
+            entry = new Entry( className, in.readAllBytes() );
+        } catch( NoSuchFileException e ) {
+            METRICS_MISS.increment();
+            return null;
+        } catch( IOException e ) {
+            log.warn( "{}: {}", path, e.getMessage() );
+            METRICS_ERROR.increment();
+            return null;
+        }
+
+        METRICS_HIT.increment();
+        try {
+            Files.setLastModifiedTime( path, FileTime.fromMillis( System.currentTimeMillis() ) );
+        } catch( IOException e ) {
+            log.debug( "{}: cannot touch, the entry may be purged while in use: {}", path, e.getMessage() );
+        }
+
+        return entry;
+    }
+
+    @Nullable
+    private static String fingerprint( String className ) {
+        try {
+            return FINGERPRINTS.get( Class.forName( className, false, TemplateBytecodeStore.class.getClassLoader() ) ).orElse( null );
+        } catch( ClassNotFoundException | LinkageError e ) {
+            return null;
+        }
+    }
+
+    public void save( String key, String className, byte[] bytecode ) {
+        save( key, className, bytecode, List.of() );
+    }
+
+    /**
+     * @param types the types the template reads, see {@link AstRenderRoot#types}.
+     *              The entry is not saved if one of them cannot be fingerprinted.
+     */
+    public void save( String key, String className, byte[] bytecode, Collection<? extends Type> types ) {
+        Path path = path( key );
+
+        var classes = new LinkedHashSet<Class<?>>();
+        for( var type : types ) classes( type, classes );
+        var dependencies = new LinkedHashMap<String, String>();
+        for( var clazz : classes ) {
+            Optional<String> fingerprint = FINGERPRINTS.get( clazz );
+            if( fingerprint.isEmpty() ) {
+                log.debug( "{}: {} cannot be fingerprinted, the template is not stored", className, clazz );
+                return;
+            }
+            dependencies.put( clazz.getName(), fingerprint.get() );
+        }
+
+        try {
+            var out = new ByteArrayOutputStream( bytecode.length + className.length() + 16 );
+            try( DataOutputStream data = new DataOutputStream( out ) ) {
+                data.writeInt( MAGIC );
+                data.writeUTF( className );
+                data.writeInt( dependencies.size() );
+                for( var dependency : dependencies.entrySet() ) {
+                    data.writeUTF( dependency.getKey() );
+                    data.writeUTF( dependency.getValue() );
+                }
+                data.write( bytecode );
+            }
+
+            Files.createDirectories( path.getParent() );
+            Path tmp = Files.createTempFile( path.getParent(), key, ".tmp" );
+            try {
+                Files.write( tmp, out.toByteArray() );
+                Files.move( tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+            } finally {
+                Files.deleteIfExists( tmp );
+            }
+            METRICS_WRITE.increment();
+        } catch( IOException e ) {
+            log.error( "Cannot save {}", path, e );
+            METRICS_ERROR.increment();
+        }
+    }
+
+    /**
+     * deletes entries not used for ttl ms
+     */
+    public void purge( long ttl ) {
+        if( !Files.isDirectory( directory ) ) return;
+
+        long now = System.currentTimeMillis();
+        try( Stream<Path> stream = Files.walk( directory ) ) {
+            stream
+                .filter( Files::isRegularFile )
+                .forEach( path -> {
+                    try {
+                        if( now - Files.getLastModifiedTime( path ).toMillis() > ttl ) {
+                            log.debug( "delete {}", path );
+                            Files.deleteIfExists( path );
+                        }
+                    } catch( IOException e ) {
+                        log.error( "Cannot delete file: {}", path, e );
+                    }
+                } );
+        } catch( IOException | UncheckedIOException e ) {
+            log.error( "Could not walk through: " + directory, e );
+        }
+    }
+
+    public record Entry( String className, byte[] bytecode ) {
+    }
+}
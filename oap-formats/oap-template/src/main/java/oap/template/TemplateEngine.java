@@ -59,28 +59,50 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 @Slf4j
-@ToString( of = { "ttl", "maxSize", "diskCache" } )
+@ToString( of = { "ttl", "maxSize", "diskCache", "bytecodeStore", "backend" } )
 public class TemplateEngine implements Runnable {
     public static final String METRICS_NAME = "oap_template_cache";
+    private static final Consumer<AstRender> NO_POST_PROCESS = _ -> {};
     public final Path diskCache;
+    public final TemplateBytecodeStore bytecodeStore;
     public final long ttl;
     private final Map<String, List<Method>> builtInFunction = new HashMap<>();
     private final Cache<String, TemplateFunction> templates;
+    private final LongAdder compiled = new LongAdder();
+    private final LongAdder loaded = new LongAdder();
+    private final LongAdder generated = new LongAdder();
+    private final AtomicLong precompileTime = new AtomicLong();
     public long maxSize = 1_000_000;
+    public Backend backend = Backend.JAVAC;
 
     public TemplateEngine( long ttl ) {
         this( null, ttl );
     }
 
     public TemplateEngine( Path diskCache, long ttl ) {
+        this( diskCache, null, ttl );
+    }
+
+    /**
+     * @param bytecodeStore directory of {@link TemplateBytecodeStore}, templates found there are neither parsed nor compiled
+     */
+    public TemplateEngine( Path diskCache, Path bytecodeStore, long ttl ) {
         this.diskCache = diskCache;
+        this.bytecodeStore = bytecodeStore != null ? new TemplateBytecodeStore( bytecodeStore ) : null;
         this.ttl = ttl;
 
         templates = CacheBuilder.newBuilder()
@@ -94,13 +116,17 @@ public class TemplateEngine implements Runnable {
 
         loadFunctions();
 
-        log.info( "diskCache: {} ttl: {} functions: {}", diskCache, Dates.durationToString( ttl ), builtInFunction.keySet() );
+        log.info( "diskCache: {} bytecodeStore: {} ttl: {} functions: {}", diskCache, bytecodeStore, Dates.durationToString( ttl ), builtInFunction.keySet() );
         log.info( "functions: {}", builtInFunction.values().stream().flatMap( Collection::stream ).map( Method::getName ).distinct().toList() );
 
         Metrics.gauge( METRICS_NAME, Tags.of( "type", "size" ), templates, Cache::size );
         Metrics.gauge( METRICS_NAME, Tags.of( "type", "hit" ), templates, c -> c.stats().hitCount() );
         Metrics.gauge( METRICS_NAME, Tags.of( "type", "miss" ), templates, c -> c.stats().missCount() );
         Metrics.gauge( METRICS_NAME, Tags.of( "type", "eviction" ), templates, c -> c.stats().evictionCount() );
+        Metrics.gauge( METRICS_NAME, Tags.of( "type", "compiled" ), compiled, LongAdder::doubleValue );
+        Metrics.gauge( METRICS_NAME, Tags.of( "type", "loaded" ), loaded, LongAdder::doubleValue );
+        Metrics.gauge( METRICS_NAME, Tags.of( "type", "generated" ), generated, LongAdder::doubleValue );
+        Metrics.gauge( METRICS_NAME, Tags.of( "type", "precompile_ms" ), precompileTime, AtomicLong::get );
     }
 
     public static String getHashName( String template ) {
@@ -155,8 +181,7 @@ public class TemplateEngine implements Runnable {
 
     public <TIn, TOut, TOutMutable, TA extends TemplateAccumulator<TOut, TOutMutable, TA>> Template<TIn, TOut, TOutMutable, TA>
     getTemplate( String name, TypeRef<TIn> type, String template, TA acc, Map<String, String> aliases, ErrorStrategy errorStrategy ) {
-        return getTemplate( name, type, template, acc, aliases, errorStrategy, _ -> {
-        } );
+        return getTemplate( name, type, template, acc, aliases, errorStrategy, NO_POST_PROCESS );
     }
 
     @SuppressWarnings( "unchecked" )
@@ -178,26 +203,26 @@ public class TemplateEngine implements Runnable {
 
         log.trace( "id '{}' acc '{}' template '{}' aliases '{}'", id, acc.getClass(), template, aliases );
 
+        String storeKey = storeKey( id, type, acc, errorStrategy, postProcess );
+
         try {
             TemplateFunction tFunc = templates.get( id, () -> {
-                TemplateLexer lexer = new TemplateLexer( CharStreams.fromString( template ) );
-                TemplateGrammar grammar = new TemplateGrammar( new BufferedTokenStream( lexer ), builtInFunction, errorStrategy );
-                if( errorStrategy == ErrorStrategy.ERROR ) {
-                    lexer.addErrorListener( ThrowingErrorListener.INSTANCE );
-                    grammar.addErrorListener( ThrowingErrorListener.INSTANCE );
+                if( storeKey != null ) {
+                    TemplateBytecodeStore.Entry entry = bytecodeStore.load( storeKey );
+                    if( entry != null ) {
+                        try {
+                            JavaTemplate<TIn, TOut, TOutMutable, TA> tf = new JavaTemplate<>( entry.className(), entry.bytecode(), acc,
+                                () -> compile( name, id, type, template, acc, aliases, errorStrategy, postProcess, storeKey ) );
+                            loaded.increment();
+                            return new TemplateFunction( tf, new Exception().getStackTrace() );
+                        } catch( TemplateException e ) {
+                            log.warn( "{}: cannot load {}, recompiling", storeKey, entry.className(), e );
+                        }
+                    }
                 }
-                Elements elements = grammar.elements( aliases ).ret;
-                log.trace( "\n" + elements.print() );
 
-                AstRenderRoot ast = TemplateAstUtils.toAst( elements, new TemplateType( type.type() ), builtInFunction, errorStrategy );
-
-                if( postProcess != null )
-                    postProcess.accept( ast );
-
-                log.trace( "\n" + ast.print() );
-
-                JavaTemplate<TIn, TOut, TOutMutable, TA> tf = new JavaTemplate<>( name + '_' + id, template, type, diskCache, acc, ast );
-                return new TemplateFunction( tf, new Exception().getStackTrace() );
+                return new TemplateFunction( compile( name, id, type, template, acc, aliases, errorStrategy, postProcess, storeKey ),
+                    new Exception().getStackTrace() );
             } );
 
             return ( Template<TIn, TOut, TOutMutable, TA> ) tFunc.template;
@@ -210,13 +235,120 @@ public class TemplateEngine implements Runnable {
         }
     }
 
+    private <TIn, TOut, TOutMutable, TA extends TemplateAccumulator<TOut, TOutMutable, TA>> JavaTemplate<TIn, TOut, TOutMutable, TA>
+    compile( String name, String id, TypeRef<TIn> type, String template, TA acc, Map<String, String> aliases, ErrorStrategy errorStrategy,
+             Consumer<AstRender> postProcess, String storeKey ) {
+        TemplateLexer lexer = new TemplateLexer( CharStreams.fromString( template ) );
+        TemplateGrammar grammar = new TemplateGrammar( new BufferedTokenStream( lexer ), builtInFunction, errorStrategy );
+        if( errorStrategy == ErrorStrategy.ERROR ) {
+            lexer.addErrorListener( ThrowingErrorListener.INSTANCE );
+            grammar.addErrorListener( ThrowingErrorListener.INSTANCE );
+        }
+        Elements elements = grammar.elements( aliases ).ret;
+        log.trace( "\n" + elements.print() );
+
+        AstRenderRoot ast = TemplateAstUtils.toAst( elements, new TemplateType( type.type() ), builtInFunction, errorStrategy );
+
+        if( postProcess != null )
+            postProcess.accept( ast );
+
+        log.trace( "\n" + ast.print() );
+
+        if( backend == Backend.BYTECODE ) {
+            TemplateBytecodeStore.Entry entry = JavaTemplate.generate( name + '_' + id, template, type, acc, ast );
+            if( entry != null ) {
+                try {
+                    JavaTemplate<TIn, TOut, TOutMutable, TA> tf = new JavaTemplate<>( entry.className(), entry.bytecode(), acc );
+                    generated.increment();
+                    if( storeKey != null ) bytecodeStore.save( storeKey, entry.className(), entry.bytecode(), ast.types );
+                    return tf;
+                } catch( TemplateException e ) {
+                    log.warn( "{}: generated bytecode is rejected, fallback to javac", name, e );
+                }
+            }
+        }
+
+        JavaTemplate<TIn, TOut, TOutMutable, TA> tf = new JavaTemplate<>( name + '_' + id, template, type, diskCache, acc, ast,
+            storeKey != null ? ( className, bytecode ) -> bytecodeStore.save( storeKey, className, bytecode, ast.types ) : null );
+        compiled.increment();
+        return tf;
+    }
+
+    /**
+     * lambdas are hidden classes with a name that is not stable between runs, such templates are not stored
+     */
+    private String storeKey( String id, TypeRef<?> type, TemplateAccumulator<?, ?, ?> acc, ErrorStrategy errorStrategy, Consumer<AstRender> postProcess ) {
+        if( bytecodeStore == null ) return null;
+        Class<?> postProcessClass = postProcess != null && postProcess != NO_POST_PROCESS ? postProcess.getClass() : null;
+        if( postProcessClass != null && postProcessClass.isHidden() ) return null;
+
+        return TemplateBytecodeStore.key( id, type.type(), acc.getClass(), postProcessClass, errorStrategy );
+    }
+
+    /**
+     * Compiles templates in parallel, e.g. at startup.
+     *
+     * @param templates {@link #getTemplate} calls
+     * @return time spent, ms
+     */
+    public long precompile( Collection<? extends Supplier<? extends Template<?, ?, ?, ?>>> templates, int parallelism ) {
+        long start = System.currentTimeMillis();
+        long compiledBefore = compiled.sum();
+
+        try( ExecutorService executor = Executors.newFixedThreadPool( parallelism ) ) {
+            List<Future<?>> futures = new ArrayList<>( templates.size() );
+            for( var template : templates ) futures.add( executor.submit( template::get ) );
+
+            for( var future : futures ) {
+                try {
+                    future.get();
+                } catch( ExecutionException e ) {
+                    executor.shutdownNow();
+                    if( e.getCause() instanceof TemplateException te ) throw te;
+                    throw new TemplateException( e.getCause() );
+                }
+            }
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new TemplateException( e );
+        }
+
+        long time = System.currentTimeMillis() - start;
+        precompileTime.addAndGet( time );
+        log.info( "precompiled {} templates ({} compiled) in {}", templates.size(), compiled.sum() - compiledBefore, Dates.durationToString( time ) );
+
+        return time;
+    }
+
     public long getCacheSize() {
         return templates.size();
     }
 
+    /**
+     * templates compiled by javac, including recompilation after eviction
+     */
+    public long getCompiledCount() {
+        return compiled.sum();
+    }
+
+    /**
+     * templates generated by {@link Backend#BYTECODE}
+     */
+    public long getGeneratedCount() {
+        return generated.sum();
+    }
+
+    /**
+     * templates loaded from the {@link TemplateBytecodeStore}
+     */
+    public long getLoadedCount() {
+        return loaded.sum();
+    }
+
     @Override
     public void run() {
         templates.cleanUp();
+        if( bytecodeStore != null ) bytecodeStore.purge( ttl );
         if( diskCache == null ) return;
         long now = System.currentTimeMillis();
         try( Stream<Path> stream = Files.walk( diskCache ) ) {
@@ -236,6 +368,17 @@ public class TemplateEngine implements Runnable {
         }
     }
 
+    public enum Backend {
+        /**
+         * java source compiled by javac
+         */
+        JAVAC,
+        /**
+         * bytecode generated from the ast, templates with unsupported constructions are compiled by javac
+         */
+        BYTECODE
+    }
+
     public static class TemplateFunction {
         @JsonIgnore
         public final Template<?, ?, ?, ?> template;
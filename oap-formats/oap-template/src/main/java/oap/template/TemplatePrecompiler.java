@@ -0,0 +1,116 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.template;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.json.Binder;
+import oap.reflect.TypeRef;
+
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Fills a {@link TemplateBytecodeStore} at build time, see the oap-maven {@code templates} goal.
+ * <p>
+ * Usage: {@code TemplatePrecompiler <templates.conf> <bytecodeStore>}, the classpath has to be the runtime one.
+ * <pre>
+ * parallelism = 4
+ * templates = [
+ *   {name = Event, type = my.Event, accumulator = oap.template.TemplateAccumulatorString, template = "{{ a }}\t{{ b }}"}
+ * ]
+ * </pre>
+ */
+@Slf4j
+public class TemplatePrecompiler {
+    public static void main( String[] args ) {
+        if( args.length != 2 ) {
+            System.err.println( "usage: TemplatePrecompiler <templates.conf> <bytecodeStore>" );
+            System.exit( 1 );
+        }
+
+        var configuration = Binder.hoconWithoutSystemProperties.unmarshal( Configuration.class, Path.of( args[0] ) );
+
+        precompile( configuration, Path.of( args[1] ) );
+    }
+
+    public static long precompile( Configuration configuration, Path bytecodeStore ) {
+        var engine = new TemplateEngine( null, bytecodeStore, Long.MAX_VALUE );
+
+        List<Supplier<Template<?, ?, ?, ?>>> templates = new ArrayList<>();
+        for( var t : configuration.templates ) templates.add( () -> t.getTemplate( engine ) );
+
+        return engine.precompile( templates, configuration.parallelism );
+    }
+
+    public static class Configuration {
+        public int parallelism = Runtime.getRuntime().availableProcessors();
+        public List<TemplateDefinition> templates = new ArrayList<>();
+    }
+
+    public static class TemplateDefinition {
+        public String name;
+        public String type;
+        public String accumulator = TemplateAccumulatorString.class.getName();
+        public String template;
+        public Map<String, String> aliases = new LinkedHashMap<>();
+        public ErrorStrategy errorStrategy = ErrorStrategy.ERROR;
+
+        @SuppressWarnings( { "unchecked", "rawtypes" } )
+        private Template<?, ?, ?, ?> getTemplate( TemplateEngine engine ) {
+            try {
+                Class<?> typeClass = Class.forName( type );
+                var acc = ( TemplateAccumulator ) Class.forName( accumulator ).getDeclaredConstructor().newInstance();
+
+                return engine.getTemplate( name, new ClassTypeRef( typeClass ), template, acc, aliases, errorStrategy, null );
+            } catch( ReflectiveOperationException e ) {
+                throw new TemplateException( name, e );
+            }
+        }
+    }
+
+    @SuppressWarnings( "rawtypes" )
+    private static class ClassTypeRef extends TypeRef {
+        private final Class<?> clazz;
+
+        ClassTypeRef( Class<?> clazz ) {
+            this.clazz = clazz;
+        }
+
+        @Override
+        public Type type() {
+            return clazz;
+        }
+
+        @Override
+        public Class clazz() {
+            return clazz;
+        }
+    }
+}
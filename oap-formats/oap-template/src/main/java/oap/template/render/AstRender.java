@@ -41,6 +41,13 @@ public abstract class AstRender {
 
     public abstract void render( Render render );
 
+    /**
+     * see {@link BytecodeRender}, a node without bytecode support makes the template compiled by javac
+     */
+    public void render( BytecodeRender render ) {
+        throw new UnsupportedOperationException( getClass().getSimpleName() );
+    }
+
     public void addChild( AstRender astRender ) {
         children.add( astRender );
     }
@@ -42,4 +42,9 @@ class AstRenderComment extends AstRender {
 
         children.forEach( a -> a.render( render ) );
     }
+
+    @Override
+    public void render( BytecodeRender render ) {
+        children.forEach( a -> a.render( render ) );
+    }
 }
@@ -26,10 +26,15 @@ package oap.template.render;
 
 import lombok.ToString;
 import oap.template.TemplateAccumulator;
+import oap.template.TemplateAccumulatorString;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import static org.objectweb.asm.Opcodes.DUP;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.NEW;
+
 @ToString( callSuper = true )
 public class AstRenderConcatenation extends AstRender {
     final ArrayList<AstRender> items = new ArrayList<>();
@@ -54,6 +59,23 @@ public class AstRenderConcatenation extends AstRender {
         children.forEach( a -> a.render( newRender ) );
     }
 
+    @Override
+    public void render( BytecodeRender render ) {
+        var templateAccumulator = render.newVariable( TemplateAccumulatorString.class );
+        var internalName = BytecodeRender.internalName( TemplateAccumulatorString.class );
+        render.mv.visitTypeInsn( NEW, internalName );
+        render.mv.visitInsn( DUP );
+        render.mv.visitMethodInsn( INVOKESPECIAL, internalName, "<init>", "()V", false );
+        render.store( templateAccumulator );
+
+        for( var item : items ) {
+            item.render( render.withAccumulator( templateAccumulator ) );
+        }
+
+        var newRender = render.withField( templateAccumulator ).withParentType( new TemplateType( TemplateAccumulator.class ) );
+        children.forEach( a -> a.render( newRender ) );
+    }
+
     @Override
     public void print( StringBuilder buffer, String prefix, String childrenPrefix ) {
         printTop( buffer, prefix );
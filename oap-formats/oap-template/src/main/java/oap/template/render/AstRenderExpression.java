@@ -46,4 +46,9 @@ public class AstRenderExpression extends AstRender {
         }
         children.forEach( a -> a.render( render.withContent( String.join( " | ", content ) ) ) );
     }
+
+    @Override
+    public void render( BytecodeRender render ) {
+        children.forEach( a -> a.render( render.withContent( String.join( " | ", content ) ) ) );
+    }
 }
@@ -25,6 +25,12 @@
 package oap.template.render;
 
 import lombok.ToString;
+import org.objectweb.asm.Type;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import static org.objectweb.asm.Opcodes.GETFIELD;
 
 @ToString( callSuper = true )
 public class AstRenderField extends AstRender {
@@ -42,14 +48,7 @@ public class AstRenderField extends AstRender {
 
     @Override
     public void render( Render render ) {
-        if( castType != null ) {
-            var targetType = type;
-            if( type.isOptional() ) targetType = type.getActualTypeArguments0();
-
-            if( !castType.isAssignableFrom( targetType ) ) {
-                throw new ClassCastException( "fieldName '" + fieldName + "' path '" + render.content + "': current '" + type + "' required '" + castType + "'" );
-            }
-        }
+        checkCast( render.content );
 
         var variableName = render.newVariable( fieldName );
 
@@ -66,4 +65,44 @@ public class AstRenderField extends AstRender {
         var newRender = render.withField( variableName.name ).withParentType( type );
         children.forEach( a -> a.render( newRender ) );
     }
+
+    @Override
+    public void render( BytecodeRender render ) {
+        checkCast( render.content );
+
+        var typeClass = type.getTypeClass();
+        var variable = render.newVariable( fieldName, typeClass );
+
+        if( variable.isNew() ) {
+            var parentClass = BytecodeRender.accessible( render.field.type() );
+            Field field;
+            try {
+                field = parentClass.getField( fieldName );
+            } catch( NoSuchFieldException e ) {
+                throw new UnsupportedOperationException( e );
+            }
+            if( Modifier.isStatic( field.getModifiers() ) ) throw new UnsupportedOperationException( "static " + fieldName );
+
+            render.load( render.field ).mv.visitFieldInsn( GETFIELD, BytecodeRender.internalName( parentClass ), fieldName, Type.getDescriptor( field.getType() ) );
+
+            if( forceCast ) render.checkcast( typeClass );
+            else render.convert( field.getType(), typeClass );
+
+            render.store( variable );
+        }
+
+        var newRender = render.withField( variable ).withParentType( type );
+        children.forEach( a -> a.render( newRender ) );
+    }
+
+    private void checkCast( String content ) {
+        if( castType != null ) {
+            var targetType = type;
+            if( type.isOptional() ) targetType = type.getActualTypeArguments0();
+
+            if( !castType.isAssignableFrom( targetType ) ) {
+                throw new ClassCastException( "fieldName '" + fieldName + "' path '" + content + "': current '" + type + "' required '" + castType + "'" );
+            }
+        }
+    }
 }
@@ -27,6 +27,7 @@ package oap.template.render;
 import lombok.ToString;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.List;
 
 @ToString( callSuper = true )
@@ -53,4 +54,26 @@ public class AstRenderFunction extends AstRender {
         var newRender = render.withField( funcVariable ).withParentType( type );
         children.forEach( a -> a.render( newRender ) );
     }
+
+    @Override
+    public void render( BytecodeRender render ) {
+        var owner = method.getDeclaringClass();
+        var argumentTypes = new ArrayList<Class<?>>();
+        argumentTypes.add( render.field.type() );
+        for( var parameter : parameters ) argumentTypes.add( BytecodeRender.literalType( parameter ) );
+        // javac picks the overload by the argument types, not the method found by the number of arguments
+        var function = BytecodeRender.resolve( owner, method.getName(), true, argumentTypes.toArray( new Class<?>[0] ) );
+
+        var typeClass = TemplateType.getTypeClass( method.getGenericReturnType() );
+        var funcVariable = render.newVariable( typeClass );
+
+        render.load( render.field ).convert( render.field.type(), function.getParameterTypes()[0] );
+        for( var i = 0; i < parameters.size(); i++ ) {
+            render.convert( render.pushLiteral( parameters.get( i ) ), function.getParameterTypes()[i + 1] );
+        }
+        render.assign( render.invoke( owner, function ), typeClass ).store( funcVariable );
+
+        var newRender = render.withField( funcVariable ).withParentType( type );
+        children.forEach( a -> a.render( newRender ) );
+    }
 }
@@ -25,9 +25,13 @@
 package oap.template.render;
 
 import lombok.ToString;
+import org.objectweb.asm.Label;
 
 import java.util.function.Supplier;
 
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.ICONST_1;
+
 @SuppressWarnings( "checkstyle:AbstractClassName" )
 @ToString( callSuper = true )
 public abstract class AstRenderIfElse extends AstRender {
@@ -64,6 +68,45 @@ public abstract class AstRenderIfElse extends AstRender {
         }
     }
 
+    @Override
+    public void render( BytecodeRender render ) {
+        var otherwise = new Label();
+        var iv = condition( render, otherwise );
+
+        var newRender = render.withParentType( type );
+        if( iv != null ) newRender = newRender.withField( iv );
+
+        for( var c : children ) {
+            c.render( newRender.newBlock() );
+        }
+
+        if( elseAstRender != null ) {
+            var end = new Label();
+            render.mv.visitJumpInsn( GOTO, end );
+            render.mv.visitLabel( otherwise );
+
+            if( render.tryVariable != null ) {
+                render.mv.visitInsn( ICONST_1 );
+                render.store( render.tryVariable );
+            }
+            elseAstRender.render( render.newBlock() );
+
+            render.mv.visitLabel( end );
+        } else {
+            render.mv.visitLabel( otherwise );
+        }
+    }
+
+    /**
+     * bytecode counterpart of {@link #getTrue()} and {@link #getInnerVariableSetter(String, Render)}
+     *
+     * @param otherwise jump target if the condition is false
+     * @return inner variable or null
+     */
+    protected BytecodeRender.Variable condition( BytecodeRender render, Label otherwise ) {
+        throw new UnsupportedOperationException( getClass().getSimpleName() );
+    }
+
     @Override
     public void print( StringBuilder buffer, String prefix, String childrenPrefix ) {
         if( elseAstRender != null ) {
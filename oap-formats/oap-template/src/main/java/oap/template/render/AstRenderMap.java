@@ -47,4 +47,18 @@ public class AstRenderMap extends AstRender {
         var newRender = render.withField( mapVariable ).withParentType( type );
         children.forEach( a -> a.render( newRender ) );
     }
+
+    @Override
+    public void render( BytecodeRender render ) {
+        var mapClass = render.field.type();
+        var valueClass = type.getTypeClass();
+        var method = BytecodeRender.resolve( mapClass, "get", false, String.class );
+        var mapVariable = render.newVariable( valueClass );
+
+        render.load( render.field ).mv.visitLdcInsn( key );
+        render.assign( render.invoke( mapClass, method ), valueClass ).store( mapVariable );
+
+        var newRender = render.withField( mapVariable ).withParentType( type );
+        children.forEach( a -> a.render( newRender ) );
+    }
 }
@@ -24,7 +24,15 @@
 
 package oap.template.render;
 
+import com.google.common.primitives.Primitives;
 import lombok.ToString;
+import org.objectweb.asm.Type;
+
+import static org.objectweb.asm.Opcodes.IADD;
+import static org.objectweb.asm.Opcodes.IDIV;
+import static org.objectweb.asm.Opcodes.IMUL;
+import static org.objectweb.asm.Opcodes.IREM;
+import static org.objectweb.asm.Opcodes.ISUB;
 
 @ToString( callSuper = true )
 public class AstRenderMath extends AstRender {
@@ -46,4 +54,39 @@ public class AstRenderMath extends AstRender {
         var newRender = render.withField( mathVariable ).withParentType( type );
         children.forEach( a -> a.render( newRender ) );
     }
+
+    @Override
+    public void render( BytecodeRender render ) {
+        var fieldClass = render.field.type();
+        var operand = Primitives.unwrap( fieldClass );
+        if( !operand.isPrimitive() || operand == boolean.class ) throw new UnsupportedOperationException( fieldClass + " " + operation );
+
+        var resultClass = promote( operand, BytecodeRender.literalType( number ) );
+        var mathVariable = render.newVariable( resultClass );
+
+        render.load( render.field ).convert( fieldClass, resultClass );
+        render.convert( render.pushLiteral( number ), resultClass );
+        render.mv.visitInsn( Type.getType( resultClass ).getOpcode( switch( operation ) {
+            case "*" -> IMUL;
+            case "/" -> IDIV;
+            case "%" -> IREM;
+            case "+" -> IADD;
+            case "-" -> ISUB;
+            default -> throw new UnsupportedOperationException( operation );
+        } ) );
+        render.store( mathVariable );
+
+        var newRender = render.withField( mathVariable ).withParentType( type );
+        children.forEach( a -> a.render( newRender ) );
+    }
+
+    /**
+     * binary numeric promotion
+     */
+    private static Class<?> promote( Class<?> left, Class<?> right ) {
+        if( left == double.class || right == double.class ) return double.class;
+        if( left == float.class || right == float.class ) return float.class;
+        if( left == long.class || right == long.class ) return long.class;
+        return int.class;
+    }
 }
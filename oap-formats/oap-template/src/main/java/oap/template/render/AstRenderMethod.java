@@ -25,6 +25,7 @@
 package oap.template.render;
 
 import lombok.ToString;
+import oap.util.Lists;
 
 import java.util.List;
 
@@ -53,4 +54,24 @@ public class AstRenderMethod extends AstRender {
         var newRender = render.withField( variableName.name ).withParentType( type );
         children.forEach( a -> a.render( newRender ) );
     }
+
+    @Override
+    public void render( BytecodeRender render ) {
+        var typeClass = type.getTypeClass();
+        var variable = render.newVariable( methodName, typeClass );
+
+        if( variable.isNew() ) {
+            var owner = render.field.type();
+            var method = BytecodeRender.resolve( owner, methodName, false, Lists.map( arguments, BytecodeRender::literalType ).toArray( new Class<?>[0] ) );
+
+            render.load( render.field );
+            for( var i = 0; i < arguments.size(); i++ ) {
+                render.convert( render.pushLiteral( arguments.get( i ) ), method.getParameterTypes()[i] );
+            }
+            render.assign( render.invoke( owner, method ), typeClass ).store( variable );
+        }
+
+        var newRender = render.withField( variable ).withParentType( type );
+        children.forEach( a -> a.render( newRender ) );
+    }
 }
@@ -25,9 +25,12 @@
 package oap.template.render;
 
 import lombok.ToString;
+import org.objectweb.asm.Label;
 
 import java.util.function.Supplier;
 
+import static org.objectweb.asm.Opcodes.IFNULL;
+
 @ToString( callSuper = true )
 public class AstRenderNullable extends AstRenderIfElse {
     public AstRenderNullable( TemplateType type ) {
@@ -53,4 +56,13 @@ public class AstRenderNullable extends AstRenderIfElse {
     protected String getInnerVariableSetter( String variableName, Render render ) {
         return null;
     }
+
+    @Override
+    protected BytecodeRender.Variable condition( BytecodeRender render, Label otherwise ) {
+        if( render.field.type().isPrimitive() ) throw new UnsupportedOperationException( render.field.type() + " != null" );
+
+        render.load( render.field ).mv.visitJumpInsn( IFNULL, otherwise );
+
+        return null;
+    }
 }
@@ -25,9 +25,12 @@
 package oap.template.render;
 
 import lombok.ToString;
+import org.objectweb.asm.Label;
 
 import java.util.function.Supplier;
 
+import static org.objectweb.asm.Opcodes.IFEQ;
+
 @ToString( callSuper = true )
 public class AstRenderOptional extends AstRenderIfElse {
     public AstRenderOptional( TemplateType type ) {
@@ -53,4 +56,20 @@ public class AstRenderOptional extends AstRenderIfElse {
     protected String getInnerVariableSetter( String variableName, Render render ) {
         return "%s %s = %s.get();".formatted( type.getTypeName(), variableName, render.field );
     }
+
+    @Override
+    protected BytecodeRender.Variable condition( BytecodeRender render, Label otherwise ) {
+        var optionalClass = render.field.type();
+        var typeClass = type.getTypeClass();
+
+        render.load( render.field );
+        render.invoke( optionalClass, BytecodeRender.resolve( optionalClass, "isPresent", false ) );
+        render.mv.visitJumpInsn( IFEQ, otherwise );
+
+        var variable = render.newVariable( typeClass );
+        render.load( render.field );
+        render.assign( render.invoke( optionalClass, BytecodeRender.resolve( optionalClass, "get", false ) ), typeClass ).store( variable );
+
+        return variable;
+    }
 }
@@ -25,11 +25,17 @@
 package oap.template.render;
 
 import lombok.ToString;
+import org.objectweb.asm.Label;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Supplier;
 
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.ICONST_0;
+import static org.objectweb.asm.Opcodes.IFEQ;
+import static org.objectweb.asm.Opcodes.IFNE;
+
 @ToString( callSuper = true )
 public class AstRenderOr extends AstRenderIfElse {
     public final ArrayList<AstRender> or = new ArrayList<>();
@@ -108,4 +114,51 @@ public class AstRenderOr extends AstRenderIfElse {
         var newRender = r.withField( orVariable );
         super.render( newRender );
     }
+
+    @Override
+    public void render( BytecodeRender render ) {
+        var rootAccumulatorClass = render.rootAccumulator.type();
+        var newInstance = BytecodeRender.resolve( rootAccumulatorClass, "newInstance", false );
+        var templateAccumulatorClass = render.templateAccumulator.getClass();
+
+        var orVariable = render.newVariable( templateAccumulatorClass );
+        render.load( render.rootAccumulator );
+        render.assign( render.invoke( rootAccumulatorClass, newInstance ), templateAccumulatorClass ).store( orVariable );
+
+        var end = new Label();
+        for( var ast : or ) {
+            var next = new Label();
+            var r = render.newBlock();
+            var templateAccumulator = r.newVariable( newInstance.getReturnType() );
+            var empty = r.newVariable( boolean.class );
+
+            r.load( render.rootAccumulator );
+            r.invoke( rootAccumulatorClass, newInstance );
+            r.store( templateAccumulator );
+
+            // the java source wraps the alternative into a lambda and calls it right away
+            r.mv.visitInsn( ICONST_0 );
+            r.store( empty );
+            ( ( AstRenderTryBlock ) ast ).render( r, templateAccumulator, empty );
+
+            r.load( empty ).mv.visitJumpInsn( IFNE, next );
+            r.load( templateAccumulator ).assign( templateAccumulator.type(), templateAccumulatorClass ).store( orVariable );
+            r.mv.visitJumpInsn( GOTO, end );
+            r.mv.visitLabel( next );
+        }
+        render.mv.visitLabel( end );
+
+        super.render( render.withField( orVariable ) );
+    }
+
+    @Override
+    protected BytecodeRender.Variable condition( BytecodeRender render, Label otherwise ) {
+        var fieldClass = render.field.type();
+
+        render.load( render.field );
+        render.invoke( fieldClass, BytecodeRender.resolve( fieldClass, "isNotEmpty", false ) );
+        render.mv.visitJumpInsn( IFEQ, otherwise );
+
+        return null;
+    }
 }
@@ -46,4 +46,14 @@ public class AstRenderPathNotFound extends AstRender {
         var newRender = render.withField( newVariable ).withParentType( type );
         children.forEach( a -> a.render( newRender ) );
     }
+
+    @Override
+    public void render( BytecodeRender render ) {
+        var newVariable = render.newVariable( String.class );
+        render.mv.visitLdcInsn( "" );
+        render.store( newVariable );
+
+        var newRender = render.withField( newVariable ).withParentType( type );
+        children.forEach( a -> a.render( newRender ) );
+    }
 }
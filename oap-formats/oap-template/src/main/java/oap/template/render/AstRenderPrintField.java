@@ -37,4 +37,13 @@ public class AstRenderPrintField extends AstRender {
         var r = render.ntab();
         r.append( "%s.accept( %s );", r.templateAccumulatorName, r.field );
     }
+
+    @Override
+    public void render( BytecodeRender render ) {
+        var accumulator = render.accumulator;
+        var method = BytecodeRender.resolve( accumulator.type(), "accept", false, render.field.type() );
+
+        render.load( accumulator ).load( render.field ).convert( render.field.type(), method.getParameterTypes()[0] );
+        render.pop( render.invoke( accumulator.type(), method ) );
+    }
 }
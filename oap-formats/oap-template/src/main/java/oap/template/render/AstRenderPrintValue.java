@@ -30,8 +30,19 @@ import oap.util.Dates;
 import oap.util.Strings;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.objectweb.asm.Type;
 
 import java.util.Collection;
+import java.util.List;
+
+import static org.objectweb.asm.Opcodes.DUP;
+import static org.objectweb.asm.Opcodes.GETSTATIC;
+import static org.objectweb.asm.Opcodes.I2B;
+import static org.objectweb.asm.Opcodes.I2S;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.NEW;
 
 @ToString( callSuper = true )
 public class AstRenderPrintValue extends AstRender {
@@ -63,6 +74,91 @@ public class AstRenderPrintValue extends AstRender {
         }
     }
 
+    @Override
+    public void render( BytecodeRender render ) {
+        var accumulator = render.accumulator;
+
+        String defaultValue = value;
+
+        if( defaultValue == null ) {
+            defaultValue = render.templateAccumulator.getDefault( type.getTypeClass() );
+        }
+        if( defaultValue == null ) {
+            var method = BytecodeRender.resolve( accumulator.type(), "acceptNull", false, Class.class );
+            render.load( accumulator ).pushClass( type.getTypeClass() );
+            render.pop( render.invoke( accumulator.type(), method ) );
+        } else {
+            render.load( accumulator );
+            Class<?> valueType = push( render, castType != null ? new TemplateType( castType.type ) : type, defaultValue );
+            if( castType != null ) {
+                var castClass = new TemplateType( castType.type ).getTypeClass();
+                if( !BytecodeRender.isConvertible( valueType, castClass, true ) )
+                    throw new UnsupportedOperationException( "(" + castClass + ") " + valueType );
+                render.convert( valueType, castClass );
+                valueType = castClass;
+            }
+
+            var method = BytecodeRender.resolve( accumulator.type(), "accept", false, valueType );
+            render.convert( valueType, method.getParameterTypes()[0] );
+            render.pop( render.invoke( accumulator.type(), method ) );
+        }
+    }
+
+    /**
+     * bytecode counterpart of {@link #format(TemplateType, String)}
+     *
+     * @return type of the value on the stack
+     */
+    private Class<?> push( BytecodeRender render, TemplateType castType, String defaultValue ) {
+        Preconditions.checkNotNull( defaultValue );
+
+        Class<?> typeClass = castType.isOptional() ? castType.getActualTypeArguments0().getTypeClass() : castType.getTypeClass();
+        var mv = render.mv;
+
+        if( String.class.equals( typeClass ) ) {
+            return render.pushLiteral( "\"" + StringUtils.replace( defaultValue, "\"", "\\\"" ) + "\"" );
+        } else if( Byte.class.isAssignableFrom( typeClass ) || byte.class.equals( typeClass ) ) {
+            render.convert( render.pushLiteral( defaultValue ), int.class );
+            mv.visitInsn( I2B );
+            return byte.class;
+        } else if( Short.class.isAssignableFrom( typeClass ) || short.class.equals( typeClass ) ) {
+            render.convert( render.pushLiteral( defaultValue ), int.class );
+            mv.visitInsn( I2S );
+            return short.class;
+        } else if( Long.class.isAssignableFrom( typeClass ) || long.class.equals( typeClass ) ) {
+            return render.pushLiteral( defaultValue + "L" );
+        } else if( Float.class.isAssignableFrom( typeClass ) || float.class.equals( typeClass ) ) {
+            return render.pushLiteral( defaultValue + "f" );
+        } else if( Double.class.isAssignableFrom( typeClass ) || double.class.equals( typeClass ) ) {
+            return render.pushLiteral( defaultValue + "d" );
+        } else if( Collection.class.isAssignableFrom( typeClass ) ) {
+            mv.visitMethodInsn( INVOKESTATIC, BytecodeRender.internalName( List.class ), "of", "()Ljava/util/List;", true );
+            return List.class;
+        } else if( Enum.class.isAssignableFrom( typeClass ) ) {
+            var enumClass = BytecodeRender.accessible( type.getTypeClass() );
+            var name = defaultValue.isEmpty() ? Strings.UNKNOWN : defaultValue;
+            try {
+                enumClass.getField( name );
+            } catch( NoSuchFieldException e ) {
+                throw new UnsupportedOperationException( enumClass.getName() + "." + name );
+            }
+            mv.visitFieldInsn( GETSTATIC, BytecodeRender.internalName( enumClass ), name, Type.getDescriptor( enumClass ) );
+            return enumClass;
+        } else if( DateTime.class.equals( typeClass ) ) {
+            DateTime dateTime = Dates.PARSER_MULTIPLE_DATETIME.parseDateTime( defaultValue );
+            var dateTimeName = BytecodeRender.internalName( DateTime.class );
+            var dateTimeZoneName = BytecodeRender.internalName( DateTimeZone.class );
+            mv.visitTypeInsn( NEW, dateTimeName );
+            mv.visitInsn( DUP );
+            mv.visitLdcInsn( dateTime.getMillis() );
+            mv.visitFieldInsn( GETSTATIC, dateTimeZoneName, "UTC", "L" + dateTimeZoneName + ";" );
+            mv.visitMethodInsn( INVOKESPECIAL, dateTimeName, "<init>", "(JL" + dateTimeZoneName + ";)V", false );
+            return DateTime.class;
+        }
+
+        return render.pushLiteral( defaultValue );
+    }
+
     @SuppressWarnings( { "checkstyle:ParameterAssignment" } )
     private String format( TemplateType castType, String defaultValue ) {
         Preconditions.checkNotNull( defaultValue );
@@ -25,9 +25,26 @@
 package oap.template.render;
 
 import lombok.ToString;
+import oap.util.function.TriConsumer;
+
+import java.lang.reflect.Type;
+import java.util.LinkedHashSet;
+
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V17;
 
 @ToString( callSuper = true )
 public class AstRenderRoot extends AstRender {
+    /**
+     * the types the template reads fields, methods and functions of, see {@link oap.template.TemplateBytecodeStore}
+     */
+    @ToString.Exclude
+    public final LinkedHashSet<Type> types = new LinkedHashSet<>();
+
     public AstRenderRoot( TemplateType parentType ) {
         super( parentType );
     }
@@ -64,4 +81,41 @@ public class AstRenderRoot extends AstRender {
               }
             }""".stripIndent() );
     }
+
+    @Override
+    public void render( BytecodeRender render ) {
+        var typeClass = BytecodeRender.accessible( type.getTypeClass() );
+        var templateAccumulatorClass = BytecodeRender.accessible( render.templateAccumulator.getClass() );
+
+        var cw = render.classWriter;
+        cw.visit( V17, ACC_PUBLIC | ACC_SUPER, render.className.replace( '.', '/' ), null, "java/lang/Object",
+            new String[] { BytecodeRender.internalName( TriConsumer.class ) } );
+
+        var constructor = cw.visitMethod( ACC_PUBLIC, "<init>", "()V", null, null );
+        constructor.visitCode();
+        constructor.visitVarInsn( ALOAD, 0 );
+        constructor.visitMethodInsn( INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false );
+        constructor.visitInsn( RETURN );
+        constructor.visitMaxs( 0, 0 );
+        constructor.visitEnd();
+
+        var mv = cw.visitMethod( ACC_PUBLIC, "accept", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)V", null, null );
+        mv.visitCode();
+
+        // 0 - this, 1 - s, 2 - m, 3 - acc
+        var s = new BytecodeRender.Variable( "s", 4, typeClass );
+        var acc = new BytecodeRender.Variable( "acc", 5, templateAccumulatorClass );
+        BytecodeRender childRender = render.withMethod( mv, 6, acc ).withField( s ).withParentType( type );
+        mv.visitVarInsn( ALOAD, 1 );
+        childRender.checkcast( typeClass ).store( s );
+        mv.visitVarInsn( ALOAD, 3 );
+        childRender.checkcast( templateAccumulatorClass ).store( acc );
+
+        children.forEach( child -> child.render( childRender ) );
+
+        mv.visitInsn( RETURN );
+        mv.visitMaxs( 0, 0 );
+        mv.visitEnd();
+        cw.visitEnd();
+    }
 }
@@ -41,4 +41,13 @@ public class AstRenderText extends AstRender {
             .append( "%s.acceptText( \"%s\" );", render.templateAccumulatorName, render.escapeJava( text != null ? text : "" ) );
     }
 
+    @Override
+    public void render( BytecodeRender render ) {
+        var accumulator = render.accumulator;
+        var method = BytecodeRender.resolve( accumulator.type(), "acceptText", false, String.class );
+
+        render.load( accumulator ).mv.visitLdcInsn( text != null ? text : "" );
+        render.pop( render.invoke( accumulator.type(), method ) );
+    }
+
 }
@@ -61,4 +61,11 @@ public class AstRenderTryBlock extends AstRender {
             .tabDec()
             .ntab().append( "};" );
     }
+
+    public void render( BytecodeRender render, BytecodeRender.Variable templateAccumulator, BytecodeRender.Variable emptyVariable ) {
+        var newRender = render.withParentType( type )
+            .withTryVariable( emptyVariable )
+            .withAccumulator( templateAccumulator );
+        children.forEach( ast -> ast.render( newRender ) );
+    }
 }
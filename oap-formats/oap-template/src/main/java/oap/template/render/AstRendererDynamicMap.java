@@ -1,8 +1,15 @@
 package oap.template.render;
 
 import lombok.ToString;
+import org.objectweb.asm.Label;
 
 import java.util.ArrayList;
+import java.util.Map;
+
+import static org.objectweb.asm.Opcodes.CHECKCAST;
+import static org.objectweb.asm.Opcodes.IFEQ;
+import static org.objectweb.asm.Opcodes.INSTANCEOF;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
 
 @ToString
 public class AstRendererDynamicMap extends AstRender {
@@ -36,6 +43,35 @@ public class AstRendererDynamicMap extends AstRender {
         }
     }
 
+    @Override
+    public void render( BytecodeRender render ) {
+        var obj = new BytecodeRender.Variable( "obj", render.newVariable( Object.class ).slot(), Object.class );
+        var mapName = BytecodeRender.internalName( Map.class );
+        var getDescriptor = "(Ljava/lang/Object;)Ljava/lang/Object;";
+
+        var field = render.field;
+        for( int i = 0; i < path.size(); i++ ) {
+            String item = path.get( i );
+            var skip = new Label();
+            if( i > 0 ) {
+                render.load( obj ).mv.visitTypeInsn( INSTANCEOF, mapName );
+                render.mv.visitJumpInsn( IFEQ, skip );
+            }
+            render.load( field ).mv.visitTypeInsn( CHECKCAST, mapName );
+            render.mv.visitLdcInsn( item );
+            render.mv.visitMethodInsn( INVOKEINTERFACE, mapName, "get", getDescriptor, true );
+            render.store( obj );
+            render.mv.visitLabel( skip );
+
+            // the java source reads the second key from obj and all the next ones from the original field
+            field = i == 0 ? obj : render.field;
+        }
+
+        for( AstRender child : children ) {
+            child.render( render.withField( obj ) );
+        }
+    }
+
     public void addPath( String key ) {
         this.path.add( key );
     }
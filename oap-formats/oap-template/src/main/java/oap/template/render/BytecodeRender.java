@@ -0,0 +1,434 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.template.render;
+
+import com.google.common.primitives.Primitives;
+import oap.template.TemplateAccumulator;
+import org.apache.commons.text.StringEscapeUtils;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.objectweb.asm.Opcodes.CHECKCAST;
+import static org.objectweb.asm.Opcodes.F2D;
+import static org.objectweb.asm.Opcodes.GETSTATIC;
+import static org.objectweb.asm.Opcodes.I2D;
+import static org.objectweb.asm.Opcodes.I2F;
+import static org.objectweb.asm.Opcodes.I2L;
+import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.ISTORE;
+import static org.objectweb.asm.Opcodes.L2D;
+import static org.objectweb.asm.Opcodes.L2F;
+import static org.objectweb.asm.Opcodes.POP;
+import static org.objectweb.asm.Opcodes.POP2;
+
+/**
+ * Bytecode counterpart of {@link Render}: the ast emits the same code as the java source, but straight into a class file.
+ * <p>
+ * Method calls are resolved the way javac does it (exact/widening match first, then boxing, then the most specific method).
+ * A construction without an exact bytecode equivalent throws {@link UnsupportedOperationException},
+ * the template is compiled by javac then.
+ */
+public class BytecodeRender {
+    private static final Pattern INT_LITERAL = Pattern.compile( "-?\\d+" );
+    private static final Pattern LONG_LITERAL = Pattern.compile( "-?\\d+[lL]" );
+    private static final Pattern FLOAT_LITERAL = Pattern.compile( "-?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?[fF]" );
+    private static final Pattern DOUBLE_LITERAL = Pattern.compile( "-?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?[dD]?" );
+
+    public final String className;
+    public final String content;
+    public final TemplateType parentType;
+    public final TemplateAccumulator<?, ?, ?> templateAccumulator;
+    public final ClassWriter classWriter;
+    public final MethodVisitor mv;
+    /**
+     * the current value
+     */
+    public final Variable field;
+    /**
+     * root accumulator, "acc" in the java source
+     */
+    public final Variable rootAccumulator;
+    public final Variable accumulator;
+    public final Variable tryVariable;
+    public final String prefix;
+    private final int[] locals;
+    private final ArrayDeque<HashMap<String, Variable>> variables;
+
+    @SuppressWarnings( "checkstyle:ParameterNumber" )
+    private BytecodeRender( String className, String content, TemplateType parentType, TemplateAccumulator<?, ?, ?> templateAccumulator,
+                            ClassWriter classWriter, MethodVisitor mv, Variable field, Variable rootAccumulator, Variable accumulator,
+                            Variable tryVariable, String prefix, int[] locals, ArrayDeque<HashMap<String, Variable>> variables ) {
+        this.className = className;
+        this.content = content;
+        this.parentType = parentType;
+        this.templateAccumulator = templateAccumulator;
+        this.classWriter = classWriter;
+        this.mv = mv;
+        this.field = field;
+        this.rootAccumulator = rootAccumulator;
+        this.accumulator = accumulator;
+        this.tryVariable = tryVariable;
+        this.prefix = prefix;
+        this.locals = locals;
+        this.variables = variables;
+    }
+
+    public static BytecodeRender init( String templateName, String content, TemplateType type, TemplateAccumulator<?, ?, ?> acc ) {
+        var className = TemplateAccumulator.class.getPackageName() + "." + nameEscaped( templateName );
+        var classWriter = new ClassWriter( ClassWriter.COMPUTE_FRAMES ) {
+            @Override
+            protected String getCommonSuperClass( String type1, String type2 ) {
+                // a slot always holds one type, so only the stack merges different types
+                return "java/lang/Object";
+            }
+        };
+
+        var variables = new ArrayDeque<HashMap<String, Variable>>();
+        variables.addFirst( new HashMap<>() );
+
+        return new BytecodeRender( className, content, type, acc, classWriter, null, null, null, null, null, "", new int[1], variables );
+    }
+
+    public static String nameEscaped( String templateName ) {
+        var nameEscaped = templateName.replaceAll( "[^a-zA-Z0-9_]", "_" );
+        if( nameEscaped.matches( "^[0-9].*" ) ) nameEscaped = "_" + nameEscaped;
+        return nameEscaped;
+    }
+
+    public BytecodeRender withMethod( MethodVisitor mv, int firstLocal, Variable accumulator ) {
+        locals[0] = firstLocal;
+        return new BytecodeRender( className, content, parentType, templateAccumulator, classWriter, mv, field, accumulator, accumulator,
+            tryVariable, prefix, locals, variables );
+    }
+
+    public BytecodeRender withField( Variable field ) {
+        return new BytecodeRender( className, content, parentType, templateAccumulator, classWriter, mv, field, rootAccumulator, accumulator,
+            tryVariable, variableNameWithPrefix( field.name ), locals, variables );
+    }
+
+    public BytecodeRender withContent( String content ) {
+        return new BytecodeRender( className, content, parentType, templateAccumulator, classWriter, mv, field, rootAccumulator, accumulator,
+            tryVariable, prefix, locals, variables );
+    }
+
+    public BytecodeRender withAccumulator( Variable accumulator ) {
+        return new BytecodeRender( className, content, parentType, templateAccumulator, classWriter, mv, field, rootAccumulator, accumulator,
+            tryVariable, prefix, locals, variables );
+    }
+
+    public BytecodeRender withParentType( TemplateType parentType ) {
+        return new BytecodeRender( className, content, parentType, templateAccumulator, classWriter, mv, field, rootAccumulator, accumulator,
+            tryVariable, prefix, locals, variables );
+    }
+
+    public BytecodeRender withTryVariable( Variable tryVariable ) {
+        return new BytecodeRender( className, content, parentType, templateAccumulator, classWriter, mv, field, rootAccumulator, accumulator,
+            tryVariable, prefix, locals, variables );
+    }
+
+    public BytecodeRender newBlock() {
+        var newStack = new ArrayDeque<HashMap<String, Variable>>();
+
+        for( var item : variables ) newStack.addLast( new HashMap<>( item ) );
+        newStack.addFirst( new HashMap<>() );
+
+        return new BytecodeRender( className, content, parentType, templateAccumulator, classWriter, mv, field, rootAccumulator, accumulator,
+            tryVariable, prefix, locals, newStack );
+    }
+
+    public byte[] toByteArray() {
+        return classWriter.toByteArray();
+    }
+
+    public Variable newVariable( Class<?> type ) {
+        var slot = locals[0];
+        locals[0] += type == long.class || type == double.class ? 2 : 1;
+        return new Variable( "v" + slot, slot, type );
+    }
+
+    /**
+     * named variables are computed once per scope, like in the java source
+     *
+     * @return {@link Variable#isNew()} is false if the variable is already computed in the current scope
+     */
+    public Variable newVariable( String name, Class<?> type ) {
+        var fullName = variableNameWithPrefix( name );
+
+        for( var scope : variables ) {
+            var variable = scope.get( fullName );
+            if( variable != null ) return new Variable( fullName, variable.slot, variable.type, false );
+        }
+
+        var slot = locals[0];
+        locals[0] += type == long.class || type == double.class ? 2 : 1;
+        var variable = new Variable( fullName, slot, type, true );
+        variables.getFirst().put( fullName, variable );
+
+        return variable;
+    }
+
+    public BytecodeRender load( Variable variable ) {
+        mv.visitVarInsn( Type.getType( variable.type ).getOpcode( ILOAD ), variable.slot );
+        return this;
+    }
+
+    public BytecodeRender store( Variable variable ) {
+        mv.visitVarInsn( Type.getType( variable.type ).getOpcode( ISTORE ), variable.slot );
+        return this;
+    }
+
+    public BytecodeRender checkcast( Class<?> type ) {
+        mv.visitTypeInsn( CHECKCAST, internalName( accessible( type ) ) );
+        return this;
+    }
+
+    public BytecodeRender pop( Class<?> type ) {
+        if( type == long.class || type == double.class ) mv.visitInsn( POP2 );
+        else if( type != void.class ) mv.visitInsn( POP );
+        return this;
+    }
+
+    /**
+     * X.class
+     */
+    public BytecodeRender pushClass( Class<?> type ) {
+        if( type.isPrimitive() )
+            mv.visitFieldInsn( GETSTATIC, internalName( Primitives.wrap( type ) ), "TYPE", Type.getDescriptor( Class.class ) );
+        else mv.visitLdcInsn( Type.getType( accessible( type ) ) );
+        return this;
+    }
+
+    /**
+     * assignment of a method result, javac casts an erased generic result to the declared type
+     */
+    public BytecodeRender assign( Class<?> from, Class<?> to ) {
+        if( !from.isPrimitive() && !to.isPrimitive() && !to.isAssignableFrom( from ) ) return checkcast( to );
+
+        return convert( from, to );
+    }
+
+    /**
+     * pushes a java literal (as it is rendered in the java source)
+     *
+     * @return type of the literal
+     */
+    public Class<?> pushLiteral( String literal ) {
+        var value = literal( literal );
+        if( value instanceof Boolean b ) mv.visitInsn( b ? Opcodes.ICONST_1 : Opcodes.ICONST_0 );
+        else mv.visitLdcInsn( value );
+
+        return literalType( literal );
+    }
+
+    public static Class<?> literalType( String literal ) {
+        var value = literal( literal );
+        return value instanceof String ? String.class : Primitives.unwrap( value.getClass() );
+    }
+
+    private static Object literal( String literal ) {
+        if( "true".equals( literal ) || "false".equals( literal ) ) return Boolean.valueOf( literal );
+        if( literal.length() >= 2 && literal.startsWith( "\"" ) && literal.endsWith( "\"" ) )
+            return StringEscapeUtils.unescapeJava( literal.substring( 1, literal.length() - 1 ) );
+
+        try {
+            if( INT_LITERAL.matcher( literal ).matches() ) return Integer.parseInt( literal );
+            if( LONG_LITERAL.matcher( literal ).matches() ) return Long.parseLong( literal.substring( 0, literal.length() - 1 ) );
+            if( FLOAT_LITERAL.matcher( literal ).matches() ) return Float.parseFloat( literal );
+            if( DOUBLE_LITERAL.matcher( literal ).matches() ) return Double.parseDouble( literal );
+        } catch( NumberFormatException ignored ) {
+            // out of range, javac does not compile it either
+        }
+
+        throw new UnsupportedOperationException( "literal " + literal );
+    }
+
+    /**
+     * method invocation/assignment conversion of the value on the stack
+     */
+    public BytecodeRender convert( Class<?> from, Class<?> to ) {
+        if( from == to ) return this;
+
+        if( from.isPrimitive() && to.isPrimitive() ) {
+            widen( from, to );
+        } else if( from.isPrimitive() ) {
+            var wrapper = Primitives.wrap( from );
+            if( !to.isAssignableFrom( wrapper ) ) throw new UnsupportedOperationException( from + " -> " + to );
+            mv.visitMethodInsn( INVOKESTATIC, internalName( wrapper ), "valueOf", Type.getMethodDescriptor( Type.getType( wrapper ), Type.getType( from ) ), false );
+        } else if( to.isPrimitive() ) {
+            if( !Primitives.isWrapperType( from ) ) throw new UnsupportedOperationException( from + " -> " + to );
+            var primitive = Primitives.unwrap( from );
+            mv.visitMethodInsn( INVOKEVIRTUAL, internalName( from ), primitive.getName() + "Value", Type.getMethodDescriptor( Type.getType( primitive ) ), false );
+            widen( primitive, to );
+        } else if( !to.isAssignableFrom( from ) ) {
+            throw new UnsupportedOperationException( from + " -> " + to );
+        }
+
+        return this;
+    }
+
+    private void widen( Class<?> from, Class<?> to ) {
+        if( from == to ) return;
+        if( !isWidening( from, to ) ) throw new UnsupportedOperationException( from + " -> " + to );
+
+        if( to == long.class ) mv.visitInsn( I2L );
+        else if( to == float.class ) mv.visitInsn( from == long.class ? L2F : I2F );
+        else if( to == double.class ) mv.visitInsn( from == long.class ? L2D : from == float.class ? F2D : I2D );
+        // byte/short/char -> short/int are the same on the stack
+    }
+
+    /**
+     * the receiver and the converted arguments have to be on the stack already, see {@link #resolve(Class, String, boolean, Class[])}
+     *
+     * @return return type of the method
+     */
+    public Class<?> invoke( Class<?> owner, Method method ) {
+        var isStatic = Modifier.isStatic( method.getModifiers() );
+        var opcode = isStatic ? INVOKESTATIC : owner.isInterface() ? INVOKEINTERFACE : INVOKEVIRTUAL;
+        mv.visitMethodInsn( opcode, internalName( accessible( owner ) ), method.getName(), Type.getMethodDescriptor( method ), owner.isInterface() );
+
+        return method.getReturnType();
+    }
+
+    /**
+     * javac method resolution: phase 1 without boxing, phase 2 with boxing, then the most specific method
+     */
+    public static Method resolve( Class<?> owner, String name, boolean isStatic, Class<?>... arguments ) {
+        var candidates = new ArrayList<Method>();
+        for( var method : owner.getMethods() ) {
+            if( !method.getName().equals( name ) || method.isBridge() || method.isSynthetic() ) continue;
+            if( method.getParameterCount() != arguments.length || method.isVarArgs() ) continue;
+            if( isStatic && !Modifier.isStatic( method.getModifiers() ) ) continue;
+
+            candidates.add( method );
+        }
+
+        for( var boxing : new boolean[] { false, true } ) {
+            var applicable = new ArrayList<Method>();
+            for( var method : candidates ) {
+                var parameters = method.getParameterTypes();
+                var ok = true;
+                for( var i = 0; i < arguments.length && ok; i++ ) ok = isConvertible( arguments[i], parameters[i], boxing );
+                if( ok ) applicable.add( method );
+            }
+
+            if( !applicable.isEmpty() ) return mostSpecific( owner, name, applicable );
+        }
+
+        throw new UnsupportedOperationException( owner.getName() + "." + name + List.of( arguments ) );
+    }
+
+    private static Method mostSpecific( Class<?> owner, String name, List<Method> applicable ) {
+        Method result = null;
+        for( var m1 : applicable ) {
+            var mostSpecific = true;
+            for( var m2 : applicable ) {
+                if( m1 != m2 && !isMoreSpecific( m1, m2 ) ) {
+                    mostSpecific = false;
+                    break;
+                }
+            }
+            if( mostSpecific ) {
+                if( result != null && !Arrays.equals( result.getParameterTypes(), m1.getParameterTypes() ) )
+                    throw new UnsupportedOperationException( "ambiguous " + owner.getName() + "." + name );
+                if( result == null || result.getDeclaringClass().isAssignableFrom( m1.getDeclaringClass() ) ) result = m1;
+            }
+        }
+
+        if( result == null ) throw new UnsupportedOperationException( "ambiguous " + owner.getName() + "." + name );
+
+        return result;
+    }
+
+    private static boolean isMoreSpecific( Method m1, Method m2 ) {
+        var p1 = m1.getParameterTypes();
+        var p2 = m2.getParameterTypes();
+        for( var i = 0; i < p1.length; i++ ) {
+            if( p1[i] == p2[i] ) continue;
+            if( p1[i].isPrimitive() != p2[i].isPrimitive() ) return false;
+            if( p1[i].isPrimitive() ? !isWidening( p1[i], p2[i] ) : !p2[i].isAssignableFrom( p1[i] ) ) return false;
+        }
+
+        return true;
+    }
+
+    public static boolean isConvertible( Class<?> from, Class<?> to, boolean boxing ) {
+        if( from == to ) return true;
+        if( from.isPrimitive() && to.isPrimitive() ) return isWidening( from, to );
+        if( !from.isPrimitive() && !to.isPrimitive() ) return to.isAssignableFrom( from );
+        if( !boxing ) return false;
+
+        if( from.isPrimitive() ) return to.isAssignableFrom( Primitives.wrap( from ) );
+
+        if( !Primitives.isWrapperType( from ) ) return false;
+        var unwrapped = Primitives.unwrap( from );
+        return unwrapped == to || isWidening( unwrapped, to );
+    }
+
+    private static boolean isWidening( Class<?> from, Class<?> to ) {
+        if( from == boolean.class || to == boolean.class || to == char.class ) return from == to;
+
+        var order = List.of( byte.class, short.class, int.class, long.class, float.class, double.class );
+        if( from == char.class ) return order.indexOf( to ) >= order.indexOf( int.class );
+        if( to == short.class ) return from == byte.class || from == short.class;
+
+        return order.indexOf( from ) <= order.indexOf( to );
+    }
+
+    public static Class<?> accessible( Class<?> type ) {
+        for( var c = type; c != null; c = c.getEnclosingClass() ) {
+            if( !Modifier.isPublic( c.getModifiers() ) ) throw new UnsupportedOperationException( "not public " + type.getName() );
+        }
+
+        return type;
+    }
+
+    public static String internalName( Class<?> type ) {
+        return Type.getInternalName( type );
+    }
+
+    private String variableNameWithPrefix( String name ) {
+        return prefix.isEmpty() ? name : prefix + "_" + name;
+    }
+
+    public record Variable( String name, int slot, Class<?> type, boolean isNew ) {
+        public Variable( String name, int slot, Class<?> type ) {
+            this( name, slot, type, true );
+        }
+    }
+}
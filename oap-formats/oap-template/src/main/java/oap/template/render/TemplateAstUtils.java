@@ -51,10 +51,12 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static oap.template.ErrorStrategy.IGNORE;
 
@@ -146,7 +148,7 @@ public class TemplateAstUtils {
     }
 
     static AstRender toAst( Expression expression, TemplateType templateType, String castType, String defaultValue,
-                            Map<String, List<Method>> builtInFunction, ErrorStrategy errorStrategy ) throws ClassNotFoundException {
+                            Map<String, List<Method>> builtInFunction, ErrorStrategy errorStrategy, Set<Type> types ) throws ClassNotFoundException {
         ArrayList<AstRender> orAst = new ArrayList<AstRender>();
 
         TemplateType lastTemplateType = null;
@@ -159,7 +161,7 @@ public class TemplateAstUtils {
             ErrorStrategy itemErrorStrategy = i < expression.or.size() - 1 ? IGNORE : errorStrategy;
             AstRender itemAst = TemplateAstUtils.toAst( item,
                 expression.or.size() == 1 ? expression.function : null,
-                templateType, expressionResultType, castType, defaultValue, builtInFunction, itemErrorStrategy );
+                templateType, expressionResultType, castType, defaultValue, builtInFunction, itemErrorStrategy, types );
             orAst.add( itemAst );
 
             TemplateType itemTemplateType = findLastsTemplateType( itemAst );
@@ -181,6 +183,7 @@ public class TemplateAstUtils {
             ast.elseAstRender = new AstRenderPrintValue( lastTemplateType, defaultValue, castFieldType );
             if( expression.function != null ) {
                 AstRender astRenderFunction = getFunction( expression.function.name, expression.function.arguments, builtInFunction, errorStrategy );
+                if( astRenderFunction instanceof AstRenderFunction f ) types.add( f.method.getDeclaringClass() );
                 ast.addChild( astRenderFunction );
                 astRenderFunction.addChild( new AstRenderPrintField( templateType ) );
             } else
@@ -203,12 +206,14 @@ public class TemplateAstUtils {
 
     @SuppressWarnings( { "checkstyle:ModifiedControlVariable", "checkstyle:UnnecessaryParentheses", "checkstyle:OverloadMethodsDeclarationOrder", "checkstyle:ParameterAssignment" } )
     private static AstRender toAst( Exprs exprs, Func function, TemplateType templateType, TemplateType resultType,
-                                    String castType, String defaultValue, Map<String, List<Method>> builtInFunction, ErrorStrategy errorStrategy ) {
+                                    String castType, String defaultValue, Map<String, List<Method>> builtInFunction, ErrorStrategy errorStrategy,
+                                    Set<Type> types ) {
         TemplateType currentTemplateType = templateType;
         Chain result = new Chain();
 
         try {
             FieldType castFieldType = castType != null ? FieldType.parse( castType ) : null;
+            if( castFieldType != null ) types.add( castFieldType.type );
 
             AstRendererDynamicMap astRendererDynamicMap = null;
             for( int i = 0; i < exprs.exprs.size(); i++ ) {
@@ -248,11 +253,15 @@ public class TemplateAstUtils {
                         boolean nullable = field.isAnnotationPresent( Nullable.class )
                             || ( !field.getType().isPrimitive() && !field.isAnnotationPresent( Nonnull.class ) );
                         TemplateType fieldType = new TemplateType( field.getGenericType(), nullable );
+                        types.add( parentClass );
+                        types.add( field.getDeclaringClass() );
+                        types.add( field.getGenericType() );
                         boolean forceCast = false;
                         if( fieldType.isInstanceOf( Ext.class ) ) {
                             Class<?> extClass = ExtDeserializer.extensionOf( parentClass, expr.name );
                             if( extClass != null ) {
                                 fieldType = new TemplateType( extClass, fieldType.nullable );
+                                types.add( extClass );
                                 forceCast = true;
                             }
                         }
@@ -273,6 +282,9 @@ public class TemplateAstUtils {
                     boolean nullable = method.isAnnotationPresent( Nullable.class )
                         || ( !method.getReturnType().isPrimitive() && !method.isAnnotationPresent( Nonnull.class ) );
                     TemplateType fieldType = new TemplateType( method.getGenericReturnType(), nullable );
+                    types.add( parentClass );
+                    types.add( method.getDeclaringClass() );
+                    types.add( method.getGenericReturnType() );
                     AstRenderMethod ast = new AstRenderMethod( expr.name, fieldType, expr.arguments );
 
                     result.add( ast );
@@ -291,16 +303,16 @@ public class TemplateAstUtils {
             if( currentTemplateType.isOptional() ) {
                 TemplateType actualTypeArguments0 = currentTemplateType.getActualTypeArguments0();
                 AstRenderOptional ast = new AstRenderOptional( actualTypeArguments0 );
-                ast.addChild( wrap( exprs, function, actualTypeArguments0, resultType, defaultValue, builtInFunction, errorStrategy ) );
+                ast.addChild( wrap( exprs, function, actualTypeArguments0, resultType, defaultValue, builtInFunction, errorStrategy, types ) );
                 ast.elseAstRender = new AstRenderPrintValue( resultType, defaultValue, castFieldType );
                 result.add( ast );
             } else if( currentTemplateType.nullable ) {
                 AstRenderNullable ast = new AstRenderNullable( currentTemplateType );
-                ast.addChild( wrap( exprs, function, currentTemplateType, resultType, defaultValue, builtInFunction, errorStrategy ) );
+                ast.addChild( wrap( exprs, function, currentTemplateType, resultType, defaultValue, builtInFunction, errorStrategy, types ) );
                 ast.elseAstRender = new AstRenderPrintValue( resultType, defaultValue, castFieldType );
                 result.add( ast );
             } else
-                result.add( wrap( exprs, function, currentTemplateType, resultType, defaultValue, builtInFunction, errorStrategy ) );
+                result.add( wrap( exprs, function, currentTemplateType, resultType, defaultValue, builtInFunction, errorStrategy, types ) );
 
             return result.head();
         } catch( NoSuchFieldException | NoSuchMethodException | ClassNotFoundException e ) {
@@ -311,7 +323,7 @@ public class TemplateAstUtils {
 
     @SuppressWarnings( "checkstyle:ParameterAssignment" )
     private static AstRender wrap( Exprs exprs, Func function, TemplateType parentTemplateType, TemplateType resultType,
-                                   String defaultValue, Map<String, List<Method>> builtInFunction, ErrorStrategy errorStrategy ) {
+                                   String defaultValue, Map<String, List<Method>> builtInFunction, ErrorStrategy errorStrategy, Set<Type> types ) {
         Chain list = new Chain();
 
         if( exprs.concatenation != null ) {
@@ -322,7 +334,7 @@ public class TemplateAstUtils {
                     items.add( new AstRenderText( si ) );
                 } else if( item instanceof Expr ei ) {
                     AstRender ast = toAst( new Exprs( List.of( ei ) ), function, parentTemplateType, resultType, null,
-                        defaultValue, builtInFunction, errorStrategy );
+                        defaultValue, builtInFunction, errorStrategy, types );
                     items.add( ast );
                 } else {
                     throw new TemplateException( "Unknown concatenation item " + item.getClass() );
@@ -343,6 +355,7 @@ public class TemplateAstUtils {
 
         if( function != null ) {
             AstRender astRender = getFunction( function.name, function.arguments, builtInFunction, errorStrategy );
+            if( astRender instanceof AstRenderFunction f ) types.add( f.method.getDeclaringClass() );
 
             list.add( astRender );
         }
@@ -357,6 +370,7 @@ public class TemplateAstUtils {
     @SuppressWarnings( "checkstyle:OverloadMethodsDeclarationOrder" )
     public static AstRenderRoot toAst( Elements elements, TemplateType templateType, Map<String, List<Method>> builtInFunction, ErrorStrategy errorStrategy ) {
         AstRenderRoot astRoot = new AstRenderRoot( templateType );
+        astRoot.types.add( templateType.type );
         for( Element element : elements.elements ) {
             AstRender astRender;
             if( element instanceof TextElement t ) {
@@ -373,7 +387,7 @@ public class TemplateAstUtils {
                     log.trace( e.expression + "\n" + tree.print() );
 
                     astRender = new AstRenderComment( templateType, "// " + e.expression );
-                    astRender.addChild( toAst( tree, templateType, tree.castType, tree.defaultValue, builtInFunction, errorStrategy ) );
+                    astRender.addChild( toAst( tree, templateType, tree.castType, tree.defaultValue, builtInFunction, errorStrategy, astRoot.types ) );
                 } catch( Exception exp ) {
                     throw new TemplateException( e.expression + ": " + exp.getMessage(), exp );
                 }
@@ -0,0 +1,91 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.template;
+
+import oap.benchmark.Benchmark;
+import oap.reflect.TypeRef;
+import oap.util.Dates;
+import oap.util.FastByteArrayOutputStream;
+import org.joda.time.DateTime;
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+
+import static oap.template.TemplateAccumulators.BINARY;
+import static org.joda.time.DateTimeZone.UTC;
+
+/**
+ * bytes/row and allocated bytes/row of a 60-field binary log row: render + getBytes() vs renderTo a reused accumulator
+ */
+@Test( enabled = false )
+public class TemplateBinaryRenderPerformance {
+    private static final int SAMPLES = 1_000_000;
+    private static final int EXPERIMENTS = 5;
+    private static final long ROWS = SAMPLES * ( long ) EXPERIMENTS + Benchmark.DEFAULT_WARMING;
+    private static final String ROW = String.join( "", Collections.nCopies( 5,
+        "{{ field }}{{ field2 }}{{ booleanField }}{{ byteField }}{{ shortField }}{{ intField }}"
+            + "{{ longField }}{{ floatField }}{{ doubleField }}{{ nonNullEnumField }}{{ longObjectField }}{{ dateTime }}" ) );
+
+    private static long allocatedBytes() {
+        var threadMXBean = ( com.sun.management.ThreadMXBean ) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes( Thread.currentThread().threadId() );
+    }
+
+    @Test( enabled = false )
+    public void testAllocation() {
+        var engine = new TemplateEngine( Dates.d( 10 ) );
+        Template<TestTemplateClass, byte[], FastByteArrayOutputStream, TemplateAccumulatorBinary> template =
+            engine.getTemplate( "row60", new TypeRef<TestTemplateClass>() {}, ROW, BINARY, null );
+
+        var c = new TestTemplateClass();
+        c.field = "some-field-value";
+        c.field2 = "other";
+        c.booleanField = true;
+        c.byteField = 1;
+        c.shortField = 2;
+        c.intField = 3;
+        c.longField = 4L;
+        c.floatField = 5.5f;
+        c.doubleField = 6.6d;
+        c.longObjectField = 7L;
+        c.dateTime = new DateTime( 2024, 1, 2, 3, 4, 5, UTC );
+
+        System.out.println( "row: " + template.render( c, true ).getBytes().length + " bytes" );
+
+        long start = allocatedBytes();
+        Benchmark.benchmark( "render", SAMPLES, () -> template.render( c, true ).getBytes() )
+            .experiments( EXPERIMENTS ).run();
+        System.out.println( "render: " + ( allocatedBytes() - start ) / ROWS + " allocated bytes/row" );
+
+        var acc = new TemplateAccumulatorBinary();
+        start = allocatedBytes();
+        Benchmark.benchmark( "renderTo", SAMPLES, () -> {
+            acc.reset();
+            template.renderTo( c, true, acc );
+        } ).experiments( EXPERIMENTS ).run();
+        System.out.println( "renderTo: " + ( allocatedBytes() - start ) / ROWS + " allocated bytes/row" );
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.template;
+
+import oap.reflect.TypeRef;
+import oap.template.render.AstRender;
+import oap.template.render.Render;
+import oap.template.render.TemplateType;
+import oap.testng.Fixtures;
+import oap.util.Dates;
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static oap.template.TemplateAccumulators.BINARY;
+import static oap.template.TemplateAccumulators.OBJECT;
+import static oap.template.TemplateAccumulators.STRING;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.joda.time.DateTimeZone.UTC;
+
+/**
+ * the bytecode backend must render exactly what the javac one does
+ */
+public class TemplateEngineBytecodeTest extends Fixtures {
+    private TemplateEngine javac;
+    private TemplateEngine bytecode;
+
+    @BeforeMethod
+    public void beforeMethod() {
+        javac = new TemplateEngine( Dates.d( 10 ) );
+        bytecode = new TemplateEngine( Dates.d( 10 ) );
+        bytecode.backend = TemplateEngine.Backend.BYTECODE;
+    }
+
+    @DataProvider
+    public Object[][] templates() {
+        return new Object[][] {
+            { "text only" },
+            { "{{ field }}" },
+            { "{{ field }}-{{ field2 }}\t{{ field }}" },
+            { "{{ /* intField */intField }}" },
+            { "{{ child.field }}" },
+            { "{{ childNullable.fieldNullable ?? '' }}" },
+            { "{{ childNullable.booleanObjectField ?? true }}" },
+            { "{{ childNullable.longField }}" },
+            { "{{ childOpt.fieldOpt }}-{{ childOpt.intField }}" },
+            { "{{ childOpt.booleanObjectField ?? true }}" },
+            { "{{ fieldOpt }}" },
+            { "{{ fieldNullable }}" },
+            { "{{ enumField }}" },
+            { "{{ <java.lang.Enum>child.enumField ?? 'UNKNOWN' }}" },
+            { "{{ booleanField }},{{ booleanObjectField }},{{ byteField }},{{ shortField }},{{ shortObjectField }}" },
+            { "{{ intField }},{{ intObjectField }},{{ longField }},{{ longObjectField }}" },
+            { "{{ floatField }},{{ floatObjectField }},{{ doubleField }},{{ doubleObjectField }}" },
+            { "{{ intField + 12.45 }}" },
+            { "{{ intField * 3 }}|{{ longField - 1 }}|{{ doubleField / 2 }}|{{ intField % 2 }}" },
+            { "{{ intObjectField + 12.45 ?? 5 }}" },
+            { "{{ field | default field2 }}" },
+            { "{{ intObjectField | default childNullable.intObjectField ?? 3 }}" },
+            { "{{ list | default list2 }}" },
+            { "{{ list ?? [] }}" },
+            { "{{ listString }}" },
+            { "{{ listEnum }}" },
+            { "{{ setString }}" },
+            { "{{ dateTime }}" },
+            { "{{ dateTimeOptional ?? '2023-01-04 18:09:11' }}" },
+            { "{{ intField ; testInc() }}" },
+            { "${fieldM()}" },
+            { "${fieldM()??'d'}" },
+            { "${childM().field??'d'}" },
+            { "${fieldMInt( -1)}" },
+            { "${fieldMDouble(1.2  )}" },
+            { "${fieldMString( 'str')}" },
+            { "${{field,\"x\",field2}}" },
+            { "${{intField,\"x\",field2}}" },
+            { "${child{field,\"x\",field2}}" },
+            { "${childNullable.childNullable.{field2,\"x\",intField}??''}" },
+            { "${childOpt.childOpt.{field2,\"x\",intField}??''}" },
+        };
+    }
+
+    /**
+     * templates the bytecode generator does not support, compiled by javac
+     */
+    @DataProvider
+    public Object[][] fallbacks() {
+        return new Object[][] {
+            { "custom ast node", "{{ field }}", ( Consumer<AstRender> ) ast -> ast.addChild( new JavacOnlyText( "!" ) ) },
+        };
+    }
+
+    @Test( dataProvider = "templates" )
+    public void testString( String template ) {
+        for( var c : objects() ) {
+            assertThat( render( bytecode, template, STRING, c ) ).isEqualTo( render( javac, template, STRING, c ) );
+        }
+        assertGenerated( template );
+    }
+
+    @Test( dataProvider = "templates" )
+    public void testBinary( String template ) {
+        for( var c : objects() ) {
+            assertThat( render( bytecode, template, BINARY, c ) ).isEqualTo( render( javac, template, BINARY, c ) );
+        }
+        assertGenerated( template );
+    }
+
+    @Test( dataProvider = "templates" )
+    public void testObject( String template ) {
+        for( var c : objects() ) {
+            assertThat( render( bytecode, template, OBJECT, c ) ).isEqualTo( render( javac, template, OBJECT, c ) );
+        }
+        assertGenerated( template );
+    }
+
+    @Test( dataProvider = "fallbacks" )
+    public void testFallback( String reason, String template, Consumer<AstRender> postProcess ) {
+        for( var c : objects() ) {
+            assertThat( render( bytecode, template, STRING, c, postProcess ) ).isEqualTo( render( javac, template, STRING, c, postProcess ) );
+        }
+
+        assertThat( bytecode.getGeneratedCount() ).as( reason ).isZero();
+        assertThat( bytecode.getCompiledCount() ).as( reason ).isEqualTo( 1 );
+    }
+
+    @Test
+    public void testGenerated() {
+        var c = objects().getFirst();
+
+        assertThat( render( bytecode, "{{ field }}-{{ childOpt.intField }}", STRING, c ) ).isEqualTo( "f1-5" );
+        assertThat( render( bytecode, "{{ intObjectField | default childNullable.intObjectField ?? 3 }}", STRING, c ) ).isEqualTo( "3" );
+
+        assertThat( bytecode.getGeneratedCount() ).isEqualTo( 2 );
+        assertThat( bytecode.getCompiledCount() ).isZero();
+    }
+
+    private void assertGenerated( String template ) {
+        assertThat( bytecode.getGeneratedCount() ).as( template ).isEqualTo( 1 );
+        assertThat( bytecode.getCompiledCount() ).as( template ).isZero();
+    }
+
+    private static <TOut, TOutMutable, TA extends TemplateAccumulator<TOut, TOutMutable, TA>> Object render( TemplateEngine engine, String template, TA acc, TestTemplateClass c ) {
+        return render( engine, template, acc, c, null );
+    }
+
+    /**
+     * @return rendered value or the class of the exception
+     */
+    private static <TOut, TOutMutable, TA extends TemplateAccumulator<TOut, TOutMutable, TA>> Object render( TemplateEngine engine, String template, TA acc, TestTemplateClass c,
+                                                                                                            Consumer<AstRender> postProcess ) {
+        try {
+            TOut out = engine.getTemplate( "bytecode", new TypeRef<TestTemplateClass>() {}, template, acc, postProcess ).render( c ).get();
+
+            return out instanceof byte[] bytes ? BinaryUtils.read( bytes ) : out;
+        } catch( Exception e ) {
+            return e.getClass();
+        }
+    }
+
+    private static List<TestTemplateClass> objects() {
+        var c = new TestTemplateClass();
+        c.field = "f1";
+        c.field2 = "f2";
+        c.fieldOpt = Optional.of( "o" );
+        c.booleanField = true;
+        c.byteField = 1;
+        c.shortField = 2;
+        c.shortObjectField = 3;
+        c.intField = 5;
+        c.longField = 6L;
+        c.longObjectField = 7L;
+        c.floatField = 1.5f;
+        c.doubleField = 2.25;
+        c.doubleObjectField = 3.5;
+        c.enumField = TestTemplateEnum.VAL2;
+        c.list = List.of( 1, 2 );
+        c.listString = List.of( "a", "b" );
+        c.listEnum = List.of( TestTemplateEnum.VAL1 );
+        c.setString = Set.of( "s" );
+        c.dateTime = new DateTime( 2023, 1, 4, 18, 9, 11, UTC );
+        c.child = new TestTemplateClass();
+        c.child.field = "cf1";
+        c.child.field2 = "cf2";
+        c.child.enumField = TestTemplateEnum.VAL1;
+        c.childNullable = new TestTemplateClass();
+        c.childNullable.childNullable = new TestTemplateClass();
+        c.childNullable.childNullable.field2 = "n2";
+        c.childOpt = Optional.of( c.child );
+        c.child.intField = 5;
+        c.child.childOpt = Optional.of( c.childNullable.childNullable );
+
+        var empty = new TestTemplateClass();
+        empty.child = new TestTemplateClass();
+
+        return List.of( c, empty );
+    }
+
+    /**
+     * renders only java source
+     */
+    private static class JavacOnlyText extends AstRender {
+        private final String text;
+
+        JavacOnlyText( String text ) {
+            super( new TemplateType( String.class ) );
+            this.text = text;
+        }
+
+        @Override
+        public void render( Render render ) {
+            render.ntab().append( "%s.acceptText( \"%s\" );", render.templateAccumulatorName, text );
+        }
+    }
+}
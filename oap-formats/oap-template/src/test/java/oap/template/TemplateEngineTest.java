@@ -32,15 +32,20 @@ import oap.util.Strings;
 import org.apache.commons.io.FileUtils;
 import org.codehaus.plexus.util.StringUtils;
 import org.joda.time.DateTime;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -329,6 +334,27 @@ public class TemplateEngineTest extends Fixtures {
             .isEqualTo( List.of( List.of( 0.0d ) ) );
     }
 
+    @Test
+    public void testRenderToBinary() throws IOException {
+        var template = engine.getTemplate( testMethodName, new TypeRef<TestTemplateClass>() {}, "{{ field }}{{ intField }}", BINARY, null );
+        TestTemplateClass c = new TestTemplateClass();
+        c.field = "f";
+
+        var region = new byte[1024];
+        var acc = new TemplateAccumulatorBinary().wrap( region, 3 );
+        c.intField = 1;
+        template.renderTo( c, true, acc );
+        c.intField = 2;
+        template.renderTo( c, true, acc );
+
+        assertThat( acc.array() ).isSameAs( region );
+        assertThat( BinaryUtils.read( region, 3, acc.length() - 3 ) ).isEqualTo( List.of( List.of( "f", 1 ), List.of( "f", 2 ) ) );
+
+        acc.reset();
+        template.renderTo( c, false, acc );
+        assertThat( BinaryUtils.read( acc.array(), 0, acc.length() ) ).isEqualTo( List.of( List.of( "f", 2 ) ) );
+    }
+
     @Test
     public void testDefaultDateTime() throws IOException {
         assertThat( BinaryUtils.read( engine.getTemplate( testMethodName, new TypeRef<TestTemplateClass>() {}, "{{ dateTimeOptional ?? '2023-01-04 18:09:11' }}", BINARY, null ).render( new TestTemplateClass() ).get() ) )
@@ -392,6 +418,129 @@ public class TemplateEngineTest extends Fixtures {
             .isEqualTo( "1" );
     }
 
+    @Test
+    public void testBytecodeStore() {
+        var store = testDirectoryFixture.testPath( "store" );
+        TestTemplateClass c1 = new TestTemplateClass();
+        c1.field = "1";
+
+        engine = new TemplateEngine( null, store, Dates.d( 10 ) );
+        assertThat( engine.getTemplate( testMethodName, new TypeRef<TestTemplateClass>() {}, "{{ field }}", STRING, ERROR, null ).render( c1 ).get() )
+            .isEqualTo( "1" );
+        assertThat( engine.getCompiledCount() ).isEqualTo( 1 );
+
+        TemplateEngine engine2 = new TemplateEngine( null, store, Dates.d( 10 ) );
+        assertThat( engine2.getTemplate( testMethodName, new TypeRef<TestTemplateClass>() {}, "{{ field }}", STRING, ERROR, null ).render( c1 ).get() )
+            .isEqualTo( "1" );
+        assertThat( engine2.getLoadedCount() ).isEqualTo( 1 );
+        assertThat( engine2.getCompiledCount() ).isEqualTo( 0 );
+    }
+
+    @Test
+    public void testBytecodeStoreLinkageError() throws IOException {
+        var store = testDirectoryFixture.testPath( "store" );
+        TestTemplateClass c1 = new TestTemplateClass();
+        c1.field = "1";
+
+        engine = new TemplateEngine( null, store, Dates.d( 10 ) );
+        engine.getTemplate( testMethodName, new TypeRef<TestTemplateClass>() {}, "{{ field }}", STRING, ERROR, null ).render( c1 );
+
+        // the entry was compiled against another version of TestTemplateClass
+        String key;
+        try( var files = Files.walk( store ) ) {
+            String fileName = files.filter( Files::isRegularFile ).findFirst().orElseThrow().getFileName().toString();
+            key = fileName.substring( 0, fileName.length() - TemplateBytecodeStore.EXTENSION.length() );
+        }
+        new TemplateBytecodeStore( store ).save( key, "oap.template.StaleTemplate", staleTemplate() );
+
+        TemplateEngine engine2 = new TemplateEngine( null, store, Dates.d( 10 ) );
+        var template = engine2.getTemplate( testMethodName, new TypeRef<TestTemplateClass>() {}, "{{ field }}", STRING, ERROR, null );
+        assertThat( engine2.getLoadedCount() ).isEqualTo( 1 );
+        assertThat( template.render( c1 ).get() ).isEqualTo( "1" );
+        assertThat( engine2.getCompiledCount() ).isEqualTo( 1 );
+        assertThat( template.render( c1 ).get() ).isEqualTo( "1" );
+
+        TemplateEngine engine3 = new TemplateEngine( null, store, Dates.d( 10 ) );
+        assertThat( engine3.getTemplate( testMethodName, new TypeRef<TestTemplateClass>() {}, "{{ field }}", STRING, ERROR, null ).render( c1 ).get() )
+            .isEqualTo( "1" );
+        assertThat( engine3.getCompiledCount() ).isEqualTo( 0 );
+    }
+
+    @Test
+    public void testBytecodeStoreFieldTypeChanged() throws IOException {
+        var store = testDirectoryFixture.testPath( "store" );
+        TestTemplateClass c1 = new TestTemplateClass();
+        c1.child2 = new TestTemplateClass2();
+        c1.child2.field2 = "1";
+
+        engine = new TemplateEngine( null, store, Dates.d( 10 ) );
+        engine.getTemplate( testMethodName, new TypeRef<TestTemplateClass>() {}, "{{ child2.field2 }}", STRING, ERROR, null ).render( c1 );
+
+        // TestTemplateClass2 is not a part of the key, the entry was saved with another version of it
+        File file;
+        try( var files = Files.walk( store ) ) {
+            file = files.filter( Files::isRegularFile ).findFirst().orElseThrow().toFile();
+        }
+        String entry = new String( FileUtils.readFileToByteArray( file ), ISO_8859_1 );
+        assertThat( entry ).contains( "oap.template.TestTemplateClass2" );
+        FileUtils.writeByteArrayToFile( file, StringUtils.replace( entry, "oap.template.TestTemplateClass2", "oap.template.TestTemplateClassX" ).getBytes( ISO_8859_1 ) );
+
+        TemplateEngine engine2 = new TemplateEngine( null, store, Dates.d( 10 ) );
+        assertThat( engine2.getTemplate( testMethodName, new TypeRef<TestTemplateClass>() {}, "{{ child2.field2 }}", STRING, ERROR, null ).render( c1 ).get() )
+            .isEqualTo( "1" );
+        assertThat( engine2.getLoadedCount() ).isEqualTo( 0 );
+        assertThat( engine2.getCompiledCount() ).isEqualTo( 1 );
+
+        TemplateEngine engine3 = new TemplateEngine( null, store, Dates.d( 10 ) );
+        assertThat( engine3.getTemplate( testMethodName, new TypeRef<TestTemplateClass>() {}, "{{ child2.field2 }}", STRING, ERROR, null ).render( c1 ).get() )
+            .isEqualTo( "1" );
+        assertThat( engine3.getLoadedCount() ).isEqualTo( 1 );
+    }
+
+    /**
+     * reads TestTemplateClass.removed, a field that does not exist
+     */
+    private static byte[] staleTemplate() {
+        var cw = new ClassWriter( ClassWriter.COMPUTE_MAXS );
+        cw.visit( Opcodes.V17, Opcodes.ACC_PUBLIC, "oap/template/StaleTemplate", null, "java/lang/Object",
+            new String[] { "oap/util/function/TriConsumer" } );
+
+        MethodVisitor init = cw.visitMethod( Opcodes.ACC_PUBLIC, "<init>", "()V", null, null );
+        init.visitCode();
+        init.visitVarInsn( Opcodes.ALOAD, 0 );
+        init.visitMethodInsn( Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false );
+        init.visitInsn( Opcodes.RETURN );
+        init.visitMaxs( 0, 0 );
+        init.visitEnd();
+
+        MethodVisitor accept = cw.visitMethod( Opcodes.ACC_PUBLIC, "accept", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)V", null, null );
+        accept.visitCode();
+        accept.visitVarInsn( Opcodes.ALOAD, 1 );
+        accept.visitTypeInsn( Opcodes.CHECKCAST, "oap/template/TestTemplateClass" );
+        accept.visitFieldInsn( Opcodes.GETFIELD, "oap/template/TestTemplateClass", "removed", "Ljava/lang/String;" );
+        accept.visitInsn( Opcodes.POP );
+        accept.visitInsn( Opcodes.RETURN );
+        accept.visitMaxs( 0, 0 );
+        accept.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    @Test
+    public void testPrecompile() {
+        engine = new TemplateEngine( null, testDirectoryFixture.testPath( "store" ), Dates.d( 10 ) );
+
+        List<Supplier<Template<?, ?, ?, ?>>> templates = List.of(
+            () -> engine.getTemplate( "t1", new TypeRef<TestTemplateClass>() {}, "{{ field }}", STRING, null ),
+            () -> engine.getTemplate( "t2", new TypeRef<TestTemplateClass>() {}, "{{ field2 }}", STRING, null ),
+            () -> engine.getTemplate( "t3", new TypeRef<TestTemplateClass>() {}, "{{ field }}-{{ field2 }}", STRING, null ) );
+        engine.precompile( templates, 3 );
+
+        assertThat( engine.getCompiledCount() ).isEqualTo( 3 );
+        assertThat( engine.getCacheSize() ).isEqualTo( 3 );
+    }
+
     private void replace( String fileName ) throws IOException {
         File file = testDirectoryFixture.testPath( fileName ).toFile();
         String classStr = new String( FileUtils.readFileToByteArray( file ), ISO_8859_1 );
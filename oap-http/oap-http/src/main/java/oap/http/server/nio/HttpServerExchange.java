@@ -24,6 +24,7 @@
 
 package oap.http.server.nio;
 
+import io.undertow.io.IoCallback;
 import io.undertow.server.handlers.Cookie;
 import io.undertow.server.handlers.CookieImpl;
 import io.undertow.util.HeaderMap;
@@ -389,6 +390,10 @@ public class HttpServerExchange {
         exchange.getResponseSender().send( ByteBuffer.wrap( bytes, offset, length ) );
     }
 
+    public void send( byte[] bytes, int offset, int length, IoCallback callback ) {
+        exchange.getResponseSender().send( ByteBuffer.wrap( bytes, offset, length ), callback );
+    }
+
     public void closeConnection() {
         IoUtils.safeClose( exchange.getConnection() );
     }
@@ -0,0 +1,174 @@
+/*
+ *
+ *  * Copyright (c) Xenoss
+ *  * Unauthorized copying of this file, via any medium is strictly prohibited
+ *  * Proprietary and confidential
+ *
+ *
+ */
+
+package oap.http.pnio;
+
+import com.google.common.base.Preconditions;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Gradient concurrency limit in front of the workflow.
+ * <p>
+ * The limit follows the ratio of the long-term (baseline) to the short-term request latency:
+ * it shrinks as soon as requests start queueing and grows back by sqrt(limit) while the latency stays at the baseline.
+ * A request is rejected without reading the body if the limit is exhausted or the current latency does not fit
+ * into the time left for the request. A request is always admitted if nothing is in flight, so the estimates can recover.
+ */
+public class PnioAdmissionController {
+    public static final String PNIO_ADMISSION = "pnio_admission";
+
+    private static final double SHORT_SMOOTHING = 1.0 / 8;
+    private static final double LONG_SMOOTHING = 1.0 / 600;
+    private static final double TOLERANCE = 1.5;
+    private static final double LIMIT_SMOOTHING = 0.2;
+    private static final double DROP_DECREASE = 0.9;
+
+    public final int minLimit;
+    public final int maxLimit;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder latencySum = new LongAdder();
+    private final LongAdder latencyCount = new LongAdder();
+    private final LongAdder drops = new LongAdder();
+    private final AtomicInteger maxInflight = new AtomicInteger();
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private volatile double limit;
+    private volatile double shortLatencyNanos;
+    private double longLatencyNanos;
+
+    public PnioAdmissionController( int initialLimit, int minLimit, int maxLimit ) {
+        Preconditions.checkArgument( minLimit > 0 && minLimit <= maxLimit, "minLimit must be in 1.." + maxLimit );
+
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.clamp( initialLimit, minLimit, maxLimit );
+    }
+
+    public PnioAdmissionController withMetrics() {
+        Metrics.gauge( PNIO_ADMISSION, Tags.of( "type", "limit" ), this, PnioAdmissionController::getLimit );
+        Metrics.gauge( PNIO_ADMISSION, Tags.of( "type", "inflight" ), inflight, AtomicInteger::get );
+        Metrics.gauge( PNIO_ADMISSION, Tags.of( "type", "admitted" ), admitted, LongAdder::doubleValue );
+        Metrics.gauge( PNIO_ADMISSION, Tags.of( "type", "rejected" ), rejected, LongAdder::doubleValue );
+
+        return this;
+    }
+
+    /**
+     * @param timeLeftMs time left until the request timeout
+     * @return false if the request has to be rejected, otherwise {@link #release(long, boolean)} must be called once it is completed
+     */
+    public boolean tryAcquire( long timeLeftMs ) {
+        while( true ) {
+            int current = inflight.get();
+
+            if( current > 0 && ( current >= ( int ) limit || shortLatencyNanos > TimeUnit.MILLISECONDS.toNanos( timeLeftMs ) ) ) {
+                rejected.increment();
+                return false;
+            }
+
+            if( inflight.compareAndSet( current, current + 1 ) ) {
+                admitted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param latencyNanos time from the request start to the response
+     * @param dropped      the request did not complete in time (timeout, rejected by the compute queue)
+     */
+    public void release( long latencyNanos, boolean dropped ) {
+        int current = inflight.getAndDecrement();
+
+        if( dropped ) drops.increment();
+        else {
+            latencySum.add( latencyNanos );
+            latencyCount.increment();
+        }
+        maxInflight.accumulateAndGet( current, Math::max );
+
+        // one thread updates the limit, the samples of the others are kept for the next update
+        if( !updateLock.tryLock() ) return;
+        try {
+            update();
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    private void update() {
+        long dropCount = drops.sumThenReset();
+        long count = latencyCount.sumThenReset();
+        long sum = latencySum.sumThenReset();
+        int current = maxInflight.getAndSet( 0 );
+
+        if( dropCount > 0 ) {
+            limit = Math.max( minLimit, limit * Math.pow( DROP_DECREASE, dropCount ) );
+            return;
+        }
+        if( count == 0 ) return;
+
+        double latencyNanos = ( double ) sum / count;
+
+        if( shortLatencyNanos == 0 ) {
+            shortLatencyNanos = latencyNanos;
+            longLatencyNanos = latencyNanos;
+            return;
+        }
+
+        // the mean of count samples, weighted as count sequential updates
+        double shortLatency = shortLatencyNanos + ( latencyNanos - shortLatencyNanos ) * weight( SHORT_SMOOTHING, count );
+        shortLatencyNanos = shortLatency;
+        longLatencyNanos += ( latencyNanos - longLatencyNanos ) * weight( LONG_SMOOTHING, count );
+
+        // the baseline follows a permanent latency drop faster
+        if( longLatencyNanos / shortLatency > 2 ) longLatencyNanos *= 0.95;
+
+        double currentLimit = limit;
+        // application limited, the latency says nothing about the limit
+        if( current < currentLimit / 2 ) return;
+
+        double gradient = Math.clamp( TOLERANCE * longLatencyNanos / shortLatency, 0.5, 1.0 );
+        double newLimit = currentLimit * gradient + Math.sqrt( currentLimit );
+        newLimit = currentLimit * ( 1 - LIMIT_SMOOTHING ) + newLimit * LIMIT_SMOOTHING;
+
+        limit = Math.clamp( newLimit, minLimit, maxLimit );
+    }
+
+    private static double weight( double smoothing, long count ) {
+        return count == 1 ? smoothing : 1 - Math.pow( 1 - smoothing, count );
+    }
+
+    public double getLimit() {
+        return limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getLatencyNanos() {
+        return ( long ) shortLatencyNanos;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ *
+ *  * Copyright (c) Xenoss
+ *  * Unauthorized copying of this file, via any medium is strictly prohibited
+ *  * Proprietary and confidential
+ *
+ *
+ */
+
+
+package oap.http.pnio;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * IO step that does not hold a thread while waiting for a downstream service.
+ * <p>
+ * With {@link PnioHttpHandler#handleRequestAsync} the exchange is suspended until the returned stage completes
+ * and then resumed on the continuation executor. {@link PnioHttpHandler#handleRequest} waits for the stage on the worker thread.
+ */
+@SuppressWarnings( "checkstyle:AbstractClassName" )
+public abstract class PnioAsyncRequestHandler<State> extends PnioRequestHandler<State> {
+    @Override
+    public final Type getType() {
+        return Type.ASYNC;
+    }
+
+    public abstract CompletionStage<Void> handleAsync( PnioExchange<State> pnioExchange, State state );
+
+    @Override
+    public final void handle( PnioExchange<State> pnioExchange, State state ) throws InterruptedException, IOException {
+        try {
+            pnioExchange.startAsync( this, state ).get( pnioExchange.getTimeLeft(), TimeUnit.MILLISECONDS );
+        } catch( TimeoutException e ) {
+            pnioExchange.completeWithTimeout();
+        } catch( ExecutionException e ) {
+            pnioExchange.completeWithFail( e.getCause() );
+        }
+    }
+}
@@ -39,11 +39,13 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 @NotThreadSafe
 public class PnioBuffer {
+    private final byte[] allocated;
     byte[] buffer;
     public int length;
 
     public PnioBuffer( int capacity ) {
-        this.buffer = new byte[capacity];
+        this.allocated = new byte[capacity];
+        this.buffer = allocated;
         this.length = 0;
     }
 
@@ -57,6 +59,15 @@ public class PnioBuffer {
         length = 0;
     }
 
+    /**
+     * drops the data and restores the array allocated by the constructor,
+     * even if it was replaced via {@link #setAndResize(byte[], int)}
+     */
+    public final void reset() {
+        buffer = allocated;
+        length = 0;
+    }
+
     public final String string() {
         return new String( buffer, 0, length );
     }
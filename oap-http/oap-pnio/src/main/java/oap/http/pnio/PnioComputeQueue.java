@@ -0,0 +1,29 @@
+/*
+ *
+ *  * Copyright (c) Xenoss
+ *  * Unauthorized copying of this file, via any medium is strictly prohibited
+ *  * Proprietary and confidential
+ *
+ *
+ */
+
+
+package oap.http.pnio;
+
+/**
+ * hand-off of COMPUTE steps from the IO threads to the {@link RequestTaskComputeRunner}s
+ */
+interface PnioComputeQueue<WorkflowState> {
+    /**
+     * @return false if the exchange cannot be accepted within timeoutMs
+     */
+    boolean offer( PnioExchange<WorkflowState> pnioExchange, long timeoutMs ) throws InterruptedException;
+
+    PnioExchange<WorkflowState> take( int worker ) throws InterruptedException;
+
+    /**
+     * called by the worker after the COMPUTE steps of an exchange have been executed
+     */
+    default void completed( int worker, long durationNanos ) {
+    }
+}
@@ -9,58 +9,164 @@
 
 package oap.http.pnio;
 
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
 import io.undertow.util.StatusCodes;
 import oap.http.Cookie;
 import oap.http.Http;
 import oap.http.server.nio.HttpServerExchange;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketException;
 import java.nio.BufferOverflowException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 @SuppressWarnings({"all", "warnings", "unchecked", "unused", "cast", "CheckReturnValue"})
 public class PnioExchange<WorkflowState> {
-    public final HttpServerExchange exchange;
+    private static final AtomicReferenceFieldUpdater<PnioExchange, ProcessState> PROCESS_STATE =
+        AtomicReferenceFieldUpdater.newUpdater( PnioExchange.class, ProcessState.class, "processState" );
+
+    public HttpServerExchange exchange;
 
     public final PnioBuffer requestBuffer;
     public final PnioBuffer responseBuffer;
 
     public volatile CompletableFuture<Void> future;
     public Throwable throwable;
+    /**
+     * changes only from RUNNING, the first outcome wins
+     */
     public volatile ProcessState processState = ProcessState.RUNNING;
+    /**
+     * the owner stopped waiting (timeout, interrupt) while the handler may still be running
+     */
+    private volatile boolean detached;
 
-    public final long startTimeNano;
-    public final long timeout;
+    public long startTimeNano;
+    public long timeout;
 
     RequestWorkflow.Node<WorkflowState> currentTaskNode;
 
     public final HttpResponse httpResponse = new HttpResponse();
-    private final WorkflowState workflowState;
+    private WorkflowState workflowState;
+    /**
+     * the gzip request body has been inflated into {@link #requestBuffer} by {@link PnioRequestReader}
+     */
+    boolean requestDecompressed;
+    PnioMetrics metrics = PnioMetrics.DISABLED;
+    private long queuedNano;
+    /**
+     * the exchange holds a permit of the {@link PnioAdmissionController}
+     */
+    boolean admitted;
+
+    private final PnioExchangePool<WorkflowState> pool;
+    private final IoCallback releaseCallback;
+    /**
+     * set by {@link PnioExchangePool#borrow()}, guards against returning the exchange twice
+     */
+    final AtomicBoolean borrowed = new AtomicBoolean();
+    /**
+     * the owner and the tasks (compute step, async handler, fork branch) that may still use the exchange,
+     * the exchange goes back to the pool only when the last of them has finished
+     */
+    final AtomicInteger references = new AtomicInteger();
 
     public PnioExchange(int requestSize, int responseSize, RequestWorkflow<WorkflowState> workflow, WorkflowState inputState,
                         HttpServerExchange exchange, long startTimeNano, long timeout) {
-        requestBuffer = new PnioBuffer(requestSize);
-        responseBuffer = new PnioBuffer(responseSize);
+        this( requestSize, responseSize, null );
+
+        init( workflow, inputState, exchange, startTimeNano, timeout );
+        readRequest();
+    }
+
+    PnioExchange( int requestSize, int responseSize, @Nullable PnioExchangePool<WorkflowState> pool ) {
+        requestBuffer = new PnioBuffer( requestSize );
+        responseBuffer = new PnioBuffer( responseSize );
 
+        this.pool = pool;
+        this.releaseCallback = pool != null ? new ReleaseCallback() : null;
+    }
+
+    void init( RequestWorkflow<WorkflowState> workflow, WorkflowState inputState,
+               HttpServerExchange exchange, long startTimeNano, long timeout ) {
         this.workflowState = inputState;
         this.currentTaskNode = workflow.root;
 
         this.exchange = exchange;
         this.startTimeNano = startTimeNano;
         this.timeout = timeout;
+    }
+
+    void readRequest() {
+        if( !PnioRequestReader.checkContentLength( this ) ) return;
 
         InputStream inputStream = exchange.getInputStream();
         readFully(inputStream);
     }
 
+    /**
+     * prepares a pooled exchange for the next request, the buffers keep their original capacity
+     */
+    void reset() {
+        exchange = null;
+        workflowState = null;
+        currentTaskNode = null;
+        future = null;
+        throwable = null;
+        processState = ProcessState.RUNNING;
+        detached = false;
+        requestDecompressed = false;
+        queuedNano = 0;
+        admitted = false;
+
+        requestBuffer.reset();
+        responseBuffer.reset();
+        httpResponse.reset();
+    }
+
+    /**
+     * the owner gives the exchange back, it returns to the pool it was borrowed from once no task uses it,
+     * no-op for non-pooled exchanges
+     */
+    void release() {
+        if( pool != null && borrowed.compareAndSet( true, false ) ) dereference();
+    }
+
+    /**
+     * called by the owner before a task that may outlive its wait is started
+     */
+    void taskStarted() {
+        if( pool != null ) references.incrementAndGet();
+    }
+
+    /**
+     * called by the task when it no longer touches the exchange
+     */
+    void taskFinished() {
+        if( pool != null ) dereference();
+    }
+
+    private void dereference() {
+        if( references.decrementAndGet() == 0 ) pool.release( this );
+    }
+
+    private boolean transition( ProcessState state ) {
+        return PROCESS_STATE.compareAndSet( this, ProcessState.RUNNING, state );
+    }
+
     public boolean gzipSupported() {
         return exchange.gzipSupported();
     }
@@ -88,18 +194,17 @@ public class PnioExchange<WorkflowState> {
     }
 
     public void completeWithBufferOverflow(boolean request) {
-        processState = request ? ProcessState.REQUEST_BUFFER_OVERFLOW : ProcessState.RESPONSE_BUFFER_OVERFLOW;
+        transition( request ? ProcessState.REQUEST_BUFFER_OVERFLOW : ProcessState.RESPONSE_BUFFER_OVERFLOW );
         completeFuture();
     }
 
     public void completeWithTimeout() {
-        processState = ProcessState.TIMEOUT;
+        if( transition( ProcessState.TIMEOUT ) ) detached = true;
         completeFuture();
     }
 
     public void completeWithConnectionClosed(Throwable throwable) {
-        this.throwable = throwable;
-        this.processState = ProcessState.CONNECTION_CLOSED;
+        if( transition( ProcessState.CONNECTION_CLOSED ) ) this.throwable = throwable;
         completeFuture();
     }
 
@@ -108,23 +213,22 @@ public class PnioExchange<WorkflowState> {
     }
 
     public void completeWithInterrupted() {
-        processState = ProcessState.INTERRUPTED;
+        if( transition( ProcessState.INTERRUPTED ) ) detached = true;
         completeFuture();
     }
 
     public void completeWithFail(Throwable throwable) {
-        this.throwable = throwable;
-        this.processState = ProcessState.EXCEPTION;
+        if( transition( ProcessState.EXCEPTION ) ) this.throwable = throwable;
         completeFuture();
     }
 
     public void completeWithRejected() {
-        processState = ProcessState.REJECTED;
+        transition( ProcessState.REJECTED );
         completeFuture();
     }
 
     public void complete() {
-        processState = ProcessState.DONE;
+        transition( ProcessState.DONE );
     }
 
     public final boolean isDone() {
@@ -132,26 +236,43 @@ public class PnioExchange<WorkflowState> {
     }
 
     public boolean isRequestGzipped() {
-        return exchange.isRequestGzipped();
+        return !requestDecompressed && exchange.isRequestGzipped();
     }
 
-    void register(SynchronousQueue<PnioExchange<WorkflowState>> queue, double timeoutPercent) {
+    void register(PnioComputeQueue<WorkflowState> queue, double timeoutPercent) {
         try {
             long timeoutCpuQueue = getTimeLeft(timeoutPercent);
             if (timeoutCpuQueue < 1) {
                 completeWithRejected();
             } else {
                 future = new CompletableFuture<>();
+                queuedNano = metrics.isEnabled() ? System.nanoTime() : 0;
 
-                if (!queue.offer(this, timeoutCpuQueue, TimeUnit.MILLISECONDS)) {
+                // finished by the compute thread that takes the exchange
+                taskStarted();
+                if (!queue.offer(this, timeoutCpuQueue)) {
+                    taskFinished();
                     completeWithRejected();
                 }
             }
         } catch (InterruptedException e) {
+            taskFinished();
             completeWithInterrupted();
         }
     }
 
+    /**
+     * called by the compute thread that took the exchange from the queue
+     */
+    void dequeued() {
+        if( queuedNano != 0 ) {
+            long wait = System.nanoTime() - queuedNano;
+            metrics.queueWait.record( wait );
+            if( currentTaskNode != null ) metrics.node( currentTaskNode.handler ).queueWait.record( wait );
+            queuedNano = 0;
+        }
+    }
+
     boolean waitForCompletion() {
         try {
             if (isDone()) return false;
@@ -177,6 +298,74 @@ public class PnioExchange<WorkflowState> {
         }
     }
 
+    /**
+     * non-blocking counterpart of {@link #waitForCompletion()}
+     */
+    CompletableFuture<Void> onCompletion() {
+        long tMs = getTimeLeft();
+        if( tMs < 1 ) {
+            completeWithTimeout();
+            return CompletableFuture.completedFuture( null );
+        }
+
+        return future.copy().orTimeout( tMs, TimeUnit.MILLISECONDS ).handle( ( _, e ) -> {
+            if( e != null ) completeExceptionally( e );
+            return null;
+        } );
+    }
+
+    /**
+     * starts the current {@link PnioAsyncRequestHandler}, the returned future completes after the exchange has moved
+     * to the next step or has been completed with an error
+     */
+    CompletableFuture<Void> runAsyncTask() {
+        if( getTimeLeft() <= 0 ) {
+            completeWithTimeout();
+            return CompletableFuture.completedFuture( null );
+        }
+
+        RequestWorkflow.Node<WorkflowState> node = currentTaskNode;
+        try {
+            var handler = ( PnioAsyncRequestHandler<WorkflowState> ) node.handler;
+            long start = metrics.isEnabled() ? System.nanoTime() : 0;
+
+            return startAsync( handler, workflowState ).copy()
+                .orTimeout( getTimeLeft(), TimeUnit.MILLISECONDS )
+                .handle( ( _, e ) -> {
+                    if( start != 0 ) metrics.node( handler ).execution.record( System.nanoTime() - start );
+                    if( e != null ) completeExceptionally( e );
+                    else if( !isDone() && currentTaskNode == node ) currentTaskNode = node.next;
+                    return null;
+                } );
+        } catch( Throwable e ) {
+            completeExceptionally( e );
+            return CompletableFuture.completedFuture( null );
+        }
+    }
+
+    /**
+     * the exchange is kept out of the pool until the stage of the handler completes, even if the owner stops waiting
+     */
+    CompletableFuture<Void> startAsync( PnioAsyncRequestHandler<WorkflowState> handler, WorkflowState state ) {
+        taskStarted();
+        try {
+            CompletableFuture<Void> future = handler.handleAsync( this, state ).toCompletableFuture();
+            future.whenComplete( ( _, _ ) -> taskFinished() );
+            return future;
+        } catch( Throwable e ) {
+            taskFinished();
+            throw e;
+        }
+    }
+
+    private void completeExceptionally( Throwable e ) {
+        Throwable cause = e instanceof CompletionException || e instanceof ExecutionException ? e.getCause() : e;
+
+        if( cause instanceof TimeoutException ) completeWithTimeout();
+        else if( cause instanceof BufferOverflowException ) completeWithBufferOverflow( false );
+        else completeWithFail( cause );
+    }
+
     public long getTimeLeft(double percent) {
         return (long) (getTimeLeft() * percent);
     }
@@ -197,7 +386,16 @@ public class PnioExchange<WorkflowState> {
                 }
                 if (isDone()) return;
                 PnioRequestHandler<WorkflowState> task = currentTaskNode.handler;
-                task.handle(this, workflowState);
+                if( metrics.isEnabled() ) {
+                    long start = System.nanoTime();
+                    try {
+                        task.handle( this, workflowState );
+                    } finally {
+                        metrics.node( task ).execution.record( System.nanoTime() - start );
+                    }
+                } else {
+                    task.handle( this, workflowState );
+                }
                 if (isDone()) return;
                 currentTaskNode = currentTaskNode.next;
             }
@@ -209,6 +407,15 @@ public class PnioExchange<WorkflowState> {
     }
 
     void send() {
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
+        try {
+            sendResponse();
+        } finally {
+            if( start != 0 ) metrics.send.record( System.nanoTime() - start );
+        }
+    }
+
+    private void sendResponse() {
         exchange.setStatusCode(httpResponse.status);
 
         httpResponse.headers.forEach(exchange::setResponseHeader);
@@ -217,10 +424,49 @@ public class PnioExchange<WorkflowState> {
         String contentType = httpResponse.contentType;
         if (contentType != null) exchange.setResponseHeader(Http.Headers.CONTENT_TYPE, contentType);
 
-        if (!responseBuffer.isEmpty())
-            exchange.send(responseBuffer.buffer, 0, responseBuffer.length);
-        else
+        if( !responseBuffer.isEmpty() && isDetached() ) {
+            // the handler of a timed out exchange may still write into the response buffer
+            exchange.send( Arrays.copyOf( responseBuffer.buffer, responseBuffer.length ) );
+            release();
+        } else if( !responseBuffer.isEmpty() ) {
+            if( releaseCallback != null )
+                exchange.send( responseBuffer.buffer, 0, responseBuffer.length, releaseCallback );
+            else
+                exchange.send( responseBuffer.buffer, 0, responseBuffer.length );
+        } else {
             exchange.endExchange();
+            release();
+        }
+    }
+
+    /**
+     * a timed out or interrupted exchange is abandoned while its handler may still be running
+     */
+    boolean isDetached() {
+        return detached;
+    }
+
+    /**
+     * the response buffer is written asynchronously, so a pooled exchange can be reused only after the send completes
+     */
+    private class ReleaseCallback implements IoCallback {
+        @Override
+        public void onComplete( io.undertow.server.HttpServerExchange exchange, Sender sender ) {
+            try {
+                IoCallback.END_EXCHANGE.onComplete( exchange, sender );
+            } finally {
+                release();
+            }
+        }
+
+        @Override
+        public void onException( io.undertow.server.HttpServerExchange exchange, Sender sender, IOException exception ) {
+            try {
+                IoCallback.END_EXCHANGE.onException( exchange, sender, exception );
+            } finally {
+                release();
+            }
+        }
     }
 
     public static class HttpResponse {
@@ -228,6 +474,13 @@ public class PnioExchange<WorkflowState> {
         public String contentType;
         public final HashMap<String, String> headers = new HashMap<>();
         public final ArrayList<Cookie> cookies = new ArrayList<>();
+
+        void reset() {
+            status = StatusCodes.NO_CONTENT;
+            contentType = null;
+            headers.clear();
+            cookies.clear();
+        }
     }
 
     public enum ProcessState {
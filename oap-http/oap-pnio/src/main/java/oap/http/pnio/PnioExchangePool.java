@@ -0,0 +1,121 @@
+/*
+ *
+ *  * Copyright (c) Xenoss
+ *  * Unauthorized copying of this file, via any medium is strictly prohibited
+ *  * Proprietary and confidential
+ *
+ *
+ */
+
+package oap.http.pnio;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded lock-free pool of {@link PnioExchange} with preallocated request/response buffers.
+ * <p>
+ * Each thread starts probing the slots from its own position, so IO threads mostly hit different slots.
+ * When the pool is empty a new exchange is allocated (miss), when it is full a released exchange is dropped.
+ * An exchange comes back only after its owner and every task that was started on it have finished.
+ */
+public class PnioExchangePool<WorkflowState> {
+    public static final String PNIO_EXCHANGE_POOL = "pnio_exchange_pool";
+
+    public final int requestSize;
+    public final int responseSize;
+    private final AtomicReferenceArray<PnioExchange<WorkflowState>> slots;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public PnioExchangePool( int size, int requestSize, int responseSize ) {
+        this.requestSize = requestSize;
+        this.responseSize = responseSize;
+        this.slots = new AtomicReferenceArray<>( size );
+    }
+
+    public PnioExchangePool<WorkflowState> withMetrics() {
+        Metrics.gauge( PNIO_EXCHANGE_POOL, Tags.of( "type", "hit" ), hits, LongAdder::doubleValue );
+        Metrics.gauge( PNIO_EXCHANGE_POOL, Tags.of( "type", "miss" ), misses, LongAdder::doubleValue );
+        Metrics.gauge( PNIO_EXCHANGE_POOL, Tags.of( "type", "dropped" ), dropped, LongAdder::doubleValue );
+        Metrics.gauge( PNIO_EXCHANGE_POOL, Tags.of( "type", "outstanding" ), outstanding, AtomicInteger::get );
+        Metrics.gauge( PNIO_EXCHANGE_POOL, Tags.of( "type", "size" ), slots, AtomicReferenceArray::length );
+
+        return this;
+    }
+
+    PnioExchange<WorkflowState> borrow() {
+        PnioExchange<WorkflowState> pnioExchange = poll();
+        if( pnioExchange != null ) {
+            hits.increment();
+        } else {
+            misses.increment();
+            pnioExchange = new PnioExchange<>( requestSize, responseSize, this );
+        }
+        outstanding.incrementAndGet();
+        pnioExchange.references.set( 1 );
+        pnioExchange.borrowed.set( true );
+
+        return pnioExchange;
+    }
+
+    /**
+     * called when the owner and all tasks of the exchange have finished with it
+     */
+    void release( PnioExchange<WorkflowState> pnioExchange ) {
+        outstanding.decrementAndGet();
+
+        pnioExchange.reset();
+
+        int length = slots.length();
+        int start = start( length );
+        for( int i = 0; i < length; i++ ) {
+            int index = ( start + i ) % length;
+            if( slots.get( index ) == null && slots.compareAndSet( index, null, pnioExchange ) ) return;
+        }
+
+        dropped.increment();
+    }
+
+    private PnioExchange<WorkflowState> poll() {
+        int length = slots.length();
+        int start = start( length );
+        for( int i = 0; i < length; i++ ) {
+            int index = ( start + i ) % length;
+            PnioExchange<WorkflowState> pnioExchange = slots.get( index );
+            if( pnioExchange != null && slots.compareAndSet( index, pnioExchange, null ) ) return pnioExchange;
+        }
+
+        return null;
+    }
+
+    private static int start( int length ) {
+        return ( int ) ( Thread.currentThread().threadId() % length );
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public int size() {
+        return slots.length();
+    }
+}
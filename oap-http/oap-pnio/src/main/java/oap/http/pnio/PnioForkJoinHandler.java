@@ -0,0 +1,231 @@
+/*
+ *
+ *  * Copyright (c) Xenoss
+ *  * Unauthorized copying of this file, via any medium is strictly prohibited
+ *  * Proprietary and confidential
+ *
+ *
+ */
+
+package oap.http.pnio;
+
+import com.google.common.base.Preconditions;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs independent handlers concurrently and joins them according to the {@link JoinPolicy}.
+ * <p>
+ * IO branches run on virtual threads, COMPUTE branches on the compute executor (common fork/join pool by default),
+ * {@link PnioAsyncRequestHandler} branches are just started. The join is bounded by the time left for the exchange.
+ * <p>
+ * Branches share the exchange and the workflow state, so each of them has to write to its own part of the state.
+ * IO and COMPUTE branches that lost or overran the join are cancelled and interrupted, the exchange is not returned
+ * to the pool until each of them has returned. A {@link PnioAsyncRequestHandler} branch is not cancelled,
+ * the exchange is kept until its stage completes. A branch that is still running after the join must not touch the response.
+ */
+public class PnioForkJoinHandler<State> extends PnioAsyncRequestHandler<State> {
+    public static final double DEFAULT_DEADLINE_PERCENT = 0.8;
+
+    private static final ExecutorService IO_EXECUTOR =
+        Executors.newThreadPerTaskExecutor( Thread.ofVirtual().name( "pnio-fork-", 0 ).factory() );
+
+    public final JoinPolicy joinPolicy;
+    public final double deadlinePercent;
+    private final List<PnioRequestHandler<State>> branches;
+    private final Executor computeExecutor;
+
+    public PnioForkJoinHandler( JoinPolicy joinPolicy, List<PnioRequestHandler<State>> branches ) {
+        this( joinPolicy, DEFAULT_DEADLINE_PERCENT, branches, ForkJoinPool.commonPool() );
+    }
+
+    /**
+     * @param deadlinePercent {@link JoinPolicy#DEADLINE} only, share of the time left for the exchange to wait for the branches
+     */
+    public PnioForkJoinHandler( JoinPolicy joinPolicy, double deadlinePercent, List<PnioRequestHandler<State>> branches, Executor computeExecutor ) {
+        Preconditions.checkArgument( !branches.isEmpty(), "no branches" );
+        Preconditions.checkArgument( deadlinePercent > 0 && deadlinePercent <= 1, "deadlinePercent must be in (0..1]" );
+
+        this.joinPolicy = joinPolicy;
+        this.deadlinePercent = deadlinePercent;
+        this.branches = List.copyOf( branches );
+        this.computeExecutor = computeExecutor;
+    }
+
+    @Override
+    public CompletionStage<Void> handleAsync( PnioExchange<State> pnioExchange, State state ) {
+        long timeLeft = pnioExchange.getTimeLeft();
+
+        @SuppressWarnings( "unchecked" )
+        CompletableFuture<Void>[] futures = new CompletableFuture[branches.size()];
+        for( var i = 0; i < futures.length; i++ ) {
+            futures[i] = start( branches.get( i ), pnioExchange, state );
+        }
+
+        CompletableFuture<Void> join = switch( joinPolicy ) {
+            case ALL -> all( futures );
+            case FIRST_SUCCESS -> firstSuccess( futures );
+            case DEADLINE -> {
+                @SuppressWarnings( "unchecked" )
+                CompletableFuture<Void>[] ignoreFailures = new CompletableFuture[futures.length];
+                for( var i = 0; i < futures.length; i++ ) ignoreFailures[i] = futures[i].exceptionally( _ -> null );
+
+                yield CompletableFuture.allOf( ignoreFailures )
+                    .completeOnTimeout( null, ( long ) ( timeLeft * deadlinePercent ), TimeUnit.MILLISECONDS );
+            }
+        };
+
+        return join.whenComplete( ( _, _ ) -> {
+            for( var future : futures ) if( future instanceof Branch<?> branch ) branch.cancel( true );
+        } );
+    }
+
+    private CompletableFuture<Void> start( PnioRequestHandler<State> branch, PnioExchange<State> pnioExchange, State state ) {
+        try {
+            return switch( branch.getType() ) {
+                case ASYNC -> pnioExchange.startAsync( ( PnioAsyncRequestHandler<State> ) branch, state );
+                case COMPUTE -> Branch.start( branch, pnioExchange, state, computeExecutor );
+                case IO -> Branch.start( branch, pnioExchange, state, IO_EXECUTOR );
+            };
+        } catch( Throwable e ) {
+            return CompletableFuture.failedFuture( e );
+        }
+    }
+
+    /**
+     * fails as soon as one of the branches fails
+     */
+    private static CompletableFuture<Void> all( CompletableFuture<Void>[] futures ) {
+        var result = new CompletableFuture<Void>();
+
+        for( var future : futures ) {
+            future.whenComplete( ( _, e ) -> {
+                if( e != null ) result.completeExceptionally( unwrap( e ) );
+            } );
+        }
+        CompletableFuture.allOf( futures ).thenRun( () -> result.complete( null ) );
+
+        return result;
+    }
+
+    /**
+     * fails only if all branches fail, with the error of the last one
+     */
+    private static CompletableFuture<Void> firstSuccess( CompletableFuture<Void>[] futures ) {
+        var result = new CompletableFuture<Void>();
+        var remaining = new AtomicInteger( futures.length );
+
+        for( var future : futures ) {
+            future.whenComplete( ( _, e ) -> {
+                if( e == null ) result.complete( null );
+                else if( remaining.decrementAndGet() == 0 ) result.completeExceptionally( unwrap( e ) );
+            } );
+        }
+
+        return result;
+    }
+
+    private static Throwable unwrap( Throwable e ) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /**
+     * IO or COMPUTE branch, cancel interrupts the thread that runs it.
+     * The exchange is released by the thread itself, a cancelled branch may still be running.
+     */
+    private static final class Branch<State> extends CompletableFuture<Void> implements Runnable {
+        private final PnioRequestHandler<State> handler;
+        private final PnioExchange<State> pnioExchange;
+        private final State state;
+        private Thread thread;
+
+        private Branch( PnioRequestHandler<State> handler, PnioExchange<State> pnioExchange, State state ) {
+            this.handler = handler;
+            this.pnioExchange = pnioExchange;
+            this.state = state;
+        }
+
+        static <State> Branch<State> start( PnioRequestHandler<State> handler, PnioExchange<State> pnioExchange, State state, Executor executor ) {
+            var branch = new Branch<>( handler, pnioExchange, state );
+
+            pnioExchange.taskStarted();
+            try {
+                executor.execute( branch );
+            } catch( Throwable e ) {
+                pnioExchange.taskFinished();
+                throw e;
+            }
+
+            return branch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                synchronized( this ) {
+                    if( isDone() ) return;
+                    thread = Thread.currentThread();
+                }
+                try {
+                    handler.handle( pnioExchange, state );
+                    complete( null );
+                } catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    completeExceptionally( e );
+                } catch( Throwable e ) {
+                    completeExceptionally( e );
+                } finally {
+                    synchronized( this ) {
+                        thread = null;
+                        // the interrupt of cancel() must not leak to the next task of the pool thread
+                        if( isCancelled() ) Thread.interrupted();
+                    }
+                }
+            } finally {
+                pnioExchange.taskFinished();
+            }
+        }
+
+        @Override
+        public boolean cancel( boolean mayInterruptIfRunning ) {
+            boolean cancelled = super.cancel( mayInterruptIfRunning );
+            if( cancelled && mayInterruptIfRunning ) {
+                synchronized( this ) {
+                    if( thread != null ) thread.interrupt();
+                }
+            }
+
+            return cancelled;
+        }
+    }
+
+    @Override
+    public String description() {
+        return "fork " + joinPolicy + " " + branches.stream().map( PnioRequestHandler::description ).collect( Collectors.joining( ", ", "[", "]" ) );
+    }
+
+    public enum JoinPolicy {
+        /**
+         * waits for all branches, fails as soon as one of them fails
+         */
+        ALL,
+        /**
+         * continues with the first branch that succeeds
+         */
+        FIRST_SUCCESS,
+        /**
+         * continues when all branches are completed or deadlinePercent of the time left is spent, failed branches are ignored
+         */
+        DEADLINE
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *
+ *  * Copyright (c) Xenoss
+ *  * Unauthorized copying of this file, via any medium is strictly prohibited
+ *  * Proprietary and confidential
+ *
+ *
+ */
+
+
+package oap.http.pnio;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of nanosecond durations, {@link #record(long)} does not allocate.
+ * <p>
+ * Every power of 2 is split into 8 buckets, so a percentile is reported with at most 12.5% error.
+ */
+public class PnioHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray( 64 * SUB_BUCKETS );
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    static int index( long value ) {
+        if( value < SUB_BUCKETS ) return ( int ) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros( value );
+        int mantissa = ( int ) ( value >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+
+        return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + mantissa;
+    }
+
+    static long upperBound( int index ) {
+        if( index < SUB_BUCKETS ) return index;
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int mantissa = index % SUB_BUCKETS;
+
+        return ( ( long ) ( SUB_BUCKETS + mantissa + 1 ) << ( exponent - SUB_BUCKET_BITS ) ) - 1;
+    }
+
+    public void record( long nanos ) {
+        if( nanos < 0 ) nanos = 0;
+
+        counts.incrementAndGet( index( nanos ) );
+        count.increment();
+        sum.add( nanos );
+
+        long current = max.get();
+        while( nanos > current && !max.compareAndSet( current, nanos ) ) current = max.get();
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long totalNanos() {
+        return sum.sum();
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    public long percentileNanos( double percentile ) {
+        long total = 0;
+        var snapshot = new long[counts.length()];
+        for( var i = 0; i < snapshot.length; i++ ) {
+            snapshot[i] = counts.get( i );
+            total += snapshot[i];
+        }
+        if( total == 0 ) return 0;
+
+        long rank = ( long ) Math.ceil( total * percentile );
+        long seen = 0;
+        for( var i = 0; i < snapshot.length; i++ ) {
+            seen += snapshot[i];
+            if( seen >= rank ) return Math.min( upperBound( i ), max.get() );
+        }
+
+        return max.get();
+    }
+
+    /**
+     * microseconds
+     */
+    public Map<String, Object> snapshot() {
+        long count = count();
+
+        var ret = new LinkedHashMap<String, Object>();
+        ret.put( "count", count );
+        ret.put( "mean", count > 0 ? totalNanos() / count / 1000 : 0 );
+        ret.put( "p50", percentileNanos( 0.5 ) / 1000 );
+        ret.put( "p90", percentileNanos( 0.9 ) / 1000 );
+        ret.put( "p99", percentileNanos( 0.99 ) / 1000 );
+        ret.put( "p999", percentileNanos( 0.999 ) / 1000 );
+        ret.put( "max", maxNanos() / 1000 );
+
+        return ret;
+    }
+}
@@ -12,6 +12,7 @@ package oap.http.pnio;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.undertow.util.SameThreadExecutor;
 import lombok.Builder;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
@@ -25,16 +26,23 @@ import org.slf4j.event.Level;
 import org.xnio.XnioExecutor;
 import org.xnio.XnioWorker;
 
+import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static oap.http.pnio.PnioExchange.ProcessState.CONNECTION_CLOSED;
+import static oap.http.pnio.PnioRequestHandler.Type.ASYNC;
 import static oap.http.pnio.PnioRequestHandler.Type.COMPUTE;
 import static oap.http.pnio.PnioRequestHandler.Type.IO;
 
@@ -44,13 +52,22 @@ public class PnioHttpHandler<WorkflowState> implements Closeable, AutoCloseable
     public final int responseSize;
     public final int threads;
     public final double queueTimeoutPercent;
+    public final boolean streamingRequestBody;
+    public final boolean decompressRequestBody;
     public final Affinity cpuAffinity;
     public final Affinity ioAffinity;
     private final NioHttpServer server;
     private final ErrorResponse<WorkflowState> errorResponse;
     private final ThreadPoolExecutor pool;
-    private final SynchronousQueue<PnioExchange<WorkflowState>> queue;
+    private final PnioComputeQueue<WorkflowState> queue;
     private final List<RequestTaskComputeRunner<WorkflowState>> tasks = new ArrayList<>();
+    private final PnioExchangePool<WorkflowState> exchangePool;
+    private final ExecutorService continuationExecutor;
+    private final PnioAdmissionController admissionController;
+    private final int admissionRejectedStatus;
+    @Nullable
+    private final byte[] admissionRejectedBody;
+    public final PnioMetrics metrics;
     private RequestWorkflow<WorkflowState> workflow;
     private static final ThreadLocal<Boolean> affinityState = new ThreadLocal<>();
 
@@ -88,6 +105,8 @@ public class PnioHttpHandler<WorkflowState> implements Closeable, AutoCloseable
         this.requestSize = settings.requestSize;
         this.responseSize = settings.responseSize;
         this.queueTimeoutPercent = settings.queueTimeoutPercent;
+        this.streamingRequestBody = settings.streamingRequestBody;
+        this.decompressRequestBody = settings.decompressRequestBody;
 
         if( settings.cpuThreads > 0 ) {
             this.threads = settings.cpuThreads;
@@ -103,14 +122,41 @@ public class PnioHttpHandler<WorkflowState> implements Closeable, AutoCloseable
 
         Preconditions.checkArgument( this.threads <= Runtime.getRuntime().availableProcessors() );
 
-        this.queue = new SynchronousQueue<>( settings.cpuQueueFair );
+        this.exchangePool = settings.exchangePoolSize > 0
+            ? new PnioExchangePool<WorkflowState>( settings.exchangePoolSize, requestSize, responseSize ).withMetrics()
+            : null;
+
+        this.admissionController = settings.admissionControl
+            ? new PnioAdmissionController( settings.admissionInitialLimit, this.threads, settings.admissionMaxLimit ).withMetrics()
+            : null;
+        this.admissionRejectedStatus = settings.admissionRejectedStatus;
+        this.admissionRejectedBody = settings.admissionRejectedBody != null ? settings.admissionRejectedBody.getBytes( UTF_8 ) : null;
+
+        this.metrics = new PnioMetrics( settings.metrics, settings.metricsWorkflow );
+        if( settings.metricsPath != null ) {
+            server.bind( settings.metricsPath, exchange -> {
+                String enabled = exchange.getStringParameter( "enabled" );
+                if( enabled != null ) metrics.setEnabled( Boolean.parseBoolean( enabled ) );
+
+                exchange.responseJson( metrics.snapshot() );
+            } );
+        }
+
+        this.continuationExecutor = settings.asyncVirtualThreads
+            ? Executors.newThreadPerTaskExecutor( Thread.ofVirtual().name( "pnio-async-", 0 ).factory() )
+            : null;
+
+        this.queue = switch( settings.cpuQueue ) {
+            case SYNCHRONOUS -> new SynchronousComputeQueue<>( settings.cpuQueueFair );
+            case RING_BUFFER -> new RingBufferComputeQueue<>( this.threads, settings.cpuQueueSize );
+        };
 
         this.pool = new ThreadPoolExecutor( this.threads, this.threads, 1, TimeUnit.MINUTES, new SynchronousQueue<>(),
             new ThreadFactoryBuilder().setNameFormat( "cpu-http-%d" ).build(),
             new oap.concurrent.ThreadPoolExecutor.BlockingPolicy() );
 
-        for( var i = 0; i < settings.cpuThreads; i++ ) {
-            RequestTaskComputeRunner<WorkflowState> requestTaskComputeRunner = new RequestTaskComputeRunner<>( queue, cpuAffinity );
+        for( var i = 0; i < this.threads; i++ ) {
+            RequestTaskComputeRunner<WorkflowState> requestTaskComputeRunner = new RequestTaskComputeRunner<>( queue, i, cpuAffinity );
             pool.submit( requestTaskComputeRunner );
             tasks.add( requestTaskComputeRunner );
         }
@@ -118,6 +164,16 @@ public class PnioHttpHandler<WorkflowState> implements Closeable, AutoCloseable
         setupIoWorkers();
     }
 
+    @Nullable
+    public PnioAdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    @Nullable
+    public PnioExchangePool<WorkflowState> getExchangePool() {
+        return exchangePool;
+    }
+
     public int getPoolSize() {
         return pool.getPoolSize();
     }
@@ -146,22 +202,125 @@ public class PnioHttpHandler<WorkflowState> implements Closeable, AutoCloseable
 
     public void handleRequest( HttpServerExchange exchange, long startTimeNano, long timeout, WorkflowState workflowState ) {
         setAffinity();
-        var requestState = new PnioExchange<>( requestSize, responseSize, workflow, workflowState, exchange, startTimeNano, timeout );
+        if( !admit( exchange, startTimeNano, timeout ) ) return;
+
+        PnioExchange<WorkflowState> requestState = newExchange( exchange, startTimeNano, timeout, workflowState );
+
+        if( streamingRequestBody ) new PnioRequestReader<>( requestState, decompressRequestBody ).readBlocking();
+        else requestState.readRequest();
 
         while( !requestState.isDone() ) {
             PnioRequestHandler<WorkflowState> task = requestState.currentTaskNode.handler;
             if( task.getType() == COMPUTE ) {
                 requestState.register( queue, queueTimeoutPercent );
+
+                if( !requestState.waitForCompletion() ) {
+                    break;
+                }
             } else {
-                requestState.runTasks( IO );
+                requestState.runTasks( task.getType() );
             }
+        }
+
+        response( requestState, workflowState );
+    }
+
+    /**
+     * Same workflow as {@link #handleRequest}, but the worker thread is released as soon as the exchange has to wait
+     * for the request body, a COMPUTE step or a {@link PnioAsyncRequestHandler}. The exchange is resumed on the continuation executor:
+     * virtual threads if {@link PnioHttpSettings#asyncVirtualThreads} is set, the undertow worker pool otherwise.
+     */
+    public void handleRequestAsync( HttpServerExchange exchange, long startTimeNano, long timeout, WorkflowState workflowState ) {
+        setAffinity();
+        if( !admit( exchange, startTimeNano, timeout ) ) return;
+
+        PnioExchange<WorkflowState> requestState = newExchange( exchange, startTimeNano, timeout, workflowState );
+
+        if( streamingRequestBody ) {
+            exchange.exchange.dispatch( SameThreadExecutor.INSTANCE, () ->
+                new PnioRequestReader<>( requestState, decompressRequestBody )
+                    .readAsync( () -> resume( requestState, workflowState, CompletableFuture.completedFuture( null ) ) ) );
+        } else {
+            requestState.readRequest();
+            exchange.exchange.dispatch( SameThreadExecutor.INSTANCE, () -> process( requestState, workflowState ) );
+        }
+    }
 
-            if( !requestState.waitForCompletion() ) {
-                break;
+    private PnioExchange<WorkflowState> newExchange( HttpServerExchange exchange, long startTimeNano, long timeout, WorkflowState workflowState ) {
+        PnioExchange<WorkflowState> requestState = exchangePool != null
+            ? exchangePool.borrow()
+            : new PnioExchange<>( requestSize, responseSize, null );
+        requestState.init( workflow, workflowState, exchange, startTimeNano, timeout );
+        requestState.metrics = metrics;
+        requestState.admitted = admissionController != null;
+
+        return requestState;
+    }
+
+    /**
+     * if the {@link PnioAdmissionController} rejects the request, {@link PnioHttpSettings#admissionRejectedStatus}
+     * is sent right away on the undertow exchange: no {@link PnioExchange} is borrowed, the request body is not read
+     * and the error response is not called
+     */
+    private boolean admit( HttpServerExchange exchange, long startTimeNano, long timeout ) {
+        if( admissionController == null ) return true;
+
+        long timeLeft = timeout - ( System.nanoTime() - startTimeNano ) / 1_000_000;
+        if( admissionController.tryAcquire( timeLeft ) ) return true;
+
+        metrics.rejected( workflow.root );
+
+        exchange.setStatusCode( admissionRejectedStatus );
+        if( admissionRejectedBody != null ) {
+            exchange.setResponseHeader( Http.Headers.CONTENT_TYPE, Http.ContentType.TEXT_PLAIN );
+            exchange.send( admissionRejectedBody );
+        } else {
+            exchange.endExchange();
+        }
+
+        return false;
+    }
+
+    private void releaseAdmission( PnioExchange<WorkflowState> pnioExchange ) {
+        if( !pnioExchange.admitted ) return;
+        pnioExchange.admitted = false;
+
+        var processState = pnioExchange.processState;
+        admissionController.release( System.nanoTime() - pnioExchange.startTimeNano,
+            processState == PnioExchange.ProcessState.TIMEOUT || processState == PnioExchange.ProcessState.REJECTED );
+    }
+
+    private void process( PnioExchange<WorkflowState> requestState, WorkflowState workflowState ) {
+        try {
+            while( !requestState.isDone() ) {
+                PnioRequestHandler<WorkflowState> task = requestState.currentTaskNode.handler;
+                if( task.getType() == COMPUTE ) {
+                    requestState.register( queue, queueTimeoutPercent );
+                    if( requestState.isDone() ) break;
+
+                    resume( requestState, workflowState, requestState.onCompletion() );
+                    return;
+                } else if( task.getType() == ASYNC ) {
+                    resume( requestState, workflowState, requestState.runAsyncTask() );
+                    return;
+                } else {
+                    requestState.runTasks( IO );
+                }
             }
+
+            response( requestState, workflowState );
+        } catch( Throwable e ) {
+            LogConsolidated.log( log, Level.ERROR, Dates.s( 5 ), e.getMessage(), e );
+            releaseAdmission( requestState );
+            requestState.exchange.endExchange();
+            requestState.release();
         }
+    }
 
-        response( requestState, workflowState );
+    private void resume( PnioExchange<WorkflowState> requestState, WorkflowState workflowState, CompletableFuture<Void> completion ) {
+        Executor executor = continuationExecutor != null ? continuationExecutor : requestState.exchange.exchange.getConnection().getWorker();
+
+        completion.thenRunAsync( () -> process( requestState, workflowState ), executor );
     }
 
     private void setAffinity() {
@@ -193,8 +352,12 @@ public class PnioHttpHandler<WorkflowState> implements Closeable, AutoCloseable
             }
         }
 
+        metrics.completed( pnioExchange );
+        releaseAdmission( pnioExchange );
+
         if( pnioExchange.processState == CONNECTION_CLOSED ) {
             pnioExchange.exchange.closeConnection();
+            pnioExchange.release();
             return;
         }
 
@@ -207,6 +370,9 @@ public class PnioHttpHandler<WorkflowState> implements Closeable, AutoCloseable
 
     @Override
     public void close() {
+        if( continuationExecutor != null ) continuationExecutor.shutdownNow();
+        metrics.close();
+
         pool.shutdownNow();
         try {
 
@@ -226,6 +392,17 @@ public class PnioHttpHandler<WorkflowState> implements Closeable, AutoCloseable
         void handle( PnioExchange<WorkflowState> pnioExchange, WorkflowState workflowState );
     }
 
+    public enum CpuQueue {
+        /**
+         * IO thread waits up to queueTimeoutPercent of the time left until a compute thread takes the exchange
+         */
+        SYNCHRONOUS,
+        /**
+         * lock-free ring buffer per compute thread with work stealing, no waiting on the IO thread
+         */
+        RING_BUFFER
+    }
+
     @Builder
     public static class PnioHttpSettings {
         int requestSize;
@@ -233,7 +410,66 @@ public class PnioHttpHandler<WorkflowState> implements Closeable, AutoCloseable
         double queueTimeoutPercent;
         int cpuThreads;
         boolean cpuQueueFair;
+        @Builder.Default
+        CpuQueue cpuQueue = CpuQueue.SYNCHRONOUS;
+        /**
+         * capacity of the ring buffer of each compute thread (power of 2), {@link CpuQueue#RING_BUFFER} only
+         */
+        @Builder.Default
+        int cpuQueueSize = 64;
+        /**
+         * {@link PnioHttpHandler#handleRequestAsync} resumes suspended exchanges on virtual threads
+         * instead of the undertow worker pool
+         */
+        boolean asyncVirtualThreads;
+        /**
+         * read the request body from the undertow channel directly into the request buffer,
+         * non-blocking with {@link PnioHttpHandler#handleRequestAsync}
+         */
+        boolean streamingRequestBody;
+        /**
+         * inflate gzip request bodies while streaming them, {@link PnioExchange#isRequestGzipped()} is false then
+         */
+        boolean decompressRequestBody;
+        /**
+         * record {@link PnioMetrics}, can be switched at runtime
+         */
+        boolean metrics;
+        /**
+         * if set, the {@link PnioMetrics} json snapshot is served on this path, ?enabled=true|false switches the recording
+         */
+        String metricsPath;
+        /**
+         * the workflow tag of the {@link PnioMetrics} meters, must be unique among the handlers running in the same JVM
+         */
+        @Builder.Default
+        String metricsWorkflow = PnioMetrics.DEFAULT_WORKFLOW;
         Affinity cpuAffinity;
         Affinity ioAffinity;
+        /**
+         * size of the {@link PnioExchangePool}, 0 - a new exchange with new buffers for every request
+         */
+        int exchangePoolSize;
+        /**
+         * reject requests up front with admissionRejectedStatus when the {@link PnioAdmissionController}
+         * predicts they cannot complete in time
+         */
+        boolean admissionControl;
+        /**
+         * the concurrency limit starts here and is kept between cpuThreads and admissionMaxLimit
+         */
+        @Builder.Default
+        int admissionInitialLimit = 100;
+        @Builder.Default
+        int admissionMaxLimit = 1000;
+        /**
+         * status of a request rejected by the admission control
+         */
+        @Builder.Default
+        int admissionRejectedStatus = Http.StatusCode.SERVICE_UNAVAILABLE;
+        /**
+         * optional text/plain body of a request rejected by the admission control
+         */
+        String admissionRejectedBody;
     }
 }
@@ -0,0 +1,186 @@
+/*
+ *
+ *  * Copyright (c) Xenoss
+ *  * Unauthorized copying of this file, via any medium is strictly prohibited
+ *  * Proprietary and confidential
+ *
+ *
+ */
+
+
+package oap.http.pnio;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Per workflow node statistics: handler execution time, compute queue wait, response send time
+ * and the {@link PnioExchange.ProcessState} the exchanges finished with at this node.
+ * <p>
+ * Recording does not allocate (except the first time a handler class is seen) and is skipped while disabled.
+ * Handler timers and process state counters are also exported to micrometer, tagged by the workflow and the handler class name.
+ * The meters are removed on {@link #close()}, so a handler recreated with the same workflow name exports the new statistics.
+ */
+@Slf4j
+public class PnioMetrics {
+    public static final String DEFAULT_WORKFLOW = "default";
+    public static final String PNIO_HANDLER = "pnio_handler";
+    public static final String PNIO_STATE = "pnio_state";
+    public static final String END = "END";
+
+    static final PnioMetrics DISABLED = new PnioMetrics( false, false, DEFAULT_WORKFLOW );
+
+    private static final PnioExchange.ProcessState[] STATES = PnioExchange.ProcessState.values();
+
+    public final PnioHistogram queueWait = new PnioHistogram();
+    public final PnioHistogram send = new PnioHistogram();
+    private final ConcurrentHashMap<Class<?>, NodeStats> nodes = new ConcurrentHashMap<>();
+    private final NodeStats end;
+    private final boolean micrometer;
+    private final String workflow;
+    private final CopyOnWriteArrayList<Meter> meters = new CopyOnWriteArrayList<>();
+    private volatile boolean enabled;
+
+    public PnioMetrics( boolean enabled ) {
+        this( enabled, DEFAULT_WORKFLOW );
+    }
+
+    public PnioMetrics( boolean enabled, String workflow ) {
+        this( enabled, true, workflow );
+    }
+
+    private PnioMetrics( boolean enabled, boolean micrometer, String workflow ) {
+        this.enabled = enabled;
+        this.micrometer = micrometer;
+        this.workflow = workflow;
+        this.end = new NodeStats( END );
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled( boolean enabled ) {
+        if( this == DISABLED ) return;
+
+        this.enabled = enabled;
+    }
+
+    NodeStats node( PnioRequestHandler<?> handler ) {
+        Class<?> clazz = handler.getClass();
+        NodeStats stats = nodes.get( clazz );
+        if( stats != null ) return stats;
+
+        return nodes.computeIfAbsent( clazz, c -> new NodeStats( c.getName() ) );
+    }
+
+    void completed( PnioExchange<?> pnioExchange ) {
+        if( !enabled ) return;
+
+        var node = pnioExchange.currentTaskNode;
+        PnioExchange.ProcessState state = pnioExchange.processState;
+        if( node == null ) {
+            end.states.incrementAndGet( ( state == PnioExchange.ProcessState.RUNNING ? PnioExchange.ProcessState.DONE : state ).ordinal() );
+        } else {
+            node( node.handler ).states.incrementAndGet( state.ordinal() );
+        }
+    }
+
+    /**
+     * a request rejected by the admission control, counted as REJECTED on the first handler
+     */
+    void rejected( @Nullable RequestWorkflow.Node<?> root ) {
+        if( !enabled || root == null ) return;
+
+        node( root.handler ).states.incrementAndGet( PnioExchange.ProcessState.REJECTED.ordinal() );
+    }
+
+    /**
+     * a meter with the same id keeps the statistics of the handler that registered it first
+     */
+    private void register( String name, Tags tags, Supplier<Meter> meter ) {
+        if( Metrics.globalRegistry.find( name ).tags( tags ).meter() != null ) {
+            log.warn( "meter {} {} is already registered, use a unique workflow name", name, tags );
+            return;
+        }
+
+        meters.add( meter.get() );
+    }
+
+    void close() {
+        meters.forEach( Metrics.globalRegistry::remove );
+        meters.clear();
+    }
+
+    public Map<String, Object> snapshot() {
+        var handlers = new LinkedHashMap<String, Object>();
+        nodes.values().forEach( stats -> handlers.put( stats.name, stats.snapshot() ) );
+        handlers.put( END, end.snapshot() );
+
+        var ret = new LinkedHashMap<String, Object>();
+        ret.put( "enabled", enabled );
+        ret.put( "queueWait", queueWait.snapshot() );
+        ret.put( "send", send.snapshot() );
+        ret.put( "handlers", handlers );
+
+        return ret;
+    }
+
+    public class NodeStats {
+        public final String name;
+        public final PnioHistogram execution = new PnioHistogram();
+        public final PnioHistogram queueWait = new PnioHistogram();
+        final AtomicLongArray states = new AtomicLongArray( STATES.length );
+
+        NodeStats( String name ) {
+            this.name = name;
+
+            if( micrometer ) {
+                var handlerTags = Tags.of( "workflow", workflow, "handler", name );
+                register( PNIO_HANDLER, handlerTags, () ->
+                    FunctionTimer.builder( PNIO_HANDLER, execution, PnioHistogram::count, PnioHistogram::totalNanos, TimeUnit.NANOSECONDS )
+                        .tags( handlerTags )
+                        .register( Metrics.globalRegistry ) );
+                for( var state : STATES ) {
+                    var stateTags = handlerTags.and( "state", state.name() );
+                    register( PNIO_STATE, stateTags, () ->
+                        FunctionCounter.builder( PNIO_STATE, states, s -> s.get( state.ordinal() ) )
+                            .tags( stateTags )
+                            .register( Metrics.globalRegistry ) );
+                }
+            }
+        }
+
+        public long state( PnioExchange.ProcessState state ) {
+            return states.get( state.ordinal() );
+        }
+
+        Map<String, Object> snapshot() {
+            var processStates = new LinkedHashMap<String, Long>();
+            for( var state : STATES ) {
+                long count = states.get( state.ordinal() );
+                if( count > 0 ) processStates.put( state.name(), count );
+            }
+
+            var ret = new LinkedHashMap<String, Object>();
+            ret.put( "execution", execution.snapshot() );
+            if( queueWait.count() > 0 ) ret.put( "queueWait", queueWait.snapshot() );
+            ret.put( "states", processStates );
+
+            return ret;
+        }
+    }
+}
@@ -29,6 +29,10 @@ public abstract class PnioRequestHandler<State> {
     public abstract void handle( PnioExchange<State> pnioExchange, State state ) throws InterruptedException, IOException;
 
     public enum Type {
-        IO, COMPUTE
+        IO, COMPUTE,
+        /**
+         * @see PnioAsyncRequestHandler
+         */
+        ASYNC
     }
 }
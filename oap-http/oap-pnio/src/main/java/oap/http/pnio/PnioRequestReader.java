@@ -0,0 +1,323 @@
+/*
+ *
+ *  * Copyright (c) Xenoss
+ *  * Unauthorized copying of this file, via any medium is strictly prohibited
+ *  * Proprietary and confidential
+ *
+ *
+ */
+
+
+package oap.http.pnio;
+
+import io.undertow.util.Headers;
+import org.xnio.channels.StreamSourceChannel;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the request body from the undertow request channel straight into the {@link PnioBuffer} array,
+ * without the InputStream and the intermediate copy.
+ * gzip bodies can be inflated on the fly, chunk by chunk, as they arrive, the gzip trailer is verified.
+ */
+class PnioRequestReader<WorkflowState> {
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int COMPRESSED_CHUNK_SIZE = 8192;
+
+    private final PnioExchange<WorkflowState> pnioExchange;
+    private final PnioBuffer requestBuffer;
+    private final ByteBuffer target;
+    private final ByteBuffer probe = ByteBuffer.allocate( 1 );
+    private final Inflater inflater;
+    private final ByteBuffer compressed;
+    private StreamSourceChannel channel;
+    private final CRC32 crc = new CRC32();
+    private boolean gzipHeader = false;
+    private boolean gzipTrailer = false;
+
+    PnioRequestReader( PnioExchange<WorkflowState> pnioExchange, boolean decompress ) {
+        this.pnioExchange = pnioExchange;
+        this.requestBuffer = pnioExchange.requestBuffer;
+        this.target = ByteBuffer.wrap( requestBuffer.buffer );
+
+        if( decompress && pnioExchange.exchange.isRequestGzipped() ) {
+            inflater = new Inflater( true );
+            compressed = ByteBuffer.allocate( COMPRESSED_CHUNK_SIZE );
+        } else {
+            inflater = null;
+            compressed = null;
+        }
+    }
+
+    /**
+     * @return false if the body is longer than the request buffer, the exchange is completed with REQUEST_BUFFER_OVERFLOW
+     */
+    static boolean checkContentLength( PnioExchange<?> pnioExchange ) {
+        String contentLength = pnioExchange.exchange.getRequestHeader( Headers.CONTENT_LENGTH_STRING );
+        if( contentLength == null ) return true;
+
+        try {
+            if( Long.parseLong( contentLength ) <= pnioExchange.requestBuffer.buffer.length ) return true;
+        } catch( NumberFormatException ignored ) {
+            return true;
+        }
+
+        pnioExchange.completeWithBufferOverflow( true );
+        return false;
+    }
+
+    void readBlocking() {
+        if( !start() ) return;
+
+        try {
+            while( !step() ) channel.awaitReadable();
+        } catch( Exception e ) {
+            fail( e );
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * @param onComplete called once the body has been read or the exchange has been completed with an error,
+     *                   on the IO thread if the reader had to wait for data
+     */
+    void readAsync( Runnable onComplete ) {
+        if( !start() ) {
+            onComplete.run();
+            return;
+        }
+
+        try {
+            if( step() ) {
+                end();
+                onComplete.run();
+                return;
+            }
+        } catch( Exception e ) {
+            fail( e );
+            end();
+            onComplete.run();
+            return;
+        }
+
+        channel.getReadSetter().set( ch -> {
+            boolean done;
+            try {
+                done = step();
+            } catch( Exception e ) {
+                fail( e );
+                done = true;
+            }
+
+            if( done ) {
+                ch.suspendReads();
+                ch.getReadSetter().set( null );
+                end();
+                onComplete.run();
+            }
+        } );
+        channel.resumeReads();
+    }
+
+    private boolean start() {
+        requestBuffer.length = 0;
+        if( !checkContentLength( pnioExchange ) ) return false;
+
+        channel = pnioExchange.exchange.exchange.getRequestChannel();
+        if( channel == null ) {
+            pnioExchange.completeWithFail( new IllegalStateException( "request channel has already been consumed" ) );
+            return false;
+        }
+        if( inflater != null ) pnioExchange.requestDecompressed = true;
+
+        return true;
+    }
+
+    private void end() {
+        if( inflater != null ) inflater.end();
+    }
+
+    private void fail( Exception e ) {
+        if( e instanceof SocketException ) pnioExchange.completeWithConnectionClosed( e );
+        else pnioExchange.completeWithFail( e );
+    }
+
+    /**
+     * reads everything that is available without blocking
+     *
+     * @return true if the body has been read or the exchange has been completed with an error
+     */
+    private boolean step() throws IOException, DataFormatException {
+        return inflater != null ? inflateStep() : readStep();
+    }
+
+    private boolean readStep() throws IOException {
+        while( true ) {
+            target.limit( target.capacity() ).position( requestBuffer.length );
+
+            if( !target.hasRemaining() ) return overflowOrEnd();
+
+            int read = channel.read( target );
+            if( read < 0 ) return true;
+            if( read == 0 ) return false;
+
+            requestBuffer.length += read;
+        }
+    }
+
+    private boolean inflateStep() throws IOException, DataFormatException {
+        while( true ) {
+            int read = channel.read( compressed );
+            if( read < 0 && compressed.position() == 0 ) {
+                if( !gzipTrailer ) throw new ZipException( "unexpected end of gzip stream" );
+                return true;
+            }
+            if( read == 0 && compressed.position() == 0 ) return false;
+
+            compressed.flip();
+            try {
+                if( !gzipHeader ) {
+                    if( !readGzipHeader( compressed ) ) {
+                        if( read < 0 ) throw new ZipException( "unexpected end of gzip stream" );
+                        if( compressed.limit() == compressed.capacity() ) throw new ZipException( "gzip header is too long" );
+                        if( read == 0 ) return false;
+                        continue;
+                    }
+                    gzipHeader = true;
+                }
+
+                if( !inflater.finished() && inflate() ) return true;
+
+                if( inflater.finished() && !gzipTrailer && compressed.remaining() >= 8 ) {
+                    readGzipTrailer( compressed );
+                    gzipTrailer = true;
+                }
+                // anything after the trailer is ignored
+                if( gzipTrailer ) compressed.position( compressed.limit() );
+
+                if( read < 0 ) {
+                    if( !gzipTrailer ) throw new ZipException( "unexpected end of gzip stream" );
+                    return true;
+                }
+                if( read == 0 ) return false;
+            } finally {
+                compressed.compact();
+            }
+        }
+    }
+
+    /**
+     * inflates the compressed chunk into the request buffer
+     *
+     * @return true if the body is longer than the request buffer, the exchange is completed with REQUEST_BUFFER_OVERFLOW
+     */
+    private boolean inflate() throws DataFormatException, ZipException {
+        inflater.setInput( compressed );
+        while( !inflater.finished() && !inflater.needsInput() ) {
+            if( inflater.needsDictionary() ) throw new ZipException( "gzip stream requires a dictionary" );
+
+            long bytesRead = inflater.getBytesRead();
+            int free = requestBuffer.buffer.length - requestBuffer.length;
+            int inflated;
+            if( free == 0 ) {
+                inflated = inflater.inflate( probe.clear() );
+                if( inflated > 0 ) {
+                    pnioExchange.completeWithBufferOverflow( true );
+                    return true;
+                }
+            } else {
+                inflated = inflater.inflate( requestBuffer.buffer, requestBuffer.length, free );
+                crc.update( requestBuffer.buffer, requestBuffer.length, inflated );
+                requestBuffer.length += inflated;
+            }
+
+            if( inflated == 0 && inflater.getBytesRead() == bytesRead && !inflater.finished() && !inflater.needsInput() )
+                throw new ZipException( "gzip stream makes no progress" );
+        }
+
+        return false;
+    }
+
+    /**
+     * checks the crc32 and the size of the inflated data (RFC 1952)
+     */
+    private void readGzipTrailer( ByteBuffer buffer ) throws ZipException {
+        long crc32 = readUInt( buffer );
+        long isize = readUInt( buffer );
+
+        if( crc32 != crc.getValue() ) throw new ZipException( "corrupt gzip trailer: crc32 mismatch" );
+        if( isize != ( inflater.getBytesWritten() & 0xffffffffL ) ) throw new ZipException( "corrupt gzip trailer: size mismatch" );
+    }
+
+    private static long readUInt( ByteBuffer buffer ) {
+        long value = 0;
+        for( int i = 0; i < 4; i++ ) value |= ( long ) ( buffer.get() & 0xff ) << ( i * 8 );
+
+        return value;
+    }
+
+    private boolean overflowOrEnd() throws IOException {
+        probe.clear();
+        int read = channel.read( probe );
+        if( read > 0 ) {
+            pnioExchange.completeWithBufferOverflow( true );
+            return true;
+        }
+
+        return read < 0;
+    }
+
+    /**
+     * skips the gzip header (RFC 1952) if it is complete, leaves the buffer untouched otherwise
+     */
+    private static boolean readGzipHeader( ByteBuffer buffer ) throws ZipException {
+        int start = buffer.position();
+        if( buffer.remaining() < 10 ) return false;
+
+        int magic = ( buffer.get( start ) & 0xff ) | ( ( buffer.get( start + 1 ) & 0xff ) << 8 );
+        if( magic != GZIP_MAGIC ) throw new ZipException( "not in gzip format" );
+        if( buffer.get( start + 2 ) != 8 ) throw new ZipException( "unsupported compression method" );
+
+        int flags = buffer.get( start + 3 ) & 0xff;
+        int position = start + 10;
+
+        if( ( flags & FEXTRA ) != 0 ) {
+            if( buffer.limit() < position + 2 ) return false;
+            int length = ( buffer.get( position ) & 0xff ) | ( ( buffer.get( position + 1 ) & 0xff ) << 8 );
+            position += 2 + length;
+        }
+        if( ( flags & FNAME ) != 0 ) {
+            position = skipZeroTerminated( buffer, position );
+            if( position < 0 ) return false;
+        }
+        if( ( flags & FCOMMENT ) != 0 ) {
+            position = skipZeroTerminated( buffer, position );
+            if( position < 0 ) return false;
+        }
+        if( ( flags & FHCRC ) != 0 ) position += 2;
+
+        if( position > buffer.limit() ) return false;
+
+        buffer.position( position );
+        return true;
+    }
+
+    private static int skipZeroTerminated( ByteBuffer buffer, int position ) {
+        for( int i = position; i < buffer.limit(); i++ ) {
+            if( buffer.get( i ) == 0 ) return i + 1;
+        }
+
+        return -1;
+    }
+}
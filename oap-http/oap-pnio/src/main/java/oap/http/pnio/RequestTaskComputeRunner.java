@@ -13,19 +13,20 @@ import lombok.extern.slf4j.Slf4j;
 import oap.highload.Affinity;
 
 import java.util.Objects;
-import java.util.concurrent.BlockingQueue;
 
 import static oap.http.pnio.PnioRequestHandler.Type.COMPUTE;
 
 @Slf4j
 class RequestTaskComputeRunner<WorkflowState> implements Runnable {
-    private final BlockingQueue<PnioExchange<WorkflowState>> queue;
+    private final PnioComputeQueue<WorkflowState> queue;
+    private final int worker;
     private final Affinity affinity;
     volatile boolean done = false;
     private volatile Thread thread;
 
-    RequestTaskComputeRunner( BlockingQueue<PnioExchange<WorkflowState>> queue, Affinity affinity ) {
+    RequestTaskComputeRunner( PnioComputeQueue<WorkflowState> queue, int worker, Affinity affinity ) {
         this.queue = Objects.requireNonNull( queue );
+        this.worker = worker;
         this.affinity = affinity;
     }
 
@@ -39,13 +40,18 @@ class RequestTaskComputeRunner<WorkflowState> implements Runnable {
 
         while( !done ) {
             try {
-                PnioExchange<WorkflowState> pnioExchange = queue.take();
+                PnioExchange<WorkflowState> pnioExchange = queue.take( worker );
+                pnioExchange.dequeued();
+                long start = System.nanoTime();
                 try {
                     pnioExchange.runTasks( COMPUTE );
                     pnioExchange.completeFuture();
                 } catch( Throwable e ) {
                     pnioExchange.completeWithFail( e );
+                } finally {
+                    pnioExchange.taskFinished();
                 }
+                queue.completed( worker, System.nanoTime() - start );
             } catch( InterruptedException e ) {
                 Thread.currentThread().interrupt();
                 interrupt();
@@ -13,6 +13,7 @@ import lombok.AllArgsConstructor;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -102,6 +103,22 @@ public class RequestWorkflow<WorkflowState> {
             return this;
         }
 
+        /**
+         * runs the branches concurrently, the workflow continues after the join
+         *
+         * @see PnioForkJoinHandler
+         */
+        public RequestWorkflowBuilder<WorkflowState> fork( PnioForkJoinHandler.JoinPolicy joinPolicy, List<PnioRequestHandler<WorkflowState>> branches ) {
+            return next( new PnioForkJoinHandler<>( joinPolicy, branches ) );
+        }
+
+        /**
+         * waits for the branches at most deadlinePercent of the time left for the exchange
+         */
+        public RequestWorkflowBuilder<WorkflowState> forkWithDeadline( double deadlinePercent, List<PnioRequestHandler<WorkflowState>> branches ) {
+            return next( new PnioForkJoinHandler<>( PnioForkJoinHandler.JoinPolicy.DEADLINE, deadlinePercent, branches, ForkJoinPool.commonPool() ) );
+        }
+
         public RequestWorkflow<WorkflowState> build() {
             return workflow;
         }
@@ -0,0 +1,117 @@
+/*
+ *
+ *  * Copyright (c) Xenoss
+ *  * Unauthorized copying of this file, via any medium is strictly prohibited
+ *  * Proprietary and confidential
+ *
+ *
+ */
+
+
+package oap.http.pnio;
+
+import oap.concurrent.MpmcRingBuffer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One bounded lock-free ring buffer per compute thread.
+ * <p>
+ * An IO thread always feeds the same ring (and so the same pinned compute thread) while it has room,
+ * an idle compute thread steals from the rings of the others.
+ * An exchange is rejected immediately if all rings are full or the queued work of a ring,
+ * estimated from the average compute time, does not fit into the time left for the queue wait.
+ */
+class RingBufferComputeQueue<WorkflowState> implements PnioComputeQueue<WorkflowState> {
+    private static final int SPINS = 100;
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos( 1 );
+
+    private final MpmcRingBuffer<PnioExchange<WorkflowState>>[] rings;
+    private final AtomicReferenceArray<Thread> workers;
+    private final AtomicIntegerArray parked;
+    private final AtomicLongArray serviceTimeNanos;
+
+    @SuppressWarnings( "unchecked" )
+    RingBufferComputeQueue( int threads, int capacity ) {
+        rings = new MpmcRingBuffer[threads];
+        for( var i = 0; i < threads; i++ ) rings[i] = new MpmcRingBuffer<>( capacity );
+
+        workers = new AtomicReferenceArray<>( threads );
+        parked = new AtomicIntegerArray( threads );
+        serviceTimeNanos = new AtomicLongArray( threads );
+    }
+
+    @Override
+    public boolean offer( PnioExchange<WorkflowState> pnioExchange, long timeoutMs ) {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos( timeoutMs );
+        int start = ( int ) ( Thread.currentThread().threadId() % rings.length );
+
+        for( var i = 0; i < rings.length; i++ ) {
+            int worker = ( start + i ) % rings.length;
+            var ring = rings[worker];
+
+            if( ring.size() * serviceTimeNanos.get( worker ) >= timeoutNanos ) continue;
+
+            if( ring.offer( pnioExchange ) ) {
+                if( parked.get( worker ) == 1 ) LockSupport.unpark( workers.get( worker ) );
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public PnioExchange<WorkflowState> take( int worker ) throws InterruptedException {
+        workers.lazySet( worker, Thread.currentThread() );
+
+        int spins = 0;
+        while( true ) {
+            var pnioExchange = poll( worker );
+            if( pnioExchange != null ) return pnioExchange;
+
+            if( Thread.interrupted() ) throw new InterruptedException();
+
+            if( spins++ < SPINS ) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            parked.set( worker, 1 );
+            try {
+                pnioExchange = poll( worker );
+                if( pnioExchange != null ) return pnioExchange;
+
+                LockSupport.parkNanos( this, PARK_NANOS );
+            } finally {
+                parked.set( worker, 0 );
+            }
+        }
+    }
+
+    private PnioExchange<WorkflowState> poll( int worker ) {
+        for( var i = 0; i < rings.length; i++ ) {
+            var pnioExchange = rings[( worker + i ) % rings.length].poll();
+            if( pnioExchange != null ) return pnioExchange;
+        }
+
+        return null;
+    }
+
+    /**
+     * exponential moving average, single writer per worker
+     */
+    @Override
+    public void completed( int worker, long durationNanos ) {
+        long average = serviceTimeNanos.get( worker );
+        serviceTimeNanos.lazySet( worker, average + ( durationNanos - average ) / 8 );
+    }
+
+    int size( int worker ) {
+        return rings[worker].size();
+    }
+}
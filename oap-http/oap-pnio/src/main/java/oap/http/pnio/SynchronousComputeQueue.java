@@ -0,0 +1,35 @@
+/*
+ *
+ *  * Copyright (c) Xenoss
+ *  * Unauthorized copying of this file, via any medium is strictly prohibited
+ *  * Proprietary and confidential
+ *
+ *
+ */
+
+
+package oap.http.pnio;
+
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * rendezvous between an IO thread and any free compute thread
+ */
+class SynchronousComputeQueue<WorkflowState> implements PnioComputeQueue<WorkflowState> {
+    private final SynchronousQueue<PnioExchange<WorkflowState>> queue;
+
+    SynchronousComputeQueue( boolean fair ) {
+        this.queue = new SynchronousQueue<>( fair );
+    }
+
+    @Override
+    public boolean offer( PnioExchange<WorkflowState> pnioExchange, long timeoutMs ) throws InterruptedException {
+        return queue.offer( pnioExchange, timeoutMs, TimeUnit.MILLISECONDS );
+    }
+
+    @Override
+    public PnioExchange<WorkflowState> take( int worker ) throws InterruptedException {
+        return queue.take();
+    }
+}
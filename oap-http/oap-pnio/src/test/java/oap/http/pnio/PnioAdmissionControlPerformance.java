@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package oap.http.pnio;
+
+import oap.highload.Affinity;
+import oap.http.Http;
+import oap.http.server.nio.HttpHandler;
+import oap.http.server.nio.HttpServerExchange;
+import oap.http.server.nio.NioHttpServer;
+import oap.testng.Ports;
+import oap.util.Dates;
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+
+import static oap.http.pnio.PnioRequestHandler.Type.COMPUTE;
+import static oap.http.test.HttpAsserts.assertPost;
+
+/**
+ * allocated bytes per request rejected by the {@link PnioAdmissionController}, server (undertow) threads only
+ */
+@Test( enabled = false )
+public class PnioAdmissionControlPerformance {
+    private static final int REQUESTS = 100_000;
+
+    private static long serverAllocatedBytes() {
+        var threadMXBean = ( com.sun.management.ThreadMXBean ) ManagementFactory.getThreadMXBean();
+
+        return Thread.getAllStackTraces().keySet().stream()
+            .filter( thread -> thread.getName().startsWith( "XNIO-" ) )
+            .mapToLong( thread -> threadMXBean.getThreadAllocatedBytes( thread.threadId() ) )
+            .sum();
+    }
+
+    @Test( enabled = false )
+    public void testRejectedAllocation() throws Exception {
+        RequestWorkflow<TestState> workflow = RequestWorkflow
+            .init( new TestHandler( "cpu", COMPUTE ).withSleepTime( Dates.m( 10 ) ) )
+            .next( new TestResponseBuilder() )
+            .build();
+
+        var settings = PnioHttpHandler.PnioHttpSettings.builder()
+            .requestSize( 16 * 1024 )
+            .responseSize( 32 * 1024 )
+            .queueTimeoutPercent( 0.99 )
+            .cpuThreads( 1 )
+            .cpuAffinity( Affinity.any() )
+            .ioAffinity( Affinity.any() )
+            .exchangePoolSize( 64 )
+            .admissionControl( true )
+            .admissionInitialLimit( 1 )
+            .admissionMaxLimit( 1 )
+            .build();
+
+        int port = Ports.getFreePort( getClass() );
+        try( var httpServer = new NioHttpServer( new NioHttpServer.DefaultPort( port ) ) ) {
+            httpServer.start();
+
+            try( var httpHandler = new PnioHttpHandler<>( httpServer, settings, workflow, ( _, _ ) -> {} ) ) {
+                httpServer.bind( "/test", new HttpHandler() {
+                    @Override
+                    public void handleRequest( HttpServerExchange exchange ) {
+                        httpHandler.handleRequestAsync( exchange, System.nanoTime(), Dates.m( 10 ), new TestState() );
+                    }
+                } );
+
+                // holds the only admission permit
+                CompletableFuture.runAsync( () -> assertPost( "http://localhost:" + port + "/test", "{}" ) );
+                while( httpHandler.getAdmissionController().getInflight() == 0 ) Thread.yield();
+
+                long start = serverAllocatedBytes();
+                for( var i = 0; i < REQUESTS; i++ )
+                    assertPost( "http://localhost:" + port + "/test", "{}" ).hasCode( Http.StatusCode.SERVICE_UNAVAILABLE );
+
+                var exchangePool = httpHandler.getExchangePool();
+                System.out.println( "rejected: " + ( serverAllocatedBytes() - start ) / REQUESTS + " bytes/request, exchanges borrowed "
+                    + ( exchangePool.getHits() + exchangePool.getMisses() ) + " (1 admitted)" );
+            }
+        }
+    }
+}
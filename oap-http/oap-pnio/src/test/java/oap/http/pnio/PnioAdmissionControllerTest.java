@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.http.pnio;
+
+import oap.util.Dates;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PnioAdmissionControllerTest {
+    @Test
+    public void testLimit() {
+        var controller = new PnioAdmissionController( 2, 1, 10 );
+
+        assertThat( controller.tryAcquire( Dates.s( 1 ) ) ).isTrue();
+        assertThat( controller.tryAcquire( Dates.s( 1 ) ) ).isTrue();
+        assertThat( controller.tryAcquire( Dates.s( 1 ) ) ).isFalse();
+
+        controller.release( TimeUnit.MILLISECONDS.toNanos( 1 ), false );
+        assertThat( controller.tryAcquire( Dates.s( 1 ) ) ).isTrue();
+
+        assertThat( controller.getInflight() ).isEqualTo( 2 );
+        assertThat( controller.getAdmitted() ).isEqualTo( 3 );
+        assertThat( controller.getRejected() ).isEqualTo( 1 );
+    }
+
+    @Test
+    public void testDeadline() {
+        var controller = new PnioAdmissionController( 10, 1, 10 );
+
+        assertThat( controller.tryAcquire( 100 ) ).isTrue();
+        controller.release( TimeUnit.MILLISECONDS.toNanos( 50 ), false );
+
+        assertThat( controller.tryAcquire( 100 ) ).isTrue();
+        assertThat( controller.tryAcquire( 10 ) ).isFalse();
+        assertThat( controller.tryAcquire( 100 ) ).isTrue();
+
+        controller.release( TimeUnit.MILLISECONDS.toNanos( 50 ), false );
+        controller.release( TimeUnit.MILLISECONDS.toNanos( 50 ), false );
+
+        // nothing in flight, the probe is always admitted
+        assertThat( controller.tryAcquire( 10 ) ).isTrue();
+    }
+
+    @Test
+    public void testAdaptive() {
+        var controller = new PnioAdmissionController( 10, 1, 100 );
+
+        for( var i = 0; i < 1000; i++ ) {
+            while( controller.tryAcquire( Dates.s( 1 ) ) ) {
+            }
+            controller.release( TimeUnit.MILLISECONDS.toNanos( 1 ), false );
+        }
+        assertThat( controller.getLimit() ).isEqualTo( 100 );
+
+        for( var i = 0; i < 100; i++ ) {
+            while( controller.tryAcquire( Dates.s( 1 ) ) ) {
+            }
+            controller.release( TimeUnit.MILLISECONDS.toNanos( 10 ), false );
+        }
+        assertThat( controller.getLimit() ).isLessThan( 50 );
+
+        double limit = controller.getLimit();
+        controller.release( TimeUnit.MILLISECONDS.toNanos( 10 ), true );
+        assertThat( controller.getLimit() ).isLessThan( limit );
+    }
+
+    @Test
+    public void testConcurrentDrops() throws InterruptedException {
+        var controller = new PnioAdmissionController( 100, 1, 100 );
+        var start = new CountDownLatch( 1 );
+        var threads = new ArrayList<Thread>();
+
+        for( var t = 0; t < 8; t++ ) {
+            threads.add( Thread.ofPlatform().start( () -> {
+                try {
+                    start.await();
+                } catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                }
+                for( var i = 0; i < 1000; i++ )
+                    if( controller.tryAcquire( Dates.s( 1 ) ) ) controller.release( TimeUnit.MILLISECONDS.toNanos( 1 ), true );
+            } ) );
+        }
+        start.countDown();
+        for( var thread : threads ) thread.join();
+
+        // a drop that loses the update lock is applied by the next update
+        assertThat( controller.tryAcquire( Dates.s( 1 ) ) ).isTrue();
+        controller.release( TimeUnit.MILLISECONDS.toNanos( 1 ), false );
+        assertThat( controller.getLimit() ).isEqualTo( 1 );
+        assertThat( controller.getInflight() ).isZero();
+    }
+}
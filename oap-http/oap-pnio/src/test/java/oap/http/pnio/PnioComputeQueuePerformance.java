@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.http.pnio;
+
+import oap.highload.Affinity;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static oap.http.pnio.PnioRequestHandler.Type.COMPUTE;
+
+/**
+ * IO thread -> compute thread -> IO thread round trip latency of a trivial COMPUTE step
+ */
+@Test( enabled = false )
+public class PnioComputeQueuePerformance {
+    private static final int IO_THREADS = 16;
+    private static final int CPU_THREADS = 4;
+    private static final int REQUESTS = 200_000;
+
+    @Test( enabled = false )
+    public void testLatency() throws InterruptedException {
+        run( "synchronous", new SynchronousComputeQueue<>( true ) );
+        run( "ring-buffer", new RingBufferComputeQueue<>( CPU_THREADS, 64 ) );
+    }
+
+    private void run( String name, PnioComputeQueue<TestState> queue ) throws InterruptedException {
+        var workflow = RequestWorkflow.init( new PnioRequestHandler<TestState>() {
+            @Override
+            public Type getType() {
+                return COMPUTE;
+            }
+
+            @Override
+            public void handle( PnioExchange<TestState> pnioExchange, TestState testState ) {
+            }
+        } ).build();
+
+        var runners = new ArrayList<RequestTaskComputeRunner<TestState>>();
+        var cpuThreads = new ArrayList<Thread>();
+        for( var i = 0; i < CPU_THREADS; i++ ) {
+            var runner = new RequestTaskComputeRunner<>( queue, i, Affinity.any() );
+            runners.add( runner );
+            var thread = new Thread( runner );
+            thread.start();
+            cpuThreads.add( thread );
+        }
+
+        var latencies = new long[IO_THREADS][REQUESTS];
+        var rejected = new long[IO_THREADS];
+        var ioThreads = new Thread[IO_THREADS];
+        for( var t = 0; t < IO_THREADS; t++ ) {
+            int thread = t;
+            ioThreads[t] = new Thread( () -> {
+                for( var i = 0; i < REQUESTS; i++ ) {
+                    var pnioExchange = new PnioExchange<TestState>( 16, 16, null );
+                    pnioExchange.currentTaskNode = workflow.root;
+                    pnioExchange.startTimeNano = System.nanoTime();
+                    pnioExchange.timeout = 1000;
+
+                    pnioExchange.register( queue, 0.99 );
+                    pnioExchange.waitForCompletion();
+
+                    latencies[thread][i] = System.nanoTime() - pnioExchange.startTimeNano;
+                    if( pnioExchange.processState == PnioExchange.ProcessState.REJECTED ) rejected[thread]++;
+                }
+            } );
+        }
+
+        for( var thread : ioThreads ) thread.start();
+        for( var thread : ioThreads ) thread.join();
+
+        for( var runner : runners ) runner.interrupt();
+        for( var thread : cpuThreads ) thread.join();
+
+        var all = Arrays.stream( latencies ).flatMapToLong( Arrays::stream ).sorted().toArray();
+        System.out.format( "%s: p50 %d usec, p99 %d usec, p999 %d usec, max %d usec, rejected %d\n", name,
+            percentile( all, 0.5 ), percentile( all, 0.99 ), percentile( all, 0.999 ), all[all.length - 1] / 1000,
+            Arrays.stream( rejected ).sum() );
+    }
+
+    private static long percentile( long[] sorted, double percentile ) {
+        return sorted[( int ) ( ( sorted.length - 1 ) * percentile )] / 1000;
+    }
+}
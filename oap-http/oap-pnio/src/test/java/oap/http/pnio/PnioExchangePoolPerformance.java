@@ -0,0 +1,69 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.http.pnio;
+
+import oap.benchmark.Benchmark;
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * allocated bytes per request for the exchange object graph: new instance vs {@link PnioExchangePool}
+ */
+@Test( enabled = false )
+public class PnioExchangePoolPerformance {
+    private static final int SAMPLES = 1_000_000;
+    private static final int EXPERIMENTS = 5;
+    private static final long REQUESTS = SAMPLES * ( long ) EXPERIMENTS + Benchmark.DEFAULT_WARMING;
+    private static final int REQUEST_SIZE = 16 * 1024;
+    private static final int RESPONSE_SIZE = 32 * 1024;
+
+    private static long allocatedBytes() {
+        var threadMXBean = ( com.sun.management.ThreadMXBean ) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes( Thread.currentThread().threadId() );
+    }
+
+    @Test( enabled = false )
+    public void testAllocation() {
+        var pool = new PnioExchangePool<Object>( 64, REQUEST_SIZE, RESPONSE_SIZE );
+
+        long start = allocatedBytes();
+        Benchmark.benchmark( "new", SAMPLES, () -> {
+            var pnioExchange = new PnioExchange<>( REQUEST_SIZE, RESPONSE_SIZE, null );
+            pnioExchange.httpResponse.headers.put( "h", "v" );
+            pnioExchange.release();
+        } ).experiments( EXPERIMENTS ).run();
+        System.out.println( "new: " + ( allocatedBytes() - start ) / REQUESTS + " bytes/request" );
+
+        start = allocatedBytes();
+        Benchmark.benchmark( "pool", SAMPLES, () -> {
+            var pnioExchange = pool.borrow();
+            pnioExchange.httpResponse.headers.put( "h", "v" );
+            pnioExchange.release();
+        } ).experiments( EXPERIMENTS ).run();
+        System.out.println( "pool: " + ( allocatedBytes() - start ) / REQUESTS + " bytes/request, hits "
+            + pool.getHits() + " misses " + pool.getMisses() );
+    }
+}
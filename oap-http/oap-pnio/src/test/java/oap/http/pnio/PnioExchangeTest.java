@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.http.pnio;
+
+import org.testng.annotations.Test;
+
+import static oap.http.pnio.PnioExchange.ProcessState.TIMEOUT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PnioExchangeTest {
+    @Test
+    public void testFirstOutcomeWins() {
+        var pnioExchange = new PnioExchange<TestState>( 16, 16, null );
+
+        pnioExchange.completeWithTimeout();
+        pnioExchange.completeWithFail( new IllegalStateException( "late" ) );
+        pnioExchange.complete();
+
+        assertThat( pnioExchange.processState ).isEqualTo( TIMEOUT );
+        assertThat( pnioExchange.throwable ).isNull();
+        assertThat( pnioExchange.isDetached() ).isTrue();
+    }
+
+    @Test
+    public void testReleaseAfterTask() {
+        var pool = new PnioExchangePool<TestState>( 1, 16, 16 );
+
+        var pnioExchange = pool.borrow();
+        pnioExchange.taskStarted();
+        pnioExchange.completeWithTimeout();
+        pnioExchange.release();
+
+        // the task has not finished yet
+        assertThat( pool.getOutstanding() ).isEqualTo( 1 );
+
+        pnioExchange.taskFinished();
+        assertThat( pool.getOutstanding() ).isZero();
+
+        var next = pool.borrow();
+        assertThat( next ).isSameAs( pnioExchange );
+        assertThat( next.processState ).isEqualTo( PnioExchange.ProcessState.RUNNING );
+        assertThat( next.isDetached() ).isFalse();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.http.pnio;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+
+import static oap.http.pnio.PnioForkJoinHandler.JoinPolicy.ALL;
+import static oap.http.pnio.PnioForkJoinHandler.JoinPolicy.DEADLINE;
+import static oap.http.pnio.PnioForkJoinHandler.JoinPolicy.FIRST_SUCCESS;
+import static oap.http.pnio.PnioRequestHandler.Type.COMPUTE;
+import static oap.http.pnio.PnioRequestHandler.Type.IO;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PnioForkJoinHandlerTest {
+    @Test
+    public void testAll() throws Exception {
+        Queue<String> completed = new ConcurrentLinkedQueue<>();
+        var handler = new PnioForkJoinHandler<TestState>( ALL, List.of(
+            new Branch( completed, "io-1", IO, 200, null ),
+            new Branch( completed, "io-2", IO, 200, null ),
+            new Branch( completed, "cpu-1", COMPUTE, 200, null ) ) );
+
+        long start = System.nanoTime();
+        handler.handleAsync( exchange( 5000 ), new TestState() ).toCompletableFuture().get();
+
+        assertThat( completed ).containsExactlyInAnyOrder( "io-1", "io-2", "cpu-1" );
+        assertThat( ( System.nanoTime() - start ) / 1_000_000 ).isLessThan( 550 );
+    }
+
+    @Test
+    public void testAllFails() {
+        Queue<String> completed = new ConcurrentLinkedQueue<>();
+        var handler = new PnioForkJoinHandler<TestState>( ALL, List.of(
+            new Branch( completed, "io-1", IO, 2000, null ),
+            new Branch( completed, "io-2", IO, 0, new IllegalStateException( "io-2" ) ) ) );
+
+        CompletableFuture<Void> future = handler.handleAsync( exchange( 5000 ), new TestState() ).toCompletableFuture();
+
+        assertThatThrownBy( future::get )
+            .isInstanceOf( ExecutionException.class )
+            .hasCauseInstanceOf( IllegalStateException.class );
+    }
+
+    @Test
+    public void testFirstSuccess() throws Exception {
+        Queue<String> completed = new ConcurrentLinkedQueue<>();
+        var handler = new PnioForkJoinHandler<TestState>( FIRST_SUCCESS, List.of(
+            new Branch( completed, "io-1", IO, 0, new IllegalStateException( "io-1" ) ),
+            new Branch( completed, "io-2", IO, 50, null ),
+            new Branch( completed, "io-3", IO, 2000, null ) ) );
+
+        handler.handleAsync( exchange( 5000 ), new TestState() ).toCompletableFuture().get();
+
+        assertThat( completed ).containsExactly( "io-2" );
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        Queue<String> completed = new ConcurrentLinkedQueue<>();
+        var handler = new PnioForkJoinHandler<TestState>( DEADLINE, 0.1, List.of(
+            new Branch( completed, "io-1", IO, 0, null ),
+            new Branch( completed, "io-2", IO, 0, new IllegalStateException( "io-2" ) ),
+            new Branch( completed, "io-3", IO, 3000, null ) ), Runnable::run );
+
+        handler.handleAsync( exchange( 2000 ), new TestState() ).toCompletableFuture().get();
+
+        assertThat( completed ).containsExactly( "io-1" );
+    }
+
+    private static PnioExchange<TestState> exchange( long timeout ) {
+        var pnioExchange = new PnioExchange<TestState>( 16, 16, null );
+        pnioExchange.startTimeNano = System.nanoTime();
+        pnioExchange.timeout = timeout;
+
+        return pnioExchange;
+    }
+
+    private static class Branch extends PnioRequestHandler<TestState> {
+        private final Queue<String> completed;
+        private final String name;
+        private final Type type;
+        private final long sleepTime;
+        private final RuntimeException exception;
+
+        private Branch( Queue<String> completed, String name, Type type, long sleepTime, RuntimeException exception ) {
+            this.completed = completed;
+            this.name = name;
+            this.type = type;
+            this.sleepTime = sleepTime;
+            this.exception = exception;
+        }
+
+        @Override
+        public Type getType() {
+            return type;
+        }
+
+        @Override
+        public void handle( PnioExchange<TestState> pnioExchange, TestState testState ) throws InterruptedException {
+            if( sleepTime > 0 ) Thread.sleep( sleepTime );
+            if( exception != null ) throw exception;
+
+            completed.add( name );
+        }
+    }
+}
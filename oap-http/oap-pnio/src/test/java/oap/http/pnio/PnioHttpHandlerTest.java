@@ -24,6 +24,9 @@
 
 package oap.http.pnio;
 
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.micrometer.core.instrument.Metrics;
+import oap.concurrent.Threads;
 import oap.highload.Affinity;
 import oap.http.Http;
 import oap.http.server.nio.HttpHandler;
@@ -34,12 +37,27 @@ import oap.testng.Ports;
 import oap.util.Dates;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static oap.http.pnio.PnioRequestHandler.Type.COMPUTE;
 import static oap.http.pnio.PnioRequestHandler.Type.IO;
+import static oap.http.test.HttpAsserts.assertGet;
 import static oap.http.test.HttpAsserts.assertPost;
+import static oap.testng.Asserts.assertEventually;
+import static org.assertj.core.api.Assertions.assertThat;
 
 public class PnioHttpHandlerTest extends Fixtures {
     @Test
@@ -68,6 +86,339 @@ public class PnioHttpHandlerTest extends Fixtures {
         } );
     }
 
+    @Test
+    public void testProcessRingBuffer() throws IOException {
+        RequestWorkflow<TestState> workflow = RequestWorkflow.init( new TestHandler( "cpu-1", COMPUTE ) )
+            .next( new TestHandler( "io-1", IO ) )
+            .next( new TestHandler( "cpu-2", COMPUTE ) )
+            .next( new TestResponseBuilder() )
+            .build();
+
+        var settings = PnioHttpHandler.PnioHttpSettings.builder()
+            .requestSize( 1024 )
+            .responseSize( 1024 )
+            .queueTimeoutPercent( 0.99 )
+            .cpuThreads( 2 )
+            .cpuQueue( PnioHttpHandler.CpuQueue.RING_BUFFER )
+            .cpuQueueSize( 16 )
+            .cpuAffinity( new Affinity( "0" ) )
+            .ioAffinity( new Affinity( "1+" ) )
+            .build();
+
+        runWithWorkflow( settings, 5, Dates.s( 100 ), workflow, false, ( port, _ ) -> {
+            for( var i = 0; i < 5; i++ ) {
+                assertPost( "http://localhost:" + port + "/test", "{}" )
+                    .hasCode( Http.StatusCode.OK )
+                    .hasContentType( Http.ContentType.TEXT_PLAIN )
+                    .hasBody( """
+                        name 'cpu-1' type COMPUTE thread 'cp' new thread true
+                        name 'io-1' type IO thread 'XN' new thread true
+                        name 'cpu-2' type COMPUTE thread 'cp' new thread true""" );
+            }
+        } );
+    }
+
+    @Test
+    public void testProcessWithExchangePool() throws IOException {
+        RequestWorkflow<TestState> workflow = RequestWorkflow.init( new TestHandler( "cpu-1", COMPUTE ) )
+            .next( new TestHandler( "io-1", IO ) )
+            .next( new TestResponseBuilder() )
+            .build();
+
+        var settings = PnioHttpHandler.PnioHttpSettings.builder()
+            .requestSize( 1024 )
+            .responseSize( 1024 )
+            .queueTimeoutPercent( 0.99 )
+            .cpuThreads( 4 )
+            .cpuQueueFair( true )
+            .cpuAffinity( new Affinity( "0" ) )
+            .ioAffinity( new Affinity( "1+" ) )
+            .exchangePoolSize( 16 )
+            .build();
+
+        runWithWorkflow( settings, 5, Dates.s( 100 ), workflow, false, ( port, httpHandler ) -> {
+            for( var i = 0; i < 5; i++ ) {
+                assertPost( "http://localhost:" + port + "/test", "{}" )
+                    .hasCode( Http.StatusCode.OK )
+                    .hasContentType( Http.ContentType.TEXT_PLAIN )
+                    .hasBody( """
+                        name 'cpu-1' type COMPUTE thread 'cp' new thread true
+                        name 'io-1' type IO thread 'XN' new thread true""" );
+            }
+
+            var exchangePool = httpHandler.getExchangePool();
+            assertThat( exchangePool ).isNotNull();
+            assertThat( exchangePool.getHits() + exchangePool.getMisses() ).isEqualTo( 5 );
+            assertThat( exchangePool.getHits() ).isGreaterThan( 0 );
+        } );
+    }
+
+    @Test
+    public void testProcessAsync() throws IOException {
+        RequestWorkflow<TestState> workflow = RequestWorkflow.init( new TestHandler( "cpu-1", COMPUTE ) )
+            .next( new PnioAsyncRequestHandler<>() {
+                @Override
+                public CompletionStage<Void> handleAsync( PnioExchange<TestState> pnioExchange, TestState testState ) {
+                    return CompletableFuture.runAsync( () -> testState.sb.append( "\nasync" ),
+                        CompletableFuture.delayedExecutor( 10, TimeUnit.MILLISECONDS ) );
+                }
+            } )
+            .next( new TestHandler( "io-1", IO ) )
+            .next( new TestResponseBuilder() )
+            .build();
+
+        var settings = PnioHttpHandler.PnioHttpSettings.builder()
+            .requestSize( 1024 )
+            .responseSize( 1024 )
+            .queueTimeoutPercent( 0.99 )
+            .cpuThreads( 2 )
+            .cpuQueueFair( true )
+            .cpuAffinity( new Affinity( "0" ) )
+            .ioAffinity( new Affinity( "1+" ) )
+            .build();
+
+        runWithWorkflow( settings, 5, Dates.s( 100 ), workflow, true, ( port, _ ) -> {
+            assertPost( "http://localhost:" + port + "/test", "{}" )
+                .hasCode( Http.StatusCode.OK )
+                .hasContentType( Http.ContentType.TEXT_PLAIN )
+                .hasBody( """
+                    name 'cpu-1' type COMPUTE thread 'cp' new thread true
+                    async
+                    name 'io-1' type IO thread 'XN' new thread true""" );
+        } );
+    }
+
+    @Test
+    public void testProcessAsyncTimeout() throws IOException {
+        RequestWorkflow<TestState> workflow = RequestWorkflow.<TestState>init( new PnioAsyncRequestHandler<>() {
+                @Override
+                public CompletionStage<Void> handleAsync( PnioExchange<TestState> pnioExchange, TestState testState ) {
+                    return new CompletableFuture<>();
+                }
+            } )
+            .next( new TestResponseBuilder() )
+            .build();
+
+        var settings = PnioHttpHandler.PnioHttpSettings.builder()
+            .requestSize( 1024 )
+            .responseSize( 1024 )
+            .queueTimeoutPercent( 0.99 )
+            .cpuThreads( 1 )
+            .cpuAffinity( new Affinity( "0" ) )
+            .ioAffinity( new Affinity( "1+" ) )
+            .asyncVirtualThreads( true )
+            .build();
+
+        runWithWorkflow( settings, 5, 200, workflow, true, ( port, _ ) -> {
+            assertPost( "http://localhost:" + port + "/test", "{}" )
+                .hasCode( Http.StatusCode.BAD_REQUEST )
+                .hasContentType( Http.ContentType.TEXT_PLAIN )
+                .hasBody( "TIMEOUT" );
+        } );
+    }
+
+    @Test
+    public void testProcessAsyncTimeoutLateHandler() throws IOException {
+        RequestWorkflow<TestState> workflow = RequestWorkflow.<TestState>init( new PnioAsyncRequestHandler<>() {
+                @Override
+                public CompletionStage<Void> handleAsync( PnioExchange<TestState> pnioExchange, TestState testState ) {
+                    return CompletableFuture.runAsync( () -> {
+                        Threads.sleepSafely( 400 );
+                        pnioExchange.responseBuffer.setAndResize( "LATE" );
+                    } );
+                }
+            } )
+            .next( new TestResponseBuilder() )
+            .build();
+
+        var settings = PnioHttpHandler.PnioHttpSettings.builder()
+            .requestSize( 1024 )
+            .responseSize( 1024 )
+            .queueTimeoutPercent( 0.99 )
+            .cpuThreads( 1 )
+            .cpuAffinity( new Affinity( "0" ) )
+            .ioAffinity( new Affinity( "1+" ) )
+            .asyncVirtualThreads( true )
+            .exchangePoolSize( 4 )
+            .build();
+
+        runWithWorkflow( settings, 5, 200, workflow, true, ( port, httpHandler ) -> {
+            assertPost( "http://localhost:" + port + "/test", "{}" )
+                .hasCode( Http.StatusCode.BAD_REQUEST )
+                .hasBody( "TIMEOUT" );
+
+            // the abandoned exchange goes back to the pool only after the late handler has finished
+            var exchangePool = httpHandler.getExchangePool();
+            assertEventually( 50, 100, () -> assertThat( exchangePool.getOutstanding() ).isZero() );
+            assertThat( exchangePool.getDropped() ).isZero();
+        } );
+    }
+
+    @Test
+    public void testStreamingRequestBody() throws IOException {
+        RequestWorkflow<TestState> workflow = RequestWorkflow.<TestState>init( new PnioRequestHandler<>() {
+                @Override
+                public void handle( PnioExchange<TestState> pnioExchange, TestState testState ) {
+                    testState.sb.append( pnioExchange.isRequestGzipped() ).append( ' ' ).append( pnioExchange.getRequestAsString() );
+                }
+            } )
+            .next( new TestResponseBuilder() )
+            .build();
+
+        var settings = PnioHttpHandler.PnioHttpSettings.builder()
+            .requestSize( 1024 )
+            .responseSize( 1024 )
+            .queueTimeoutPercent( 0.99 )
+            .cpuThreads( 2 )
+            .cpuQueueFair( true )
+            .cpuAffinity( new Affinity( "0" ) )
+            .ioAffinity( new Affinity( "1+" ) )
+            .streamingRequestBody( true )
+            .decompressRequestBody( true )
+            .build();
+
+        var body = "{\"a\":\"" + "b".repeat( 900 ) + "\"}";
+        var gzipped = new ByteArrayOutputStream();
+        try( var gzip = new GZIPOutputStream( gzipped ) ) {
+            gzip.write( body.getBytes( UTF_8 ) );
+        }
+
+        for( var async : List.of( false, true ) ) {
+            runWithWorkflow( settings, 5, Dates.s( 100 ), workflow, async, ( port, _ ) -> {
+                assertPost( "http://localhost:" + port + "/test", body )
+                    .hasCode( Http.StatusCode.OK )
+                    .hasBody( "false " + body );
+                assertPost( "http://localhost:" + port + "/test", new ByteArrayInputStream( gzipped.toByteArray() ),
+                    Http.ContentType.APPLICATION_JSON, Map.of( Http.Headers.CONTENT_ENCODING, "gzip" ) )
+                    .hasCode( Http.StatusCode.OK )
+                    .hasBody( "false " + body );
+                assertPost( "http://localhost:" + port + "/test", body + "b".repeat( 1024 ) )
+                    .hasCode( Http.StatusCode.BAD_REQUEST )
+                    .hasBody( "REQUEST_BUFFER_OVERFLOW" );
+            } );
+        }
+    }
+
+    @Test
+    public void testStreamingRequestBodyGzipTrailer() throws IOException {
+        RequestWorkflow<TestState> workflow = RequestWorkflow.<TestState>init( new PnioRequestHandler<>() {
+                @Override
+                public void handle( PnioExchange<TestState> pnioExchange, TestState testState ) {
+                    testState.sb.append( pnioExchange.getRequestAsString() );
+                }
+            } )
+            .next( new TestResponseBuilder() )
+            .build();
+
+        var settings = PnioHttpHandler.PnioHttpSettings.builder()
+            .requestSize( 1024 )
+            .responseSize( 2048 )
+            .queueTimeoutPercent( 0.99 )
+            .cpuThreads( 2 )
+            .cpuQueueFair( true )
+            .cpuAffinity( new Affinity( "0" ) )
+            .ioAffinity( new Affinity( "1+" ) )
+            .streamingRequestBody( true )
+            .decompressRequestBody( true )
+            .build();
+
+        // fills the request buffer exactly
+        var body = "{\"a\":\"" + "b".repeat( 1016 ) + "\"}";
+        var gzipped = new ByteArrayOutputStream();
+        try( var gzip = new GZIPOutputStream( gzipped ) ) {
+            gzip.write( body.getBytes( UTF_8 ) );
+        }
+        byte[] corrupted = gzipped.toByteArray();
+        corrupted[corrupted.length - 8] ^= 1;
+
+        for( var async : List.of( false, true ) ) {
+            runWithWorkflow( settings, 5, Dates.s( 100 ), workflow, async, ( port, _ ) -> {
+                assertPost( "http://localhost:" + port + "/test", new ByteArrayInputStream( gzipped.toByteArray() ),
+                    Http.ContentType.APPLICATION_JSON, Map.of( Http.Headers.CONTENT_ENCODING, "gzip" ) )
+                    .hasCode( Http.StatusCode.OK )
+                    .hasBody( body );
+                assertPost( "http://localhost:" + port + "/test", new ByteArrayInputStream( corrupted ),
+                    Http.ContentType.APPLICATION_JSON, Map.of( Http.Headers.CONTENT_ENCODING, "gzip" ) )
+                    .hasCode( Http.StatusCode.BAD_GATEWAY )
+                    .hasBody( "corrupt gzip trailer: crc32 mismatch" );
+            } );
+        }
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        RequestWorkflow<TestState> workflow = RequestWorkflow.init( new TestHandler( "cpu-1", COMPUTE ) )
+            .next( new TestHandler( "io-1", IO ) )
+            .next( new TestResponseBuilder() )
+            .build();
+
+        var settings = PnioHttpHandler.PnioHttpSettings.builder()
+            .requestSize( 1024 )
+            .responseSize( 1024 )
+            .queueTimeoutPercent( 0.99 )
+            .cpuThreads( 2 )
+            .cpuQueueFair( true )
+            .cpuAffinity( new Affinity( "0" ) )
+            .ioAffinity( new Affinity( "1+" ) )
+            .metrics( true )
+            .metricsPath( "/pnio-metrics" )
+            .build();
+
+        runWithWorkflow( settings, 5, Dates.s( 100 ), workflow, false, ( port, httpHandler ) -> {
+            for( var i = 0; i < 3; i++ ) {
+                assertPost( "http://localhost:" + port + "/test", "{}" ).hasCode( Http.StatusCode.OK );
+            }
+
+            var metrics = httpHandler.metrics;
+            assertThat( metrics.node( new TestHandler( "any", IO ) ).execution.count() ).isEqualTo( 6 );
+            assertThat( metrics.node( new TestResponseBuilder() ).execution.count() ).isEqualTo( 3 );
+            assertThat( metrics.node( new TestHandler( "any", IO ) ).queueWait.count() ).isEqualTo( 3 );
+            assertThat( metrics.queueWait.count() ).isEqualTo( 6 );
+
+            assertGet( "http://localhost:" + port + "/pnio-metrics?enabled=false" )
+                .hasCode( Http.StatusCode.OK )
+                .hasContentType( Http.ContentType.APPLICATION_JSON )
+                .bodyContains( "\"oap.http.pnio.TestHandler\"" )
+                .bodyContains( "\"DONE\"" );
+            assertThat( metrics.isEnabled() ).isFalse();
+
+            assertPost( "http://localhost:" + port + "/test", "{}" ).hasCode( Http.StatusCode.OK );
+            assertThat( metrics.node( new TestResponseBuilder() ).execution.count() ).isEqualTo( 3 );
+        } );
+    }
+
+    @Test
+    public void testMetricsWorkflowTag() throws IOException {
+        RequestWorkflow<TestState> workflow = RequestWorkflow.init( new TestHandler( "cpu-1", COMPUTE ) )
+            .next( new TestResponseBuilder() )
+            .build();
+
+        var settings = PnioHttpHandler.PnioHttpSettings.builder()
+            .requestSize( 1024 )
+            .responseSize( 1024 )
+            .queueTimeoutPercent( 0.99 )
+            .cpuThreads( 2 )
+            .cpuQueueFair( true )
+            .cpuAffinity( new Affinity( "0" ) )
+            .ioAffinity( new Affinity( "1+" ) )
+            .metrics( true )
+            .metricsWorkflow( "tagged" )
+            .build();
+
+        var handlerTimer = Metrics.globalRegistry.find( PnioMetrics.PNIO_HANDLER )
+            .tags( "workflow", "tagged", "handler", TestResponseBuilder.class.getName() );
+
+        for( var i = 0; i < 2; i++ ) {
+            runWithWorkflow( settings, 5, Dates.s( 100 ), workflow, false, ( port, _ ) -> {
+                assertPost( "http://localhost:" + port + "/test", "{}" ).hasCode( Http.StatusCode.OK );
+
+                assertThat( handlerTimer.functionTimer() ).isNotNull();
+            } );
+
+            assertThat( handlerTimer.functionTimer() ).isNull();
+        }
+    }
+
     @Test
     public void testProcessWithException() throws IOException {
         RequestWorkflow<TestState> workflow = RequestWorkflow
@@ -132,6 +483,196 @@ public class PnioHttpHandlerTest extends Fixtures {
         } );
     }
 
+    @Test
+    public void testForkJoin() throws IOException {
+        RequestWorkflow<TestState> workflow = RequestWorkflow.init( new TestHandler( "cpu-1", COMPUTE ) )
+            .fork( PnioForkJoinHandler.JoinPolicy.ALL, List.of( new TestHandler( "io-1", IO ) ) )
+            .next( new TestResponseBuilder() )
+            .build();
+
+        var settings = PnioHttpHandler.PnioHttpSettings.builder()
+            .requestSize( 1024 )
+            .responseSize( 1024 )
+            .queueTimeoutPercent( 0.99 )
+            .cpuThreads( 2 )
+            .cpuQueueFair( true )
+            .cpuAffinity( new Affinity( "0" ) )
+            .ioAffinity( new Affinity( "1+" ) )
+            .build();
+
+        for( var async : List.of( false, true ) ) {
+            runWithWorkflow( settings, 5, Dates.s( 100 ), workflow, async, ( port, _ ) -> {
+                assertPost( "http://localhost:" + port + "/test", "{}" )
+                    .hasCode( Http.StatusCode.OK )
+                    .hasBody( """
+                        name 'cpu-1' type COMPUTE thread 'cp' new thread true
+                        name 'io-1' type IO thread 'pn' new thread true""" );
+            } );
+        }
+    }
+
+    @Test
+    public void testForkJoinDeadlineLateBranch() throws IOException {
+        for( var async : List.of( false, true ) ) {
+            var slow = new AtomicBoolean( true );
+            var interrupted = new AtomicBoolean();
+            var lateWrite = new CountDownLatch( 1 );
+
+            RequestWorkflow<TestState> workflow = RequestWorkflow.<TestState>init( new PnioRequestHandler<>() {
+                    @Override
+                    public void handle( PnioExchange<TestState> pnioExchange, TestState testState ) {
+                        // the second request is in flight while the overrunning branch of the first one writes
+                        if( pnioExchange.getRequestAsString().equals( "second" ) )
+                            Uninterruptibles.awaitUninterruptibly( lateWrite, 5, TimeUnit.SECONDS );
+                        testState.sb.append( pnioExchange.getRequestAsString() );
+                    }
+                } )
+                .forkWithDeadline( 0.1, List.of( new PnioRequestHandler<>() {
+                    @Override
+                    public Type getType() {
+                        return IO;
+                    }
+
+                    @Override
+                    public void handle( PnioExchange<TestState> pnioExchange, TestState testState ) {
+                        if( !slow.getAndSet( false ) ) return;
+
+                        // ignores the cancellation
+                        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( 1000 );
+                        while( System.nanoTime() < end ) {
+                            try {
+                                Thread.sleep( 10 );
+                            } catch( InterruptedException e ) {
+                                interrupted.set( true );
+                            }
+                        }
+                        pnioExchange.requestBuffer.setAndResize( "CORRUPT" );
+                        pnioExchange.responseBuffer.setAndResize( "CORRUPT" );
+                        lateWrite.countDown();
+                    }
+                } ) )
+                .next( new TestResponseBuilder() )
+                .build();
+
+            var settings = PnioHttpHandler.PnioHttpSettings.builder()
+                .requestSize( 1024 )
+                .responseSize( 1024 )
+                .queueTimeoutPercent( 0.99 )
+                .cpuThreads( 1 )
+                .cpuAffinity( new Affinity( "0" ) )
+                .ioAffinity( new Affinity( "1+" ) )
+                .exchangePoolSize( 1 )
+                .build();
+
+            runWithWorkflow( settings, 5, Dates.s( 2 ), workflow, async, ( port, httpHandler ) -> {
+                assertPost( "http://localhost:" + port + "/test", "first" )
+                    .hasCode( Http.StatusCode.OK )
+                    .hasBody( "first" );
+                assertPost( "http://localhost:" + port + "/test", "second" )
+                    .hasCode( Http.StatusCode.OK )
+                    .hasBody( "second" );
+
+                assertThat( interrupted ).isTrue();
+                var exchangePool = httpHandler.getExchangePool();
+                assertEventually( 50, 100, () -> assertThat( exchangePool.getOutstanding() ).isZero() );
+
+                assertPost( "http://localhost:" + port + "/test", "third" )
+                    .hasCode( Http.StatusCode.OK )
+                    .hasBody( "third" );
+                assertThat( exchangePool.getHits() ).isPositive();
+            } );
+        }
+    }
+
+    @Test
+    public void testAdmissionControl() throws IOException {
+        RequestWorkflow<TestState> workflow = RequestWorkflow
+            .init( new TestHandler( "cpu", COMPUTE ).withSleepTime( 500 ) )
+            .next( new TestResponseBuilder() )
+            .build();
+
+        var settings = PnioHttpHandler.PnioHttpSettings.builder()
+            .requestSize( 1024 )
+            .responseSize( 1024 )
+            .queueTimeoutPercent( 0.99 )
+            .cpuThreads( 1 )
+            .cpuQueueFair( true )
+            .cpuAffinity( new Affinity( "0" ) )
+            .ioAffinity( new Affinity( "1+" ) )
+            .admissionControl( true )
+            .admissionInitialLimit( 1 )
+            .admissionMaxLimit( 1 )
+            .admissionRejectedBody( "REJECTED" )
+            .build();
+
+        runWithWorkflow( settings, 5, Dates.s( 100 ), workflow, false, ( port, httpHandler ) -> {
+            var admissionController = httpHandler.getAdmissionController();
+
+            var first = CompletableFuture.runAsync( () ->
+                assertPost( "http://localhost:" + port + "/test", "{}" ).hasCode( Http.StatusCode.OK ) );
+            while( admissionController.getInflight() == 0 ) Thread.yield();
+
+            assertPost( "http://localhost:" + port + "/test", "{}" )
+                .hasCode( Http.StatusCode.SERVICE_UNAVAILABLE )
+                .hasContentType( Http.ContentType.TEXT_PLAIN )
+                .hasBody( "REJECTED" );
+
+            first.join();
+
+            assertPost( "http://localhost:" + port + "/test", "{}" ).hasCode( Http.StatusCode.OK );
+            assertThat( admissionController.getAdmitted() ).isEqualTo( 2 );
+            assertThat( admissionController.getRejected() ).isEqualTo( 1 );
+            assertThat( admissionController.getInflight() ).isZero();
+        } );
+    }
+
+    @Test
+    public void testAdmissionControlRejectedWithoutExchange() throws IOException {
+        RequestWorkflow<TestState> workflow = RequestWorkflow
+            .init( new TestHandler( "cpu", COMPUTE ).withSleepTime( 500 ) )
+            .next( new TestResponseBuilder() )
+            .build();
+
+        var settings = PnioHttpHandler.PnioHttpSettings.builder()
+            .requestSize( 1024 )
+            .responseSize( 1024 )
+            .queueTimeoutPercent( 0.99 )
+            .cpuThreads( 1 )
+            .cpuQueueFair( true )
+            .cpuAffinity( new Affinity( "0" ) )
+            .ioAffinity( new Affinity( "1+" ) )
+            .exchangePoolSize( 4 )
+            .admissionControl( true )
+            .admissionInitialLimit( 1 )
+            .admissionMaxLimit( 1 )
+            .build();
+
+        PnioHttpHandler.ErrorResponse<TestState> errorResponse = ( _, _ ) -> {
+            throw new AssertionError( "the error response is not called for a rejected request" );
+        };
+
+        for( var async : List.of( false, true ) )
+            runWithWorkflow( settings, 5, Dates.s( 100 ), workflow, async, errorResponse, ( port, httpHandler ) -> {
+                var admissionController = httpHandler.getAdmissionController();
+                var exchangePool = httpHandler.getExchangePool();
+
+                var first = CompletableFuture.runAsync( () ->
+                    assertPost( "http://localhost:" + port + "/test", "{}" ).hasCode( Http.StatusCode.OK ) );
+                while( admissionController.getInflight() == 0 ) Thread.yield();
+
+                assertPost( "http://localhost:" + port + "/test", "{}" )
+                    .hasCode( Http.StatusCode.SERVICE_UNAVAILABLE );
+
+                first.join();
+
+                assertThat( admissionController.getRejected() ).isEqualTo( 1 );
+                assertThat( admissionController.getInflight() ).isZero();
+                // only the admitted request borrowed an exchange
+                assertThat( exchangePool.getHits() + exchangePool.getMisses() ).isEqualTo( 1 );
+                assertEventually( 50, 100, () -> assertThat( exchangePool.getOutstanding() ).isZero() );
+            } );
+    }
+
     private void errorResponse( PnioExchange<TestState> pnioExchange, TestState workflowState ) {
         var httpResponse = pnioExchange.httpResponse;
         switch( pnioExchange.processState ) {
@@ -163,8 +704,6 @@ public class PnioHttpHandlerTest extends Fixtures {
     }
 
     private void runWithWorkflow( int requestSize, int responseSize, int ioThreads, int cpuThreads, long timeout, RequestWorkflow<TestState> workflow, Consumer<Integer> cons ) throws IOException {
-        int port = Ports.getFreePort( getClass() );
-
         var settings = PnioHttpHandler.PnioHttpSettings.builder()
             .requestSize( requestSize )
             .responseSize( responseSize )
@@ -174,21 +713,38 @@ public class PnioHttpHandlerTest extends Fixtures {
             .cpuAffinity( new Affinity( "0" ) )
             .ioAffinity( new Affinity( "1+" ) )
             .build();
+
+        runWithWorkflow( settings, ioThreads, timeout, workflow, false, ( port, _ ) -> cons.accept( port ) );
+    }
+
+    private void runWithWorkflow( PnioHttpHandler.PnioHttpSettings settings, int ioThreads, long timeout, RequestWorkflow<TestState> workflow,
+                                  boolean async, BiConsumer<Integer, PnioHttpHandler<TestState>> cons ) throws IOException {
+        runWithWorkflow( settings, ioThreads, timeout, workflow, async, this::errorResponse, cons );
+    }
+
+    private void runWithWorkflow( PnioHttpHandler.PnioHttpSettings settings, int ioThreads, long timeout, RequestWorkflow<TestState> workflow,
+                                  boolean async, PnioHttpHandler.ErrorResponse<TestState> errorResponse,
+                                  BiConsumer<Integer, PnioHttpHandler<TestState>> cons ) throws IOException {
+        int port = Ports.getFreePort( getClass() );
+
         try( NioHttpServer httpServer = new NioHttpServer( new NioHttpServer.DefaultPort( port ) ) ) {
             httpServer.ioThreads = ioThreads;
             httpServer.start();
 
-            try( PnioHttpHandler<TestState> httpHandler = new PnioHttpHandler<>( httpServer, settings, workflow, this::errorResponse ) ) {
+            try( PnioHttpHandler<TestState> httpHandler = new PnioHttpHandler<>( httpServer, settings, workflow, errorResponse ) ) {
 
                 httpServer.bind( "/test",
                     new HttpHandler() {
                         @Override
                         public void handleRequest( HttpServerExchange exchange ) throws Exception {
-                            httpHandler.handleRequest( exchange, System.nanoTime(), timeout, new TestState() );
+                            if( async )
+                                httpHandler.handleRequestAsync( exchange, System.nanoTime(), timeout, new TestState() );
+                            else
+                                httpHandler.handleRequest( exchange, System.nanoTime(), timeout, new TestState() );
                         }
                     } );
 
-                cons.accept( port );
+                cons.accept( port, httpHandler );
             }
         }
     }
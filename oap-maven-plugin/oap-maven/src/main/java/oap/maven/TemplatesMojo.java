@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.maven;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Pre-generates the oap-template bytecode store at build time.
+ * <p>
+ * Templates are compiled by {@code oap.template.TemplatePrecompiler} in a forked jvm with the project runtime classpath,
+ * so the store matches the oap-template version of the project.
+ */
+@Mojo( name = "templates", defaultPhase = LifecyclePhase.PROCESS_CLASSES, requiresDependencyResolution = ResolutionScope.RUNTIME )
+public class TemplatesMojo extends AbstractMojo {
+    @Parameter( defaultValue = "${project.basedir}/src/main/resources/oap-templates.conf" )
+    private String configuration;
+
+    @Parameter( defaultValue = "${project.build.directory}/oap-template-store" )
+    private String outputDirectory;
+
+    @Parameter( defaultValue = "${project}", readonly = true, required = true )
+    private MavenProject project;
+
+    @Parameter( defaultValue = "false" )
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        if( skip || !new File( configuration ).exists() ) {
+            getLog().info( "skip templates, configuration: " + configuration );
+            return;
+        }
+
+        try {
+            List<String> classpath = project.getRuntimeClasspathElements();
+            var java = Path.of( System.getProperty( "java.home" ), "bin", "java" ).toString();
+
+            getLog().info( "templates " + configuration + " -> " + outputDirectory );
+
+            var process = new ProcessBuilder( java, "-cp", String.join( File.pathSeparator, classpath ),
+                "oap.template.TemplatePrecompiler", configuration, outputDirectory )
+                .inheritIO()
+                .start();
+
+            int exitCode = process.waitFor();
+            if( exitCode != 0 ) throw new MojoExecutionException( "template precompilation failed, exit code " + exitCode );
+        } catch( DependencyResolutionRequiredException | IOException e ) {
+            throw new MojoExecutionException( e.getMessage(), e );
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( e.getMessage(), e );
+        }
+    }
+}
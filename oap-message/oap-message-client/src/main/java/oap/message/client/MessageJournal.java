@@ -0,0 +1,388 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.message.client;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.io.Closeables;
+import oap.message.MessageProtocol;
+import oap.util.ByteSequence;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * Segmented append-only log of the unsent messages.
+ * <p>
+ * Record:
+ * <ul>
+ * <li><b>int</b>          - body size
+ * <li><b>int</b>          - crc32c of the body
+ * <li><b>byte</b>         - {@link #MESSAGE}: byte message type, short version, byte(16) md5, data
+ * <li><b>byte</b>         - {@link #ACK}: byte(16) md5, the oldest not acknowledged message with this md5 is done
+ * </ul>
+ * Records are fsync-ed by {@link #fsync()}. A segment is deleted as soon as all of its messages
+ * and all of the older segments are acknowledged. Replay stops at the first torn or corrupted record of a segment.
+ * <p>
+ * IO errors are logged and not thrown: {@link #append} reports a message that is not journaled,
+ * a failed write is cut off (or the segment is rolled) so it does not hide the later records from replay.
+ * After {@link #close()} nothing is written.
+ */
+@Slf4j
+class MessageJournal implements Closeable {
+    static final byte MESSAGE = 1;
+    static final byte ACK = 2;
+    static final String EXTENSION = ".journal";
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1024 * 1024 * 1024;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final HashMap<ByteSequence, ArrayDeque<Segment>> pending = new HashMap<>();
+    private final CRC32C crc = new CRC32C();
+    private Segment current;
+    private FileChannel channel;
+    private boolean dirty;
+    private boolean closed;
+
+    MessageJournal( Path directory, long segmentSize ) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @return not acknowledged messages in the append order
+     */
+    synchronized List<Message> open( long clientId ) throws IOException {
+        Files.createDirectories( directory );
+
+        try( var stream = Files.list( directory ) ) {
+            stream
+                .filter( path -> path.getFileName().toString().endsWith( EXTENSION ) )
+                .forEach( path -> {
+                    var name = path.getFileName().toString();
+                    try {
+                        var id = Long.parseLong( name.substring( 0, name.length() - EXTENSION.length() ), 16 );
+                        segments.put( id, new Segment( path ) );
+                    } catch( NumberFormatException e ) {
+                        log.warn( "invalid journal segment {}", path );
+                    }
+                } );
+        }
+
+        var entries = new ArrayList<Entry>();
+        var byMd5 = new HashMap<ByteSequence, ArrayDeque<Entry>>();
+
+        for( var segment : segments.values() ) {
+            replay( segment, clientId, entries, byMd5 );
+        }
+
+        var messages = new ArrayList<Message>();
+        for( var entry : entries ) {
+            if( entry.acked ) continue;
+
+            messages.add( entry.message );
+            pending.computeIfAbsent( entry.message.md5, _ -> new ArrayDeque<>() ).add( entry.segment );
+            entry.segment.live++;
+        }
+
+        compact();
+        roll();
+
+        log.info( "journal {}: segments {} unsent messages {}", directory, segments.size(), messages.size() );
+
+        return messages;
+    }
+
+    private void replay( Segment segment, long clientId, List<Entry> entries, HashMap<ByteSequence, ArrayDeque<Entry>> byMd5 ) throws IOException {
+        try( var in = new DataInputStream( new BufferedInputStream( Files.newInputStream( segment.path ), 64 * 1024 ) ) ) {
+            var recordCrc = new CRC32C();
+            while( true ) {
+                int size;
+                try {
+                    size = in.readInt();
+                } catch( EOFException e ) {
+                    return;
+                }
+
+                if( size <= 0 || size > MAX_RECORD_SIZE ) {
+                    log.warn( "journal {}: invalid record size {}", segment.path, size );
+                    return;
+                }
+
+                byte[] body;
+                int checksum;
+                try {
+                    checksum = in.readInt();
+                    body = in.readNBytes( size );
+                } catch( EOFException e ) {
+                    body = null;
+                    checksum = 0;
+                }
+                if( body == null || body.length < size ) {
+                    log.warn( "journal {}: torn record", segment.path );
+                    return;
+                }
+
+                recordCrc.reset();
+                recordCrc.update( body );
+                if( ( int ) recordCrc.getValue() != checksum ) {
+                    log.warn( "journal {}: corrupted record", segment.path );
+                    return;
+                }
+
+                var buffer = ByteBuffer.wrap( body );
+                var kind = buffer.get();
+                var md5Bytes = new byte[MessageProtocol.MD5_LENGTH];
+                if( kind == MESSAGE ) {
+                    var messageType = buffer.get();
+                    var version = buffer.getShort();
+                    buffer.get( md5Bytes );
+                    var data = new byte[buffer.remaining()];
+                    buffer.get( data );
+
+                    var entry = new Entry( new Message( clientId, messageType, version, ByteSequence.of( md5Bytes ), data ), segment );
+                    entries.add( entry );
+                    byMd5.computeIfAbsent( entry.message.md5, _ -> new ArrayDeque<>() ).add( entry );
+                } else if( kind == ACK ) {
+                    buffer.get( md5Bytes );
+                    var queue = byMd5.get( ByteSequence.of( md5Bytes ) );
+                    if( queue != null && !queue.isEmpty() ) queue.poll().acked = true;
+                } else {
+                    log.warn( "journal {}: unknown record {}", segment.path, kind );
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the message is not journaled (closed or an IO error)
+     */
+    synchronized boolean append( Message message ) {
+        if( !writable() ) return false;
+
+        var body = ByteBuffer.allocate( 1 + 1 + 2 + MessageProtocol.MD5_LENGTH + message.data.length );
+        body.put( MESSAGE );
+        body.put( message.messageType );
+        body.putShort( message.version );
+        body.put( message.md5.bytes );
+        body.put( message.data );
+
+        if( !write( body.array() ) ) return false;
+
+        pending.computeIfAbsent( message.md5, _ -> new ArrayDeque<>() ).add( current );
+        current.live++;
+
+        if( current.size >= segmentSize ) tryRoll();
+
+        return true;
+    }
+
+    /**
+     * a lost ack record only makes the message be sent again after a restart, the server drops the duplicate
+     */
+    synchronized void ack( Message message ) {
+        if( closed ) return;
+
+        var queue = pending.get( message.md5 );
+        if( queue == null ) return;
+
+        var segment = queue.poll();
+        if( queue.isEmpty() ) pending.remove( message.md5 );
+
+        var body = ByteBuffer.allocate( 1 + MessageProtocol.MD5_LENGTH );
+        body.put( ACK );
+        body.put( message.md5.bytes );
+        if( writable() ) write( body.array() );
+
+        segment.live--;
+        compact();
+    }
+
+    synchronized void fsync() {
+        if( !dirty || channel == null ) return;
+
+        try {
+            channel.force( false );
+            dirty = false;
+        } catch( IOException e ) {
+            log.error( "journal " + current.path + ": cannot fsync", e );
+        }
+    }
+
+    synchronized int pendingMessages() {
+        var count = 0;
+        for( var queue : pending.values() ) count += queue.size();
+        return count;
+    }
+
+    /**
+     * after a failed roll there is no open segment, the next write tries again
+     */
+    private boolean writable() {
+        if( closed ) {
+            log.warn( "journal {} is closed", directory );
+            return false;
+        }
+        if( channel == null ) tryRoll();
+
+        return channel != null;
+    }
+
+    private boolean write( byte[] body ) {
+        crc.reset();
+        crc.update( body );
+
+        var record = ByteBuffer.allocate( HEADER_SIZE + body.length );
+        record.putInt( body.length );
+        record.putInt( ( int ) crc.getValue() );
+        record.put( body );
+        record.flip();
+
+        try {
+            while( record.hasRemaining() ) channel.write( record );
+        } catch( IOException e ) {
+            log.error( "journal " + current.path + ": cannot write", e );
+            cutOff();
+            return false;
+        }
+
+        current.size += HEADER_SIZE + body.length;
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * removes the partially written record, the segment is given up if that fails too
+     */
+    private void cutOff() {
+        try {
+            channel.truncate( current.size );
+            channel.position( current.size );
+        } catch( IOException e ) {
+            log.error( "journal " + current.path + ": cannot truncate", e );
+            tryRoll();
+        }
+    }
+
+    private void tryRoll() {
+        try {
+            roll();
+        } catch( UncheckedIOException e ) {
+            log.error( "journal " + directory + ": cannot open a new segment", e );
+            Closeables.close( channel );
+            channel = null;
+        }
+    }
+
+    private void roll() {
+        try {
+            if( channel != null ) {
+                channel.force( false );
+                channel.close();
+            }
+
+            var id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            current = new Segment( directory.resolve( String.format( "%016x", id ) + EXTENSION ) );
+            segments.put( id, current );
+            channel = FileChannel.open( current.path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE );
+            dirty = false;
+
+            compact();
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * deletes the acknowledged segments, oldest first, so that no older message is revived by a lost ack
+     */
+    private void compact() {
+        while( !segments.isEmpty() ) {
+            var segment = segments.firstEntry().getValue();
+            if( segment == current || segment.live > 0 ) return;
+
+            segments.pollFirstEntry();
+            try {
+                Files.deleteIfExists( segment.path );
+            } catch( IOException e ) {
+                log.error( "cannot delete journal segment " + segment.path, e );
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if( closed ) return;
+        closed = true;
+        if( channel == null ) return;
+
+        channel.force( false );
+        channel.close();
+        channel = null;
+
+        if( pending.isEmpty() ) {
+            for( var segment : segments.values() ) Files.deleteIfExists( segment.path );
+            segments.clear();
+        }
+    }
+
+    private static final class Segment {
+        final Path path;
+        int live;
+        long size;
+
+        Segment( Path path ) {
+            this.path = path;
+        }
+    }
+
+    private static final class Entry {
+        final Message message;
+        final Segment segment;
+        boolean acked;
+
+        Entry( Message message, Segment segment ) {
+            this.message = message;
+            this.segment = segment;
+        }
+    }
+}
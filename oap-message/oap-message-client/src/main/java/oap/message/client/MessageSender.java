@@ -25,6 +25,7 @@
 package oap.message.client;
 
 import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.Tags;
@@ -66,13 +67,17 @@ import java.net.UnknownHostException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32C;
 
 @Slf4j
 @ToString
@@ -87,6 +92,7 @@ public class MessageSender implements Closeable, AutoCloseable {
     private final long clientId = Cuid.UNIQUE.nextLong();
     private final Messages messages = new Messages();
     private final ConcurrentMap<Byte, Pair<MessageStatus, Short>> lastStatus = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Byte, Semaphore> inFlight = new ConcurrentHashMap<>();
     private final String messageUrl;
     private final long memorySyncPeriod;
     public String uniqueName = Cuid.UNIQUE.next();
@@ -96,10 +102,34 @@ public class MessageSender implements Closeable, AutoCloseable {
     public long globalIoRetryTimeout = Dates.s( 1 );
     public long retryTimeout = Dates.s( 1 );
     public long keepAliveDuration = Dates.d( 30 );
+    /**
+     * &gt; 1 - send up to batchSize messages per request ({@link MessageProtocol#PROTOCOL_VERSION_2}),
+     * message ids are murmur3 instead of md5. The server has to support batches.
+     */
+    public int batchSize = 1;
+    public int batchMaxBytes = 4 * 1024 * 1024;
+    /**
+     * if set, unsent messages are kept in an append-only journal instead of the per message files.
+     * send() does not fail if the journal cannot be written: the message is sent from memory
+     * and counted as oap.messages status=journal_error, it is lost if the process stops before delivery.
+     */
+    public Path journalDirectory;
+    public long journalSegmentSize = 64 * 1024 * 1024;
+    public long journalFsyncPeriod = 100;
+    /**
+     * send on virtual threads, poolSize limits http connections only
+     */
+    public boolean virtualThreads = false;
+    /**
+     * max requests in flight per message type, &lt;= 0 - unlimited. Not applied to batches.
+     */
+    public int inFlightWindow = -1;
     protected long timeout = Dates.s( 5 );
     protected long connectionTimeout = Dates.s( 30 );
     private volatile boolean closed = false;
     private Scheduled diskSyncScheduler;
+    private Scheduled journalFsyncScheduler;
+    private MessageJournal journal;
     private boolean networkAvailable = true;
     private Client httpClient;
     private ExecutorService executor;
@@ -148,11 +178,14 @@ public class MessageSender implements Closeable, AutoCloseable {
             Dates.durationToString( keepAliveDuration ) );
         log.info( "[{}] retry timeout {} disk sync period '{}' memory sync period '{}'",
             uniqueName, Dates.durationToString( retryTimeout ), Dates.durationToString( diskSyncPeriod ), Dates.durationToString( memorySyncPeriod ) );
+        log.info( "[{}] virtual threads {} in-flight window {}", uniqueName, virtualThreads, inFlightWindow );
         log.info( "custom status = {}", MessageProtocol.printMapping() );
 
-        executor = Executors.newFixedBlockingThreadPool(
-            poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors(),
-            new ThreadFactoryBuilder().setNameFormat( uniqueName + "-%d" ).build() );
+        executor = virtualThreads
+            ? java.util.concurrent.Executors.newThreadPerTaskExecutor( Thread.ofVirtual().name( uniqueName + "-", 0 ).factory() )
+            : Executors.newFixedBlockingThreadPool(
+                poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder().setNameFormat( uniqueName + "-%d" ).build() );
 
         Client.ClientBuilder clientBuilder = Client.custom().setConnectTimeout( connectionTimeout );
 
@@ -162,6 +195,8 @@ public class MessageSender implements Closeable, AutoCloseable {
 
         httpClient = clientBuilder.build();
 
+        if( journalDirectory != null ) openJournal();
+
         if( diskSyncPeriod > 0 )
             diskSyncScheduler = Scheduler.scheduleWithFixedDelay( diskSyncPeriod, TimeUnit.MILLISECONDS, this::syncDisk );
 
@@ -170,6 +205,17 @@ public class MessageSender implements Closeable, AutoCloseable {
         log.info( "[{}] message server started", uniqueName );
     }
 
+    @SneakyThrows
+    private void openJournal() {
+        journal = new MessageJournal( journalDirectory, journalSegmentSize );
+        for( var message : journal.open( clientId ) ) messages.add( message );
+
+        if( journalFsyncPeriod > 0 )
+            journalFsyncScheduler = Scheduler.scheduleWithFixedDelay( journalFsyncPeriod, TimeUnit.MILLISECONDS, journal::fsync );
+        log.info( "[{}] journal {} segment size {} fsync period {}", uniqueName, journalDirectory,
+            journalSegmentSize, Dates.durationToString( journalFsyncPeriod ) );
+    }
+
     public <T> MessageSender send( byte messageType, T data, ContentWriter<T> writer ) {
         return send( messageType, ( short ) 1, data, writer );
     }
@@ -187,8 +233,16 @@ public class MessageSender implements Closeable, AutoCloseable {
         Preconditions.checkNotNull( data );
         Preconditions.checkArgument( ( messageType & 0xFF ) <= 200, "reserved" );
 
-        var md5 = DigestUtils.getMd5Digest().digest( data );
+        byte[] md5;
+        if( batchSize > 1 ) md5 = Hashing.murmur3_128().hashBytes( data, offset, length ).asBytes();
+        else {
+            var digest = DigestUtils.getMd5Digest();
+            digest.update( data, offset, length );
+            md5 = digest.digest();
+        }
         var message = new Message( clientId, messageType, version, ByteSequence.of( md5 ), data, offset, length );
+        if( journal != null && !journal.append( message ) )
+            Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( messageType ), "status", "journal_error" ).increment();
         messages.add( message );
 
         return this;
@@ -214,7 +268,10 @@ public class MessageSender implements Closeable, AutoCloseable {
             }
         }
 
-        saveMessagesToDirectory( directory );
+        if( journal != null ) {
+            Closeables.close( journalFsyncScheduler );
+            Closeables.close( journal );
+        } else saveMessagesToDirectory( directory );
     }
 
     private void saveMessagesToDirectory( Path directory ) {
@@ -297,6 +354,84 @@ public class MessageSender implements Closeable, AutoCloseable {
         }, executor );
     }
 
+    /**
+     * sends the messages in one request, see {@link MessageProtocol#PROTOCOL_VERSION_2}
+     */
+    @SuppressWarnings( "checkstyle:OverloadMethodsDeclarationOrder" )
+    public CompletableFuture<List<Messages.MessageInfo>> send( List<Messages.MessageInfo> batch, long now ) {
+        log.debug( "[{}] sending batch of {} messages to server...", uniqueName, batch.size() );
+
+        return CompletableFuture.supplyAsync( () -> {
+            for( var messageInfo : batch )
+                Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( messageInfo.message.messageType ), "status", "trysend" ).increment();
+
+            try( FastByteArrayOutputStream buf = new FastByteArrayOutputStream();
+                 DataOutputStream out = new DataOutputStream( buf ) ) {
+                out.writeByte( MessageProtocol.BATCH_MESSAGE_TYPE );
+                out.writeShort( MessageProtocol.PROTOCOL_VERSION_2 );
+                out.writeLong( clientId );
+                out.writeInt( batch.size() );
+
+                var start = buf.length;
+                for( var messageInfo : batch ) {
+                    var message = messageInfo.message;
+                    out.writeByte( message.messageType );
+                    out.writeShort( message.version );
+                    out.write( message.md5.bytes );
+                    out.writeInt( message.data.length );
+                    out.write( message.data );
+                }
+
+                var crc = new CRC32C();
+                crc.update( buf.array, start, buf.length - start );
+                out.writeInt( ( int ) crc.getValue() );
+
+                Client.Response response = httpClient.post( messageUrl, buf.array, 0, buf.length, timeout )
+                    .orElseThrow( f -> f );
+
+                if( response.code >= 300 || response.code < 200 ) {
+                    throw new IOException( "Not OK (" + response.code + ") response code returned for url: " + messageUrl );
+                }
+                return onOkResponse( batch, response, now );
+
+            } catch( UnknownHostException e ) {
+                for( var messageInfo : batch ) processException( messageInfo, now, messageInfo.message, e, true );
+
+                ioExceptionStartRetryTimeout = now;
+
+                throw Throwables.propagate( e );
+            } catch( Throwable e ) {
+                for( var messageInfo : batch ) processException( messageInfo, now, messageInfo.message, e, false );
+
+                throw Throwables.propagate( e );
+            }
+        }, executor );
+    }
+
+    private List<Messages.MessageInfo> onOkResponse( List<Messages.MessageInfo> batch, Client.Response response, long now ) throws IOException {
+        InputStream body = response.getInputStream();
+        if( body == null ) throw new IOException( "unknown error (BODY == null)" );
+
+        try( var in = new DataInputStream( body ) ) {
+            var version = in.readByte();
+            if( version != MessageProtocol.PROTOCOL_VERSION_2 ) {
+                log.error( "[{}] Version mismatch, expected: {}, received: {}", uniqueName, MessageProtocol.PROTOCOL_VERSION_2, version );
+                throw new MessageException( "Version mismatch" );
+            }
+            in.readLong(); // clientId
+            var count = in.readInt();
+            if( count != batch.size() ) throw new MessageException( "Batch size mismatch, expected: " + batch.size() + ", received: " + count );
+
+            var statuses = new short[count];
+            for( var i = 0; i < count; i++ ) statuses[i] = in.readShort();
+
+            MessageSender.this.networkAvailable = true;
+
+            for( var i = 0; i < count; i++ ) onStatus( batch.get( i ), statuses[i], now );
+        }
+        return batch;
+    }
+
     private void processException( Messages.MessageInfo messageInfo, long now, Message message, Throwable e, boolean globalRetryTimeout ) {
         Metrics.counter( "oap.messages",
             "type", MessageProtocol.messageTypeToString( message.messageType ),
@@ -328,55 +463,72 @@ public class MessageSender implements Closeable, AutoCloseable {
             in.skipNBytes( MessageProtocol.RESERVED_LENGTH );
             var status = in.readShort();
 
-            log.trace( "[{}] sending done, server status: {}", uniqueName, MessageProtocol.messageStatusToString( status ) );
-
             MessageSender.this.networkAvailable = true;
 
-            switch( status ) {
-                case MessageProtocol.STATUS_ALREADY_WRITTEN -> {
-                    log.trace( "[{}] already written {}", uniqueName, message.getHexMd5() );
-                    Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( message.messageType ), "status", "already_written" ).increment();
-                    lastStatus.put( message.messageType, Pair.__( MessageStatus.ALREADY_WRITTEN, status ) );
-                }
-                case MessageProtocol.STATUS_OK -> {
-                    Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( message.messageType ), "status", "success" ).increment();
-                    lastStatus.put( message.messageType, Pair.__( MessageStatus.OK, status ) );
-                }
-                case MessageProtocol.STATUS_UNKNOWN_ERROR -> {
-                    Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( message.messageType ), "status", "error" ).increment();
-                    log.error( "[{}] unknown error", uniqueName );
-                    lastStatus.put( message.messageType, Pair.__( MessageStatus.ERROR, status ) );
-                    messages.retry( messageInfo, now + retryTimeout );
-                }
-                case MessageProtocol.STATUS_UNKNOWN_ERROR_NO_RETRY -> {
-                    Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( message.messageType ), "status", "error_no_retry" ).increment();
-                    log.error( "[{}] unknown error -> no retry", uniqueName );
-                    lastStatus.put( message.messageType, Pair.__( MessageStatus.ERROR, status ) );
-                }
-                case MessageProtocol.STATUS_UNKNOWN_MESSAGE_TYPE -> {
-                    Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( message.messageType ), "status", "unknown_message_type" ).increment();
-                    log.error( "[{}] unknown message type: {}", uniqueName, status );
-                    lastStatus.put( message.messageType, Pair.__( MessageStatus.ERROR, status ) );
-                }
-                default -> {
-                    var clientStatus = MessageProtocol.getStatus( status );
-                    if( clientStatus != null ) {
-                        log.trace( "[{}] retry: {}", uniqueName, clientStatus );
-                        Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( message.messageType ), "status", "status_" + status + "(" + clientStatus + ")" ).increment();
-                    } else {
-                        Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( message.messageType ), "status", "unknown_status" ).increment();
-                        log.error( "[{}] unknown status: {}", uniqueName, status );
-                    }
-                    lastStatus.put( message.messageType, Pair.__( MessageStatus.ERROR, status ) );
-                    messages.retry( messageInfo, now + retryTimeout );
-                }
-            }
+            onStatus( messageInfo, status, now );
         } catch( IOException e ) {
             throw new UncheckedIOException( e );
         }
         return messageInfo;
     }
 
+    private void onStatus( Messages.MessageInfo messageInfo, short status, long now ) {
+        Message message = messageInfo.message;
+
+        log.trace( "[{}] sending done, server status: {}", uniqueName, MessageProtocol.messageStatusToString( status ) );
+
+        switch( status ) {
+            case MessageProtocol.STATUS_ALREADY_WRITTEN -> {
+                log.trace( "[{}] already written {}", uniqueName, message.getHexMd5() );
+                Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( message.messageType ), "status", "already_written" ).increment();
+                lastStatus.put( message.messageType, Pair.__( MessageStatus.ALREADY_WRITTEN, status ) );
+                done( message );
+            }
+            case MessageProtocol.STATUS_OK -> {
+                Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( message.messageType ), "status", "success" ).increment();
+                lastStatus.put( message.messageType, Pair.__( MessageStatus.OK, status ) );
+                done( message );
+            }
+            case MessageProtocol.STATUS_UNKNOWN_ERROR -> {
+                Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( message.messageType ), "status", "error" ).increment();
+                log.error( "[{}] unknown error", uniqueName );
+                lastStatus.put( message.messageType, Pair.__( MessageStatus.ERROR, status ) );
+                messages.retry( messageInfo, now + retryTimeout );
+            }
+            case MessageProtocol.STATUS_UNKNOWN_ERROR_NO_RETRY -> {
+                Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( message.messageType ), "status", "error_no_retry" ).increment();
+                log.error( "[{}] unknown error -> no retry", uniqueName );
+                lastStatus.put( message.messageType, Pair.__( MessageStatus.ERROR, status ) );
+                done( message );
+            }
+            case MessageProtocol.STATUS_UNKNOWN_MESSAGE_TYPE -> {
+                Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( message.messageType ), "status", "unknown_message_type" ).increment();
+                log.error( "[{}] unknown message type: {}", uniqueName, status );
+                lastStatus.put( message.messageType, Pair.__( MessageStatus.ERROR, status ) );
+                done( message );
+            }
+            default -> {
+                var clientStatus = MessageProtocol.getStatus( status );
+                if( clientStatus != null ) {
+                    log.trace( "[{}] retry: {}", uniqueName, clientStatus );
+                    Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( message.messageType ), "status", "status_" + status + "(" + clientStatus + ")" ).increment();
+                } else {
+                    Metrics.counter( "oap.messages", "type", MessageProtocol.messageTypeToString( message.messageType ), "status", "unknown_status" ).increment();
+                    log.error( "[{}] unknown status: {}", uniqueName, status );
+                }
+                lastStatus.put( message.messageType, Pair.__( MessageStatus.ERROR, status ) );
+                messages.retry( messageInfo, now + retryTimeout );
+            }
+        }
+    }
+
+    /**
+     * the message is not retried anymore
+     */
+    private void done( Message message ) {
+        if( journal != null ) journal.ack( message );
+    }
+
     public void syncMemory() {
         syncMemory( -1 );
     }
@@ -393,6 +545,7 @@ public class MessageSender implements Closeable, AutoCloseable {
         long period = currentPeriod( now );
 
         Messages.MessageInfo messageInfo = null;
+        var deferred = new ArrayList<Messages.MessageInfo>();
 
         messages.retry();
 
@@ -400,15 +553,40 @@ public class MessageSender implements Closeable, AutoCloseable {
             now = DateTimeUtils.currentTimeMillis();
 
             if( messageInfo != null ) {
-                log.trace( "[{}] message {}...", uniqueName, messageInfo.message.md5 );
-                var future = send( messageInfo, now );
-                future.handle( ( mi, e ) -> {
-                    messages.removeInProgress( mi );
-                    log.trace( "[{}] message {}... done", uniqueName, mi.message.md5 );
-                    return null;
-                } );
-
-                if( timeoutMs >= 0 ) {
+                CompletableFuture<?> future;
+                if( batchSize > 1 ) {
+                    var batch = pollBatch( messageInfo );
+                    log.trace( "[{}] batch {}...", uniqueName, batch.size() );
+                    future = send( batch, now );
+                    future.handle( ( _, _ ) -> {
+                        batch.forEach( messages::removeInProgress );
+                        log.trace( "[{}] batch {}... done", uniqueName, batch.size() );
+                        return null;
+                    } );
+                } else if( !tryAcquireInFlight( messageInfo.message.messageType ) ) {
+                    deferred.add( messageInfo );
+                    future = null;
+                } else {
+                    log.trace( "[{}] message {}...", uniqueName, messageInfo.message.md5 );
+                    var mi = messageInfo;
+                    CompletableFuture<Messages.MessageInfo> messageFuture;
+                    try {
+                        messageFuture = send( messageInfo, now );
+                    } catch( RuntimeException e ) {
+                        // e.g. the executor is closed, there is no future to release the window
+                        releaseInFlight( mi.message.messageType );
+                        throw e;
+                    }
+                    messageFuture.handle( ( _, _ ) -> {
+                        releaseInFlight( mi.message.messageType );
+                        messages.removeInProgress( mi );
+                        log.trace( "[{}] message {}... done", uniqueName, mi.message.md5 );
+                        return null;
+                    } );
+                    future = messageFuture;
+                }
+
+                if( future != null && timeoutMs >= 0 ) {
                     try {
                         future.get( timeoutMs, TimeUnit.MILLISECONDS );
                     } catch( InterruptedException | TimeoutException | ExecutionException e ) {
@@ -429,6 +607,40 @@ public class MessageSender implements Closeable, AutoCloseable {
 
             messageInfo = messages.poll( true );
         } while( messageInfo != null );
+
+        // the window of the message type is full, next sync
+        for( var mi : deferred ) {
+            messages.removeInProgress( mi );
+            messages.add( mi );
+        }
+    }
+
+    private boolean tryAcquireInFlight( byte messageType ) {
+        if( inFlightWindow <= 0 ) return true;
+
+        return inFlight.computeIfAbsent( messageType, _ -> new Semaphore( inFlightWindow ) ).tryAcquire();
+    }
+
+    private void releaseInFlight( byte messageType ) {
+        if( inFlightWindow <= 0 ) return;
+
+        inFlight.get( messageType ).release();
+    }
+
+    private List<Messages.MessageInfo> pollBatch( Messages.MessageInfo first ) {
+        var batch = new ArrayList<Messages.MessageInfo>();
+        batch.add( first );
+
+        long bytes = first.message.data.length;
+        while( batch.size() < batchSize && bytes < batchMaxBytes ) {
+            var messageInfo = messages.poll( true );
+            if( messageInfo == null ) break;
+
+            batch.add( messageInfo );
+            bytes += messageInfo.message.data.length;
+        }
+
+        return batch;
     }
 
     private boolean isGlobalIoRetryTimeout( long now ) {
@@ -445,6 +657,8 @@ public class MessageSender implements Closeable, AutoCloseable {
 
         try( DirectoryStream<Path> clientIdStream = java.nio.file.Files.newDirectoryStream( directory ) ) {
             for( var clientIdPath : clientIdStream ) {
+                if( journalDirectory != null && clientIdPath.equals( journalDirectory ) ) continue;
+
                 if( !isValidClientId( clientIdPath ) ) {
                     log.warn( "invalid client id {}", clientIdPath );
                     Files.deleteSafely( clientIdPath );
@@ -507,6 +721,8 @@ public class MessageSender implements Closeable, AutoCloseable {
                                                 uniqueName, msgClientId, MessageProtocol.messageTypeToString( messageType ), md5Hex );
 
                                             var message = new Message( clientId, messageType, version, md5, data );
+                                            // the file is kept until the journal has the message
+                                            if( journal != null && !journal.append( message ) ) continue;
                                             messages.add( message );
 
                                             Files.delete( messagePath );
@@ -34,11 +34,19 @@ import java.util.HashMap;
 
 public final class MessageProtocol {
     public static final short PROTOCOL_VERSION_1 = 1;
+    /**
+     * batched messages, see {@link #BATCH_MESSAGE_TYPE}
+     */
+    public static final short PROTOCOL_VERSION_2 = 2;
     public static final byte[] RESERVED = new byte[8];
     public static final int RESERVED_LENGTH = RESERVED.length;
     public static final int MD5_LENGTH = 16;
 
     public static final byte EOF_MESSAGE_TYPE = ( byte ) 0xFF;
+    /**
+     * first byte of a batch request, message types above 200 are reserved
+     */
+    public static final byte BATCH_MESSAGE_TYPE = ( byte ) 0xFE;
 
     public static final short STATUS_OK = 0;
     public static final short STATUS_UNKNOWN_ERROR = 1;
@@ -24,24 +24,43 @@
 
 package oap.message.server;
 
+import lombok.extern.slf4j.Slf4j;
 import oap.util.Longs;
 import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
 import org.joda.time.DateTimeUtils;
 
-import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
+/**
+ * Dedup index of the received messages, per message type.
+ * <p>
+ * Snapshot format:
+ * <ul>
+ * <li><b>int</b>          - {@link #MAGIC}
+ * <li><b>int</b>          - format version
+ * <li><b>int</b>          - message type count
+ * <li><b>...</b>          - byte message type, long client id, int hash count, hashes: long(2) md5, long time
+ * </ul>
+ * The text format of the previous versions (<code>md5 - time</code> lines) is still loaded.
+ */
+@Slf4j
 public class MessageHashStorage {
+    public static final int MAGIC = 0x4F4D4853;
+    public static final int VERSION = 1;
+
     final ConcurrentHashMap<Byte, ClientInfo> map = new ConcurrentHashMap<>();
     private final int size;
 
@@ -50,10 +69,63 @@ public class MessageHashStorage {
     }
 
     public void load( Path path ) throws IOException, DecoderException {
+        try( var channel = FileChannel.open( path, StandardOpenOption.READ ) ) {
+            var fileSize = channel.size();
+            if( fileSize >= 8 ) {
+                var buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, fileSize );
+                if( buffer.getInt( 0 ) == MAGIC ) {
+                    load( path, buffer );
+                    return;
+                }
+            }
+        }
+
+        loadText( path );
+    }
+
+    /**
+     * a damaged snapshot (e.g. truncated by a crash while it was written by a previous version) leaves the index empty
+     */
+    private void load( Path path, ByteBuffer buffer ) {
+        var loaded = new HashMap<Byte, ClientInfo>();
+        try {
+            buffer.position( 4 );
+            var version = buffer.getInt();
+            if( version != VERSION ) throw new IOException( "unknown version " + version );
+
+            require( buffer, 4 );
+            var types = buffer.getInt();
+            require( buffer, types * ( 1L + 8 + 4 ) );
+            for( var t = 0; t < types; t++ ) {
+                require( buffer, 1 + 8 + 4 );
+                var messageType = buffer.get();
+                var clientInfo = new ClientInfo( buffer.getLong(), size );
+
+                var count = buffer.getInt();
+                require( buffer, count * 24L );
+                for( var i = 0; i < count; i++ ) {
+                    clientInfo.put( buffer.getLong(), buffer.getLong(), buffer.getLong() );
+                }
+
+                loaded.put( messageType, clientInfo );
+            }
+        } catch( IOException e ) {
+            log.warn( "{}: {}, the hash index starts empty", path, e.getMessage() );
+            return;
+        }
+
+        map.putAll( loaded );
+    }
+
+    private static void require( ByteBuffer buffer, long bytes ) throws IOException {
+        if( bytes < 0 || bytes > buffer.remaining() )
+            throw new IOException( "truncated snapshot, " + bytes + " bytes expected, " + buffer.remaining() + " left" );
+    }
+
+    private void loadText( Path path ) throws IOException, DecoderException {
         try( var stream = Files.lines( path ) ) {
-            var clientId = 0L;
+            ClientInfo clientInfo = null;
             var messageType = ( byte ) 0;
-            var hmap = new LinkedHashMap<String, Long>();
 
             var it = stream.iterator();
             while( it.hasNext() ) {
@@ -61,56 +133,68 @@ public class MessageHashStorage {
                 if( line.isBlank() ) continue;
 
                 if( line.startsWith( "---" ) ) {
-                    if( clientId != 0 ) {
-                        map.put( messageType, new ClientInfo( clientId, size, hmap ) );
-                        hmap = new LinkedHashMap<>();
-                        clientId = 0;
-                        messageType = 0;
-                    }
+                    if( clientInfo != null ) map.put( messageType, clientInfo );
+                    clientInfo = null;
                 } else {
                     var arr = line.split( " - " );
 
-                    if( clientId == 0 ) {
+                    if( clientInfo == null ) {
                         messageType = Byte.parseByte( arr[0] );
-                        clientId = Long.parseLong( arr[1] );
+                        clientInfo = new ClientInfo( Long.parseLong( arr[1] ), size );
                     } else {
-                        hmap.put( arr[0], Long.parseLong( arr[1] ) );
+                        clientInfo.put( Hex.decodeHex( arr[0] ), Long.parseLong( arr[1] ) );
                     }
                 }
             }
 
-            if( clientId != 0 )
-                map.put( messageType, new ClientInfo( clientId, size, hmap ) );
+            if( clientInfo != null ) map.put( messageType, clientInfo );
         }
     }
 
     public void store( Path path ) throws IOException {
         oap.io.Files.ensureFile( path );
 
-        try( var fos = new FileOutputStream( path.toFile() );
-             var sw = new OutputStreamWriter( fos, UTF_8 ) ) {
-
-            List<Byte> keys = new ArrayList<>( map.keySet() );
-            keys.sort( Byte::compareTo );
+        List<Byte> keys = new ArrayList<>( map.keySet() );
+        keys.sort( Byte::compareTo );
 
+        var tmp = path.resolveSibling( path.getFileName() + ".tmp" );
+        try( var out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( tmp ), 64 * 1024 ) ) ) {
+            var infos = new ArrayList<ClientInfo>();
+            var types = new ArrayList<Byte>();
             for( var messageType : keys ) {
-                var hmap = map.get( messageType );
-                if( hmap == null ) continue;
-                sw.write( "---\n" );
-                sw.write( messageType + " - " + hmap.clientId + "\n" );
-                hmap.store( sw );
+                var clientInfo = map.get( messageType );
+                if( clientInfo == null ) continue;
+                infos.add( clientInfo );
+                types.add( messageType );
+            }
+
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( infos.size() );
+            for( var i = 0; i < infos.size(); i++ ) {
+                out.writeByte( types.get( i ) );
+                infos.get( i ).store( out );
             }
         }
+        Files.move( tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
     }
 
     public boolean contains( byte messageType, String md5 ) {
-        var hmap = map.get( messageType );
-        return hmap != null && hmap.containsKey( md5 );
+        return contains( messageType, decodeHex( md5 ) );
+    }
+
+    public boolean contains( byte messageType, byte[] md5 ) {
+        var clientInfo = map.get( messageType );
+        return clientInfo != null && clientInfo.containsKey( md5 );
     }
 
     public void add( byte messageType, long clientId, String md5 ) {
-        var hmap = map.computeIfAbsent( messageType, cid -> new ClientInfo( clientId, size, new LinkedHashMap<>() ) );
-        hmap.put( md5, DateTimeUtils.currentTimeMillis() );
+        add( messageType, clientId, decodeHex( md5 ) );
+    }
+
+    public void add( byte messageType, long clientId, byte[] md5 ) {
+        var clientInfo = map.computeIfAbsent( messageType, _ -> new ClientInfo( clientId, size ) );
+        clientInfo.put( md5, DateTimeUtils.currentTimeMillis() );
     }
 
     public void update( long ttl ) {
@@ -119,69 +203,191 @@ public class MessageHashStorage {
         var now = DateTimeUtils.currentTimeMillis();
 
         map.entrySet().removeIf( entry -> {
-            var hmap = entry.getValue();
-            hmap.update( now, ttl );
+            var clientInfo = entry.getValue();
+            clientInfo.update( now, ttl );
 
-            return hmap.isEmpty();
+            return clientInfo.isEmpty();
         } );
     }
 
+    private static byte[] decodeHex( String md5 ) {
+        try {
+            return Hex.decodeHex( md5 );
+        } catch( DecoderException e ) {
+            throw new IllegalArgumentException( md5, e );
+        }
+    }
+
     public long size() {
         return Longs.sum( map.values(), MessageHashStorage.ClientInfo::size );
     }
 
+    /**
+     * Open addressing table of 16-byte digests (two longs) with linear probing,
+     * the ring keeps the table slots in insertion order for the fifo eviction and ttl.
+     * The table grows on demand up to 4 slots per entry.
+     */
     public static final class ClientInfo {
+        private static final byte EMPTY = 0;
+        private static final byte USED = 1;
+        private static final byte DELETED = 2;
+        private static final int MIN_CAPACITY = 16;
+
         public final long clientId;
-        public final LinkedHashMap<String, Long> map = new LinkedHashMap<>();
         private final int size;
-
-        public ClientInfo( long clientId, int size, LinkedHashMap<String, Long> hmap ) {
+        private long[] hi;
+        private long[] lo;
+        private long[] time;
+        private byte[] state;
+        private int deleted;
+        private int[] ring;
+        private int head;
+        private int count;
+
+        public ClientInfo( long clientId, int size ) {
             this.clientId = clientId;
             this.size = size;
 
-            hmap.forEach( this::put );
+            allocate( MIN_CAPACITY );
+            ring = new int[Math.min( MIN_CAPACITY, Math.max( size, 1 ) )];
         }
 
-        public synchronized boolean containsKey( String md5 ) {
-            return map.containsKey( md5 );
+        private static long hi( byte[] md5 ) {
+            assert md5.length == 16 : "md5.length = " + md5.length;
+            return ByteBuffer.wrap( md5 ).getLong( 0 );
+        }
+
+        private static long lo( byte[] md5 ) {
+            return ByteBuffer.wrap( md5 ).getLong( 8 );
+        }
+
+        private static int tableSize( int entries ) {
+            return Math.max( MIN_CAPACITY, Integer.highestOneBit( Math.max( entries, 1 ) * 4 - 1 ) << 1 );
+        }
+
+        private void allocate( int tableSize ) {
+            hi = new long[tableSize];
+            lo = new long[tableSize];
+            time = new long[tableSize];
+            state = new byte[tableSize];
+            deleted = 0;
+        }
+
+        private int index( long h, long l ) {
+            var x = h ^ l;
+            x ^= x >>> 33;
+            x *= 0xff51afd7ed558ccdL;
+            x ^= x >>> 33;
+            return ( int ) x & ( state.length - 1 );
+        }
+
+        private int find( long h, long l ) {
+            var mask = state.length - 1;
+            for( var i = index( h, l ); ; i = ( i + 1 ) & mask ) {
+                if( state[i] == EMPTY ) return -1;
+                if( state[i] == USED && hi[i] == h && lo[i] == l ) return i;
+            }
+        }
+
+        private int insert( long h, long l, long t ) {
+            var mask = state.length - 1;
+            var i = index( h, l );
+            while( state[i] == USED ) i = ( i + 1 ) & mask;
+
+            if( state[i] == DELETED ) deleted--;
+            state[i] = USED;
+            hi[i] = h;
+            lo[i] = l;
+            time[i] = t;
+            return i;
+        }
+
+        /**
+         * rebuilds the table for the entries in the ring, drops the deleted slots
+         */
+        private void rehash( int entries ) {
+            var oldHi = hi;
+            var oldLo = lo;
+            var oldTime = time;
+
+            allocate( tableSize( entries ) );
+
+            for( var k = 0; k < count; k++ ) {
+                var r = ( head + k ) % ring.length;
+                var slot = ring[r];
+                ring[r] = insert( oldHi[slot], oldLo[slot], oldTime[slot] );
+            }
+        }
+
+        private void removeOldest() {
+            var slot = ring[head];
+            head = ( head + 1 ) % ring.length;
+            count--;
+
+            state[slot] = DELETED;
+            deleted++;
+        }
+
+        public synchronized boolean containsKey( byte[] md5 ) {
+            return find( hi( md5 ), lo( md5 ) ) >= 0;
         }
 
         public synchronized boolean isEmpty() {
-            return map.isEmpty();
+            return count == 0;
+        }
+
+        public synchronized boolean put( byte[] md5, long currentTimeMillis ) {
+            return put( hi( md5 ), lo( md5 ), currentTimeMillis );
         }
 
-        public synchronized boolean put( String md5, long currentTimeMillis ) {
-            if( containsKey( md5 ) ) return false;
+        synchronized boolean put( long h, long l, long currentTimeMillis ) {
+            if( find( h, l ) >= 0 ) return false;
 
-            while( map.size() >= size ) {
-                var firstKey = map.keySet().iterator().next();
-                map.remove( firstKey );
+            while( count >= size && count > 0 ) removeOldest();
+
+            if( ( count + deleted + 1 ) * 2 > state.length ) rehash( count + 1 );
+
+            if( count == ring.length ) {
+                var newRing = new int[( int ) Math.min( Math.max( size, 1 ), ring.length * 2L )];
+                for( var k = 0; k < count; k++ ) newRing[k] = ring[( head + k ) % ring.length];
+                ring = newRing;
+                head = 0;
             }
-            map.put( md5, currentTimeMillis );
+
+            ring[( head + count ) % ring.length] = insert( h, l, currentTimeMillis );
+            count++;
             return true;
         }
 
         public synchronized int size() {
-            return map.size();
+            return count;
         }
 
         public synchronized void update( long now, long ttl ) {
-            var it = map.entrySet().iterator();
-            while( it.hasNext() ) {
-                Map.Entry<String, Long> entry = it.next();
-                var time = entry.getValue();
-                if( now - time > ttl ) {
-                    it.remove();
+            var kept = 0;
+            for( var k = 0; k < count; k++ ) {
+                var slot = ring[( head + k ) % ring.length];
+                if( now - time[slot] > ttl ) {
+                    state[slot] = DELETED;
+                    deleted++;
+                } else {
+                    ring[( head + kept ) % ring.length] = slot;
+                    kept++;
                 }
             }
-        }
+            count = kept;
 
-        public synchronized void store( OutputStreamWriter sw ) throws IOException {
-            for( var entry : map.entrySet() ) {
-                var key = entry.getKey();
-                var time = entry.getValue();
+            if( deleted > state.length / 4 ) rehash( count );
+        }
 
-                sw.write( key + " - " + time + "\n" );
+        public synchronized void store( DataOutputStream out ) throws IOException {
+            out.writeLong( clientId );
+            out.writeInt( count );
+            for( var k = 0; k < count; k++ ) {
+                var slot = ring[( head + k ) % ring.length];
+                out.writeLong( hi[slot] );
+                out.writeLong( lo[slot] );
+                out.writeLong( time[slot] );
             }
         }
     }
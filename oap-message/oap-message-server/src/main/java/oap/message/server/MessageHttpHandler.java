@@ -39,23 +39,30 @@ import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
 
 import static java.net.HttpURLConnection.HTTP_OK;
 import static oap.http.Http.ContentType.APPLICATION_OCTET_STREAM;
 import static oap.http.Http.Headers.CONTENT_TYPE;
+import static oap.message.MessageProtocol.BATCH_MESSAGE_TYPE;
 import static oap.message.MessageProtocol.MD5_LENGTH;
 import static oap.message.MessageProtocol.PROTOCOL_VERSION_1;
+import static oap.message.MessageProtocol.PROTOCOL_VERSION_2;
 import static oap.message.MessageProtocol.STATUS_ALREADY_WRITTEN;
 import static oap.message.MessageProtocol.STATUS_OK;
+import static oap.message.MessageProtocol.STATUS_UNKNOWN_ERROR;
 import static oap.message.MessageProtocol.STATUS_UNKNOWN_ERROR_NO_RETRY;
 import static oap.message.MessageProtocol.STATUS_UNKNOWN_MESSAGE_TYPE;
 import static oap.message.MessageProtocol.messageStatusToString;
@@ -88,6 +95,23 @@ import static oap.message.MessageProtocol.messageTypeToString;
  * </ul>
  * </ul>
  * <p>
+ * batch input protocol ({@link MessageProtocol#PROTOCOL_VERSION_2}):
+ * <ul>
+ * <li><b>byte</b>         - {@link MessageProtocol#BATCH_MESSAGE_TYPE}
+ * <li><b>short</b>        - protocol version
+ * <li><b>long</b>         - client id
+ * <li><b>int</b>          - message count
+ * <li><b>...</b>          - messages: byte type, short version, byte(16) id, int data size, data
+ * <li><b>int</b>          - crc32c of the messages
+ * </ul>
+ * <p>
+ * batch output protocol:
+ * <ul>
+ * <li><b>byte</b>         - protocol version
+ * <li><b>long</b>         - client id
+ * <li><b>int</b>          - message count
+ * <li><b>short[]</b>      - response status of every message, in the request order
+ * </ul>
  * <p>
  * Created by igor.petrenko on 2019-12-10.
  */
@@ -161,9 +185,15 @@ public class MessageHttpHandler implements HttpHandler, Closeable {
             var messageType = in.readByte();
             log.trace( "new message from {}", clientHostPort );
 
+            if( messageType == BATCH_MESSAGE_TYPE ) {
+                handleBatch( exchange, in, hostName, clientHostPort );
+                return;
+            }
+
             var messageVersion = in.readShort();
             var clientId = in.readLong();
-            final var md5 = Hex.encodeHexString( in.readNBytes( MD5_LENGTH ) ).intern();
+            var md5Bytes = in.readNBytes( MD5_LENGTH );
+            final var md5 = Hex.encodeHexString( md5Bytes ).intern();
 
             in.skipBytes( 8 ); // reserved
             var size = in.readInt();
@@ -171,50 +201,92 @@ public class MessageHttpHandler implements HttpHandler, Closeable {
             log.trace( "[{}] type {} version {} clientId {} md5 {} size '{}'",
                 clientHostPort, messageTypeToString( messageType ), messageVersion, clientId, md5, FileUtils.byteCountToDisplaySize( size ) );
 
-            //noinspection SynchronizationOnLocalVariableOrMethodParameter
-            synchronized( md5 ) {
-                if( !hashes.contains( messageType, md5 ) ) {
-                    var listener = map.get( messageType );
-                    if( listener == null ) {
-                        log.error( "[{}] Unknown message type {}", clientHostPort, messageType );
-                        in.skipNBytes( size );
-                        writeResponse( exchange, STATUS_UNKNOWN_MESSAGE_TYPE, clientId, md5 );
-                    } else {
-                        var data = in.readNBytes( size );
-                        short status;
-                        try {
-                            log.trace( "handler {}...", listener.getId() );
-                            status = listener.run( messageVersion, hostName, size, data, md5 );
-                            log.trace( "handler {}... Done. Status {}", listener.getId(), status );
-                        } catch( Throwable e ) {
-                            log.error( "[" + clientHostPort + "] " + e.getMessage(), e );
-                            Metrics.counter( "oap.server.messages", Tags.of( "type", messageTypeToString( messageType ), "status", messageStatusToString( STATUS_UNKNOWN_ERROR_NO_RETRY ) ) ).increment();
-                            writeResponse( exchange, STATUS_UNKNOWN_ERROR_NO_RETRY, clientId, md5 );
-
-                            return;
-                        }
-                        writeResponse( exchange, status, clientId, md5 );
-                        if( status == STATUS_OK ) {
-                            hashes.add( messageType, clientId, md5 );
-                            Metrics.counter( "oap.server.messages", Tags.of( "type", String.valueOf( Byte.toUnsignedInt( messageType ) ), "status", messageStatusToString( status ) ) ).increment();
-                        } else {
-                            log.trace( "[{}] WARN [{}/{}] buffer ({}, " + size + ") status == {}.)",
-                                clientHostPort, hostName, clientId, md5, messageStatusToString( status ) );
-                        }
-                    }
-                } else {
-                    log.warn( "[{}/{}] buffer ({}, {}) already written.)", clientHostPort, clientId, md5, size );
-                    Metrics.counter( "oap.server.messages", Tags.of( "type", messageTypeToString( messageType ), "status", messageStatusToString( STATUS_ALREADY_WRITTEN ) ) ).increment();
+            var status = handleMessage( clientHostPort, hostName, messageType, messageVersion, clientId, md5Bytes, md5, in, size );
+            writeResponse( exchange, status, clientId, md5 );
+        } catch( Throwable e ) {
+            log.error( e.getMessage(), e );
+            log.error( "exchange {}: {}", exchange, e.getMessage() );
+            throw e;
+        }
+    }
+
+    private void handleBatch( HttpServerExchange exchange, DataInputStream in, String hostName, String clientHostPort ) throws IOException {
+        var protocolVersion = in.readShort();
+        var clientId = in.readLong();
+        var count = in.readInt();
+        var frame = in.readAllBytes();
+
+        log.trace( "[{}] batch version {} clientId {} count {} size '{}'",
+            clientHostPort, protocolVersion, clientId, count, FileUtils.byteCountToDisplaySize( frame.length ) );
+
+        if( count < 0 || count > frame.length ) throw new IOException( "invalid batch size " + count );
+
+        var statuses = new short[count];
+
+        var crc = new CRC32C();
+        crc.update( frame, 0, Math.max( frame.length - 4, 0 ) );
+        if( protocolVersion != PROTOCOL_VERSION_2 || frame.length < 4
+            || ( int ) crc.getValue() != ByteBuffer.wrap( frame, frame.length - 4, 4 ).getInt() ) {
+            log.error( "[{}/{}] corrupted batch, version {} size {}", clientHostPort, clientId, protocolVersion, frame.length );
+            Arrays.fill( statuses, STATUS_UNKNOWN_ERROR );
+            writeBatchResponse( exchange, clientId, statuses );
+            return;
+        }
 
+        var messages = new DataInputStream( new ByteArrayInputStream( frame, 0, frame.length - 4 ) );
+        for( var i = 0; i < count; i++ ) {
+            var messageType = messages.readByte();
+            var messageVersion = messages.readShort();
+            var md5Bytes = messages.readNBytes( MD5_LENGTH );
+            var md5 = Hex.encodeHexString( md5Bytes ).intern();
+            var size = messages.readInt();
+
+            statuses[i] = handleMessage( clientHostPort, hostName, messageType, messageVersion, clientId, md5Bytes, md5, messages, size );
+        }
+
+        writeBatchResponse( exchange, clientId, statuses );
+    }
+
+    private short handleMessage( String clientHostPort, String hostName, byte messageType, short messageVersion,
+                                 long clientId, byte[] md5Bytes, String md5, DataInputStream in, int size ) throws IOException {
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized( md5 ) {
+            if( !hashes.contains( messageType, md5Bytes ) ) {
+                var listener = map.get( messageType );
+                if( listener == null ) {
+                    log.error( "[{}] Unknown message type {}", clientHostPort, messageType );
                     in.skipNBytes( size );
+                    return STATUS_UNKNOWN_MESSAGE_TYPE;
+                } else {
+                    var data = in.readNBytes( size );
+                    short status;
+                    try {
+                        log.trace( "handler {}...", listener.getId() );
+                        status = listener.run( messageVersion, hostName, size, data, md5 );
+                        log.trace( "handler {}... Done. Status {}", listener.getId(), status );
+                    } catch( Throwable e ) {
+                        log.error( "[" + clientHostPort + "] " + e.getMessage(), e );
+                        Metrics.counter( "oap.server.messages", Tags.of( "type", messageTypeToString( messageType ), "status", messageStatusToString( STATUS_UNKNOWN_ERROR_NO_RETRY ) ) ).increment();
 
-                    writeResponse( exchange, STATUS_ALREADY_WRITTEN, clientId, md5 );
+                        return STATUS_UNKNOWN_ERROR_NO_RETRY;
+                    }
+                    if( status == STATUS_OK ) {
+                        hashes.add( messageType, clientId, md5Bytes );
+                        Metrics.counter( "oap.server.messages", Tags.of( "type", String.valueOf( Byte.toUnsignedInt( messageType ) ), "status", messageStatusToString( status ) ) ).increment();
+                    } else {
+                        log.trace( "[{}] WARN [{}/{}] buffer ({}, " + size + ") status == {}.)",
+                            clientHostPort, hostName, clientId, md5, messageStatusToString( status ) );
+                    }
+                    return status;
                 }
+            } else {
+                log.warn( "[{}/{}] buffer ({}, {}) already written.)", clientHostPort, clientId, md5, size );
+                Metrics.counter( "oap.server.messages", Tags.of( "type", messageTypeToString( messageType ), "status", messageStatusToString( STATUS_ALREADY_WRITTEN ) ) ).increment();
+
+                in.skipNBytes( size );
+
+                return STATUS_ALREADY_WRITTEN;
             }
-        } catch( Throwable e ) {
-            log.error( e.getMessage(), e );
-            log.error( "exchange {}: {}", exchange, e.getMessage() );
-            throw e;
         }
     }
 
@@ -232,6 +304,19 @@ public class MessageHttpHandler implements HttpHandler, Closeable {
         exchange.endExchange();
     }
 
+    public void writeBatchResponse( HttpServerExchange exchange, long clientId, short[] statuses ) throws IOException {
+        exchange.setResponseHeader( CONTENT_TYPE, APPLICATION_OCTET_STREAM );
+        exchange.setStatusCode( HTTP_OK );
+
+        try( var out = new DataOutputStream( exchange.getOutputStream() ) ) {
+            out.writeByte( PROTOCOL_VERSION_2 );
+            out.writeLong( clientId );
+            out.writeInt( statuses.length );
+            for( var status : statuses ) out.writeShort( status );
+        }
+        exchange.endExchange();
+    }
+
     @Override
     public void close() {
         try {
@@ -24,6 +24,7 @@
 
 package oap.message;
 
+import oap.io.content.ContentWriter;
 import oap.message.server.MessageHashStorage;
 import oap.testng.Fixtures;
 import oap.testng.TestDirectoryFixture;
@@ -34,8 +35,9 @@ import org.joda.time.DateTimeUtils;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
 
-import static oap.testng.Asserts.assertFile;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
@@ -65,22 +67,52 @@ public class MessageHashStorageTest extends Fixtures {
         var path = testDirectoryFixture.testPath( "test" );
         mhs.store( path );
 
-        assertFile( path ).hasContent( """
-            ---
-            1 - 11
-            098f6bcd4621d373cade4e832627b4f6 - 12
-            5a105e8b9d40e1329780d62ea2265d8a - 456
-            ---
-            2 - 12
-            098f6bcd4621d373cade4e832627b4f6 - 124
-            """.stripIndent() );
-
         var path2 = testDirectoryFixture.testPath( "test2" );
         var mhs2 = new MessageHashStorage( 1024 );
         mhs2.load( path );
         mhs2.store( path2 );
 
-        assertFile( path2 ).hasContent( """
+        assertThat( mhs2.size() ).isEqualTo( 3 );
+        assertTrue( mhs2.contains( ( byte ) 1, md51 ) );
+        assertTrue( mhs2.contains( ( byte ) 1, md52 ) );
+        assertTrue( mhs2.contains( ( byte ) 2, md51 ) );
+        assertFalse( mhs2.contains( ( byte ) 2, md52 ) );
+        assertThat( Files.readAllBytes( path2 ) ).isEqualTo( Files.readAllBytes( path ) );
+
+        DateTimeUtils.setCurrentMillisFixed( 456 + 200 );
+        mhs2.update( 250 );
+        assertFalse( mhs2.contains( ( byte ) 1, md51 ) );
+        assertTrue( mhs2.contains( ( byte ) 1, md52 ) );
+        assertFalse( mhs2.contains( ( byte ) 2, md51 ) );
+    }
+
+    @Test
+    public void testLoadTruncated() throws IOException, DecoderException {
+        var md5 = DigestUtils.getMd5Digest();
+        var mhs = new MessageHashStorage( 1024 );
+        mhs.add( ( byte ) 1, 11, Hex.encodeHexString( md5.digest( "test".getBytes() ) ) );
+        mhs.add( ( byte ) 1, 11, Hex.encodeHexString( md5.digest( "test1".getBytes() ) ) );
+        mhs.add( ( byte ) 2, 12, Hex.encodeHexString( md5.digest( "test".getBytes() ) ) );
+
+        var path = testDirectoryFixture.testPath( "test" );
+        mhs.store( path );
+        byte[] snapshot = Files.readAllBytes( path );
+
+        var truncated = testDirectoryFixture.testPath( "truncated" );
+        for( var length : new int[] { 9, 12, 20, 30, 80, snapshot.length - 1 } ) {
+            Files.write( truncated, Arrays.copyOf( snapshot, length ) );
+
+            var mhs2 = new MessageHashStorage( 1024 );
+            mhs2.load( truncated );
+
+            assertThat( mhs2.size() ).isZero();
+        }
+    }
+
+    @Test
+    public void testLoadTextFormat() throws IOException, DecoderException {
+        var path = testDirectoryFixture.testPath( "test" );
+        oap.io.Files.write( path, """
             ---
             1 - 11
             098f6bcd4621d373cade4e832627b4f6 - 12
@@ -88,7 +120,16 @@ public class MessageHashStorageTest extends Fixtures {
             ---
             2 - 12
             098f6bcd4621d373cade4e832627b4f6 - 124
-            """.stripIndent() );
+            """.stripIndent(), ContentWriter.ofString() );
+
+        var mhs = new MessageHashStorage( 1024 );
+        mhs.load( path );
+
+        assertThat( mhs.size() ).isEqualTo( 3 );
+        assertTrue( mhs.contains( ( byte ) 1, "098f6bcd4621d373cade4e832627b4f6" ) );
+        assertTrue( mhs.contains( ( byte ) 1, "5a105e8b9d40e1329780d62ea2265d8a" ) );
+        assertTrue( mhs.contains( ( byte ) 2, "098f6bcd4621d373cade4e832627b4f6" ) );
+        assertFalse( mhs.contains( ( byte ) 2, "5a105e8b9d40e1329780d62ea2265d8a" ) );
     }
 
     @Test
@@ -27,12 +27,14 @@ package oap.message;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import oap.concurrent.Threads;
 import oap.message.server.MessageListener;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -42,12 +44,18 @@ public class MessageListenerMock implements MessageListener {
     public static final byte MESSAGE_TYPE = ( byte ) 0x7F;
     public static final byte MESSAGE_TYPE2 = ( byte ) 0x7E;
     public final AtomicLong accessCount = new AtomicLong();
+    /**
+     * messages being processed now and the maximum of it
+     */
+    public final AtomicInteger running = new AtomicInteger();
+    public final AtomicInteger maxRunning = new AtomicInteger();
     private final CopyOnWriteArrayList<TestMessage> messages = new CopyOnWriteArrayList<>();
     private final String infoPrefix;
     private final byte messageType;
     public int throwUnknownError = 0;
     public short status = MessageProtocol.STATUS_OK;
     public boolean noRetry = false;
+    public long delay = 0;
 
     public MessageListenerMock( byte messageType ) {
         this( "mock-message-listener-", messageType );
@@ -74,6 +82,13 @@ public class MessageListenerMock implements MessageListener {
             version, hostName, data, md5, status );
 
         accessCount.incrementAndGet();
+        maxRunning.accumulateAndGet( running.incrementAndGet(), Math::max );
+        try {
+            if( delay > 0 ) Threads.sleepSafely( delay );
+        } finally {
+            running.decrementAndGet();
+        }
+
         if( throwUnknownError > 0 ) {
             log.debug( "throwUnknownError {} noRetry {}", throwUnknownError, noRetry );
             throwUnknownError -= 1;
@@ -115,6 +130,7 @@ public class MessageListenerMock implements MessageListener {
         throwUnknownError = 0;
         status = MessageProtocol.STATUS_OK;
         noRetry = false;
+        delay = 0;
     }
 
     @ToString
@@ -44,14 +44,18 @@ import org.testng.annotations.Test;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static oap.io.content.ContentWriter.ofJson;
 import static oap.io.content.ContentWriter.ofString;
+import static oap.testng.Asserts.assertEventually;
 import static oap.testng.Asserts.urlOfTestResource;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.testng.Assert.assertNotNull;
 
 @Test
@@ -161,6 +165,99 @@ public class MessageServerTest extends Fixtures {
         }
     }
 
+    @Test
+    public void sendAndReceiveBatch() throws IOException {
+        int port = Ports.getFreePort( getClass() );
+        Path controlStatePath = testDirectoryFixture.testPath( "controlStatePath.st" );
+
+        var listener1 = new MessageListenerMock( MessageListenerMock.MESSAGE_TYPE );
+        var listener2 = new MessageListenerMock( MessageListenerMock.MESSAGE_TYPE2 );
+
+        try( var server = new NioHttpServer( new NioHttpServer.DefaultPort( port ) );
+             var messageHttpHandler = new MessageHttpHandler( server, "/messages", controlStatePath, List.of( listener1, listener2 ), -1 );
+             var client = new MessageSender( "localhost", port, "/messages", testDirectoryFixture.testPath( "tmp" ), -1 );
+             var clientV1 = new MessageSender( "localhost", port, "/messages", testDirectoryFixture.testPath( "tmp-v1" ), -1 ) ) {
+
+            client.batchSize = 3;
+
+            server.bind( "/messages", messageHttpHandler );
+            client.start();
+            clientV1.start();
+            messageHttpHandler.preStart();
+            server.start();
+
+            client
+                .send( MessageListenerMock.MESSAGE_TYPE, ( short ) 1, "sendAndReceiveBatch 1", ofString() )
+                .send( MessageListenerMock.MESSAGE_TYPE, ( short ) 1, "sendAndReceiveBatch 2", ofString() )
+                .send( MessageListenerMock.MESSAGE_TYPE, ( short ) 1, "sendAndReceiveBatch 2", ofString() )
+                .send( MessageListenerMock.MESSAGE_TYPE, ( short ) 1, "sendAndReceiveBatch 1", ofString() )
+                .send( MessageListenerMock.MESSAGE_TYPE2, ( short ) 2, "sendAndReceiveBatch 3", ofString() )
+                .syncMemory( Dates.s( 10 ) );
+            clientV1
+                .send( MessageListenerMock.MESSAGE_TYPE, ( short ) 1, "sendAndReceiveBatch v1", ofString() )
+                .syncMemory( Dates.s( 10 ) );
+
+            assertThat( listener1.getMessages() )
+                .extracting( m -> m.data )
+                .containsOnly( "sendAndReceiveBatch 1", "sendAndReceiveBatch 2", "sendAndReceiveBatch v1" );
+            assertThat( listener2.getMessages() )
+                .extracting( m -> m.version, m -> m.data )
+                .containsOnly( tuple( 2, "sendAndReceiveBatch 3" ) );
+
+            assertThat( client.getReadyMessages() ).isEqualTo( 0L );
+            assertThat( client.getRetryMessages() ).isEqualTo( 0L );
+            assertThat( clientV1.getReadyMessages() ).isEqualTo( 0L );
+        }
+    }
+
+    @Test
+    public void sendVirtualThreadsSlowServer() throws IOException {
+        int port = Ports.getFreePort( getClass() );
+        Path controlStatePath = testDirectoryFixture.testPath( "controlStatePath.st" );
+
+        var slow = new MessageListenerMock( MessageListenerMock.MESSAGE_TYPE );
+        var fast = new MessageListenerMock( MessageListenerMock.MESSAGE_TYPE2 );
+        slow.delay = 200;
+
+        try( var server = new NioHttpServer( new NioHttpServer.DefaultPort( port ) );
+             var messageHttpHandler = new MessageHttpHandler( server, "/messages", controlStatePath, List.of( slow, fast ), -1 );
+             var client = new MessageSender( "localhost", port, "/messages", testDirectoryFixture.testPath( "tmp" ), -1 ) ) {
+
+            client.virtualThreads = true;
+            client.inFlightWindow = 16;
+            client.poolSize = 64;
+
+            server.bind( "/messages", messageHttpHandler );
+            client.start();
+            messageHttpHandler.preStart();
+            server.start();
+
+            for( var i = 0; i < 32; i++ ) {
+                client.send( MessageListenerMock.MESSAGE_TYPE, ( short ) 1, "slow " + i, ofString() );
+                client.send( MessageListenerMock.MESSAGE_TYPE2, ( short ) 1, "fast " + i, ofString() );
+            }
+
+            client.syncMemory();
+            // the window of the slow message type is full, the rest is sent on the next sync
+            assertThat( client.getReadyMessages() ).isEqualTo( 16 );
+
+            // the slow message type does not block the other one
+            assertEventually( 10, 100, () -> assertThat( fast.getMessages() ).hasSize( 32 ) );
+
+            assertEventually( 50, 100, () -> {
+                client.syncMemory();
+                assertThat( slow.getMessages() ).hasSize( 32 );
+            } );
+
+            // sent in parallel, but not more than the window
+            assertThat( slow.maxRunning.get() ).isGreaterThan( 1 ).isLessThanOrEqualTo( 16 );
+
+            assertEventually( 10, 100, () -> assertThat( client.getInProgressMessages() ).isEqualTo( 0 ) );
+            assertThat( client.getReadyMessages() ).isEqualTo( 0L );
+            assertThat( client.getRetryMessages() ).isEqualTo( 0L );
+        }
+    }
+
     @Test
     public void sendAndReceiveJson() throws IOException {
         int port = Ports.getFreePort( getClass() );
@@ -490,6 +587,87 @@ public class MessageServerTest extends Fixtures {
         }
     }
 
+    @Test
+    public void clientJournal() throws IOException {
+        int port = Ports.getFreePort( getClass() );
+        Path controlStatePath = testDirectoryFixture.testPath( "controlStatePath.st" );
+
+        var listener1 = new MessageListenerMock( MessageListenerMock.MESSAGE_TYPE );
+        var listener2 = new MessageListenerMock( MessageListenerMock.MESSAGE_TYPE2 );
+
+        try( var server = new NioHttpServer( new NioHttpServer.DefaultPort( port ) );
+             var messageHttpHandler = new MessageHttpHandler( server, "/messages", controlStatePath, List.of( listener1, listener2 ), -1 ) ) {
+
+            server.bind( "/messages", messageHttpHandler );
+            messageHttpHandler.preStart();
+            server.start();
+
+            listener1.throwUnknownError( 1, false );
+
+            Path journalDirectory = testDirectoryFixture.testPath( "journal" );
+            Path crashDirectory = testDirectoryFixture.testPath( "journal-crash" );
+
+            try( var client = new MessageSender( "localhost", port, "/messages", testDirectoryFixture.testPath( "tmp" ), -1 ) ) {
+                client.retryTimeout = 100;
+                client.journalDirectory = journalDirectory;
+                client.start();
+
+                client.send( MessageListenerMock.MESSAGE_TYPE, ( short ) 2, "clientJournal 1", ofString() );
+                client.send( MessageListenerMock.MESSAGE_TYPE2, ( short ) 2, "clientJournal 2", ofString() );
+                client.syncMemory( Dates.s( 10 ) );
+
+                assertThat( listener1.getMessages() ).isEmpty();
+                assertThat( listener2.getMessages() ).containsOnly( new TestMessage( 2, "clientJournal 2" ) );
+                assertThat( client.getRetryMessages() ).isEqualTo( 1L );
+
+                // the process is killed, the unsent message is already in the journal
+                Files.copyDirectory( journalDirectory, crashDirectory );
+            }
+
+            assertThat( journalDirectory ).isNotEmptyDirectory();
+
+            try( var client = new MessageSender( "localhost", port, "/messages", testDirectoryFixture.testPath( "tmp" ), -1 ) ) {
+                client.retryTimeout = 100;
+                client.journalDirectory = crashDirectory;
+                client.start();
+
+                assertThat( client.getReadyMessages() ).isEqualTo( 1L );
+
+                client.syncMemory( Dates.s( 10 ) );
+
+                assertThat( listener1.getMessages() ).containsOnly( new TestMessage( 2, "clientJournal 1" ) );
+                assertThat( listener2.getMessages() ).containsOnly( new TestMessage( 2, "clientJournal 2" ) );
+                assertThat( client.getReadyMessages() ).isEqualTo( 0L );
+                assertThat( client.getRetryMessages() ).isEqualTo( 0L );
+            }
+
+            assertThat( crashDirectory ).isEmptyDirectory();
+        }
+    }
+
+    @Test
+    public void clientJournalAfterClose() throws IOException {
+        int port = Ports.getFreePort( getClass() );
+        Path journalDirectory = testDirectoryFixture.testPath( "journal" );
+
+        var client = new MessageSender( "localhost", port, "/messages", testDirectoryFixture.testPath( "tmp" ), -1 );
+        client.retryTimeout = 100;
+        client.journalDirectory = journalDirectory;
+        client.start();
+
+        client.send( MessageListenerMock.MESSAGE_TYPE, ( short ) 2, "clientJournalAfterClose 1", ofString() );
+        client.close();
+
+        Map<Path, byte[]> journal = new HashMap<>();
+        for( var path : Files.wildcard( journalDirectory, "*.journal" ) ) journal.put( path, Files.read( path ) );
+        assertThat( journal ).isNotEmpty();
+
+        assertThatCode( () -> client.send( MessageListenerMock.MESSAGE_TYPE, ( short ) 2, "clientJournalAfterClose 2", ofString() ) )
+            .doesNotThrowAnyException();
+
+        assertThat( journal ).allSatisfy( ( path, content ) -> assertThat( Files.read( path ) ).isEqualTo( content ) );
+    }
+
     @Test
     public void clientPersistenceLockExpiration() throws IOException {
         int port = Ports.getFreePort( getClass() );
@@ -0,0 +1,302 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.statsdb;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.base.Preconditions;
+import lombok.SneakyThrows;
+import oap.json.Binder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Compact binary form of {@link RemoteStatsDB.Sync}.
+ * <p>
+ * Key paths are encoded as indices into a per-message dictionary of keys.
+ * Values with primitive fields only are written as a bitmask of the fields that differ from a fresh instance
+ * followed by these fields (zigzag varints for integers), other values fall back to json.
+ * Node and master must share the value classes of the {@link NodeSchema}.
+ */
+public final class BinarySync {
+    public static final byte FORMAT = 1;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_FIELDS = 1;
+    private static final byte VALUE_JSON = 2;
+
+    private static final ClassValue<Layout> layouts = new ClassValue<>() {
+        @Override
+        protected Layout computeValue( Class<?> type ) {
+            return Layout.of( type );
+        }
+    };
+
+    private BinarySync() {
+    }
+
+    @SneakyThrows
+    public static byte[] encode( RemoteStatsDB.Sync sync ) {
+        var dictionary = new HashMap<String, Integer>();
+        var keys = new ArrayList<String>();
+        for( var nodeIdNode : sync.data ) {
+            for( var key : nodeIdNode.nodeId ) {
+                if( dictionary.putIfAbsent( key, keys.size() ) == null ) keys.add( key );
+            }
+        }
+
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream( bytes );
+
+        out.writeByte( FORMAT );
+        out.writeBoolean( sync.id != null );
+        if( sync.id != null ) out.writeUTF( sync.id );
+
+        writeVarInt( out, keys.size() );
+        for( var key : keys ) out.writeUTF( key );
+
+        writeVarInt( out, sync.data.size() );
+        for( var nodeIdNode : sync.data ) {
+            var nodeId = nodeIdNode.nodeId;
+            writeVarInt( out, nodeId.size() );
+            for( var key : nodeId ) writeVarInt( out, dictionary.get( key ) );
+
+            writeValue( out, nodeIdNode.node.v );
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param consumer key path and value of every node of the sync, in the order of {@link RemoteStatsDB.Sync#data}
+     * @return sync id
+     */
+    @SneakyThrows
+    public static String decode( byte[] data, NodeSchema schema, BiConsumer<String[], Node.Value> consumer ) {
+        var in = new DataInputStream( new ByteArrayInputStream( data ) );
+
+        var format = in.readByte();
+        Preconditions.checkArgument( format == FORMAT, "unknown format %s", format );
+
+        var id = in.readBoolean() ? in.readUTF() : null;
+
+        var keys = new String[readVarInt( in )];
+        for( var i = 0; i < keys.length; i++ ) keys[i] = in.readUTF().intern();
+
+        var count = readVarInt( in );
+        for( var i = 0; i < count; i++ ) {
+            var path = new String[readVarInt( in )];
+            for( var k = 0; k < path.length; k++ ) path[k] = keys[readVarInt( in )];
+
+            consumer.accept( path, readValue( in, schema.get( path.length - 1 ).clazz ) );
+        }
+
+        return id;
+    }
+
+    private static void writeValue( DataOutputStream out, Node.Value value ) throws IOException {
+        if( value == null ) {
+            out.writeByte( VALUE_NULL );
+            return;
+        }
+
+        var layout = layouts.get( value.getClass() );
+        if( layout.fields == null ) {
+            out.writeByte( VALUE_JSON );
+            var json = Binder.json.marshal( value ).getBytes( StandardCharsets.UTF_8 );
+            writeVarInt( out, json.length );
+            out.write( json );
+            return;
+        }
+
+        out.writeByte( VALUE_FIELDS );
+
+        var bits = new long[layout.fields.length];
+        long mask = 0;
+        for( var i = 0; i < bits.length; i++ ) {
+            bits[i] = layout.get( value, i );
+            if( bits[i] != layout.defaults[i] ) mask |= 1L << i;
+        }
+
+        writeVarLong( out, mask );
+        for( var i = 0; i < bits.length; i++ ) {
+            if( ( mask & ( 1L << i ) ) == 0 ) continue;
+
+            var type = layout.fields[i].getType();
+            if( type == double.class ) out.writeLong( bits[i] );
+            else if( type == float.class ) out.writeInt( ( int ) bits[i] );
+            else if( type != boolean.class ) writeVarLong( out, ( bits[i] << 1 ) ^ ( bits[i] >> 63 ) );
+        }
+    }
+
+    private static Node.Value readValue( DataInputStream in, Class<? extends Node.Value> clazz ) throws IOException, ReflectiveOperationException {
+        var kind = in.readByte();
+        switch( kind ) {
+            case VALUE_NULL -> {
+                return null;
+            }
+            case VALUE_JSON -> {
+                var json = new byte[readVarInt( in )];
+                in.readFully( json );
+                return Binder.json.unmarshal( clazz, new ByteArrayInputStream( json ) );
+            }
+            case VALUE_FIELDS -> {
+                var layout = layouts.get( clazz );
+                Preconditions.checkState( layout.fields != null, "%s has non-primitive fields", clazz );
+
+                var value = clazz.getDeclaredConstructor().newInstance();
+                var mask = readVarLong( in );
+                for( var i = 0; i < layout.fields.length; i++ ) {
+                    if( ( mask & ( 1L << i ) ) == 0 ) continue;
+
+                    var type = layout.fields[i].getType();
+                    long bits;
+                    if( type == double.class ) bits = in.readLong();
+                    else if( type == float.class ) bits = in.readInt();
+                    else if( type == boolean.class ) bits = layout.defaults[i] == 0 ? 1 : 0;
+                    else {
+                        var zigzag = readVarLong( in );
+                        bits = ( zigzag >>> 1 ) ^ -( zigzag & 1 );
+                    }
+                    layout.set( value, i, bits );
+                }
+                return value;
+            }
+            default -> throw new IllegalArgumentException( "unknown value kind " + kind );
+        }
+    }
+
+    private static void writeVarInt( DataOutputStream out, int value ) throws IOException {
+        writeVarLong( out, value & 0xFFFFFFFFL );
+    }
+
+    private static void writeVarLong( DataOutputStream out, long value ) throws IOException {
+        while( ( value & ~0x7FL ) != 0 ) {
+            out.writeByte( ( int ) ( value & 0x7F ) | 0x80 );
+            value >>>= 7;
+        }
+        out.writeByte( ( int ) value );
+    }
+
+    private static int readVarInt( DataInputStream in ) throws IOException {
+        return ( int ) readVarLong( in );
+    }
+
+    private static long readVarLong( DataInputStream in ) throws IOException {
+        long value = 0;
+        for( var shift = 0; shift < 64; shift += 7 ) {
+            var b = in.readUnsignedByte();
+            value |= ( long ) ( b & 0x7F ) << shift;
+            if( ( b & 0x80 ) == 0 ) return value;
+        }
+        throw new IOException( "malformed varint" );
+    }
+
+    /**
+     * serialized fields of a value class in a stable order, fields == null if the class is not primitive-only
+     */
+    private static final class Layout {
+        final Field[] fields;
+        final long[] defaults;
+
+        private Layout( Field[] fields, long[] defaults ) {
+            this.fields = fields;
+            this.defaults = defaults;
+        }
+
+        static Layout of( Class<?> clazz ) {
+            var fields = new ArrayList<Field>();
+            for( var c = clazz; c != null && c != Object.class; c = c.getSuperclass() ) {
+                for( var field : c.getDeclaredFields() ) {
+                    var modifiers = field.getModifiers();
+                    if( Modifier.isStatic( modifiers ) || Modifier.isTransient( modifiers ) ) continue;
+                    if( field.isAnnotationPresent( JsonIgnore.class ) ) continue;
+
+                    if( !field.getType().isPrimitive() || field.getType() == char.class ) return new Layout( null, null );
+                    fields.add( field );
+                }
+            }
+            if( fields.size() > Long.SIZE ) return new Layout( null, null );
+
+            fields.sort( Comparator.comparing( ( Field f ) -> f.getDeclaringClass().getName() ).thenComparing( Field::getName ) );
+
+            try {
+                var array = fields.toArray( new Field[0] );
+                for( var field : array ) field.setAccessible( true );
+
+                var layout = new Layout( array, new long[array.length] );
+                var instance = clazz.getDeclaredConstructor().newInstance();
+                for( var i = 0; i < array.length; i++ ) layout.defaults[i] = layout.get( instance, i );
+
+                return layout;
+            } catch( ReflectiveOperationException | RuntimeException e ) {
+                return new Layout( null, null );
+            }
+        }
+
+        long get( Object value, int i ) {
+            try {
+                var field = fields[i];
+                var type = field.getType();
+                if( type == long.class ) return field.getLong( value );
+                if( type == int.class ) return field.getInt( value );
+                if( type == short.class ) return field.getShort( value );
+                if( type == byte.class ) return field.getByte( value );
+                if( type == boolean.class ) return field.getBoolean( value ) ? 1 : 0;
+                if( type == double.class ) return Double.doubleToRawLongBits( field.getDouble( value ) );
+                return Float.floatToRawIntBits( field.getFloat( value ) );
+            } catch( IllegalAccessException e ) {
+                throw new IllegalStateException( e );
+            }
+        }
+
+        void set( Object value, int i, long bits ) {
+            try {
+                var field = fields[i];
+                var type = field.getType();
+                if( type == long.class ) field.setLong( value, bits );
+                else if( type == int.class ) field.setInt( value, ( int ) bits );
+                else if( type == short.class ) field.setShort( value, ( short ) bits );
+                else if( type == byte.class ) field.setByte( value, ( byte ) bits );
+                else if( type == boolean.class ) field.setBoolean( value, bits != 0 );
+                else if( type == double.class ) field.setDouble( value, Double.longBitsToDouble( bits ) );
+                else field.setFloat( value, Float.intBitsToFloat( ( int ) bits ) );
+            } catch( IllegalAccessException e ) {
+                throw new IllegalStateException( e );
+            }
+        }
+    }
+}
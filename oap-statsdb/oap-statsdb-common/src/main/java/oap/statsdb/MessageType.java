@@ -3,4 +3,10 @@ package oap.statsdb;
 @SuppressWarnings( "checkstyle:InterfaceIsType" )
 public interface MessageType {
     byte MESSAGE_TYPE = 10;
+
+    /**
+     * message versions of {@link #MESSAGE_TYPE}
+     */
+    short VERSION_JSON = 1;
+    short VERSION_BINARY = 2;
 }
@@ -25,6 +25,7 @@
 package oap.statsdb;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.databind.annotation.JsonTypeIdResolver;
 import com.google.common.base.Preconditions;
@@ -56,6 +57,11 @@ public class Node implements Serializable {
     public Value v;
     public long ct;
     public long mt;
+    /**
+     * last modification time of the node or any node below it, not persisted
+     */
+    @JsonIgnore
+    public transient volatile long tmt;
 
     public Node( Value v ) {
         this( DateTimeUtils.currentTimeMillis(), v );
@@ -104,13 +110,20 @@ public class Node implements Serializable {
         return ( V ) obj.v;
     }
 
-    @SuppressWarnings( "unchecked" )
     public boolean merge( Node node ) {
+        return merge( node.v );
+    }
+
+    /**
+     * @return false if the value cannot be merged
+     */
+    @SuppressWarnings( "unchecked" )
+    public synchronized boolean merge( Value value ) {
         mt = DateTimeUtils.currentTimeMillis();
-        if( v == null ) v = node.v;
+        if( v == null ) v = value;
         else {
             try {
-                if( node.v != null ) v.merge( node.v );
+                if( value != null ) v.merge( value );
             } catch( Throwable t ) {
                 log.error( t.getMessage(), t );
 
@@ -27,10 +27,12 @@ package oap.statsdb;
 import lombok.AllArgsConstructor;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
+import org.joda.time.DateTimeUtils;
 
 import java.io.Serializable;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -41,6 +43,11 @@ import static java.util.stream.Collectors.toList;
 public abstract class StatsDB extends IStatsDB {
     protected final NodeSchema schema;
     protected volatile ConcurrentHashMap<String, Node> db = new ConcurrentHashMap<>();
+    /**
+     * updates hold the read lock while they change a value and touch its path, {@link #storeTime()} takes
+     * the write lock only to read the clock. Not reentrant, an update must not start another update.
+     */
+    private final StampedLock storeBarrier = new StampedLock();
 
     public StatsDB( NodeSchema schema ) {
         this.schema = schema;
@@ -68,7 +75,7 @@ public abstract class StatsDB extends IStatsDB {
 
         var rootKey = key[0];
 
-        db.compute( rootKey, ( k, n ) -> {
+        updateAtomically( () -> db.compute( rootKey, ( k, n ) -> {
             Node newNode = n;
             if( newNode == null ) {
                 newNode = new Node( schema.get( 0 ).newInstance() );
@@ -77,7 +84,32 @@ public abstract class StatsDB extends IStatsDB {
             updateNode( key, update, newNode, schema );
 
             return newNode;
-        } );
+        } ) );
+    }
+
+    /**
+     * runs the update of a value and the touch of its path as one step for {@link #storeTime()}
+     */
+    protected void updateAtomically( Runnable update ) {
+        long stamp = storeBarrier.readLock();
+        try {
+            update.run();
+        } finally {
+            storeBarrier.unlockRead( stamp );
+        }
+    }
+
+    /**
+     * the clock, read while no update is in progress: an update that a store started with this time does not see
+     * is stamped (mt, tmt) with this time or later, so the next store picks it up
+     */
+    protected long storeTime() {
+        long stamp = storeBarrier.writeLock();
+        try {
+            return DateTimeUtils.currentTimeMillis();
+        } finally {
+            storeBarrier.unlockWrite( stamp );
+        }
     }
 
     protected <V extends Node.Value<V>>
@@ -143,19 +175,29 @@ public abstract class StatsDB extends IStatsDB {
                                                                    Consumer<V> update,
                                                                    N node,
                                                                    NodeSchema schema ) {
-        Node tNode = node;
+        var path = new Node[key.length];
+        path[0] = node;
 
         for( int i = 1; i < key.length; i++ ) {
             var keyItem = key[i];
             var finalI = i;
-            tNode = tNode.db.computeIfAbsent( keyItem, k -> new Node( schema.get( finalI ).newInstance() ) );
+            path[i] = path[i - 1].db.computeIfAbsent( keyItem, k -> new Node( schema.get( finalI ).newInstance() ) );
         }
 
-        tNode.updateValue( update );
+        path[key.length - 1].updateValue( update );
+        touch( path );
 
         return node;
     }
 
+    /**
+     * marks the path as modified, bottom-up, so whoever sees a modified parent sees the modified children
+     */
+    protected static void touch( Node[] path ) {
+        var now = DateTimeUtils.currentTimeMillis();
+        for( var i = path.length - 1; i >= 0; i-- ) path[i].tmt = now;
+    }
+
     public synchronized void removeAll() {
         db.clear();
     }
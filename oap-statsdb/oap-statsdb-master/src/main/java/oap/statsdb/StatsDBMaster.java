@@ -31,10 +31,11 @@ import oap.util.Lists;
 import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 @Slf4j
 public class StatsDBMaster extends StatsDB implements Closeable, Runnable {
@@ -48,74 +49,42 @@ public class StatsDBMaster extends StatsDB implements Closeable, Runnable {
         init( db.values() );
     }
 
-    private void merge( String key, Node masterNode, Node rNode, List<List<String>> retList, int level ) {
-        if( log.isTraceEnabled() )
-            log.trace( "merge {}/{}[{}]::{}", schema.get( level ).key, schema.get( level ).clazz, level, key );
-        assert Objects.equals( masterNode.v.getClass(), rNode.v.getClass() )
-            : "[" + level + "]/" + key + "::" + masterNode.v.getClass() + " vs " + rNode.v.getClass();
+    /**
+     * merges the value straight into the live tree, concurrent merges are serialized per node only.
+     * Called through {@link #updateAtomically(Runnable)}
+     */
+    private void merge( String[] keys, Node.Value value, Set<Node> roots, List<List<String>> failedKeys ) {
+        if( log.isTraceEnabled() ) log.trace( "merge {}::{}", List.of( keys ), value );
 
-        var list = merge( masterNode.db, rNode.db, retList, level );
-        list.forEach( l -> l.add( 0, key ) );
+        var path = new Node[keys.length];
+        path[0] = db.computeIfAbsent( keys[0], _ -> new Node( schema.get( 0 ).newInstance() ) );
+        roots.add( path[0] );
 
-        retList.addAll( list );
-
-        var ret = masterNode.merge( rNode );
-        if( !ret ) {
-            var k = new ArrayList<String>();
-            k.add( key );
-            retList.add( k );
+        for( var i = 1; i < keys.length; i++ ) {
+            var level = i;
+            path[i] = path[i - 1].db.computeIfAbsent( keys[i], _ -> new Node( schema.get( level ).newInstance() ) );
         }
-    }
-
-    private List<List<String>> merge( Map<String, Node> masterDB, Map<String, Node> remoteDB, List<List<String>> retList, int level ) {
-        for( var entry : remoteDB.entrySet() ) {
-            var key = entry.getKey();
-            var rNode = entry.getValue();
-
-            var masterNode = masterDB.computeIfAbsent( key, k -> new Node( schema.get( level + 1 ).newInstance() ) );
-
-            merge( key, masterNode, rNode, retList, level + 1 );
-        }
-
-        return retList;
-    }
-
-    private List<List<String>> merge( ArrayList<Sync.NodeIdNode> remoteDB ) {
-        assert remoteDB != null;
 
-        var retList = new ArrayList<List<String>>();
+        var node = path[keys.length - 1];
 
-        var remoteDbTree = toTree( remoteDB );
+        assert value == null || node.v == null || Objects.equals( node.v.getClass(), value.getClass() )
+            : List.of( keys ) + "::" + node.v.getClass() + " vs " + value.getClass();
 
-        remoteDbTree.forEach( ( key, rnode ) -> {
-            var mnode = db.computeIfAbsent( key, k -> new Node( schema.get( 0 ).newInstance() ) );
-
-            merge( key, mnode, rnode, retList, 0 );
-            updateAggregates( mnode );
-        } );
-
-        return retList;
+        if( !node.merge( value ) ) failedKeys.add( List.of( keys ) );
+        touch( path );
     }
 
-    private Map<String, Node> toTree( ArrayList<Sync.NodeIdNode> remoteDB ) {
-        var ret = new HashMap<String, Node>();
-
-        for( var nodeIdNode : remoteDB ) {
-            var node = nodeIdNode.node;
-            var nodeId = nodeIdNode.nodeId;
-
-            Node treeNode = null;
-            for( var i = 0; i < nodeId.size(); i++ ) {
-                var key = nodeId.get( i );
-                var finalI = i;
-                treeNode = ( treeNode != null ? treeNode.db
-                    : ret ).computeIfAbsent( key, k -> new Node( schema.get( finalI ).newInstance() ) );
+    private void updateAggregates( Set<Node> roots, List<List<String>> failedKeys, String host ) {
+        for( var root : roots ) {
+            synchronized( root ) {
+                updateAggregates( root );
             }
-
-            treeNode.set( node );
         }
 
-        return ret;
+        if( !failedKeys.isEmpty() ) {
+            log.error( "failed keys:" );
+            failedKeys.forEach( key -> log.error( "[{}]: {}", host, key ) );
+        }
     }
 
     @SuppressWarnings( "unchecked" )
@@ -132,16 +101,36 @@ public class StatsDBMaster extends StatsDB implements Closeable, Runnable {
         assert sync != null;
         assert sync.data != null;
 
-        synchronized( host.intern() ) {
-            var failedKeys = merge( sync.data );
+        var roots = Collections.newSetFromMap( new IdentityHashMap<Node, Boolean>() );
+        var failedKeys = new ArrayList<List<String>>();
 
-            if( !failedKeys.isEmpty() ) {
-                log.error( "failed keys:" );
-                failedKeys.forEach( key -> log.error( "[{}]: {}", host, key ) );
-            }
+        for( var nodeIdNode : sync.data ) {
+            var nodeId = nodeIdNode.nodeId;
+            var keys = new String[nodeId.size()];
+            for( var i = 0; i < keys.length; i++ ) keys[i] = nodeId.get( i );
 
-            return true;
+            updateAtomically( () -> merge( keys, nodeIdNode.node.v, roots, failedKeys ) );
         }
+
+        updateAggregates( roots, failedKeys, host );
+
+        return true;
+    }
+
+    /**
+     * @param data sync in the {@link BinarySync} format
+     */
+    public boolean update( byte[] data, String host ) {
+        assert data != null;
+
+        var roots = Collections.newSetFromMap( new IdentityHashMap<Node, Boolean>() );
+        var failedKeys = new ArrayList<List<String>>();
+
+        BinarySync.decode( data, schema, ( keys, value ) -> updateAtomically( () -> merge( keys, value, roots, failedKeys ) ) );
+
+        updateAggregates( roots, failedKeys, host );
+
+        return true;
     }
 
     public void reset() {
@@ -151,11 +140,11 @@ public class StatsDBMaster extends StatsDB implements Closeable, Runnable {
 
     @Override
     public void close() {
-        storage.store( schema, db );
+        storage.store( schema, db, storeTime() );
     }
 
     @Override
     public void run() {
-        storage.store( schema, db );
+        storage.store( schema, db, storeTime() );
     }
 }
@@ -30,11 +30,17 @@ public class StatsDBMessageListener implements MessageListener {
 
     @Override
     public short run( int version, String hostName, int size, byte[] data, String md5 ) {
-        log.trace( "new stats version {} hostName {} size {} md5 {} data '{}'",
-            version, hostName, size, md5, new String( data ) );
+        if( version == MessageType.VERSION_BINARY ) {
+            log.trace( "new stats version {} hostName {} size {} md5 {}", version, hostName, size, md5 );
 
-        var sync = Binder.json.unmarshal( RemoteStatsDB.Sync.class, new ByteArrayInputStream( data ) );
-        master.update( sync, hostName );
+            master.update( data, hostName );
+        } else {
+            log.trace( "new stats version {} hostName {} size {} md5 {} data '{}'",
+                version, hostName, size, md5, new String( data ) );
+
+            var sync = Binder.json.unmarshal( RemoteStatsDB.Sync.class, new ByteArrayInputStream( data ) );
+            master.update( sync, hostName );
+        }
 
         return MessageProtocol.STATUS_OK;
     }
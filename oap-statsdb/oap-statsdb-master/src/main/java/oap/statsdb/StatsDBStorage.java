@@ -36,5 +36,12 @@ public interface StatsDBStorage {
 
     void store( NodeSchema schema, Map<String, Node> db );
 
+    /**
+     * @param now the time the store starts with, see {@link StatsDB#storeTime()}
+     */
+    default void store( NodeSchema schema, Map<String, Node> db, long now ) {
+        store( schema, db );
+    }
+
     void removeAll();
 }
@@ -1,6 +1,7 @@
 package oap.statsdb;
 
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.ReplaceOptions;
 import com.mongodb.client.model.WriteModel;
@@ -27,6 +28,7 @@ import static com.mongodb.client.model.Filters.eq;
 @Slf4j
 public class StatsDBStorageMongo implements StatsDBStorage, Closeable {
     private static final ReplaceOptions REPLACE_OPTIONS_UPSERT = new ReplaceOptions().upsert( true );
+    private static final BulkWriteOptions BULK_WRITE_OPTIONS_UNORDERED = new BulkWriteOptions().ordered( false );
 
     private final MongoCollection<MongoNode> collection;
     public int bulkSize = 1000;
@@ -81,15 +83,22 @@ public class StatsDBStorageMongo implements StatsDBStorage, Closeable {
 
     @Override
     public void store( NodeSchema schema, Map<String, Node> db ) {
+        store( schema, db, DateTimeUtils.currentTimeMillis() );
+    }
+
+    /**
+     * writes the nodes modified since the previous store. An update in progress while now is read
+     * may be missed by the traversal with an older mt, hence the caller reads now between updates.
+     */
+    @Override
+    public void store( NodeSchema schema, Map<String, Node> db, long now ) {
         log.debug( "store {}", schema );
         var count = 0;
 
-        var now = DateTimeUtils.currentTimeMillis();
-
         var bulk = new ArrayList<WriteModel<MongoNode>>();
         count += store( schema, 0, new HashMap<>(), db, bulk );
         if( !bulk.isEmpty() ) {
-            collection.bulkWrite( bulk );
+            collection.bulkWrite( bulk, BULK_WRITE_OPTIONS_UNORDERED );
             count += bulk.size();
         }
 
@@ -109,13 +118,16 @@ public class StatsDBStorageMongo implements StatsDBStorage, Closeable {
         var count = new MutableInt();
 
         db.forEach( ( key, value ) -> {
+            // nothing below was modified since the last store
+            if( value.tmt < lastFsync ) return;
+
             var newId = new HashMap<>( id );
             newId.put( schema.get( index ).key, key );
 
             if( value.mt >= lastFsync ) {
                 bulk.add( new ReplaceOneModel<>( eq( "_id", newId ), new MongoNode( newId, new Node( value.ct, value.mt, value.v ) ), REPLACE_OPTIONS_UPSERT ) );
                 if( bulk.size() >= bulkSize ) {
-                    collection.bulkWrite( bulk );
+                    collection.bulkWrite( bulk, BULK_WRITE_OPTIONS_UNORDERED );
                     count.add( bulk.size() );
                     bulk.clear();
                 }
@@ -24,6 +24,7 @@
 
 package oap.statsdb.node;
 
+import com.google.common.base.Preconditions;
 import lombok.extern.slf4j.Slf4j;
 import oap.statsdb.IStatsDB;
 import oap.statsdb.Node;
@@ -34,15 +35,22 @@ import oap.util.Cuid;
 
 import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
+/**
+ * With stripes &gt; 0 every thread updates its own copy of a node in one of the stripes,
+ * the copies are merged by {@link #sync()} before they are sent.
+ */
 @Slf4j
 public class StatsDBNode extends IStatsDB implements Runnable, Closeable {
     public final ConcurrentHashMap<NodeId, Node> nodes = new ConcurrentHashMap<>();
     protected final NodeSchema schema;
     private final StatsDBTransport transport;
     private final Cuid timestamp;
+    private final ConcurrentHashMap<StripeKey, Cell>[] stripes;
     public boolean lastSyncSuccess = false;
 
     public StatsDBNode( NodeSchema schema, StatsDBTransport transport ) {
@@ -50,9 +58,27 @@ public class StatsDBNode extends IStatsDB implements Runnable, Closeable {
     }
 
     public StatsDBNode( NodeSchema schema, StatsDBTransport transport, Cuid timestamp ) {
+        this( schema, transport, timestamp, 0 );
+    }
+
+    /**
+     * @param stripes 0 - all threads update the same nodes,
+     *                &gt; 0 - every thread updates the nodes of its stripe (thread id % stripes)
+     */
+    @SuppressWarnings( "unchecked" )
+    public StatsDBNode( NodeSchema schema, StatsDBTransport transport, Cuid timestamp, int stripes ) {
+        Preconditions.checkArgument( stripes >= 0, "stripes must be >= 0" );
+
         this.schema = schema;
         this.transport = transport;
         this.timestamp = timestamp;
+
+        if( stripes > 0 ) {
+            this.stripes = new ConcurrentHashMap[stripes];
+            for( var i = 0; i < stripes; i++ ) this.stripes[i] = new ConcurrentHashMap<>();
+        } else {
+            this.stripes = null;
+        }
     }
 
     public synchronized void sync() {
@@ -77,6 +103,26 @@ public class StatsDBNode extends IStatsDB implements Runnable, Closeable {
             nodes.remove( entry.getKey() );
         }
 
+        if( stripes != null ) {
+            var merged = new HashMap<StripeKey, Node>();
+            for( var stripe : stripes ) {
+                for( var entry : stripe.entrySet() ) {
+                    var cell = entry.getValue();
+                    synchronized( cell ) {
+                        cell.detached = true;
+                        stripe.remove( entry.getKey(), cell );
+                    }
+
+                    merged.merge( entry.getKey(), cell.node, ( n1, n2 ) -> {
+                        n1.merge( n2 );
+                        return n1;
+                    } );
+                }
+            }
+
+            merged.forEach( ( key, node ) -> ret.add( new RemoteStatsDB.Sync.NodeIdNode( new NodeId( key.keys ), node ) ) );
+        }
+
         return ret;
     }
 
@@ -88,10 +134,16 @@ public class StatsDBNode extends IStatsDB implements Runnable, Closeable {
     @Override
     public synchronized void removeAll() {
         nodes.clear();
+        if( stripes != null ) for( var stripe : stripes ) stripe.clear();
     }
 
     @Override
     protected <V extends Node.Value<V>> void update( String[] keys, Consumer<V> update ) {
+        if( stripes != null ) {
+            updateStriped( keys, update );
+            return;
+        }
+
         nodes.compute( new NodeId( keys ), ( nid, n ) -> {
             Node newNode = n;
             if( newNode == null ) newNode = new Node( schema.get( keys.length - 1 ).newInstance() );
@@ -101,9 +153,53 @@ public class StatsDBNode extends IStatsDB implements Runnable, Closeable {
         } );
     }
 
+    /**
+     * no NodeId and no map-wide lock per update, a cell is shared only by the threads of one stripe
+     */
+    private <V extends Node.Value<V>> void updateStriped( String[] keys, Consumer<V> update ) {
+        for( var key : keys ) Preconditions.checkNotNull( key );
+
+        var stripe = stripes[( int ) ( Thread.currentThread().threadId() % stripes.length )];
+        var stripeKey = new StripeKey( keys );
+
+        while( true ) {
+            var cell = stripe.get( stripeKey );
+            if( cell == null )
+                cell = stripe.computeIfAbsent( stripeKey, _ -> new Cell( new Node( schema.get( keys.length - 1 ).newInstance() ) ) );
+
+            synchronized( cell ) {
+                // taken by sync, the next update goes to a new cell
+                if( cell.detached ) continue;
+
+                cell.node.updateValue( update );
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return in the striped mode a copy of the value, merged from all stripes
+     */
     @Override
     @SuppressWarnings( "unchecked" )
     public <V extends Node.Value<V>> V get( String... key ) {
+        if( stripes != null ) {
+            var stripeKey = new StripeKey( key );
+            V result = null;
+            for( var stripe : stripes ) {
+                var cell = stripe.get( stripeKey );
+                if( cell == null ) continue;
+
+                synchronized( cell ) {
+                    if( cell.detached ) continue;
+
+                    if( result == null ) result = ( V ) schema.get( key.length - 1 ).newInstance();
+                    result = result.merge( ( V ) cell.node.v );
+                }
+            }
+            return result;
+        }
+
         var node = nodes.get( new NodeId( key ) );
         return node != null ? ( V ) node.v : null;
     }
@@ -113,4 +209,33 @@ public class StatsDBNode extends IStatsDB implements Runnable, Closeable {
         log.info( "close" );
         sync();
     }
+
+    private static final class StripeKey {
+        private final String[] keys;
+        private final int hash;
+
+        private StripeKey( String[] keys ) {
+            this.keys = keys;
+            this.hash = Arrays.hashCode( keys );
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            return o instanceof StripeKey stripeKey && hash == stripeKey.hash && Arrays.equals( keys, stripeKey.keys );
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Cell {
+        private final Node node;
+        private boolean detached;
+
+        private Cell( Node node ) {
+            this.node = node;
+        }
+    }
 }
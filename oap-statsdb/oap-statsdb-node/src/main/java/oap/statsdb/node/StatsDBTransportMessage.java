@@ -2,22 +2,36 @@ package oap.statsdb.node;
 
 import oap.io.content.ContentWriter;
 import oap.message.client.MessageSender;
+import oap.statsdb.BinarySync;
 import oap.statsdb.RemoteStatsDB;
 
 import static oap.statsdb.MessageType.MESSAGE_TYPE;
+import static oap.statsdb.MessageType.VERSION_BINARY;
 
 /**
  * Created by igor.petrenko on 2019-12-17.
  */
 public class StatsDBTransportMessage implements StatsDBTransport {
     private final MessageSender sender;
+    private final boolean binary;
 
     public StatsDBTransportMessage( MessageSender sender ) {
+        this( sender, false );
+    }
+
+    /**
+     * @param binary send syncs in the {@link BinarySync} format, the master has to support it
+     */
+    public StatsDBTransportMessage( MessageSender sender, boolean binary ) {
         this.sender = sender;
+        this.binary = binary;
     }
 
     @Override
     public void sendAsync( RemoteStatsDB.Sync sync ) {
-        sender.send( MESSAGE_TYPE, sync, ContentWriter.ofJson() );
+        if( binary ) {
+            var data = BinarySync.encode( sync );
+            sender.send( MESSAGE_TYPE, VERSION_BINARY, data, 0, data.length );
+        } else sender.send( MESSAGE_TYPE, sync, ContentWriter.ofJson() );
     }
 }
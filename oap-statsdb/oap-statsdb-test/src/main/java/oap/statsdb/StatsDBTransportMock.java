@@ -12,6 +12,7 @@ import java.util.function.Function;
 public class StatsDBTransportMock implements StatsDBTransport {
     public final ArrayList<RemoteStatsDB.Sync> syncs = new ArrayList<>();
     private final StatsDBMaster master;
+    private final boolean binary;
     private Function<RemoteStatsDB.Sync, RuntimeException> exceptionFunc;
 
     public StatsDBTransportMock() {
@@ -19,7 +20,12 @@ public class StatsDBTransportMock implements StatsDBTransport {
     }
 
     public StatsDBTransportMock( StatsDBMaster master ) {
+        this( master, false );
+    }
+
+    public StatsDBTransportMock( StatsDBMaster master, boolean binary ) {
         this.master = master;
+        this.binary = binary;
     }
 
     @Override
@@ -28,7 +34,10 @@ public class StatsDBTransportMock implements StatsDBTransport {
 
         syncs.add( sync );
 
-        if( master != null ) master.update( sync, Inet.HOSTNAME );
+        if( master != null ) {
+            if( binary ) master.update( BinarySync.encode( sync ), Inet.HOSTNAME );
+            else master.update( sync, Inet.HOSTNAME );
+        }
     }
 
     public void syncWithException( Function<RemoteStatsDB.Sync, RuntimeException> exceptionFunc ) {
@@ -0,0 +1,65 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.statsdb;
+
+import oap.statsdb.node.StatsDBNode;
+import oap.util.Cuid;
+import org.testng.annotations.Test;
+
+import static oap.benchmark.Benchmark.benchmark;
+import static oap.statsdb.NodeSchema.nc;
+
+/**
+ * update throughput of the same counters vs number of threads, default (shared nodes) vs striped nodes
+ */
+@Test( enabled = false )
+public class StatsDBNodePerformance {
+    private static final NodeSchema SCHEMA = new NodeSchema(
+        nc( "n1", StatsDBTest.MockChild2.class ),
+        nc( "n2", StatsDBTest.MockValue.class ) );
+    private static final String[] KEYS = { "k0", "k1", "k2", "k3", "k4", "k5", "k6", "k7" };
+    private static final int SAMPLES = 10_000_000;
+
+    @Test( enabled = false )
+    public void update() {
+        for( var threads : new int[] { 1, 4, 16, 64 } ) {
+            run( "default", threads, 0 );
+            run( "striped", threads, Runtime.getRuntime().availableProcessors() * 4 );
+        }
+    }
+
+    private static void run( String name, int threads, int stripes ) {
+        var node = new StatsDBNode( SCHEMA, new StatsDBTransportMock(), Cuid.UNIQUE, stripes );
+
+        benchmark( name, SAMPLES, i -> {
+            node.<StatsDBTest.MockValue>update( "k1", KEYS[i & 7], c -> c.v += 1 );
+            node.<StatsDBTest.MockChild2>update( "k1", c -> c.vc += 1 );
+        } )
+            .threads( threads )
+            .experiments( 3 )
+            .afterExperiment( node::sync )
+            .run();
+    }
+}
@@ -25,9 +25,11 @@
 package oap.statsdb;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.util.concurrent.Uninterruptibles;
 import lombok.EqualsAndHashCode;
 import lombok.ToString;
 import oap.http.server.nio.NioHttpServer;
+import oap.json.Binder;
 import oap.message.MessageSenderUtils;
 import oap.message.client.MessageSender;
 import oap.message.server.MessageHttpHandler;
@@ -39,12 +41,17 @@ import oap.testng.Ports;
 import oap.testng.SystemTimerFixture;
 import oap.testng.TestDirectoryFixture;
 import oap.util.Cuid;
+import org.bson.Document;
 import org.joda.time.DateTimeUtils;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static oap.statsdb.NodeSchema.nc;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -156,6 +163,72 @@ public class StatsDBTest extends Fixtures {
         }
     }
 
+    @Test
+    public void persistMasterModifiedOnly() {
+        var collection = MONGO_FIXTURE.client().getCollection( "test" );
+
+        DateTimeUtils.setCurrentMillisFixed( 50 );
+        try( var masterStorage = new StatsDBStorageMongo( MONGO_FIXTURE.client(), "test" );
+             StatsDBMaster master = new StatsDBMaster( schema3, masterStorage ) ) {
+            DateTimeUtils.setCurrentMillisFixed( 100 );
+            master.<MockValue>update( "k1", "k2", "k3", c -> c.v += 1 );
+            master.<MockValue>update( "k1", "k22", "k3", c -> c.v += 1 );
+            DateTimeUtils.setCurrentMillisFixed( 150 );
+            master.run();
+            assertThat( collection.countDocuments() ).isEqualTo( 5 );
+
+            collection.deleteMany( new Document() );
+
+            // only the modified leaf, its parents are walked but not written
+            DateTimeUtils.setCurrentMillisFixed( 200 );
+            master.<MockValue>update( "k1", "k2", "k3", c -> c.v += 1 );
+            master.run();
+            assertThat( collection.countDocuments() ).isEqualTo( 1 );
+        }
+
+        try( var masterStorage = new StatsDBStorageMongo( MONGO_FIXTURE.client(), "test" );
+             StatsDBMaster master = new StatsDBMaster( schema3, masterStorage ) ) {
+            assertThat( master.<MockValue>get( "k1", "k2", "k3" ).v ).isEqualTo( 2 );
+            assertThat( master.<MockValue>get( "k1", "k22", "k3" ) ).isNull();
+        }
+    }
+
+    @Test
+    public void persistMasterStoreDuringUpdate() throws Exception {
+        try( var masterStorage = new StatsDBStorageMongo( MONGO_FIXTURE.client(), "test" );
+             StatsDBMaster master = new StatsDBMaster( schema3, masterStorage ) ) {
+            master.<MockValue>update( "k1", "k2", "k3", c -> c.v += 1 );
+            master.run();
+
+            var inUpdate = new CountDownLatch( 1 );
+            var release = new CountDownLatch( 1 );
+            var update = CompletableFuture.runAsync( () -> master.<MockValue>update( "k1", "k2", "k3", c -> {
+                c.v += 1;
+                inUpdate.countDown();
+                Uninterruptibles.awaitUninterruptibly( release );
+            } ) );
+            inUpdate.await();
+
+            // the store starts in the middle of the update and waits for it
+            var store = CompletableFuture.runAsync( master );
+            Thread.sleep( 100 );
+            assertThat( store ).isNotDone();
+
+            release.countDown();
+            update.get( 10, TimeUnit.SECONDS );
+            store.get( 10, TimeUnit.SECONDS );
+
+            master.<MockValue>update( "k1", "k22", "k3", c -> c.v += 1 );
+            master.run();
+        }
+
+        try( var masterStorage = new StatsDBStorageMongo( MONGO_FIXTURE.client(), "test" );
+             StatsDBMaster master = new StatsDBMaster( schema3, masterStorage ) ) {
+            assertThat( master.<MockValue>get( "k1", "k2", "k3" ).v ).isEqualTo( 2 );
+            assertThat( master.<MockValue>get( "k1", "k22", "k3" ).v ).isEqualTo( 1 );
+        }
+    }
+
     @Test
     public void sync() {
         try( var masterStorage = new StatsDBStorageMongo( MONGO_FIXTURE.client(), "test" );
@@ -184,6 +257,96 @@ public class StatsDBTest extends Fixtures {
         }
     }
 
+    @Test
+    public void syncStriped() throws InterruptedException {
+        try( var master = new StatsDBMaster( schema2, StatsDBStorage.NULL );
+             var node = new StatsDBNode( schema2, new StatsDBTransportMock( master ), Cuid.UNIQUE, 4 ) ) {
+            var threads = new ArrayList<Thread>();
+            for( var t = 0; t < 8; t++ ) {
+                threads.add( Thread.ofPlatform().start( () -> {
+                    for( var i = 0; i < 1000; i++ ) {
+                        node.<MockValue>update( "k1", "k2", c -> c.v += 1 );
+                        node.<MockChild2>update( "k1", c -> c.vc += 2 );
+                    }
+                } ) );
+            }
+            for( var thread : threads ) thread.join();
+
+            assertThat( node.<MockValue>get( "k1", "k2" ).v ).isEqualTo( 8000L );
+
+            node.sync();
+            assertThat( node.<MockValue>get( "k1", "k2" ) ).isNull();
+            assertThat( master.<MockValue>get( "k1", "k2" ).v ).isEqualTo( 8000L );
+            assertThat( master.<MockChild2>get( "k1" ).vc ).isEqualTo( 16000L );
+
+            node.<MockValue>update( "k1", "k2", c -> c.v += 10 );
+            node.sync();
+            assertThat( master.<MockValue>get( "k1", "k2" ).v ).isEqualTo( 8010L );
+        }
+    }
+
+    @Test
+    public void binarySync() {
+        var child = new MockChild2();
+        child.vc = 20;
+        child.sum = 5;
+
+        var data = new ArrayList<RemoteStatsDB.Sync.NodeIdNode>();
+        data.add( new RemoteStatsDB.Sync.NodeIdNode( new NodeId( "k1" ), new Node( child ) ) );
+        data.add( new RemoteStatsDB.Sync.NodeIdNode( new NodeId( "k1", "k2" ), new Node( new MockValue( -10 ) ) ) );
+        data.add( new RemoteStatsDB.Sync.NodeIdNode( new NodeId( "k1", "k3" ), new Node( new MockValue() ) ) );
+        var sync = new RemoteStatsDB.Sync( data, "id1" );
+
+        var binary = BinarySync.encode( sync );
+        assertThat( binary.length ).isLessThan( Binder.json.marshal( sync ).length() );
+
+        var keys = new ArrayList<List<String>>();
+        var values = new ArrayList<Node.Value>();
+        assertThat( BinarySync.decode( binary, schema2, ( k, v ) -> {
+            keys.add( List.of( k ) );
+            values.add( v );
+        } ) ).isEqualTo( "id1" );
+
+        assertThat( keys ).containsExactly( List.of( "k1" ), List.of( "k1", "k2" ), List.of( "k1", "k3" ) );
+        assertThat( ( ( MockChild2 ) values.get( 0 ) ).vc ).isEqualTo( 20L );
+        assertThat( ( ( MockChild2 ) values.get( 0 ) ).sum ).isEqualTo( 0L );
+        assertThat( values.subList( 1, 3 ) ).containsExactly( new MockValue( -10 ), new MockValue() );
+    }
+
+    @Test
+    public void syncBinary() throws InterruptedException {
+        try( var master = new StatsDBMaster( schema3, StatsDBStorage.NULL );
+             var node = new StatsDBNode( schema3, new StatsDBTransportMock( master, true ) ) ) {
+
+            node.<MockChild1>update( "p1", p -> p.vc += 1 );
+            node.<MockChild2>update( "p1", "c2", c -> c.vc += 1 );
+            node.<MockValue>update( "p1", "c2", "c3", c -> c.v += 2 );
+            node.sync();
+
+            assertThat( master.<MockChild1>get( "p1" ).vc ).isEqualTo( 1 );
+            assertThat( master.<MockChild1>get( "p1" ).sum ).isEqualTo( 2 );
+            assertThat( master.<MockValue>get( "p1", "c2", "c3" ).v ).isEqualTo( 2 );
+
+            var threads = new ArrayList<Thread>();
+            for( var t = 0; t < 8; t++ ) {
+                var host = "host" + t;
+                threads.add( Thread.ofPlatform().start( () -> {
+                    for( var i = 0; i < 100; i++ ) {
+                        var data = new ArrayList<RemoteStatsDB.Sync.NodeIdNode>();
+                        data.add( new RemoteStatsDB.Sync.NodeIdNode( new NodeId( "p1", "c2", "c3" ), new Node( new MockValue( 1 ) ) ) );
+                        data.add( new RemoteStatsDB.Sync.NodeIdNode( new NodeId( "p1", "c2", host ), new Node( new MockValue( 1 ) ) ) );
+                        master.update( BinarySync.encode( new RemoteStatsDB.Sync( data, host + i ) ), host );
+                    }
+                } ) );
+            }
+            for( var thread : threads ) thread.join();
+
+            assertThat( master.<MockValue>get( "p1", "c2", "c3" ).v ).isEqualTo( 802 );
+            assertThat( master.<MockValue>get( "p1", "c2", "host0" ).v ).isEqualTo( 100 );
+            assertThat( master.<MockChild2>get( "p1", "c2" ).sum ).isEqualTo( 1602 );
+        }
+    }
+
     @Test
     public void calculatedValuesAfterRestart() {
         try( var masterStorage = new StatsDBStorageMongo( MONGO_FIXTURE.client(), "test" );
@@ -0,0 +1,98 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.concurrent;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MpmcRingBufferTest {
+    @Test
+    public void testOfferPoll() {
+        var buffer = new MpmcRingBuffer<Integer>( 4 );
+
+        assertThat( buffer.poll() ).isNull();
+        assertThat( buffer.offer( 1 ) ).isTrue();
+        assertThat( buffer.offer( 2 ) ).isTrue();
+        assertThat( buffer.offer( 3 ) ).isTrue();
+        assertThat( buffer.offer( 4 ) ).isTrue();
+        assertThat( buffer.offer( 5 ) ).isFalse();
+        assertThat( buffer.size() ).isEqualTo( 4 );
+
+        assertThat( buffer.poll() ).isEqualTo( 1 );
+        assertThat( buffer.offer( 5 ) ).isTrue();
+        assertThat( buffer.poll() ).isEqualTo( 2 );
+        assertThat( buffer.poll() ).isEqualTo( 3 );
+        assertThat( buffer.poll() ).isEqualTo( 4 );
+        assertThat( buffer.poll() ).isEqualTo( 5 );
+        assertThat( buffer.poll() ).isNull();
+        assertThat( buffer.isEmpty() ).isTrue();
+    }
+
+    @Test
+    public void testCapacity() {
+        assertThatThrownBy( () -> new MpmcRingBuffer<Integer>( 3 ) ).isInstanceOf( IllegalArgumentException.class );
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        var buffer = new MpmcRingBuffer<Integer>( 16 );
+        var received = ConcurrentHashMap.<Integer>newKeySet();
+        var count = new AtomicInteger();
+        int producers = 4;
+        int items = 10000;
+
+        var threads = new Thread[producers * 2];
+        for( var p = 0; p < producers; p++ ) {
+            int base = p * items;
+            threads[p] = new Thread( () -> {
+                for( var i = 0; i < items; i++ ) {
+                    while( !buffer.offer( base + i ) ) Thread.yield();
+                }
+            } );
+            threads[producers + p] = new Thread( () -> {
+                while( count.get() < producers * items ) {
+                    Integer value = buffer.poll();
+                    if( value != null ) {
+                        received.add( value );
+                        count.incrementAndGet();
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            } );
+        }
+
+        for( var thread : threads ) thread.start();
+        for( var thread : threads ) thread.join();
+
+        assertThat( received ).hasSize( producers * items );
+        assertThat( buffer.isEmpty() ).isTrue();
+    }
+}
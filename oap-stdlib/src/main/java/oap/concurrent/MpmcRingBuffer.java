@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.concurrent;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer/multi-consumer queue (Vyukov's array queue).
+ * <p>
+ * offer/poll never block and never allocate, offer returns false if the queue is full, poll returns null if it is empty.
+ */
+public class MpmcRingBuffer<T> {
+    private final int mask;
+    private final AtomicReferenceArray<T> buffer;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity power of 2
+     */
+    public MpmcRingBuffer( int capacity ) {
+        Preconditions.checkArgument( capacity > 0 && Integer.bitCount( capacity ) == 1, "capacity must be a power of 2" );
+
+        this.mask = capacity - 1;
+        this.buffer = new AtomicReferenceArray<>( capacity );
+        this.sequences = new AtomicLongArray( capacity );
+        for( int i = 0; i < capacity; i++ ) sequences.set( i, i );
+    }
+
+    public boolean offer( T element ) {
+        Preconditions.checkNotNull( element );
+
+        long position = tail.get();
+        while( true ) {
+            int index = ( int ) ( position & mask );
+            long diff = sequences.get( index ) - position;
+
+            if( diff == 0 ) {
+                if( tail.compareAndSet( position, position + 1 ) ) {
+                    buffer.lazySet( index, element );
+                    sequences.set( index, position + 1 );
+                    return true;
+                }
+                position = tail.get();
+            } else if( diff < 0 ) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    public T poll() {
+        long position = head.get();
+        while( true ) {
+            int index = ( int ) ( position & mask );
+            long diff = sequences.get( index ) - ( position + 1 );
+
+            if( diff == 0 ) {
+                if( head.compareAndSet( position, position + 1 ) ) {
+                    T element = buffer.get( index );
+                    buffer.lazySet( index, null );
+                    sequences.set( index, position + mask + 1 );
+                    return element;
+                }
+                position = head.get();
+            } else if( diff < 0 ) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * approximate under concurrent modification
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return ( int ) Math.max( 0, Math.min( size, capacity() ) );
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
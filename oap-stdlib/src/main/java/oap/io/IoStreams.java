@@ -230,33 +230,50 @@ public class IoStreams {
                 ? new SafeFileOutputStream( path, options.append, options.encoding )
                 : new FileOutputStream( path.toFile(), options.append );
 
-            OutputStream fos =
-                options.bufferSize > 0 && options.encoding != Encoding.GZIP
-                    ? new BufferedOutputStream( outputStream, options.bufferSize )
-                    : outputStream;
-            return switch( options.encoding ) {
-                case GZIP -> GZIP_HADOOP_STREAMS.createOutputStream( fos );
-                case BZIP2 -> {
-                    OutputStream os = BZIP2_HADOOP_STREAMS.createOutputStream( fos );
-                    yield options.bufferSize > 0 ? new BufferedOutputStream( os, options.bufferSize ) : os;
-                }
-                case ZIP -> {
-                    ZipOutputStream zip = new ZipOutputStream( fos );
-                    zip.putNextEntry( new ZipEntry( path.getFileName().toString() ) );
-                    yield zip;
-                }
-                case LZ4 -> LZ4_HADOOP_STREAMS.createOutputStream( fos );
-                case ZSTD -> {
-                    OutputStream os = ZSTD_HADOOP_STREAMS.createOutputStream( fos );
-                    yield options.bufferSize > 0 ? new BufferedOutputStream( os, options.bufferSize ) : os;
-                }
-                case PLAIN, ORC, PARQUET, AVRO -> fos;
-            };
+            return encoded( outputStream, options.encoding, options.bufferSize, path.getFileName().toString() );
         } catch( IOException e ) {
             throw Throwables.propagate( e );
         }
     }
 
+    /**
+     * @param stream is closed with the returned stream
+     */
+    public static OutputStream out( OutputStream stream, Encoding encoding, int bufferSize ) throws oap.io.IOException {
+        Preconditions.checkArgument( encoding != Encoding.ZIP, "zip needs an entry name" );
+
+        try {
+            return encoded( stream, encoding, bufferSize, null );
+        } catch( IOException e ) {
+            throw Throwables.propagate( e );
+        }
+    }
+
+    private static OutputStream encoded( OutputStream outputStream, Encoding encoding, int bufferSize, String zipEntry ) throws IOException {
+        OutputStream fos =
+            bufferSize > 0 && encoding != Encoding.GZIP
+                ? new BufferedOutputStream( outputStream, bufferSize )
+                : outputStream;
+        return switch( encoding ) {
+            case GZIP -> GZIP_HADOOP_STREAMS.createOutputStream( fos );
+            case BZIP2 -> {
+                OutputStream os = BZIP2_HADOOP_STREAMS.createOutputStream( fos );
+                yield bufferSize > 0 ? new BufferedOutputStream( os, bufferSize ) : os;
+            }
+            case ZIP -> {
+                ZipOutputStream zip = new ZipOutputStream( fos );
+                zip.putNextEntry( new ZipEntry( zipEntry ) );
+                yield zip;
+            }
+            case LZ4 -> LZ4_HADOOP_STREAMS.createOutputStream( fos );
+            case ZSTD -> {
+                OutputStream os = ZSTD_HADOOP_STREAMS.createOutputStream( fos );
+                yield bufferSize > 0 ? new BufferedOutputStream( os, bufferSize ) : os;
+            }
+            case PLAIN, ORC, PARQUET, AVRO -> fos;
+        };
+    }
+
     public static InputStream in( Path path, Encoding encoding ) throws oap.io.IOException {
         return in( path, encoding, DEFAULT_BUFFER );
     }
@@ -142,6 +142,16 @@ public class MemoryClassLoaderJava extends ClassLoader implements Closeable {
         return res;
     }
 
+    /**
+     * @return bytecode of the compiled class, null if the class is already loaded or was not compiled
+     */
+    public byte[] bytecode( String classname ) {
+        synchronized( manager ) {
+            var mc = manager.map.get( classname );
+            return mc != null ? mc.toByteArray() : null;
+        }
+    }
+
     @Override
     protected Class<?> findClass( String name ) throws ClassNotFoundException {
         synchronized( manager ) {
@@ -147,6 +147,21 @@ public class FileSystemTest extends Fixtures {
         }
     }
 
+    @Test
+    public void testCopyServerSide() {
+        Path path = testDirectoryFixture.testPath( "my-file.txt" );
+        Files.write( path, "test string", ContentWriter.ofString() );
+
+        try( FileSystem fileSystem = new FileSystem( getFileSystemConfiguration() ) ) {
+            s3mockFixture.uploadFile( TEST_BUCKET, "logs/file.txt.uploading", path, Map.of( "test-tag", "tag-val" ) );
+
+            fileSystem.copy( new CloudURI( "s3://" + TEST_BUCKET + "/logs/file.txt.uploading" ), new CloudURI( "s3://" + TEST_BUCKET + "/logs/file.txt" ) );
+
+            assertThat( s3mockFixture.readFile( TEST_BUCKET, "logs/file.txt", ofString(), Encoding.PLAIN ) ).isEqualTo( "test string" );
+            assertThat( s3mockFixture.readTags( TEST_BUCKET, "logs/file.txt" ) ).contains( entry( "test-tag", "tag-val" ) );
+        }
+    }
+
     @NotNull
     private FileSystemConfiguration getFileSystemConfiguration() {
         return s3mockFixture.getFileSystemConfiguration( TEST_BUCKET );
@@ -151,6 +151,29 @@ public class FileSystem implements AutoCloseable {
         }
     }
 
+    /**
+     * server-side copy if both uris are in the same cloud, the object keeps its tags.
+     * Otherwise the object is downloaded and uploaded without tags.
+     */
+    public CompletableFuture<Void> copyAsync( CloudURI source, CloudURI destination ) {
+        if( !source.scheme.equals( destination.scheme ) ) return copyAsync( source, destination, Map.of() );
+
+        log.debug( "copy {} to {}", source, destination );
+
+        return getCloudApi( source ).copyAsync( source, destination );
+    }
+
+    public void copy( CloudURI source, CloudURI destination ) throws CloudException {
+        if( !source.scheme.equals( destination.scheme ) ) {
+            copy( source, destination, Map.of() );
+            return;
+        }
+
+        log.debug( "copy {} to {}", source, destination );
+
+        getCloudApi( source ).copy( source, destination );
+    }
+
     public CompletableFuture<? extends PageSet<? extends StorageItem>> listAsync( CloudURI path, ListOptions listOptions ) {
         return getCloudApi( path ).listAsync( path, listOptions );
     }
@@ -14,6 +14,7 @@ import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
@@ -119,7 +120,9 @@ public class FileSystemCloudApiLocalFs implements FileSystemCloudApi {
         Preconditions.checkArgument( source.scheme.equals( destination.scheme ) );
 
         try {
-            Files.copy( getPath( source ), getPath( destination ) );
+            Path target = getPath( destination );
+            Files.createDirectories( target.getParent() );
+            Files.copy( getPath( source ), target, StandardCopyOption.REPLACE_EXISTING );
 
             return CompletableFuture.completedFuture( null );
         } catch( IOException e ) {
@@ -139,7 +142,10 @@ public class FileSystemCloudApiLocalFs implements FileSystemCloudApi {
     @Override
     public OutputStream getOutputStream( CloudURI path, Map<String, String> tags ) throws CloudException {
         try {
-            return Files.newOutputStream( getPath( path ) );
+            Path file = getPath( path );
+            Files.createDirectories( file.getParent() );
+
+            return Files.newOutputStream( file );
         } catch( IOException e ) {
             throw new CloudException( e );
         }
@@ -25,6 +25,9 @@
 package oap.storage;
 
 import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
 import lombok.SneakyThrows;
 import lombok.ToString;
 import oap.concurrent.scheduler.ScheduledExecutorService;
@@ -44,9 +47,17 @@ import org.slf4j.Logger;
 import java.io.Closeable;
 import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiFunction;
@@ -70,6 +81,9 @@ public class DirectoryPersistence<I, T> implements Closeable {
     private String uniqueName = Cuid.UNIQUE.next();
     private volatile ScheduledExecutorService scheduler;
     private volatile long lastExecuted = -1;
+    private int loadThreads = 1;
+    private final AtomicLong loadFound = new AtomicLong();
+    private final AtomicLong loadLoaded = new AtomicLong();
 
     public DirectoryPersistence( Path path, long fsync, int version, List<Migration> migrations, MemoryStorage<I, T> storage ) {
         this( path, plainResolve(), fsync, version, migrations, storage );
@@ -88,6 +102,10 @@ public class DirectoryPersistence<I, T> implements Closeable {
         this.migrations = migrations;
         this.storage = storage;
         this.log = getLogger( toString() );
+
+        var tags = Tags.of( "path", path.toString() );
+        Metrics.gauge( "oap_storage_load", tags.and( "type", "found" ), loadFound );
+        Metrics.gauge( "oap_storage_load", tags.and( "type", "loaded" ), loadLoaded );
     }
 
     public static <T> BiFunction<Path, T, Path> plainResolve() {
@@ -102,63 +120,127 @@ public class DirectoryPersistence<I, T> implements Closeable {
         } );
     }
 
+    /**
+     * files are parsed and migrated on loadThreads threads, 1 (default) - in the caller thread.
+     * With more than one thread the migrations run concurrently on different files and must not share mutable state.
+     * The progress (oap_storage_load found/loaded gauges) counts files, an object found in several files is counted once per file.
+     */
+    public DirectoryPersistence<I, T> withLoadThreads( int loadThreads ) {
+        this.loadThreads = loadThreads;
+
+        return this;
+    }
+
     @SneakyThrows
     private void load() {
-        log.debug( "[{}] loading data from {}", uniqueName, path );
+        log.debug( "[{}] loading data from {} threads {}", uniqueName, path, loadThreads );
 
         Files.ensureDirectory( path );
+
+        loadLoaded.set( 0 );
+
+        // collected first, load migrates the files in place
         List<Path> paths = Files.deepCollect( path, p -> p.getFileName().toString().endsWith( ".json" ) );
         log.debug( "[{}] found {} files", uniqueName, paths.size() );
+        loadFound.set( paths.size() );
+
+        var error = new AtomicReference<Throwable>();
+        Set<I> moved = ConcurrentHashMap.newKeySet();
+        Queue<Path> obsolete = new ConcurrentLinkedQueue<>();
+        ExecutorService executor = loadThreads > 1
+            ? oap.concurrent.Executors.newFixedBlockingThreadPool( loadThreads,
+            new ThreadFactoryBuilder().setNameFormat( uniqueName + "-load-%d" ).build() )
+            : null;
+
+        try {
+            for( var file : paths ) {
+                if( error.get() != null ) break;
+
+                if( executor == null ) load( file, moved, obsolete );
+                else executor.execute( () -> {
+                    try {
+                        load( file, moved, obsolete );
+                    } catch( Throwable e ) {
+                        error.compareAndSet( null, e );
+                    }
+                } );
+            }
+        } finally {
+            if( executor != null ) {
+                executor.shutdown();
+                executor.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+            }
+        }
+
+        if( error.get() != null ) throw error.get();
+
+        // written once every copy is merged, so the latest copy of an object wins on disk
+        Set<Path> written = new HashSet<>();
+        for( var id : moved ) {
+            var metadata = storage.memory.data.get( id );
+            persist( id, metadata );
+            written.add( pathFor( metadata.object ) );
+        }
+        for( var file : obsolete ) if( !written.contains( file ) ) Files.delete( file );
 
-        for( Path file : paths ) {
-            Persisted persisted = Persisted.valueOf( file );
+        log.info( "[{}] {} object(s) loaded.", uniqueName, storage.size() );
+    }
 
-            for( long version = persisted.version; version < this.version; version++ ) file = migration( file );
+    /**
+     * every file is migrated on its own, the result does not depend on the order of the files.
+     * If an object is found in more than one file, the latest modified one is kept.
+     * Nothing is written to the final paths here: a file in the wrong place is only collected to moved/obsolete.
+     */
+    @SneakyThrows
+    private void load( Path file, Set<I> moved, Queue<Path> obsolete ) {
+        Persisted persisted = Persisted.valueOf( file );
 
-            var metadata = Binder.json.unmarshal( new TypeRef<Metadata<T>>() {}, file ).orElseThrow();
+        for( long version = persisted.version; version < this.version; version++ ) file = migration( file );
 
-            Path newPath = pathFor( metadata.object );
-            var id = storage.identifier.get( metadata.object );
-            if( !newPath.equals( file ) ) {
-                log.trace( "[{}] moving {} => {}", uniqueName, file, newPath );
-                Files.delete( file );
-                persist( id, metadata );
-            }
+        var metadata = Binder.json.unmarshal( new TypeRef<Metadata<T>>() {}, file ).orElseThrow();
 
-            storage.memory.put( id, metadata );
+        Path newPath = pathFor( metadata.object );
+        var id = storage.identifier.get( metadata.object );
+        if( !newPath.equals( file ) ) {
+            log.trace( "[{}] moving {} => {}", uniqueName, file, newPath );
+            moved.add( id );
+            obsolete.add( file );
         }
 
-        log.info( "[{}] {} object(s) loaded.", uniqueName, storage.size() );
+        storage.memory.data.merge( id, metadata, ( current, m ) -> m.modified > current.modified ? m : current );
+
+        var loaded = loadLoaded.incrementAndGet();
+        if( loaded % 100000 == 0 ) log.info( "[{}] {} of {} file(s) loaded...", uniqueName, loaded, loadFound.get() );
     }
 
+    /**
+     * called by load only, under the lock
+     */
     @SneakyThrows
     private Path migration( Path path ) {
-        return synchronizedOn( lock, () -> {
-            JsonMetadata oldV = new JsonMetadata( Binder.json.unmarshal( new TypeRef<Map<String, Object>>() {}, path )
-                .orElseThrow() );
-
-            Persisted fn = Persisted.valueOf( path );
+        JsonMetadata oldV = new JsonMetadata( Binder.json.unmarshal( new TypeRef<Map<String, Object>>() {}, path )
+            .orElseThrow() );
 
-            log.debug( "[{}] migration {}", uniqueName, fn );
+        Persisted fn = Persisted.valueOf( path );
 
-            var migration = Lists.find( migrations, m -> m.fromVersion() == fn.version )
-                .orElseThrow( () -> new MigrationException( "migration from version " + fn + " not found" ) );
+        log.debug( "[{}] migration {}", uniqueName, fn );
 
+        var migration = Lists.find( migrations, m -> m.fromVersion() == fn.version )
+            .orElseThrow( () -> new MigrationException( "migration from version " + fn + " not found" ) );
 
-            Path name = fn.toVersion( migration.fromVersion() + 1 );
-            JsonMetadata newV = migration.run( oldV );
 
-            long writeLen = -1;
-            while( name.toFile().length() != writeLen )
-                try( var out = new CountingOutputStream( IoStreams.out( name, PLAIN, DEFAULT_BUFFER, false, true ) ) ) {
-                    Binder.json.marshal( out, newV.underlying );
-                    writeLen = out.getCount();
-                }
+        Path name = fn.toVersion( migration.fromVersion() + 1 );
+        JsonMetadata newV = migration.run( oldV );
 
-            Files.delete( path );
-            return name;
-        } );
+        long writeLen = -1;
+        while( name.toFile().length() != writeLen )
+            try( var out = new CountingOutputStream( IoStreams.out( name, PLAIN, DEFAULT_BUFFER, false, true ) ) ) {
+                Binder.json.marshal( out, newV.underlying );
+                writeLen = out.getCount();
+            }
 
+        Files.delete( path );
+        return name;
     }
 
     private void fsync() {
@@ -28,32 +28,66 @@ import lombok.SneakyThrows;
 import oap.concurrent.scheduler.PeriodicScheduled;
 import oap.concurrent.scheduler.Scheduled;
 import oap.concurrent.scheduler.Scheduler;
+import oap.io.Closeables;
+import oap.io.Files;
 import oap.json.Binder;
+import oap.json.JsonException;
 import oap.reflect.TypeRef;
 import oap.util.Lists;
+import oap.util.Pair;
 import org.slf4j.Logger;
 
+import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static oap.concurrent.Threads.synchronizedOn;
 import static org.slf4j.LoggerFactory.getLogger;
 
+/**
+ * Keeps the storage in one json file.
+ * <p>
+ * In the write-ahead log mode fsync appends the changed objects to {@code <path>.wal}, one json per line,
+ * and rewrites the snapshot only when the log grows bigger than the storage. Load replays the snapshot and then the log,
+ * whatever the mode is, and replaces both with a new snapshot.
+ * A torn last record is dropped, a broken record in the middle of the log fails the load and both files are kept.
+ */
 public class FilePersistence<I, T> implements Closeable {
+    static final int MIN_COMPACTION_RECORDS = 10000;
+
     private final long fsync;
     private final MemoryStorage<I, T> storage;
     private final Lock lock = new ReentrantLock();
     private final Logger log;
     private PeriodicScheduled scheduled;
     private final Path path;
+    private final boolean wal;
+    private final Path walPath;
+    private FileOutputStream walStream;
+    private Writer walWriter;
+    private long walRecords;
 
 
     public FilePersistence( Path path, long fsync, MemoryStorage<I, T> storage ) {
+        this( path, fsync, false, storage );
+    }
+
+    /**
+     * @param wal write-ahead log mode
+     */
+    public FilePersistence( Path path, long fsync, boolean wal, MemoryStorage<I, T> storage ) {
         this.path = path;
         this.fsync = fsync;
+        this.wal = wal;
+        this.walPath = path.resolveSibling( path.getFileName() + ".wal" );
         this.storage = storage;
         this.log = getLogger( toString() );
     }
@@ -70,34 +104,111 @@ public class FilePersistence<I, T> implements Closeable {
                 I id = storage.identifier.get( m.object );
                 storage.memory.put( id, m );
             } );
+            // the log is replayed even if wal is off now, it is newer than the snapshot
+            if( java.nio.file.Files.exists( walPath ) ) {
+                replay();
+                // a torn tail must not be glued to the next record
+                snapshot();
+            }
             log.info( storage.size() + " object(s) loaded." );
         } );
     }
 
+    /**
+     * only the last record can be torn by a crash, a broken record followed by others fails the load and the log is kept
+     */
+    @SneakyThrows
+    private void replay() {
+        try( BufferedReader reader = java.nio.file.Files.newBufferedReader( walPath, UTF_8 ) ) {
+            String line;
+            JsonException torn = null;
+            while( ( line = reader.readLine() ) != null ) {
+                if( line.isEmpty() ) continue;
+                if( torn != null )
+                    throw new StorageException( walPath + ": corrupted record " + walRecords + " is not the last one", torn );
+
+                Metadata<T> m;
+                try {
+                    m = Binder.json.unmarshal( new TypeRef<Metadata<T>>() {}, line );
+                } catch( JsonException e ) {
+                    torn = e;
+                    continue;
+                }
+
+                I id = storage.identifier.get( m.object );
+                if( m.isDeleted() ) storage.memory.removePermanently( id );
+                else storage.memory.put( id, m );
+                walRecords++;
+            }
+            if( torn != null ) log.warn( "{}: torn record at {} is ignored", walPath, walRecords );
+        }
+        log.debug( "{} record(s) replayed from {}", walRecords, walPath );
+    }
+
     @SneakyThrows
-    private synchronized void fsync( long last ) {
+    synchronized void fsync( long last ) {
         synchronizedOn( lock, () -> {
             log.trace( "fsync: last: {}, objects in storage: {}", last, storage.size() );
 
             var updates = storage.memory.selectUpdatedSince( last ).toList();
             if( !updates.isEmpty() ) {
-                updates.forEach( p -> {
-                    if( p._2.isDeleted() ) storage.memory.removePermanently( p._1 );
-                } );
-                List<Metadata<T>> ms = storage.memory.selectLive().mapToObj( ( id, m ) -> m ).toList();
-                log.debug( "fsync storing {} to {}...", ms.size(), path );
+                if( wal ) {
+                    append( updates );
+                    if( walRecords <= Math.max( MIN_COMPACTION_RECORDS, storage.size() ) ) return;
+                } else {
+                    updates.forEach( p -> {
+                        if( p._2.isDeleted() ) storage.memory.removePermanently( p._1 );
+                    } );
+                }
 
-                Binder.json.marshal( path, ms );
-
-                log.debug( "fsync storing to {}... done", path );
+                snapshot();
             }
         } );
     }
 
+    private void snapshot() {
+        List<Metadata<T>> ms = storage.memory.selectLive().mapToObj( ( id, m ) -> m ).toList();
+        log.debug( "fsync storing {} to {}...", ms.size(), path );
+
+        Binder.json.marshal( path, ms );
+
+        closeWal();
+        Files.delete( walPath );
+        walRecords = 0;
+
+        log.debug( "fsync storing to {}... done", path );
+    }
+
+    private void append( List<Pair<I, Metadata<T>>> updates ) throws IOException {
+        if( walWriter == null ) {
+            Files.ensureFile( walPath );
+            walStream = new FileOutputStream( walPath.toFile(), true );
+            walWriter = new OutputStreamWriter( walStream, UTF_8 );
+        }
+
+        for( var p : updates ) {
+            walWriter.write( Binder.json.marshal( p._2 ) );
+            walWriter.write( '\n' );
+            if( p._2.isDeleted() ) storage.memory.removePermanently( p._1 );
+        }
+        walWriter.flush();
+        walStream.getFD().sync();
+
+        walRecords += updates.size();
+        log.trace( "fsync appended {} record(s) to {}, total {}", updates.size(), walPath, walRecords );
+    }
+
+    private void closeWal() {
+        Closeables.close( walWriter );
+        walWriter = null;
+        walStream = null;
+    }
+
     @Override
     public void close() {
         synchronizedOn( lock, () -> Scheduled.cancel( scheduled ) );
         fsync( scheduled.lastExecuted() );
+        synchronizedOn( lock, this::closeWal );
     }
 
     @Override
@@ -12,4 +12,8 @@ public class StorageException extends RuntimeException {
     public StorageException( String message ) {
         super( message );
     }
+
+    public StorageException( String message, Throwable cause ) {
+        super( message, cause );
+    }
 }
@@ -26,6 +26,7 @@ package oap.storage;
 
 import lombok.extern.slf4j.Slf4j;
 import oap.id.Identifier;
+import oap.io.Files;
 import oap.json.TypeIdFactory;
 import oap.storage.migration.JsonMetadata;
 import oap.storage.migration.Migration;
@@ -37,6 +38,7 @@ import org.testng.annotations.Test;
 import java.nio.file.Path;
 import java.util.List;
 
+import static oap.io.content.ContentWriter.ofString;
 import static oap.storage.Storage.Lock.SERIALIZED;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -75,6 +77,29 @@ public class DirectoryPersistenceMigrationTest extends Fixtures {
         assertThat( path.resolve( "21.v2.json" ) ).exists();
     }
 
+    @Test
+    public void migrationParallel() {
+        Path path = testDirectoryFixture.testPath( "data" );
+        for( var i = 0; i < 500; i++ )
+            Files.write( path.resolve( i + "-.json" ), """
+                { "object": { "idx": "%d-", "in": { "s": "s%d" } }, "object:type": "oap.storage.Bean", "modified": 1 }
+                """.formatted( i, i ), ofString() );
+
+        var storage = new MemoryStorage<>( Identifier.<Bean>forId( b -> b.id ).build(), SERIALIZED );
+        try( var persistence = new DirectoryPersistence<>( path, 10, 2, List.of(
+            new MigrationV1(),
+            new MigrationV2()
+        ), storage ).withLoadThreads( 8 ) ) {
+            persistence.preStart();
+            assertThat( storage.size() ).isEqualTo( 500 );
+            assertThat( storage.get( "123-1" ) ).contains( new Bean( "123-1", "s123" ) );
+        }
+
+        assertThat( Files.wildcard( path, "*.json" ) ).hasSize( 500 );
+        assertThat( Files.wildcard( path, "*.v2.json" ) ).hasSize( 500 );
+        assertThat( path.resolve( "123-1.v2.json" ) ).exists();
+    }
+
     @Test
     public void storeWithVersion() {
         Path path = testDirectoryFixture.testPath( "data" );
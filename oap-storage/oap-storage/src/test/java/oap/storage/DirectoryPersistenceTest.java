@@ -26,6 +26,7 @@ package oap.storage;
 
 import lombok.extern.slf4j.Slf4j;
 import oap.id.Identifier;
+import oap.io.Files;
 import oap.json.TypeIdFactory;
 import oap.testng.Fixtures;
 import oap.testng.TestDirectoryFixture;
@@ -34,6 +35,7 @@ import org.testng.annotations.Test;
 import java.nio.file.Path;
 import java.util.function.BiFunction;
 
+import static oap.io.content.ContentWriter.ofString;
 import static oap.storage.Storage.Lock.SERIALIZED;
 import static oap.testng.Asserts.assertEventually;
 import static oap.util.Lists.empty;
@@ -86,6 +88,62 @@ public class DirectoryPersistenceTest extends Fixtures {
         }
     }
 
+    @Test
+    public void loadParallel() {
+        Path path = testDirectoryFixture.testPath( "data" );
+        var storage1 = new MemoryStorage<>( Identifier.<Bean>forId( o -> o.id, ( o, id ) -> o.id = id )
+            .suggestion( o -> o.s )
+            .build(), SERIALIZED );
+        try( var persistence = new DirectoryPersistence<>( path, ( p, o ) -> p.resolve( o.s ), 50, 0, empty(), storage1 ) ) {
+            persistence.preStart();
+            for( var i = 0; i < 1000; i++ ) storage1.store( new Bean( String.valueOf( i ), "s" + i % 10 ) );
+        }
+
+        for( var threads : new int[] { 1, 8 } ) {
+            var storage = new MemoryStorage<>( Identifier.<Bean>forId( o -> o.id, ( o, id ) -> o.id = id )
+                .suggestion( o -> o.s )
+                .build(), SERIALIZED );
+            try( var persistence = new DirectoryPersistence<>( path, ( p, o ) -> p.resolve( o.s ), 50, 0, empty(), storage )
+                .withLoadThreads( threads ) ) {
+                persistence.preStart();
+                assertThat( storage.size() ).isEqualTo( 1000 );
+                assertThat( storage.get( "123" ) ).contains( new Bean( "123", "s3" ) );
+            }
+        }
+    }
+
+    @Test
+    public void loadDuplicates() {
+        for( var threads : new int[] { 1, 8 } )
+            for( var newerMoved : new boolean[] { false, true } ) {
+                Path path = testDirectoryFixture.testPath( "data-" + threads + "-" + newerMoved );
+                for( var i = 0; i < 100; i++ ) {
+                    Files.write( path.resolve( "old/" + i + ".json" ), bean( i, "old", newerMoved ? 2 : 1 ), ofString() );
+                    Files.write( path.resolve( i + ".json" ), bean( i, "new", newerMoved ? 1 : 2 ), ofString() );
+                }
+                var expected = newerMoved ? "old" : "new";
+
+                var storage = new MemoryStorage<>( Identifier.<Bean>forId( o -> o.id, ( o, id ) -> o.id = id )
+                    .suggestion( o -> o.s )
+                    .build(), SERIALIZED );
+                try( var persistence = new DirectoryPersistence<>( path, DirectoryPersistence.plainResolve(), 60000, 0, empty(), storage )
+                    .withLoadThreads( threads ) ) {
+                    persistence.preStart();
+
+                    assertThat( storage.get( "42" ) ).contains( new Bean( "42", expected ) );
+                    for( var i = 0; i < 100; i++ )
+                        assertThat( Files.readString( path.resolve( i + ".json" ) ) ).contains( "\"" + expected + "\"" );
+                    assertThat( Files.wildcard( path, "old/*.json" ) ).isEmpty();
+                }
+            }
+    }
+
+    private static String bean( int id, String s, long modified ) {
+        return """
+            { "object": { "id": "%d", "s": "%s" }, "object:type": "oap.storage.Bean", "modified": %d }
+            """.formatted( id, s, modified );
+    }
+
     @Test
     public void persistFsLayout() {
         Path path = testDirectoryFixture.testPath( "data" );
@@ -0,0 +1,79 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.storage;
+
+import oap.id.Identifier;
+import oap.json.TypeIdFactory;
+import oap.testng.Fixtures;
+import oap.testng.TestDirectoryFixture;
+import oap.util.Dates;
+import org.joda.time.DateTimeUtils;
+import org.testng.annotations.Test;
+
+import static oap.benchmark.Benchmark.benchmark;
+import static oap.storage.Storage.Lock.SERIALIZED;
+
+/**
+ * fsync cost of one changed object against the storage size, snapshot vs write-ahead log
+ */
+@Test( enabled = false )
+public class FilePersistencePerformance extends Fixtures {
+    public static final int SAMPLES = 20;
+
+    static {
+        TypeIdFactory.register( Bean.class, Bean.class.getName() );
+    }
+
+    private final TestDirectoryFixture testDirectoryFixture;
+
+    public FilePersistencePerformance() {
+        testDirectoryFixture = fixture( new TestDirectoryFixture() );
+    }
+
+    @Test( enabled = false )
+    public void fsync() {
+        for( var size : new int[] { 10_000, 100_000, 500_000 } ) {
+            fsync( size, false );
+            fsync( size, true );
+        }
+    }
+
+    private void fsync( int size, boolean wal ) {
+        var path = testDirectoryFixture.testPath( "storage-" + size + "-" + wal + ".json.gz" );
+        var storage = new MemoryStorage<>( Identifier.<Bean>forId( b -> b.id ).build(), SERIALIZED );
+        for( var i = 0; i < size; i++ ) storage.store( new Bean( String.valueOf( i ) ) );
+
+        try( var persistence = new FilePersistence<>( path, Dates.h( 1 ), wal, storage ) ) {
+            persistence.preStart();
+            persistence.fsync( 0 );
+
+            benchmark( ( wal ? "wal" : "snapshot" ) + "-" + size, SAMPLES, i -> {
+                long last = DateTimeUtils.currentTimeMillis() - 1;
+                storage.store( new Bean( String.valueOf( i % size ), "v" + i ) );
+                persistence.fsync( last );
+            } ).experiments( 3 ).warming( 2 ).run();
+        }
+    }
+}
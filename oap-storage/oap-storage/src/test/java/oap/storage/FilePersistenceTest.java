@@ -29,13 +29,18 @@ import oap.json.TypeIdFactory;
 import oap.testng.Fixtures;
 import oap.testng.SystemTimerFixture;
 import oap.testng.TestDirectoryFixture;
+import oap.util.Dates;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
 
+import static java.nio.file.StandardOpenOption.APPEND;
 import static oap.storage.Storage.Lock.SERIALIZED;
 import static oap.testng.Asserts.assertEventually;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class FilePersistenceTest extends Fixtures {
     static {
@@ -77,5 +82,127 @@ public class FilePersistenceTest extends Fixtures {
         }
     }
 
+    @Test
+    public void walPersist() throws IOException {
+        Path path = testDirectoryFixture.testPath( "wal-storage.json.gz" );
+        Path walPath = testDirectoryFixture.testPath( "wal-storage.json.gz.wal" );
+        var storage1 = new MemoryStorage<>( Identifier.<Bean>forId( b -> b.id ).build(), SERIALIZED );
+        try( var persistence = new FilePersistence<>( path, 10, true, storage1 ) ) {
+            persistence.preStart();
+            storage1.store( new Bean( "1" ) );
+            storage1.store( new Bean( "2" ) );
+            storage1.store( new Bean( "1", "bbb" ) );
+            storage1.delete( "2" );
+        }
+
+        assertThat( path ).doesNotExist();
+        assertThat( walPath ).exists();
+
+        // crash in the middle of the record
+        java.nio.file.Files.writeString( walPath, "{\"modified\":1", APPEND );
+
+        var storage2 = new MemoryStorage<>( Identifier.<Bean>forId( b -> b.id ).build(), SERIALIZED );
+        try( var persistence = new FilePersistence<>( path, 10, true, storage2 ) ) {
+            persistence.preStart();
+            assertThat( storage2.select() ).containsExactly( new Bean( "1", "bbb" ) );
+        }
+    }
+
+    @Test
+    public void walTornTailThenUpdates() throws IOException {
+        Path path = testDirectoryFixture.testPath( "wal-torn.json.gz" );
+        Path walPath = testDirectoryFixture.testPath( "wal-torn.json.gz.wal" );
+        var storage1 = new MemoryStorage<>( Identifier.<Bean>forId( b -> b.id ).build(), SERIALIZED );
+        try( var persistence = new FilePersistence<>( path, 10, true, storage1 ) ) {
+            persistence.preStart();
+            storage1.store( new Bean( "1" ) );
+        }
+
+        java.nio.file.Files.writeString( walPath, "{\"modified\":1", APPEND );
+
+        var storage2 = new MemoryStorage<>( Identifier.<Bean>forId( b -> b.id ).build(), SERIALIZED );
+        try( var persistence = new FilePersistence<>( path, 10, true, storage2 ) ) {
+            persistence.preStart();
+            storage2.store( new Bean( "2" ) );
+            storage2.store( new Bean( "1", "bbb" ) );
+        }
+
+        var storage3 = new MemoryStorage<>( Identifier.<Bean>forId( b -> b.id ).build(), SERIALIZED );
+        try( var persistence = new FilePersistence<>( path, 10, true, storage3 ) ) {
+            persistence.preStart();
+            assertThat( storage3.select() ).containsExactlyInAnyOrder( new Bean( "1", "bbb" ), new Bean( "2" ) );
+        }
+    }
+
+    @Test
+    public void walCorruptedRecordInTheMiddle() throws IOException {
+        Path path = testDirectoryFixture.testPath( "wal-corrupted.json.gz" );
+        Path walPath = testDirectoryFixture.testPath( "wal-corrupted.json.gz.wal" );
+        var storage1 = new MemoryStorage<>( Identifier.<Bean>forId( b -> b.id ).build(), SERIALIZED );
+        try( var persistence = new FilePersistence<>( path, 10, true, storage1 ) ) {
+            persistence.preStart();
+            storage1.store( new Bean( "1" ) );
+        }
+
+        List<String> records = java.nio.file.Files.readAllLines( walPath );
+        java.nio.file.Files.write( walPath, List.of( records.get( 0 ), "{\"modified\":1", records.get( 0 ) ) );
+
+        var storage2 = new MemoryStorage<>( Identifier.<Bean>forId( b -> b.id ).build(), SERIALIZED );
+        var persistence = new FilePersistence<>( path, 10, true, storage2 );
+        assertThatThrownBy( persistence::preStart )
+            .isInstanceOf( StorageException.class )
+            .hasMessageContaining( "corrupted record 1" );
+
+        assertThat( walPath ).exists();
+        assertThat( java.nio.file.Files.readAllLines( walPath ) ).hasSize( 3 );
+    }
+
+    @Test
+    public void walReplayedWithWalOff() {
+        Path path = testDirectoryFixture.testPath( "wal-off.json.gz" );
+        Path walPath = testDirectoryFixture.testPath( "wal-off.json.gz.wal" );
+        var storage1 = new MemoryStorage<>( Identifier.<Bean>forId( b -> b.id ).build(), SERIALIZED );
+        try( var persistence = new FilePersistence<>( path, 10, true, storage1 ) ) {
+            persistence.preStart();
+            storage1.store( new Bean( "1" ) );
+        }
+
+        assertThat( walPath ).exists();
+
+        var storage2 = new MemoryStorage<>( Identifier.<Bean>forId( b -> b.id ).build(), SERIALIZED );
+        try( var persistence = new FilePersistence<>( path, 10, storage2 ) ) {
+            persistence.preStart();
+            assertThat( storage2.select() ).containsExactly( new Bean( "1" ) );
+        }
+
+        assertThat( walPath ).doesNotExist();
+        assertThat( path ).exists();
+    }
+
+    @Test
+    public void walCompaction() {
+        Path path = testDirectoryFixture.testPath( "wal-compaction.json.gz" );
+        Path walPath = testDirectoryFixture.testPath( "wal-compaction.json.gz.wal" );
+        var storage1 = new MemoryStorage<>( Identifier.<Bean>forId( b -> b.id ).build(), SERIALIZED );
+        try( var persistence = new FilePersistence<>( path, Dates.h( 1 ), true, storage1 ) ) {
+            persistence.preStart();
+            for( var i = 0; i <= FilePersistence.MIN_COMPACTION_RECORDS; i++ ) storage1.store( new Bean( String.valueOf( i ) ) );
+            persistence.fsync( 0 );
+            assertThat( path ).doesNotExist();
+
+            // the log is bigger than the storage
+            for( var i = 0; i <= FilePersistence.MIN_COMPACTION_RECORDS; i++ ) storage1.store( new Bean( String.valueOf( i ), "bbb" ) );
+        }
+
+        assertThat( path ).exists();
+        assertThat( walPath ).doesNotExist();
+
+        var storage2 = new MemoryStorage<>( Identifier.<Bean>forId( b -> b.id ).build(), SERIALIZED );
+        try( var persistence = new FilePersistence<>( path, 10, true, storage2 ) ) {
+            persistence.preStart();
+            assertThat( storage2.size() ).isEqualTo( FilePersistence.MIN_COMPACTION_RECORDS + 1 );
+        }
+    }
+
 
 }